@@ -54,8 +54,9 @@ package com.efortin.frozenbubble;
 
 import org.gsanson.frozenbubble.Freile;
 import org.gsanson.frozenbubble.Freile.eventEnum;
+import org.gsanson.frozenbubble.Opponent;
 import org.jfedor.frozenbubble.FrozenGame;
-import org.jfedor.frozenbubble.GameScreen.gameEnum;
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
 
 import android.os.Looper;
 import android.view.KeyEvent;
@@ -64,7 +65,7 @@ public class ComputerAI extends Thread implements Freile.OpponentListener {
   private int action;
   private boolean running;
   private FrozenGame myFrozenGame;
-  private Freile cpuOpponent;
+  private Opponent cpuOpponent;
   private VirtualInput myPlayerInput;
 
   /**
@@ -163,7 +164,9 @@ public class ComputerAI extends Thread implements Freile.OpponentListener {
             (myFrozenGame.getGameResult() == gameEnum.PLAYING))
           cpuOpponent.compute(myFrozenGame.getCurrentColor(),
                               myFrozenGame.getNextColor(),
-                              myFrozenGame.getCompressorSteps());
+                              myFrozenGame.getCompressorSteps(),
+                              myFrozenGame.getAttackBarBubbles(),
+                              myFrozenGame.getGridHash());
 
         /*
          * Only fire if the game state permits, and the last virtual
@@ -56,6 +56,8 @@ package com.efortin.frozenbubble;
 
 import java.util.List;
 
+import org.jfedor.frozenbubble.GameSnapshot;
+
 import android.content.Context;
 import android.os.Bundle;
 
@@ -172,14 +174,6 @@ public class HighscoreManager {
     //  " seconds used");
   }
 
-  public void saveState(Bundle map) {
-    pauseLevel();
-    map.putInt("HighscoreManager-currentLevel", currentLevel);
-    map.putLong("HighscoreManager-pausedTime", pausedTime);
-    //Log.i("FrozenBubble-highscore", "saveState() " + (pausedTime / 1000F) +
-    //  " seconds used in level " + currentLevel);
-  }
-
   public void restoreState(Bundle map) {
     currentLevel = map.getInt("LevelManager-currentLevel");
     pausedTime = map.getLong("HighscoreManager-pausedTime");
@@ -188,6 +182,24 @@ public class HighscoreManager {
     //  " seconds used in level " + currentLevel);
   }
 
+  public void saveState(GameSnapshot out) {
+    pauseLevel();
+    out.putInt(currentLevel);
+    out.putLong(pausedTime);
+  }
+
+  public void restoreState(GameSnapshot in) {
+    /*
+     * Read both fields before setting either, so that a truncated
+     * snapshot leaves the state as is.
+     */
+    int  level  = in.getInt();
+    long paused = in.getLong();
+    currentLevel = level;
+    pausedTime = paused;
+    resumeLevel();
+  }
+
   public List<HighscoreDO> getLowScore(int level, int limit) {
     return db.selectLastByLevel(level, limit);
   }
@@ -58,7 +58,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
-import org.jfedor.frozenbubble.BubbleSprite;
+import org.jfedor.frozenbubble.Bubble;
 import org.jfedor.frozenbubble.FrozenBubble;
 import org.jfedor.frozenbubble.FrozenGame;
 import org.jfedor.frozenbubble.GameView.NetGameInterface;
@@ -1065,7 +1065,7 @@ public class NetworkManager extends Thread
     gameData.nextBubbleColor    = (byte)  gameRef.getNextColor();
     gameData.attackBarBubbles   = (short) gameRef.getAttackBarBubbles();
 
-    BubbleSprite[][] bubbleGrid = gameRef.getGrid();
+    Bubble[][] bubbleGrid = gameRef.getGrid();
     for (int i = 0; i < LevelManager.NUM_COLS; i++) {
       for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
         if (bubbleGrid[i][j] != null) {
@@ -52,7 +52,7 @@
 
 package com.efortin.frozenbubble;
 
-import org.jfedor.frozenbubble.BubbleSprite;
+import org.jfedor.frozenbubble.Bubble;
 import org.jfedor.frozenbubble.FrozenBubble;
 import org.jfedor.frozenbubble.LevelManager;
 
@@ -76,7 +76,7 @@ public class Preferences {
    */
   public Preferences() {
     bluetooth  = 0;
-    collision  = BubbleSprite.MIN_PIX;
+    collision  = Bubble.MIN_PIX;
     colorMode  = FrozenBubble.GAME_COLORBLIND;
     compressor = false;
     difficulty = LevelManager.NORMAL;
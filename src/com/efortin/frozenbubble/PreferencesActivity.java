@@ -52,7 +52,7 @@
 
 package com.efortin.frozenbubble;
 
-import org.jfedor.frozenbubble.BubbleSprite;
+import org.jfedor.frozenbubble.Bubble;
 import org.jfedor.frozenbubble.FrozenBubble;
 import org.jfedor.frozenbubble.LevelManager;
 import org.jfedor.frozenbubble.R;
@@ -76,7 +76,7 @@ public class PreferencesActivity extends PreferenceActivity{
   public static Preferences getDefaultPrefs(SharedPreferences sp) {
     Preferences prefs = new Preferences();
     prefs.bluetooth  =  sp.getInt("bluetooth", 0);
-    prefs.collision  =  sp.getInt("collision_option", BubbleSprite.MIN_PIX);
+    prefs.collision  =  sp.getInt("collision_option", Bubble.MIN_PIX);
     prefs.compressor =  sp.getBoolean("compressor_option", false);
     prefs.difficulty =  sp.getInt("difficulty_option", LevelManager.NORMAL);
     prefs.dontRushMe = !sp.getBoolean("rush_me_option", true);
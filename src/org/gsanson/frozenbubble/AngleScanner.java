@@ -0,0 +1,304 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Finds the launcher angle intervals leading to each reachable landing
+ * location.
+ * <p>The launcher range is first swept with a coarse angle step.
+ * Wherever two consecutive samples land in different locations, the
+ * boundary between them is refined by bisection until the angle
+ * interval is narrower than <code>MIN_WIDTH</code>.  A bisection sample
+ * landing in a third location splits the search in two, which finds
+ * the narrow bank shots a coarse step misses.
+ * <p>The result is a list of angle intervals in increasing angle order,
+ * each with the landing location of the launches in that interval.
+ * Close to a wall or to a bubble, a launch may land elsewhere than its
+ * neighbors, so the aim of an interval is not its center itself, but
+ * the angle closest to the center among those known to land in the
+ * interval location.
+ * @author Eric Fortin
+ */
+public class AngleScanner {
+
+  /* Angle step of the coarse sweep */
+  public static final double COARSE_STEP = 0.075;
+  /* Width below which a boundary is not refined further */
+  public static final double MIN_WIDTH   = COARSE_STEP / 4.;
+  /* Number of coarse sweep samples, including both launcher limits */
+  public static final int    NUM_SAMPLES = (int)Math.ceil(
+      (Freile.MAX_LAUNCHER - Freile.MIN_LAUNCHER) / COARSE_STEP) + 1;
+
+  /* Maximum number of intervals */
+  static final int MAX_INTERVALS = 256;
+
+  /*
+   * Intervals found.  The angles from aimLow to aimHigh are the first
+   * and last angles known to land in the interval location, the
+   * coarse sweep samples between them all landing there too.
+   */
+  private final int[]    cells   = new int[MAX_INTERVALS];
+  private final double[] low     = new double[MAX_INTERVALS];
+  private final double[] high    = new double[MAX_INTERVALS];
+  private final double[] aimLow  = new double[MAX_INTERVALS];
+  private final double[] aimHigh = new double[MAX_INTERVALS];
+  private final int[]    position = {0, 0};
+  private int numIntervals;
+
+  /* Interval being scanned */
+  private int    intervalCell;
+  private double intervalLow;
+  private double intervalAimLow;
+  private double intervalAimHigh;
+
+  private TrajectoryCaster caster;
+  private int              compressor;
+
+  /* Number of trajectories cast (for profiling) */
+  private long evaluations;
+
+  /**
+   * Get the launcher direction of a coarse sweep sample.
+   * @param sample - the sample index.
+   * @return The launch direction in radians, 0 being straight up.
+   */
+  public static double getSampleDirection(int sample) {
+    return Freile.MIN_LAUNCHER + (Freile.MAX_LAUNCHER - Freile.MIN_LAUNCHER) *
+           sample / (NUM_SAMPLES - 1);
+  }
+
+  /**
+   * Get the aim of an angle interval, which is the angle closest to the
+   * interval center known to land in the interval location.
+   * @param low - the lower angle of the interval.
+   * @param high - the upper angle of the interval.
+   * @param aimLow - the first angle known to land in the interval.
+   * @param aimHigh - the last angle known to land in the interval.
+   * @return The aim of the interval.
+   */
+  public static double getAim(double low, double high,
+                              double aimLow, double aimHigh) {
+    double center = (low + high) / 2.;
+
+    if (center <= aimLow) {
+      return aimLow;
+    }
+    if (center >= aimHigh) {
+      return aimHigh;
+    }
+
+    double aim = center - aimLow < aimHigh - center ? aimLow : aimHigh;
+    int sample = (int)Math.round((center - Freile.MIN_LAUNCHER) /
+                                 (Freile.MAX_LAUNCHER - Freile.MIN_LAUNCHER) *
+                                 (NUM_SAMPLES - 1));
+    double direction = getSampleDirection(sample);
+
+    if ((direction >= aimLow) && (direction <= aimHigh) &&
+        (Math.abs(direction - center) < Math.abs(aim - center))) {
+      aim = direction;
+    }
+    return aim;
+  }
+
+  private int cast(double direction) {
+    evaluations++;
+    caster.getCollision(direction, compressor, position);
+    return position[1] * LevelManager.NUM_COLS + position[0];
+  }
+
+  /**
+   * Close the current interval and open the next one.
+   * @param from - the last angle known to land in the current interval.
+   * @param to - the first angle known to land in the next interval.
+   * @param cell - the landing location of the next interval.
+   */
+  private void addBoundary(double from, double to, int cell) {
+    double boundary = (from + to) / 2.;
+
+    if (numIntervals < MAX_INTERVALS - 1) {
+      cells[numIntervals]   = intervalCell;
+      low[numIntervals]     = intervalLow;
+      high[numIntervals]    = boundary;
+      aimLow[numIntervals]  = intervalAimLow;
+      aimHigh[numIntervals] = from;
+      numIntervals++;
+      intervalCell    = cell;
+      intervalLow     = boundary;
+      intervalAimLow  = to;
+      intervalAimHigh = to;
+    }
+  }
+
+  /**
+   * Refine the boundaries between two angles landing in different
+   * locations.
+   * @param from - the lower angle.
+   * @param fromCell - the landing location of the lower angle.
+   * @param to - the upper angle.
+   * @param toCell - the landing location of the upper angle.
+   */
+  private void refine(double from, int fromCell, double to, int toCell) {
+    if (to - from <= MIN_WIDTH) {
+      addBoundary(from, to, toCell);
+      return;
+    }
+
+    double middle     = (from + to) / 2.;
+    int    middleCell = cast(middle);
+
+    if (middleCell != fromCell) {
+      refine(from, fromCell, middle, middleCell);
+    }
+    if (middleCell != toCell) {
+      refine(middle, middleCell, to, toCell);
+    }
+  }
+
+  /**
+   * Find the angle intervals between two coarse sweep samples.
+   * @param caster - the trajectory caster, set to the grid to scan.
+   * @param compressor - the number of compressor steps.
+   * @param first - the index of the first sample.
+   * @param last - the index of the last sample.
+   */
+  public void scan(TrajectoryCaster caster, int compressor,
+                   int first, int last) {
+    this.caster     = caster;
+    this.compressor = compressor;
+    clear();
+    if (first >= last) {
+      return;
+    }
+
+    double previous     = getSampleDirection(first);
+    int    previousCell = cast(previous);
+
+    intervalCell    = previousCell;
+    intervalLow     = previous;
+    intervalAimLow  = previous;
+    intervalAimHigh = previous;
+    for (int sample = first + 1; sample <= last; sample++) {
+      double direction = getSampleDirection(sample);
+      int    cell      = cast(direction);
+      if (cell != previousCell) {
+        refine(previous, previousCell, direction, cell);
+      }
+      intervalAimHigh = direction;
+      previous        = direction;
+      previousCell    = cell;
+    }
+    cells[numIntervals]   = intervalCell;
+    low[numIntervals]     = intervalLow;
+    high[numIntervals]    = previous;
+    aimLow[numIntervals]  = intervalAimLow;
+    aimHigh[numIntervals] = intervalAimHigh;
+    numIntervals++;
+  }
+
+  /**
+   * Discard the intervals found.
+   */
+  public void clear() {
+    numIntervals = 0;
+  }
+
+  public int getNumIntervals() {
+    return numIntervals;
+  }
+
+  /**
+   * Get the landing location of an interval.
+   * @param interval - the interval index.
+   * @return The grid location index, <code>y * NUM_COLS + x</code>.
+   */
+  public int getCell(int interval) {
+    return cells[interval];
+  }
+
+  public double getLow(int interval) {
+    return low[interval];
+  }
+
+  public double getHigh(int interval) {
+    return high[interval];
+  }
+
+  public double getAimLow(int interval) {
+    return aimLow[interval];
+  }
+
+  public double getAimHigh(int interval) {
+    return aimHigh[interval];
+  }
+
+  /**
+   * Get the aim of an interval.
+   * @param interval - the interval index.
+   * @return The angle closest to the interval center known to land in
+   * the interval location.
+   */
+  public double getAim(int interval) {
+    return getAim(low[interval], high[interval], aimLow[interval],
+                  aimHigh[interval]);
+  }
+
+  /**
+   * Get the number of trajectories cast so far.
+   * @return The number of trajectories cast.
+   */
+  public long getEvaluations() {
+    return evaluations;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.HexGrid;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Predicts where the attack bubbles released by
+ * <code>FrozenGame.releaseBubbles()</code> stick to the grid.
+ * <p>An attack bubble rises straight up its lane, and sticks to the last
+ * free grid location it went through as soon as it comes close enough
+ * to a bubble of the grid or reaches the ceiling, like
+ * <code>Bubble.goUp()</code> does.  If that location was taken in
+ * the meantime, the bubble goes back to the malus bar.
+ * <p>The landing locations of all the lanes are computed once for a
+ * grid.  A launch into the grid only changes the landing locations of
+ * the lanes passing close to the new bubble, which are the only ones
+ * computed again when predicting the landing locations after the
+ * launch.
+ * @author Eric Fortin
+ */
+public class AttackLanes {
+
+  public static final int NUM_LANES = LevelManager.LANES;
+
+  /* Attack bubble start position and speed, as in FrozenGame */
+  private static final int    LANE_LEFT   = 190;
+  private static final double START_TOP   = 44 + LevelManager.MAX_ROWS * 28;
+  private static final double GO_UP_SPEED = 20.;
+  /*
+   * Horizontal distance from a lane beyond which a bubble can not
+   * change where the lane lands: a rising bubble passes through the
+   * grid locations within half a bubble of its lane, and collides with
+   * their neighbors, one bubble further.
+   */
+  private static final int    LANE_REACH  = 48;
+
+  /* Landing locations on the current grid, per lane */
+  private final int[] baseCells = new int[NUM_LANES];
+  private int compressor;
+
+  /**
+   * Compute the landing locations of all the lanes on a grid.
+   * @param board - the grid of fixed bubbles.
+   * @param compressor - the number of compressor steps.
+   */
+  public void setGrid(GridBitboard board, int compressor) {
+    this.compressor = compressor;
+    for (int lane = 0; lane < NUM_LANES; lane++) {
+      baseCells[lane] = land(board, lane, compressor);
+    }
+  }
+
+  /**
+   * Predict the landing locations on a grid that only differs from the
+   * one passed to <code>setGrid()</code> in the supplied lanes.
+   * @param board - the grid of fixed bubbles.
+   * @param firstLane - the first lane to compute again.
+   * @param lastLane - the last lane to compute again.
+   * @param cells - the resulting landing location of each lane, or -1 if
+   * the attack bubble goes back to the malus bar.
+   */
+  public void predict(GridBitboard board, int firstLane, int lastLane,
+                      int[] cells) {
+    for (int lane = 0; lane < NUM_LANES; lane++) {
+      if ((lane >= firstLane) && (lane <= lastLane)) {
+        cells[lane] = land(board, lane, compressor);
+      }
+      else {
+        cells[lane] = baseCells[lane];
+      }
+    }
+  }
+
+  /**
+   * Get the first lane whose landing location may depend on a grid
+   * location.
+   * @param x - X-coord of the grid location.
+   * @param y - Y-coord of the grid location.
+   * @return The first lane affected by the grid location.
+   */
+  public static int getFirstLane(int x, int y) {
+    int left = (x << 5) - ((y % 2) << 4);
+    return Math.max(0, (left - LANE_REACH + 15) >> 4);
+  }
+
+  /**
+   * Get the last lane whose landing location may depend on a grid
+   * location.
+   * @param x - X-coord of the grid location.
+   * @param y - Y-coord of the grid location.
+   * @return The last lane affected by the grid location.
+   */
+  public static int getLastLane(int x, int y) {
+    int left = (x << 5) - ((y % 2) << 4);
+    return Math.min(NUM_LANES - 1, (left + LANE_REACH) >> 4);
+  }
+
+  /**
+   * Compute where the attack bubble of a lane sticks.
+   * @param board - the grid of fixed bubbles.
+   * @param lane - the lane of the attack bubble.
+   * @param compressor - the number of compressor steps.
+   * @return The landing location index, or -1 if the attack bubble goes
+   * back to the malus bar.
+   */
+  public static int land(GridBitboard board, int lane, int compressor) {
+    double moveDown = compressor * 28.;
+    double realY    = START_TOP;
+    int    openY    = getRow(realY, moveDown);
+    int    openX    = getColumn(lane, openY);
+
+    for (;;) {
+      realY -= GO_UP_SPEED;
+
+      int row    = getRow(realY, moveDown);
+      int column = getColumn(lane, row);
+      if (!board.isOccupied(column, row)) {
+        openX = column;
+        openY = row;
+      }
+
+      if (collides(board, openX, openY, getLaneX(lane), realY, moveDown) ||
+          (realY < 44. + moveDown)) {
+        if (board.isOccupied(openX, openY)) {
+          return -1;
+        }
+        return openY * LevelManager.NUM_COLS + openX;
+      }
+    }
+  }
+
+  /**
+   * Get the initial height of the attack bubbles.
+   * @return The screen Y-coord of the attack bubbles when released.
+   */
+  static double getStartY() {
+    return START_TOP;
+  }
+
+  /**
+   * Get the height of the attack bubbles after one more move.
+   * @param realY - the screen Y-coord of the attack bubbles.
+   * @return The screen Y-coord after the move.
+   */
+  static double moveUp(double realY) {
+    return realY - GO_UP_SPEED;
+  }
+
+  static int getLaneX(int lane) {
+    return LANE_LEFT + (lane << 4);
+  }
+
+  /**
+   * Get the grid row of an attack bubble like
+   * <code>Bubble.currentPosition()</code> does.
+   */
+  static int getRow(double realY, double moveDown) {
+    int row = (int)Math.floor((realY - 28. - moveDown) / 28.);
+    return Math.max(0, Math.min(LevelManager.NUM_ROWS - 1, row));
+  }
+
+  /**
+   * Get the grid column of an attack bubble like
+   * <code>Bubble.currentPosition()</code> does.
+   */
+  static int getColumn(int lane, int row) {
+    int column = (int)Math.floor((getLaneX(lane) - 174.) / 32. +
+                                 0.5 * (row % 2));
+    return Math.max(0, Math.min(LevelManager.NUM_COLS - 1, column));
+  }
+
+  /**
+   * Check if a rising bubble collides with the neighbors of its last
+   * free grid location, like <code>Bubble.checkCollision()</code>
+   * does.
+   */
+  static boolean collides(GridBitboard board, int x, int y, double realX,
+                          double realY, double moveDown) {
+    int table = HexGrid.tableIndex(HexGrid.cellIndex(x, y), 0);
+    int first = table * HexGrid.MAX_NEIGHBORS;
+    int last  = first + HexGrid.NUM_NEIGHBORS[table];
+
+    for (int i = first; i < last; i++) {
+      if (touches(board, HexGrid.NEIGHBORS[i] % LevelManager.NUM_COLS,
+                  HexGrid.NEIGHBORS[i] / LevelManager.NUM_COLS,
+                  realX, realY, moveDown)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean touches(GridBitboard board, int x, int y,
+                                 double realX, double realY,
+                                 double moveDown) {
+    if ((x < 0) || (x >= LevelManager.NUM_COLS) || (y < 0) ||
+        (y >= LevelManager.NUM_ROWS) || !board.isOccupied(x, y)) {
+      return false;
+    }
+
+    double dx = LANE_LEFT + (x << 5) - ((y % 2) << 4) - realX;
+    double dy = 44. + y * 28 + moveDown - realY;
+
+    return dx * dx + dy * dy < Bubble.minDistance;
+  }
+}
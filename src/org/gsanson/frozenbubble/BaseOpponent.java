@@ -0,0 +1,341 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.concurrent.Callable;
+
+import org.gsanson.frozenbubble.OpponentService.DecisionFuture;
+import org.gsanson.frozenbubble.OpponentService.DecisionListener;
+import org.jfedor.frozenbubble.Bubble;
+
+import android.view.KeyEvent;
+
+/**
+ * CPU opponent computing its decisions on an
+ * <code>OpponentService</code>.
+ * <p>Each call to <code>compute()</code> takes a snapshot of the game
+ * grid in the calling thread, and submits a task computing a decision
+ * from that snapshot.  A pending computation for a different game
+ * state is cancelled, and a computation for the same game state as the
+ * last decision is not submitted again.
+ * <p>Computations of the same opponent never run concurrently, so
+ * subclasses may keep their search data in fields.  A computation
+ * should check the interrupted status of its thread and return early
+ * when it is cancelled.
+ * @author Eric Fortin
+ */
+public abstract class BaseOpponent implements Opponent, DecisionListener {
+
+  /**
+   * State of the game a decision is computed for.  The grid hash is
+   * the hash of the grid copy, which the decision scores are stored
+   * under, and the game hash is the one the game passed in, which the
+   * next calls to <code>compute()</code> are compared with.
+   */
+  protected static class Snapshot {
+    final GridBitboard grid;
+    final int          color;
+    final int          nextColor;
+    final int          compressor;
+    final int          attackBubbles;
+    final long         gridHash;
+    final long         gameHash;
+
+    Snapshot(GridBitboard grid, int color, int nextColor,
+             int compressor, int attackBubbles, long gridHash,
+             long gameHash) {
+      this.grid          = grid;
+      this.color         = color;
+      this.nextColor     = nextColor;
+      this.compressor    = compressor;
+      this.attackBubbles = attackBubbles;
+      this.gridHash      = gridHash;
+      this.gameHash      = gameHash;
+    }
+
+    boolean sameState(int color, int nextColor, int compressor,
+                      int attackBubbles, long gameHash) {
+      return (this.color == color) && (this.nextColor == nextColor) &&
+             (this.compressor == compressor) &&
+             (this.attackBubbles == attackBubbles) &&
+             (this.gameHash == gameHash);
+    }
+  }
+
+  Freile.OpponentListener mOpponentListener;
+
+  public void setOpponentListener(Freile.OpponentListener ol) {
+    mOpponentListener = ol;
+  }
+
+  /* Reference to the managed game grid, or to its bitboard */
+  private final Bubble[][]      grid;
+  private final GridBitboard    board;
+  /* Service computing the decisions */
+  private final OpponentService service;
+  /* Lock held while computing a decision */
+  private final Object          searchLock = new Object();
+  /* Pending computation, and the game state it is computed for */
+  private DecisionFuture pending;
+  private Snapshot       pendingState;
+  /* Last decision, and the game state it was computed for */
+  private volatile Decision decision;
+  private Snapshot          decisionState;
+  /* Swap launch bubble with next bubble? */
+  private volatile boolean  colorSwap;
+
+  protected BaseOpponent(Bubble[][] grid, OpponentService service) {
+    this.grid         = grid;
+    this.board        = null;
+    this.service      = service;
+    mOpponentListener = null;
+  }
+
+  /**
+   * Constructor used when the game grid is only kept as a bitboard, as
+   * in a headless simulation.  The bitboard must only be modified by
+   * the thread calling <code>compute()</code>.
+   * @param board - the bitboard of the game grid.
+   * @param service - the service computing the decisions.
+   */
+  protected BaseOpponent(GridBitboard board, OpponentService service) {
+    this.grid         = null;
+    this.board        = board;
+    this.service      = service;
+    mOpponentListener = null;
+  }
+
+  public void compute(int currentColor, int nextColor, int compressor,
+                      int attackBubbles, long gridHash) {
+    DecisionFuture cancelled = null;
+    DecisionFuture future;
+
+    synchronized (this) {
+      if ((pending != null) && !pending.isDone()) {
+        if (pendingState.sameState(currentColor, nextColor, compressor,
+                                   attackBubbles, gridHash)) {
+          return;
+        }
+        cancelled = pending;
+      }
+      else if ((decisionState != null) &&
+               decisionState.sameState(currentColor, nextColor, compressor,
+                                       attackBubbles, gridHash)) {
+        return;
+      }
+
+      GridBitboard snapshot = new GridBitboard();
+      long         snapshotHash;
+      if (board != null) {
+        snapshot.copyFrom(board);
+        snapshotHash = gridHash;
+      }
+      else {
+        /*
+         * The game thread keeps changing the grid while it is copied,
+         * so the hash the decision scores are stored under is computed
+         * from the copy rather than taken from the game.
+         */
+        snapshot.load(grid);
+        snapshotHash = ZobristHash.hash(snapshot) ^
+                       ZobristHash.compressorKey(compressor);
+      }
+
+      Snapshot state = new Snapshot(snapshot, currentColor, nextColor,
+                                    compressor, attackBubbles, snapshotHash,
+                                    gridHash);
+      future       = prepare(state);
+      pending      = future;
+      pendingState = state;
+    }
+
+    /*
+     * Cancelling and submitting may complete other tasks, whose
+     * listeners must not be called with this opponent locked.
+     */
+    if (cancelled != null) {
+      cancelled.cancel(true);
+    }
+    service.execute(future);
+  }
+
+  /**
+   * Create the future of a decision task for a game state.
+   * @param state - the game state to compute a decision for.
+   * @return The future of the decision, not yet submitted.
+   */
+  private DecisionFuture prepare(final Snapshot state) {
+    return service.prepare(new Callable<Decision>() {
+      public Decision call() throws Exception {
+        synchronized (searchLock) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          return decide(state);
+        }
+      }
+    }, this);
+  }
+
+  /**
+   * Compute a decision.  This is called from a worker thread of the
+   * opponent service.
+   * @param state - the game state to compute a decision for.
+   * @return The decision.
+   */
+  protected abstract Decision decide(Snapshot state)
+      throws InterruptedException;
+
+  public void onDecision(DecisionFuture future) {
+    DecisionFuture resubmitted = null;
+
+    synchronized (this) {
+      if (future != pending) {
+        return;
+      }
+      if (future.isCancelled()) {
+        /*
+         * The service dropped the computation to make room in its
+         * queue.  The last decision is for an older game state, so it
+         * is cleared, and the computation is submitted again unless
+         * the opponent or the service was stopped.
+         */
+        decision      = null;
+        decisionState = null;
+        colorSwap     = false;
+        if ((mOpponentListener != null) && !service.isShutdown()) {
+          resubmitted = prepare(pendingState);
+          pending     = resubmitted;
+        }
+      }
+      else {
+        try {
+          decision      = future.get();
+          decisionState = pendingState;
+          colorSwap     = decision.isColorSwap();
+        } catch (Exception e) {
+          decisionState = null;
+        }
+      }
+    }
+
+    if (resubmitted != null) {
+      service.execute(resubmitted);
+      return;
+    }
+
+    Freile.OpponentListener listener = mOpponentListener;
+    if (listener != null) {
+      listener.onOpponentEvent(Freile.eventEnum.DONE_COMPUTING);
+    }
+  }
+
+  public int getAction(double currentDirection) {
+    int direction = 0;
+
+    if (colorSwap) {
+      direction = KeyEvent.KEYCODE_DPAD_DOWN;
+      colorSwap = false;
+    }
+    else {
+      direction = Freile.getAimAction(currentDirection,
+                                      getExactDirection(currentDirection));
+    }
+    return direction;
+  }
+
+  public int[] getBubbleDestination() {
+    Decision current = decision;
+
+    if (current == null) {
+      return new int[] {0, 0};
+    }
+    return current.getLocation();
+  }
+
+  public double getExactDirection(double currentDirection) {
+    Decision current = decision;
+
+    /*
+     * currentDirection is not used here.
+     */
+    if (current == null) {
+      return 0.;
+    }
+    return current.getDirection();
+  }
+
+  /**
+   * Checks if work is still in progress.
+   * @return true if the calculation is not yet finished
+   */
+  public synchronized boolean isComputing() {
+    return (pending != null) && !pending.isDone();
+  }
+
+  /**
+   * Stop the opponent.  A pending computation is cancelled, and the
+   * listener is no longer notified.
+   */
+  public void stopThread() {
+    DecisionFuture cancelled;
+
+    synchronized (this) {
+      mOpponentListener = null;
+      cancelled = pending;
+    }
+    if (cancelled != null) {
+      cancelled.cancel(true);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Batch tool checking the bitboard grid engine against
+ * <code>CollisionHelper.checkState()</code>.
+ * <p>Usage:
+ * <pre>
+ * java -cp bin/classes org.gsanson.frozenbubble.BitboardBenchmark
+ *      [-grids N] [-colors N] [-seed N]
+ * </pre>
+ * <p>A new bubble of a random color is placed at a random empty location
+ * of each random grid, and the state grid computed by
+ * <code>GridBitboard.checkState()</code> is compared with the one
+ * computed by <code>CollisionHelper.checkState()</code>.  The report
+ * gives the number of mismatching grids, which must be zero, and the
+ * time per evaluation of both engines.  The process exits with a
+ * non-zero status on any mismatch.
+ * @author Eric Fortin
+ */
+public class BitboardBenchmark {
+
+  /* Default number of grids */
+  public static final int DEFAULT_GRIDS = 100000;
+
+  /* Number of timed passes over the grids */
+  private static final int PASSES = 5;
+
+  private final Bubble[][][]   grids;
+  private final GridBitboard[] boards;
+  private final int[][]        launches;
+  private final long           seed;
+
+  private int  mismatches;
+  private long helperNanos;
+  private long bitboardNanos;
+  private long countNanos;
+
+  /* Accumulated results, so that the timed loops are not optimized out */
+  private long checksum;
+
+  /**
+   * BitboardBenchmark class constructor.
+   * @param numGrids - the number of random grids.
+   * @param numColors - the number of bubble colors.
+   * @param seed - the random grid seed.
+   */
+  public BitboardBenchmark(int numGrids, int numColors, long seed) {
+    RandomGrids random = new RandomGrids(seed, numColors);
+
+    this.grids    = new Bubble[numGrids][][];
+    this.boards   = new GridBitboard[numGrids];
+    this.launches = new int[numGrids][3];
+    this.seed     = seed;
+    for (int n = 0; n < numGrids; n++) {
+      grids[n]  = RandomGrids.newGrid();
+      boards[n] = new GridBitboard();
+      int rows  = random.next(grids[n], boards[n]);
+      random.nextEmpty(grids[n], rows, launches[n]);
+      launches[n][2] = random.nextColor();
+    }
+  }
+
+  /**
+   * Compare the state grids of both engines over all the grids.
+   */
+  public void check() {
+    int[][] expected = new int[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+    int[][] actual   = new int[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+
+    mismatches = 0;
+    for (int n = 0; n < grids.length; n++) {
+      int[] launch = launches[n];
+
+      CollisionHelper.checkState(launch[0], launch[1], launch[2],
+                                 grids[n], expected);
+      boards[n].checkState(launch[0], launch[1], launch[2], actual);
+      if (!same(expected, actual)) {
+        if (mismatches == 0) {
+          System.out.println(String.format(
+              "  first mismatch: grid %d, bubble %d at (%d, %d)",
+              n, launch[2], launch[0], launch[1]));
+        }
+        mismatches++;
+      }
+    }
+  }
+
+  private static boolean same(int[][] expected, int[][] actual) {
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (expected[i][j] != actual[i][j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Time both engines over all the grids.  The first pass warms up the
+   * JIT compiler and is not timed.
+   */
+  public void time() {
+    int[][] outGrid = new int[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+
+    helperNanos   = 0;
+    bitboardNanos = 0;
+    countNanos    = 0;
+    for (int pass = 0; pass <= PASSES; pass++) {
+      long start = System.nanoTime();
+      for (int n = 0; n < grids.length; n++) {
+        int[] launch = launches[n];
+        CollisionHelper.checkState(launch[0], launch[1], launch[2],
+                                   grids[n], outGrid);
+        checksum += outGrid[launch[0]][launch[1]];
+      }
+      long helper = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int n = 0; n < grids.length; n++) {
+        int[] launch = launches[n];
+        checksum += boards[n].checkState(launch[0], launch[1], launch[2],
+                                         outGrid);
+      }
+      long bitboard = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int n = 0; n < grids.length; n++) {
+        int[] launch = launches[n];
+        checksum += boards[n].checkState(launch[0], launch[1], launch[2]);
+        checksum += boards[n].countDetached();
+      }
+      long count = System.nanoTime() - start;
+
+      if (pass > 0) {
+        helperNanos   += helper;
+        bitboardNanos += bitboard;
+        countNanos    += count;
+      }
+    }
+  }
+
+  /**
+   * Get the number of grids on which both engines disagree.
+   * @return The number of mismatching grids.
+   */
+  public int getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Print the benchmark results.
+   */
+  public void printReport() {
+    double evaluations = (double) PASSES * grids.length;
+    double helper      = helperNanos / evaluations;
+    double bitboard    = bitboardNanos / evaluations;
+    double count       = countNanos / evaluations;
+
+    System.out.println(String.format("%d grids, seed %d: %d mismatches " +
+                                     "(%.4f%% agreement)",
+                                     grids.length, seed, mismatches,
+                                     100. * (grids.length - mismatches) /
+                                     grids.length));
+    System.out.println(String.format(
+        "  %-24s %8.1f ns/evaluation", "CollisionHelper", helper));
+    System.out.println(String.format(
+        "  %-24s %8.1f ns/evaluation  %5.1fx", "GridBitboard states",
+        bitboard, helper / bitboard));
+    System.out.println(String.format(
+        "  %-24s %8.1f ns/evaluation  %5.1fx", "GridBitboard counts",
+        count, helper / count));
+    System.out.println(String.format("  checksum %d", checksum));
+  }
+
+  public static void main(String[] args) {
+    int  numGrids  = DEFAULT_GRIDS;
+    int  numColors = GridBitboard.NUM_COLORS;
+    long seed      = System.currentTimeMillis();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-grids")) {
+        numGrids = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-colors")) {
+        numColors = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else {
+        System.err.println("usage: BitboardBenchmark [-grids N] " +
+                           "[-colors N] [-seed N]");
+        System.exit(1);
+      }
+    }
+
+    BitboardBenchmark benchmark = new BitboardBenchmark(numGrids, numColors,
+                                                        seed);
+    benchmark.check();
+    benchmark.time();
+    benchmark.printReport();
+    if (benchmark.getMismatches() != 0) {
+      System.exit(1);
+    }
+  }
+}
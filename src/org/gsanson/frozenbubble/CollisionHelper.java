@@ -52,7 +52,8 @@
 
 package org.gsanson.frozenbubble;
 
-import org.jfedor.frozenbubble.BubbleSprite;
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.HexGrid;
 import org.jfedor.frozenbubble.LevelManager;
 
 public class CollisionHelper {
@@ -80,10 +81,45 @@ public class CollisionHelper {
    * @param minCoords The collision distance coordinates.
    * @return <code>true</code> if a collision was detected.
    */
-  public static boolean collide(int x, int y, BubbleSprite[][] grid,
+  public static boolean collide(int x, int y, Bubble[][] grid,
                                 int[][] toCheck, int[] minCoords) {
     boolean collision = false;
-    int minDist = (int)BubbleSprite.minDistance;
+    int minDist = (int)Bubble.minDistance;
+    minCoords[0] = 0;
+    minCoords[1] = 0;
+    toCheck(x, y, toCheck);
+
+    // Check for collision
+    int i = 0;
+    while (!collision && i < 4) {
+      collision = collision(x, y, toCheck[i][0], toCheck[i][1], grid);
+      i++;
+    }
+
+    // Check for position
+    if (collision) {
+      for (i = 0; i < 4; i++) {
+        minDist = distance(x, y, toCheck[i][0], toCheck[i][1], minDist, minCoords);
+      }
+    }
+
+    return collision;
+  }
+
+  /**
+   * Checks whether a moving ball collides with fixed balls.
+   * @param x X-coord of the moving ball, relative to the game area.
+   * @param y Y-coord of the moving ball, relative to the game area
+   * (right under the compressor).
+   * @param grid The bitboard of fixed bubbles.
+   * @param toCheck The array of bubbles to check.
+   * @param minCoords The collision distance coordinates.
+   * @return <code>true</code> if a collision was detected.
+   */
+  public static boolean collide(int x, int y, GridBitboard grid,
+                                int[][] toCheck, int[] minCoords) {
+    boolean collision = false;
+    int minDist = (int)Bubble.minDistance;
     minCoords[0] = 0;
     minCoords[1] = 0;
     toCheck(x, y, toCheck);
@@ -150,7 +186,7 @@ public class CollisionHelper {
    * out of the grid or empty.
    */
   private static boolean collision(int x, int y, int targetX, int targetY,
-                                   BubbleSprite[][] grid) {
+                                   Bubble[][] grid) {
     boolean collision = false;
 
     if ((targetX >= 0) && (targetX < LevelManager.NUM_COLS) &&
@@ -159,7 +195,34 @@ public class CollisionHelper {
       int dx = (targetX << 5) - ((targetY % 2) << 4) - x;
       int dy = targetY * 28 - y;
 
-      collision = dx * dx + dy * dy < BubbleSprite.minDistance;
+      collision = dx * dx + dy * dy < Bubble.minDistance;
+    }
+
+    return collision;
+  }
+
+  /**
+   * Checks whether a moving ball collides with a specific point in the
+   * bitboard.
+   * @param x real X-coord.
+   * @param y real Y-coord.
+   * @param targetX X target point (grid).
+   * @param targetY Y target point (grid).
+   * @param grid reference bitboard.
+   * @return <code>true</code> if the point is occupied and closer than
+   * the collision distance.
+   */
+  private static boolean collision(int x, int y, int targetX, int targetY,
+                                   GridBitboard grid) {
+    boolean collision = false;
+
+    if ((targetX >= 0) && (targetX < LevelManager.NUM_COLS) &&
+        (targetY >= 0) && (targetY < LevelManager.NUM_ROWS) &&
+        grid.isOccupied(targetX, targetY)) {
+      int dx = (targetX << 5) - ((targetY % 2) << 4) - x;
+      int dy = targetY * 28 - y;
+
+      collision = dx * dx + dy * dy < Bubble.minDistance;
     }
 
     return collision;
@@ -198,7 +261,7 @@ public class CollisionHelper {
    * @param outGrid Grid to store all the new states in.  If the new
    * bubble doesn't change anything, values are only potential.
    */
-  public static void checkState(int x, int y, int color, BubbleSprite[][] grid,
+  public static void checkState(int x, int y, int color, Bubble[][] grid,
                                 int[][] outGrid) {
     for (int i = 0; i < LevelManager.NUM_COLS; i++) {
       for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
@@ -271,47 +334,28 @@ public class CollisionHelper {
     }
   }
 
-  private static void checkNeighbors(int x, int y, BubbleSprite[][] grid,
+  /**
+   * Flag the neighbors of a grid location for checking.
+   * <p>Bubbles are never propagated downwards into the last row,
+   * which is the row where a bubble that sticks loses the game.
+   */
+  private static void checkNeighbors(int x, int y, Bubble[][] grid,
                                      int[][] outGrid, boolean ignoreStayState) {
+    int table = HexGrid.tableIndex(HexGrid.cellIndex(x, y), 0);
+    int first = table * HexGrid.MAX_NEIGHBORS;
+    int last  = first + HexGrid.NUM_NEIGHBORS[table];
 
-    if (x > 0) {
-      changeState(x-1, y, grid, outGrid, ignoreStayState);
-    }
-
-    if (x < (LevelManager.NUM_COLS - 1)) {
-      changeState(x+1, y, grid, outGrid, ignoreStayState);
-    }
+    for (int i = first; i < last; i++) {
+      int cellX = HexGrid.NEIGHBORS[i] % LevelManager.NUM_COLS;
+      int cellY = HexGrid.NEIGHBORS[i] / LevelManager.NUM_COLS;
 
-    if (y > 0) {
-      changeState(x, y-1, grid, outGrid, ignoreStayState);
-      if (y % 2 == 0) {
-        if (x < (LevelManager.NUM_COLS - 1)) {
-          changeState(x+1, y-1, grid, outGrid, ignoreStayState);
-        }
-      }
-      else {
-        if (x > 0) {
-          changeState(x-1, y-1, grid, outGrid, ignoreStayState);
-        }        
-      }
-    }
-
-    if (y < (LevelManager.NUM_ROWS - 2)) {
-      changeState(x, y+1, grid, outGrid, ignoreStayState);
-      if (y % 2 == 0) {
-        if (x < (LevelManager.NUM_COLS - 1)) {
-          changeState(x+1, y+1, grid, outGrid, ignoreStayState);
-        }
-      }
-      else {
-        if (x > 0) {
-          changeState(x-1, y+1, grid, outGrid, ignoreStayState);
-        }        
+      if ((cellY <= y) || (cellY < (LevelManager.NUM_ROWS - 1))) {
+        changeState(cellX, cellY, grid, outGrid, ignoreStayState);
       }
     }
   }
 
-  private static void changeState(int x, int y, BubbleSprite[][] grid,
+  private static void changeState(int x, int y, Bubble[][] grid,
                                   int[][] outGrid, boolean ignoreStayState) {
     if (ignoreStayState) {
       if (grid[x][y] != null && (outGrid[x][y] == STATE_UNDEFINED ||
@@ -335,7 +379,7 @@ public class CollisionHelper {
    * @return
    */
   private static boolean isColor(int x, int y, int color,
-                                 BubbleSprite[][] grid,
+                                 Bubble[][] grid,
                                  boolean[][] alreadyChecked) {
     boolean isColor = false;
     boolean checked = false;
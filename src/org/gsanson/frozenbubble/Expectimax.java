@@ -0,0 +1,333 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.BubbleManager;
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * CPU opponent which looks several launches ahead.
+ * <p>Each launch is a decision node over the landing locations reachable
+ * with the current or the next bubble color.  After a launch, the bubble
+ * not launched becomes the current bubble and the new next bubble is
+ * drawn at random among the colors still on the board, with the
+ * probabilities of <code>BubbleManager.nextBubbleIndex()</code>.  This
+ * draw is a chance node weighted by those probabilities.
+ * <p>Launches are scored like <code>Freile</code> does.  The search is
+ * iteratively deepened up to <code>MAX_DEPTH</code> launches, and stops
+ * at a configurable deadline, in which case the deepest completed
+ * search is used.
+ * @author Eric Fortin
+ */
+public class Expectimax extends BaseOpponent {
+
+  /* Default search deadline, in milliseconds */
+  public static final long DEFAULT_DEADLINE = 1000;
+  /* Maximum number of launches to look ahead */
+  public static final int  MAX_DEPTH = 3;
+
+  /* Weight of the launches to come relative to the current launch */
+  private static final double DISCOUNT      = 0.8;
+  /* Values of the game outcomes */
+  private static final double SCORE_CLEARED = 1000.;
+  private static final double SCORE_LOST    = -1000.;
+
+  /* Current compressor level */
+  private int compressor;
+  /* Search deadline, in milliseconds */
+  private long deadline;
+
+  /*
+   * Search data, per launch.  The grid before each launch, and the
+   * distinct landing locations reachable on that grid along with the
+   * first direction reaching them.
+   */
+  private GridBitboard[]     boards;
+  private TrajectoryCaster[] casters;
+  private int[][]            landingX;
+  private int[][]            landingY;
+  private int[][]            landingDirection;
+  private int[]              numLandings;
+  private int[][]            landingStamp;
+  private double[][]         probabilities;
+  private int[]              position = {0, 0};
+
+  /* Search state */
+  private int     rootLanding;
+  private boolean rootSwap;
+  private long    deadlineNanos;
+  private boolean timedOut;
+  private int     lostRow;
+
+  public Expectimax(Bubble[][] grid) {
+    this(grid, DEFAULT_DEADLINE);
+  }
+
+  /**
+   * Expectimax opponent class constructor.
+   * @param grid - the game grid.
+   * @param deadline - the maximum time to search for a launch, in
+   * milliseconds.
+   */
+  public Expectimax(Bubble[][] grid, long deadline) {
+    this(grid, deadline, OpponentService.getDefault());
+  }
+
+  /**
+   * Expectimax opponent class constructor.
+   * @param grid - the game grid.
+   * @param deadline - the maximum time to search for a launch, in
+   * milliseconds.
+   * @param service - the service computing the launches.
+   */
+  public Expectimax(Bubble[][] grid, long deadline,
+                    OpponentService service) {
+    super(grid, service);
+    initSearch(deadline);
+  }
+
+  /**
+   * Expectimax opponent class constructor, for a game grid only kept
+   * as a bitboard.
+   * @param board - the bitboard of the game grid.
+   * @param deadline - the maximum time to search for a launch, in
+   * milliseconds.
+   * @param service - the service computing the launches.
+   */
+  public Expectimax(GridBitboard board, long deadline,
+                    OpponentService service) {
+    super(board, service);
+    initSearch(deadline);
+  }
+
+  private void initSearch(long deadline) {
+    this.deadline     = deadline;
+    boards            = new GridBitboard[MAX_DEPTH];
+    casters           = new TrajectoryCaster[MAX_DEPTH];
+    landingX          = new int[MAX_DEPTH][GridBitboard.NUM_CELLS];
+    landingY          = new int[MAX_DEPTH][GridBitboard.NUM_CELLS];
+    landingDirection  = new int[MAX_DEPTH][GridBitboard.NUM_CELLS];
+    numLandings       = new int[MAX_DEPTH];
+    landingStamp      = new int[MAX_DEPTH][GridBitboard.NUM_CELLS];
+    probabilities     = new double[MAX_DEPTH][GridBitboard.NUM_COLORS];
+
+    for (int i = 0; i < MAX_DEPTH; i++) {
+      boards[i]  = new GridBitboard();
+      casters[i] = new TrajectoryCaster();
+    }
+  }
+
+  /**
+   * Find the distinct landing locations reachable on a grid.
+   * @param ply - the launch index.
+   */
+  private void findLandings(int ply) {
+    GridBitboard     board  = boards[ply];
+    TrajectoryCaster caster = casters[ply];
+    int[]            stamp  = landingStamp[ply];
+    int              count  = 0;
+
+    caster.setGrid(board);
+    for (int i = 0; i < GridBitboard.NUM_CELLS; i++) {
+      stamp[i] = 0;
+    }
+    for (int i = 0; i < Freile.SCAN_DIRECTIONS.length; i++) {
+      caster.getCollision(Freile.SCAN_DIRECTIONS[i], compressor, position);
+      int index = position[1] * LevelManager.NUM_COLS + position[0];
+      if (stamp[index] == 0) {
+        stamp[index]                 = 1;
+        landingX[ply][count]         = position[0];
+        landingY[ply][count]         = position[1];
+        landingDirection[ply][count] = i;
+        count++;
+      }
+    }
+    numLandings[ply] = count;
+  }
+
+  /**
+   * Evaluate the best launch from the landing locations found for a
+   * grid.
+   * @param ply - the launch index.
+   * @param current - the current launch color.
+   * @param next - the next launch color.
+   * @param depth - the number of launches left to look ahead.
+   * @return The value of the best launch.
+   */
+  private double maxLaunch(int ply, int current, int next, int depth) {
+    double best = Double.NEGATIVE_INFINITY;
+    int    numColors = current != next ? 2 : 1;
+
+    for (int i = 0; i < numLandings[ply]; i++) {
+      for (int swap = 0; swap < numColors; swap++) {
+        double value;
+        if (swap == 0) {
+          value = launchValue(ply, i, current, next, depth);
+        }
+        else {
+          value = launchValue(ply, i, next, current, depth);
+        }
+        if (value > best) {
+          best = value;
+          if (ply == 0) {
+            rootLanding = i;
+            rootSwap    = swap != 0;
+          }
+        }
+      }
+
+      if ((depth > 1) && ((System.nanoTime() > deadlineNanos) ||
+                          Thread.currentThread().isInterrupted())) {
+        timedOut = true;
+      }
+      if (timedOut) {
+        break;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Evaluate a launch.
+   * @param ply - the launch index.
+   * @param landing - the landing location index.
+   * @param launched - the color of the launched bubble.
+   * @param remaining - the color of the bubble not launched, which will
+   * be the current bubble for the next launch.
+   * @param depth - the number of launches left to look ahead.
+   * @return The value of the launch, including the expected value of
+   * the launches to come.
+   */
+  private double launchValue(int ply, int landing, int launched,
+                             int remaining, int depth) {
+    GridBitboard board = boards[ply];
+    int          x     = landingX[ply][landing];
+    int          y     = landingY[ply][landing];
+
+    if ((y >= lostRow) && (board.checkState(x, y, launched) < 3)) {
+      return SCORE_LOST;
+    }
+
+    double score = Freile.scoreOption(board, x, y, launched);
+
+    if (depth <= 1) {
+      return score;
+    }
+
+    GridBitboard child = boards[ply + 1];
+    child.copyFrom(board);
+    child.play(x, y, launched);
+
+    if (child.isEmpty()) {
+      return score + SCORE_CLEARED;
+    }
+
+    /*
+     * Chance node: the next bubble is drawn when the bubble is launched,
+     * among the colors on the grid before it lands.
+     */
+    double[] probability = probabilities[ply + 1];
+    double   expected    = 0.;
+
+    BubbleManager.nextBubbleProbabilities(board.getColorMask(),
+                                          GridBitboard.NUM_COLORS,
+                                          probability);
+    findLandings(ply + 1);
+    for (int next = 0; next < GridBitboard.NUM_COLORS; next++) {
+      if (probability[next] > 0.) {
+        expected += probability[next] *
+                    maxLaunch(ply + 1, remaining, next, depth - 1);
+        if (timedOut) {
+          break;
+        }
+      }
+    }
+    return score + DISCOUNT * expected;
+  }
+
+  /**
+   * Search for the best launch by iterative deepening.  The search at
+   * depth 1 always completes, deeper searches are only used if they
+   * complete before the deadline.
+   * @param state - the game state to search a launch for.
+   * @return The best launch found.
+   */
+  protected Decision decide(Snapshot state) throws InterruptedException {
+    int     bestLanding = 0;
+    boolean bestSwap    = false;
+
+    boards[0].copyFrom(state.grid);
+    compressor = state.compressor;
+
+    findLandings(0);
+    deadlineNanos = System.nanoTime() + deadline * 1000000L;
+    timedOut      = false;
+    lostRow       = LevelManager.NUM_ROWS - 1 - compressor;
+
+    for (int depth = 1; (depth <= MAX_DEPTH) && !timedOut; depth++) {
+      maxLaunch(0, state.color, state.nextColor, depth);
+      if (!timedOut) {
+        bestLanding = rootLanding;
+        bestSwap    = rootSwap;
+      }
+    }
+
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    return new Decision(Freile.SCAN_DIRECTIONS[landingDirection[0][bestLanding]],
+                        landingX[0][bestLanding], landingY[0][bestLanding],
+                        bestSwap);
+  }
+}
@@ -52,12 +52,21 @@
 
 package org.gsanson.frozenbubble;
 
-import org.jfedor.frozenbubble.BubbleSprite;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jfedor.frozenbubble.Bubble;
 import org.jfedor.frozenbubble.LevelManager;
 
 import android.view.KeyEvent;
 
-public class Freile implements Opponent, Runnable {
+public class Freile extends BaseOpponent {
 
   /* Rotation of the launcher */
   public static final double LAUNCHER_ROTATION = 0.05;
@@ -72,6 +81,18 @@ public class Freile implements Opponent, Runnable {
   private static final int BONUS_POTENTIAL_SAME_COLOR = 3;
   private static final int BONUS_SAME_COLOR           = 4;
   private static final int BONUS_DETACHED             = 6;
+  private static final int BONUS_ATTACK               = 2;
+
+  /*
+   * Penalties of the launches after which a line of attack bubbles may
+   * end the game, or land in the rows right above the last row.
+   */
+  private static final int PENALTY_MALUS_LOST         = 1000;
+  private static final int PENALTY_MALUS_CLOSE        = 20;
+  private static final int MALUS_CLOSE_ROWS           = 2;
+
+  /* Value of a launch not considered */
+  private static final int NO_OPTION = Integer.MIN_VALUE;
 
   /* Default option values */
   private static final int[][] BACKGROUND_GRID = 
@@ -84,6 +105,38 @@ public class Freile implements Opponent, Runnable {
    {0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
    {0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}};
 
+  /*
+   * Launcher directions to evaluate, in scan order: from straight up to
+   * the right, then from straight up to the left.
+   */
+  static final double[] SCAN_DIRECTIONS;
+
+  static {
+    int count = 0;
+    for (double direction = 0.;
+         direction < MAX_LAUNCHER;
+         direction += LAUNCHER_ROTATION) {
+      count++;
+    }
+    for (double direction = -LAUNCHER_ROTATION;
+         direction > MIN_LAUNCHER;
+         direction -= LAUNCHER_ROTATION) {
+      count++;
+    }
+    SCAN_DIRECTIONS = new double[count];
+    count = 0;
+    for (double direction = 0.;
+         direction < MAX_LAUNCHER;
+         direction += LAUNCHER_ROTATION) {
+      SCAN_DIRECTIONS[count++] = direction;
+    }
+    for (double direction = -LAUNCHER_ROTATION;
+         direction > MIN_LAUNCHER;
+         direction -= LAUNCHER_ROTATION) {
+      SCAN_DIRECTIONS[count++] = direction;
+    }
+  }
+
   //********************************************************************
   // Listener interface for various opponent events
   //********************************************************************
@@ -104,294 +157,462 @@ public class Freile implements Opponent, Runnable {
     public abstract void onOpponentEvent(eventEnum event);
   }
 
-  OpponentListener mOpponentListener;
-
-  public void setOpponentListener (OpponentListener ol) {
-    mOpponentListener = ol;
-  }
-
-  /* Reference to the managed game grid */
-  private BubbleSprite[][] grid;
+  /*
+   * Worker threads running all the evaluators but the first one, shared
+   * by all the instances.  They are distinct from the opponent service
+   * threads, which wait for the evaluators.
+   */
+  private static ExecutorService executor = null;
+
+  /* Bitboard snapshot of the game grid used to compute options */
+  private GridBitboard bitboard;
+  /* Candidate evaluators, one per worker */
+  private Evaluator[] evaluators;
+  /* Scores of the launches evaluated on previous grids */
+  private TranspositionTable transpositions;
+  /* Hash of the grid to evaluate */
+  private long gridHash;
   /* Current color */
   private int color;
   /* Next color */
   private int nextColor;
   /* Current compressor level */
   private int compressor;
-  /* Swap launch bubble with next bubble? */
+  /* Number of attack bubbles waiting in the malus bar */
+  private int attackBubbles;
+  /* Landing locations of the attack bubbles on the grid to evaluate */
+  private final AttackLanes lanes = new AttackLanes();
+  /* Best option value, and width of the angle interval leading to it */
+  private int     bestOption;
+  private double  bestWidth;
+  private double  bestDirection;
+  private int     bestCell;
   private boolean colorSwap;
-  /* Calculating new position */
-  private boolean computing;
-  /* Thread running flag */
-  private boolean running;
-  /* Best direction */
-  private double bestDirection;
-  /* Best location */
-  private int[] bestLocation = {0, 0};
-  /* Grid to compute best options */
-  private int[][] gridOptions;
-  /* Grid to compute bubble states */
-  private int[][] outGrid;
-  /* Neighbor bubble locations to check for collision */
-  private int[][] toCheck = {{0, 0}, {0, 0}, {0, 0}, {0, 0}};
-
-  public Freile(BubbleSprite[][] grid) {
-    this.grid         = grid;
-    gridOptions       = new int[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
-    outGrid           = new int[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
-    mOpponentListener = null;
-    running           = true;
-
-    new Thread(this).start();
+
+  public Freile(Bubble[][] grid) {
+    this(grid, OpponentService.getDefault());
   }
 
-  public void compute(int currentColor, int nextColor, int compressor) {
-    this.color      = currentColor;
-    this.nextColor  = nextColor;
-    this.compressor = compressor;
-    computing       = true;
+  /**
+   * Freile opponent class constructor.
+   * @param grid - the game grid.
+   * @param service - the service computing the decisions.
+   */
+  public Freile(Bubble[][] grid, OpponentService service) {
+    super(grid, service);
+    initEvaluators();
+  }
 
-    synchronized (this) {
-      notify();
+  /**
+   * Freile opponent class constructor, for a game grid only kept as a
+   * bitboard.
+   * @param board - the bitboard of the game grid.
+   * @param service - the service computing the decisions.
+   */
+  public Freile(GridBitboard board, OpponentService service) {
+    super(board, service);
+    initEvaluators();
+  }
+
+  private void initEvaluators() {
+    int numWorkers = Math.min(Runtime.getRuntime().availableProcessors(),
+                              SCAN_DIRECTIONS.length);
+
+    evaluators     = new Evaluator[Math.max(1, numWorkers)];
+    transpositions = new TranspositionTable();
+
+    for (int i = 0; i < evaluators.length; i++) {
+      evaluators[i] = new Evaluator();
+    }
+
+    if (evaluators.length > 1) {
+      getExecutor(evaluators.length - 1);
     }
   }
 
-  private int computeOption(int posX, int posY, int color,
-                            int[][] gridOptions, int[][] outGrid) {
-    if (gridOptions[posX][posY] == 0) {
-      int option = BACKGROUND_GRID[posX][posY];
-
-      CollisionHelper.checkState(posX, posY, color, grid, outGrid);
-      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
-          if (i != posX || j != posY) {
-            switch (outGrid[i][j]) {
-              case CollisionHelper.STATE_REMOVE:
-                option += BONUS_SAME_COLOR;
-                break;
-              case CollisionHelper.STATE_POTENTIAL_REMOVE:
-                option += BONUS_POTENTIAL_SAME_COLOR;
-                break;
-              case CollisionHelper.STATE_DETACHED:
-                option += BONUS_DETACHED;
-                break;
-              case CollisionHelper.STATE_POTENTIAL_DETACHED:
-                option += BONUS_POTENTIAL_DETACHED;
-                break;
-            }
-          }
+  private static synchronized ExecutorService getExecutor(int numThreads) {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numThreads,
+                                              new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "freile-evaluator");
+          thread.setDaemon(true);
+          return thread;
         }
-      }
-      gridOptions[posX][posY] = option;
+      });
     }
-    return gridOptions[posX][posY];
+    return executor;
   }
 
-  public int getAction(double currentDirection) {
-    int direction = 0;
+  private static int computeOption(GridBitboard bitboard,
+                                   TranspositionTable transpositions,
+                                   long gridHash,
+                                   int posX, int posY, int color) {
+    int option = transpositions.get(gridHash, posX, posY, color);
+    if (option < 0) {
+      option = scoreOption(bitboard, posX, posY, color);
+      transpositions.put(gridHash, posX, posY, color, option);
+    }
+    return option;
+  }
 
-    /*
-     * If the flag is set to swap the current launch bubble with the
-     * next one, then return the appropriate action.
-     * 
-     * If the angle error is less than a minimum acceptable threshold,
-     * cease aiming the launcher and fire the bubble.
-     * 
-     * Otherwise, rotate the launcher to the appropriate firing angle.
-     */
-    if (colorSwap) {
-      direction = KeyEvent.KEYCODE_DPAD_DOWN;
-      colorSwap = false;
+  /**
+   * Score the launch of a bubble into a grid location.  The bubbles of
+   * the grid (other than the new bubble and the last row) are scored
+   * according to their state after the new bubble is added.  The
+   * bitboard counts the bubbles in each state directly rather than
+   * building the whole state grid.  A launch removing a group also
+   * scores the attack bubbles it sends to the other player.
+   * @param bitboard - the grid of fixed bubbles.
+   * @param posX - X-coord of the new bubble.
+   * @param posY - Y-coord of the new bubble.
+   * @param color - color of the new bubble.
+   * @return The option value, higher values being better options.
+   */
+  static int scoreOption(GridBitboard bitboard, int posX, int posY,
+                         int color) {
+    int option = BACKGROUND_GRID[posX][posY];
+
+    if (bitboard.checkState(posX, posY, color) >= 3) {
+      option += BONUS_SAME_COLOR * bitboard.countRemoved() +
+                BONUS_DETACHED * bitboard.countDetached() +
+                BONUS_ATTACK * Math.max(0, bitboard.countRemoved() +
+                                           bitboard.countDetached() - 2);
     }
-    else if (Math.abs(currentDirection - bestDirection) < 0.04) {
-      direction = KeyEvent.KEYCODE_DPAD_UP;
-    } else {
-      if (currentDirection < bestDirection) {
-        direction = KeyEvent.KEYCODE_DPAD_RIGHT;
-      } else {
-        direction = KeyEvent.KEYCODE_DPAD_LEFT;
-      }
+    else {
+      option += BONUS_POTENTIAL_SAME_COLOR * bitboard.countRemoved() +
+                BONUS_POTENTIAL_DETACHED * bitboard.countDetached();
     }
-    return direction;
+    return option;
   }
 
-  public int[] getBubbleDestination() {
-    return bestLocation;
+  /**
+   * Get the action required to aim the launcher in a direction.
+   * <p>If the angle error is less than a minimum acceptable threshold,
+   * cease aiming the launcher and fire the bubble.
+   * <p>Otherwise, rotate the launcher to the appropriate firing angle.
+   * @param currentDirection - the current launcher direction.
+   * @param bestDirection - the direction to aim the launcher at.
+   * @return The action identifier of the next CPU action.
+   */
+  static int getAimAction(double currentDirection, double bestDirection) {
+    if (Math.abs(currentDirection - bestDirection) < 0.04) {
+      return KeyEvent.KEYCODE_DPAD_UP;
+    } else if (currentDirection < bestDirection) {
+      return KeyEvent.KEYCODE_DPAD_RIGHT;
+    } else {
+      return KeyEvent.KEYCODE_DPAD_LEFT;
+    }
   }
 
-  private boolean getCollision(double direction, int[] position) {
-    boolean collision = false;
-    double  posX      = 112.;
-    double  posY      = 350. - compressor * 28.;
-    double  speedX    = MOVE_SPEED * Math.cos(direction - Math.PI / 2.);
-    double  speedY    = MOVE_SPEED * Math.sin(direction - Math.PI / 2.);
-
-    while (!collision) {
-      posX += speedX;
-      posY += speedY;
-
-      if (posX < 0.) {
-        posX = - posX;
-        speedX = -speedX;
-      } else if (posX > 224.) {
-        posX = 448. - posX;
-        speedX = -speedX;
-      }
-
-      /*
-       * Check top collision.
-       */
-      if (posY < 0.) {
-        int valX = (int) posX;
+  /**
+   * Get the cache of launch scores, to monitor its hit rate.
+   * @return The transposition table of this opponent.
+   */
+  public TranspositionTable getTranspositionTable() {
+    return transpositions;
+  }
 
-        collision = true;
-        position[0] = valX >> 5;
+  /**
+   * Compare the launches into the landing location of an angle interval
+   * with the best launch found so far.  Launches of equal value are
+   * ranked by interval width, as aiming at the center of a wider
+   * interval leaves more room for error.
+   * @param cell - the landing location, or -1 if there is none.
+   * @param low - the lower angle of the interval.
+   * @param high - the upper angle of the interval.
+   * @param aimLow - the first angle known to land in the interval.
+   * @param aimHigh - the last angle known to land in the interval.
+   * @param option - the value of the current color launch.
+   * @param nextOption - the value of the next color launch, or
+   * <code>NO_OPTION</code>.
+   */
+  private void considerInterval(int cell, double low, double high,
+                                double aimLow, double aimHigh,
+                                int option, int nextOption) {
+    if (cell == -1) {
+      return;
+    }
 
-        if ((valX & 16) > 0) {
-          position[0]++;
-        }
+    double width = high - low;
 
-        position[1] = 0;
-      } else {
-        /*
-         * Check other collision.
-         */
-        collision = CollisionHelper.collide((int) posX, (int) posY,
-                                            grid, toCheck, position);
+    for (int swap = 0; swap < 2; swap++) {
+      int value = swap == 0 ? option : nextOption;
+      if (value == NO_OPTION) {
+        continue;
+      }
+      if ((value > bestOption) ||
+          ((value == bestOption) && (width > bestWidth))) {
+        bestOption    = value;
+        bestWidth     = width;
+        bestDirection = AngleScanner.getAim(low, high, aimLow, aimHigh);
+        bestCell      = cell;
+        colorSwap     = swap != 0;
       }
     }
-    return collision;
   }
 
-  public double getExactDirection(double currentDirection) {
+  protected Decision decide(Snapshot state) throws InterruptedException {
     /*
-     * currentDirection is not used here.
+     * Evaluate the candidate directions for the current and the next
+     * color.
      */
-    return bestDirection;
+    bitboard      = state.grid;
+    color         = state.color;
+    nextColor     = state.nextColor;
+    compressor    = state.compressor;
+    attackBubbles = state.attackBubbles;
+    gridHash      = state.gridHash;
+    transpositions.newTurn();
+    if (attackBubbles > 0) {
+      lanes.setGrid(bitboard, compressor);
+    }
+    evaluate();
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+
+    /*
+     * Check for best option.  The evaluators scanned consecutive angle
+     * ranges, so an interval spanning two ranges is split in two, which
+     * are merged back before being compared.
+     */
+    int    cell       = -1;
+    double low        = 0.;
+    double high       = 0.;
+    double aimLow     = 0.;
+    double aimHigh    = 0.;
+    int    option     = NO_OPTION;
+    int    nextOption = NO_OPTION;
+
+    bestOption    = NO_OPTION;
+    bestWidth     = 0.;
+    bestDirection = 0.;
+    bestCell      = 0;
+    colorSwap     = false;
+    for (int i = 0; i < evaluators.length; i++) {
+      Evaluator    evaluator = evaluators[i];
+      AngleScanner scanner   = evaluator.scanner;
+      for (int j = 0; j < scanner.getNumIntervals(); j++) {
+        if ((scanner.getCell(j) == cell) && (scanner.getLow(j) == high)) {
+          high    = scanner.getHigh(j);
+          aimHigh = scanner.getAimHigh(j);
+        }
+        else {
+          considerInterval(cell, low, high, aimLow, aimHigh, option,
+                           nextOption);
+          cell       = scanner.getCell(j);
+          low        = scanner.getLow(j);
+          high       = scanner.getHigh(j);
+          aimLow     = scanner.getAimLow(j);
+          aimHigh    = scanner.getAimHigh(j);
+          option     = evaluator.options[0][j];
+          nextOption = evaluator.options[1][j];
+        }
+      }
+    }
+    considerInterval(cell, low, high, aimLow, aimHigh, option,
+                     nextOption);
+    return new Decision(bestDirection, bestCell % LevelManager.NUM_COLS,
+                        bestCell / LevelManager.NUM_COLS, colorSwap);
   }
 
   /**
-   * Checks if work is still in progress.
-   * @return true if the calculation is not yet finished
+   * Scan the launcher range and evaluate the launches into each landing
+   * location found.  The coarse sweep samples are split into
+   * consecutive ranges, one per evaluator, consecutive ranges sharing
+   * their boundary sample.  The first range is evaluated by the calling
+   * thread, the others by the worker threads.
    */
-  public boolean isComputing() {
-    return computing;
-  }
+  private void evaluate() {
+    List<Future<Void>> futures =
+      new ArrayList<Future<Void>>(evaluators.length);
+    int first = 0;
+
+    for (int i = 0; i < evaluators.length; i++) {
+      int last = ((AngleScanner.NUM_SAMPLES - 1) * (i + 1)) /
+                 evaluators.length;
+      evaluators[i].init(first, last);
+      first = last;
+    }
 
-  public void run() {
-    while (running) {
-      if (computing) {
-        computing = false;
-        if (mOpponentListener != null) {
-          mOpponentListener.onOpponentEvent(eventEnum.DONE_COMPUTING);
-        }
-      }
+    for (int i = 1; i < evaluators.length; i++) {
+      futures.add(executor.submit(evaluators[i]));
+    }
 
-      while (running && !computing) {
-        try {
-          synchronized(this) {
-            wait(1000);
-          }
-        } catch (InterruptedException e) {
-          // TODO - auto-generated exception handler stub.
-          //e.printStackTrace();
-        }
-      }
+    evaluators[0].call();
 
-      if (running) {
+    for (int i = 1; i < evaluators.length; i++) {
+      try {
+        futures.get(i - 1).get();
+      } catch (InterruptedException e) {
         /*
-         * Initialize grid options.
+         * Stop the evaluators still queued, and wait for the running
+         * ones to finish before discarding their results, so that none
+         * of them is still running when the next decision starts.
          */
+        for (int j = i; j < evaluators.length; j++) {
+          futures.get(j - 1).cancel(false);
+          evaluators[j].cancel();
+        }
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        evaluators[i].clear();
+      }
+    }
+  }
+
+  /**
+   * Scans a range of the launcher angles, and evaluates the launch of
+   * the current color and of the next color into the landing location
+   * of each angle interval found.
+   * <p>Each evaluator has its own copy of the grid and its own scratch
+   * data, so evaluators can run concurrently.
+   */
+  private class Evaluator implements Callable<Void> {
+    private final GridBitboard     bitboard = new GridBitboard();
+    private final TrajectoryCaster caster   = new TrajectoryCaster();
+    final AngleScanner             scanner  = new AngleScanner();
+    /* Grids to compute best options, for the current and next colors */
+    private final int[][][] gridOptions =
+      new int[2][LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+    /* Options of the intervals, for the current and next colors */
+    final int[][] options = new int[2][AngleScanner.MAX_INTERVALS];
+    /* Grid after a launch, and the attack bubble landing locations */
+    private final GridBitboard after    = new GridBitboard();
+    private final int[]        landings = new int[AttackLanes.NUM_LANES];
+    private int first;
+    private int last;
+    /* Whether the current evaluation was cancelled */
+    private boolean cancelled;
+
+    synchronized void init(int first, int last) {
+      this.first     = first;
+      this.last      = last;
+      this.cancelled = false;
+    }
+
+    /**
+     * Discard the intervals found, if the evaluation failed.
+     */
+    void clear() {
+      scanner.clear();
+    }
+
+    /**
+     * Cancel the current evaluation.  This waits for the evaluation to
+     * finish if it is running, and prevents it from running if it has
+     * not started yet, then discards the intervals found.
+     */
+    synchronized void cancel() {
+      cancelled = true;
+      scanner.clear();
+    }
+
+    public synchronized Void call() {
+      if (cancelled) {
+        return null;
+      }
+      bitboard.copyFrom(Freile.this.bitboard);
+      caster.setGrid(bitboard);
+      for (int k = 0; k < 2; k++) {
         for (int i = 0; i < LevelManager.NUM_COLS; i++) {
           for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
-            gridOptions[i][j] = 0;
+            gridOptions[k][i][j] = 0;
           }
         }
+      }
 
-        /*
-         * Check for best option.
-         */
-        int bestOption = -1;
-        int newOption;
-        int[] position = {0, 0};
-
-        bestDirection   = 0.;
-        bestLocation[0] = 0;
-        bestLocation[1] = 0;
-        colorSwap       = false;
-        for (double direction = 0.;
-             direction < MAX_LAUNCHER;
-             direction += LAUNCHER_ROTATION) {
-          getCollision(direction, position);
-          newOption = computeOption(position[0], position[1],
-                                    color, gridOptions, outGrid);
-          if (newOption > bestOption) {
-            bestOption      = newOption;
-            bestDirection   = direction;
-            bestLocation[0] = position[0];
-            bestLocation[1] = position[1];
-          }        
+      scanner.scan(caster, compressor, first, last);
+      for (int i = 0; i < scanner.getNumIntervals(); i++) {
+        int posX = scanner.getCell(i) % LevelManager.NUM_COLS;
+        int posY = scanner.getCell(i) / LevelManager.NUM_COLS;
+        options[0][i] = getOption(posX, posY, color, gridOptions[0]);
+        if (color != nextColor) {
+          options[1][i] = getOption(posX, posY, nextColor, gridOptions[1]);
         }
-        for (double direction = -LAUNCHER_ROTATION;
-             direction > MIN_LAUNCHER;
-             direction -= LAUNCHER_ROTATION) {
-          getCollision(direction, position);
-          newOption = computeOption(position[0], position[1],
-                                    color, gridOptions, outGrid);
-          if (newOption > bestOption) {
-            bestOption      = newOption;
-            bestDirection   = direction;
-            bestLocation[0] = position[0];
-            bestLocation[1] = position[1];
-          }
+        else {
+          options[1][i] = NO_OPTION;
         }
-        if (color != nextColor) {
-          for (double direction = 0.;
-               direction < MAX_LAUNCHER;
-               direction += LAUNCHER_ROTATION) {
-            getCollision(direction, position);
-            newOption = computeOption(position[0], position[1],
-                                      nextColor, gridOptions, outGrid);
-            if (newOption > bestOption) {
-              bestOption      = newOption;
-              bestDirection   = direction;
-              bestLocation[0] = position[0];
-              bestLocation[1] = position[1];
-              colorSwap       = true;
-            }       
+      }
+      return null;
+    }
+
+    private int getOption(int posX, int posY, int color,
+                          int[][] gridOptions) {
+      if (gridOptions[posX][posY] == 0) {
+        int option = computeOption(bitboard, transpositions, gridHash,
+                                   posX, posY, color);
+        if (attackBubbles > 0) {
+          option -= getMalusRisk(posX, posY, color);
+        }
+        gridOptions[posX][posY] = option;
+      }
+      return gridOptions[posX][posY];
+    }
+
+    /**
+     * Estimate the risk of a launch once the attack bubbles waiting in
+     * the malus bar are released.
+     * <p>A line of attack bubbles is released into distinct random
+     * lanes after a launch which detaches no bubble.  The landing
+     * location of each lane is predicted on the grid after the launch,
+     * and the risk is the probability that a lane ending the game is
+     * drawn, plus a smaller penalty for each lane landing right above
+     * the last row, weighted by the probability that it is drawn.
+     * @param posX - X-coord of the launched bubble.
+     * @param posY - Y-coord of the launched bubble.
+     * @param color - color of the launched bubble.
+     * @return The penalty of the launch.
+     */
+    private int getMalusRisk(int posX, int posY, int color) {
+      after.copyFrom(bitboard);
+
+      int group   = after.checkState(posX, posY, color);
+      int removed = after.play(posX, posY, color);
+
+      if ((removed > group) || after.isEmpty()) {
+        return 0;
+      }
+
+      if (removed == 0) {
+        lanes.predict(after, AttackLanes.getFirstLane(posX, posY),
+                      AttackLanes.getLastLane(posX, posY), landings);
+      }
+      else {
+        lanes.predict(after, 0, AttackLanes.NUM_LANES - 1, landings);
+      }
+
+      int lostRow  = LevelManager.NUM_ROWS - 1 - compressor;
+      int released = Math.min(Malus.MAX_ATTACK, attackBubbles);
+      int losing   = 0;
+      int close    = 0;
+
+      for (int lane = 0; lane < AttackLanes.NUM_LANES; lane++) {
+        if (landings[lane] != -1) {
+          int row = landings[lane] / LevelManager.NUM_COLS;
+          if (row >= lostRow) {
+            losing++;
           }
-          for (double direction = -LAUNCHER_ROTATION;
-               direction > MIN_LAUNCHER;
-               direction -= LAUNCHER_ROTATION) {
-            getCollision(direction, position);
-            newOption = computeOption(position[0], position[1],
-                                      nextColor, gridOptions, outGrid);
-            if (newOption > bestOption) {
-              bestOption      = newOption;
-              bestDirection   = direction;
-              bestLocation[0] = position[0];
-              bestLocation[1] = position[1];
-              colorSwap       = true;
-            }
+          else if (row >= lostRow - MALUS_CLOSE_ROWS) {
+            close += row - (lostRow - MALUS_CLOSE_ROWS) + 1;
           }
         }
       }
-    }
-    gridOptions = null;
-    outGrid     = null;
-  }
 
-  /**
-   * Stop the thread <code>run()</code> execution.
-   * <p>This method will call <code>notify()</code> to resume the thread
-   * if it is suspended via <code>wait()</code>.
-   */
-  public void stopThread() {
-    running = false;
-    mOpponentListener = null;
+      /*
+       * Probability that none of the losing lanes is drawn.
+       */
+      double safe = 1.;
+      for (int i = 0; i < released; i++) {
+        safe *= Math.max(0., (double)(AttackLanes.NUM_LANES - losing - i) /
+                             (AttackLanes.NUM_LANES - i));
+      }
 
-    synchronized(this) {
-      notify();
+      return (int)Math.round(PENALTY_MALUS_LOST * (1. - safe) +
+                             PENALTY_MALUS_CLOSE * close * released /
+                             (double)AttackLanes.NUM_LANES);
     }
   }
 }
@@ -0,0 +1,569 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.BubbleManager;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Bitboard model of the bubble grid used by the CPU opponent.
+ * <p>The 8x13 grid holds 104 cells, so each cell set fits in two
+ * <code>long</code> words.  Cell <code>(x, y)</code> is stored at bit
+ * index <code>y * NUM_COLS + x</code>.  Rows 0 to 7 are held in the low
+ * word and rows 8 to 12 in the 40 low bits of the high word.
+ * <p>There is one cell set per bubble color plus an occupancy set.
+ * Flood fills are performed bit-parallel, by dilating a whole cell set
+ * at once with precomputed hex neighbor shift masks for even and odd
+ * rows.
+ * @author Eric Fortin
+ */
+public class GridBitboard {
+
+  public static final int NUM_COLORS = BubbleManager.NUM_COLORS;
+  public static final int NUM_CELLS  = LevelManager.NUM_COLS *
+                                       LevelManager.NUM_ROWS;
+
+  /* Number of grid cells held in the low word */
+  private static final int  LO_CELLS = 64;
+  /* Valid bits of the high word */
+  private static final long HI_VALID = (1L << (NUM_CELLS - LO_CELLS)) - 1;
+
+  /*
+   * Shift masks.  Index 0 is the low word, index 1 is the high word.
+   */
+  private static final long[] NOT_FIRST_COL = new long[2];
+  private static final long[] NOT_LAST_COL  = new long[2];
+  private static final long[] EVEN_ROWS     = new long[2];
+  private static final long[] ODD_ROWS      = new long[2];
+  private static final long[] TOP_ROW       = new long[2];
+  /* Rows which are allowed to propagate downwards */
+  private static final long[] DOWN_ROWS     = new long[2];
+  /* Rows taken into account by countRemoved() and countDetached() */
+  private static final long[] SCORED_ROWS   = new long[2];
+
+  static {
+    for (int y = 0; y < LevelManager.NUM_ROWS; y++) {
+      for (int x = 0; x < LevelManager.NUM_COLS; x++) {
+        int  index = y * LevelManager.NUM_COLS + x;
+        int  word  = index < LO_CELLS ? 0 : 1;
+        long bit   = 1L << (index & 63);
+
+        if (x != 0) {
+          NOT_FIRST_COL[word] |= bit;
+        }
+        if (x != (LevelManager.NUM_COLS - 1)) {
+          NOT_LAST_COL[word] |= bit;
+        }
+        if ((y % 2) == 0) {
+          EVEN_ROWS[word] |= bit;
+        }
+        else {
+          ODD_ROWS[word] |= bit;
+        }
+        if (y == 0) {
+          TOP_ROW[word] |= bit;
+        }
+        /*
+         * The neighbor check used by CollisionHelper never propagates
+         * into the last row, so only rows 0 to NUM_ROWS - 3 propagate
+         * downwards.
+         */
+        if (y < (LevelManager.NUM_ROWS - 2)) {
+          DOWN_ROWS[word] |= bit;
+        }
+        if (y < (LevelManager.NUM_ROWS - 1)) {
+          SCORED_ROWS[word] |= bit;
+        }
+      }
+    }
+  }
+
+  /* Occupied cells */
+  private long occupiedLo, occupiedHi;
+  /* Occupied cells per color */
+  private final long[] colorLo = new long[NUM_COLORS];
+  private final long[] colorHi = new long[NUM_COLORS];
+  /* Result of the last dilation */
+  private long dilatedLo, dilatedHi;
+  /* Result of the last call to checkState() */
+  private long originLo, originHi;
+  private long removeLo, removeHi;
+  private long attachedLo, attachedHi;
+
+  public GridBitboard() {
+    clear();
+  }
+
+  /**
+   * Remove all the bubbles from the bitboard.
+   */
+  public void clear() {
+    occupiedLo = 0;
+    occupiedHi = 0;
+    for (int i = 0; i < NUM_COLORS; i++) {
+      colorLo[i] = 0;
+      colorHi[i] = 0;
+    }
+  }
+
+  /**
+   * Copy the contents of another bitboard into this one.
+   * @param source - the bitboard to copy.
+   */
+  public void copyFrom(GridBitboard source) {
+    occupiedLo = source.occupiedLo;
+    occupiedHi = source.occupiedHi;
+    for (int i = 0; i < NUM_COLORS; i++) {
+      colorLo[i] = source.colorLo[i];
+      colorHi[i] = source.colorHi[i];
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof GridBitboard)) {
+      return false;
+    }
+
+    GridBitboard other = (GridBitboard)o;
+    if ((occupiedLo != other.occupiedLo) ||
+        (occupiedHi != other.occupiedHi)) {
+      return false;
+    }
+    for (int i = 0; i < NUM_COLORS; i++) {
+      if ((colorLo[i] != other.colorLo[i]) ||
+          (colorHi[i] != other.colorHi[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    long hash = occupiedLo * 31 + occupiedHi;
+
+    for (int i = 0; i < NUM_COLORS; i++) {
+      hash = hash * 31 + colorLo[i];
+      hash = hash * 31 + colorHi[i];
+    }
+    return (int)(hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Load the bitboard from a grid of bubble sprites.
+   * @param grid - the grid of fixed bubbles.
+   */
+  public void load(Bubble[][] grid) {
+    clear();
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        Bubble bubble = grid[i][j];
+        if (bubble != null) {
+          set(i, j, bubble.getColor());
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the color of the bubble at the specified grid location.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @return The bubble color, or -1 if the location is empty.
+   */
+  public int getColor(int x, int y) {
+    int  index = y * LevelManager.NUM_COLS + x;
+    long bit   = 1L << (index & 63);
+
+    if (index < LO_CELLS) {
+      if ((occupiedLo & bit) != 0) {
+        for (int color = 0; color < NUM_COLORS; color++) {
+          if ((colorLo[color] & bit) != 0) {
+            return color;
+          }
+        }
+      }
+    }
+    else if ((occupiedHi & bit) != 0) {
+      for (int color = 0; color < NUM_COLORS; color++) {
+        if ((colorHi[color] & bit) != 0) {
+          return color;
+        }
+      }
+    }
+    return -1;
+  }
+
+  public boolean isOccupied(int x, int y) {
+    int index = y * LevelManager.NUM_COLS + x;
+
+    if (index < LO_CELLS) {
+      return (occupiedLo & (1L << index)) != 0;
+    }
+    return (occupiedHi & (1L << (index - LO_CELLS))) != 0;
+  }
+
+  /**
+   * Place a bubble in the bitboard.  Any bubble already occupying the
+   * location is replaced.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @param color - the bubble color.
+   */
+  public void set(int x, int y, int color) {
+    remove(x, y);
+    int index = y * LevelManager.NUM_COLS + x;
+
+    if (index < LO_CELLS) {
+      long bit = 1L << index;
+      occupiedLo     |= bit;
+      colorLo[color] |= bit;
+    }
+    else {
+      long bit = 1L << (index - LO_CELLS);
+      occupiedHi     |= bit;
+      colorHi[color] |= bit;
+    }
+  }
+
+  /**
+   * Remove a bubble from the bitboard.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   */
+  public void remove(int x, int y) {
+    int index = y * LevelManager.NUM_COLS + x;
+
+    if (index < LO_CELLS) {
+      long bit = ~(1L << index);
+      occupiedLo &= bit;
+      for (int i = 0; i < NUM_COLORS; i++) {
+        colorLo[i] &= bit;
+      }
+    }
+    else {
+      long bit = ~(1L << (index - LO_CELLS));
+      occupiedHi &= bit;
+      for (int i = 0; i < NUM_COLORS; i++) {
+        colorHi[i] &= bit;
+      }
+    }
+  }
+
+  /**
+   * Compute the set of all the hex grid neighbors of the supplied cell
+   * set.  The result is stored in <code>dilatedLo</code> and
+   * <code>dilatedHi</code>.
+   * <p>Even rows neighbor columns <code>x</code> and <code>x + 1</code>
+   * of the adjacent rows, odd rows neighbor columns <code>x - 1</code>
+   * and <code>x</code>.
+   * @param lo - the low word of the cell set.
+   * @param hi - the high word of the cell set.
+   */
+  private void dilate(long lo, long hi) {
+    long evenLo = lo & EVEN_ROWS[0];
+    long evenHi = hi & EVEN_ROWS[1];
+    long oddLo  = lo & ODD_ROWS[0];
+    long oddHi  = hi & ODD_ROWS[1];
+    long downLo = lo & DOWN_ROWS[0];
+    long downHi = hi & DOWN_ROWS[1];
+    long downEvenLo = downLo & EVEN_ROWS[0];
+    long downEvenHi = downHi & EVEN_ROWS[1];
+    long downOddLo  = downLo & ODD_ROWS[0];
+    long downOddHi  = downHi & ODD_ROWS[1];
+
+    /*
+     * Same row: x + 1, x - 1.  Upper row: x (any row), x + 1 (even
+     * rows), x - 1 (odd rows).
+     */
+    long outLo =
+      ((lo << 1) & NOT_FIRST_COL[0]) |
+      (((lo >>> 1) | (hi << 63)) & NOT_LAST_COL[0]) |
+      ((lo >>> 8) | (hi << 56)) |
+      (((evenLo >>> 7) | (evenHi << 57)) & NOT_FIRST_COL[0]) |
+      (((oddLo >>> 9) | (oddHi << 55)) & NOT_LAST_COL[0]);
+    long outHi =
+      (((hi << 1) | (lo >>> 63)) & NOT_FIRST_COL[1]) |
+      ((hi >>> 1) & NOT_LAST_COL[1]) |
+      (hi >>> 8) |
+      ((evenHi >>> 7) & NOT_FIRST_COL[1]) |
+      ((oddHi >>> 9) & NOT_LAST_COL[1]);
+
+    /*
+     * Lower row: x (any row), x + 1 (even rows), x - 1 (odd rows).
+     */
+    outLo |=
+      (downLo << 8) |
+      ((downEvenLo << 9) & NOT_FIRST_COL[0]) |
+      ((downOddLo << 7) & NOT_LAST_COL[0]);
+    outHi |=
+      ((downHi << 8) | (downLo >>> 56)) |
+      (((downEvenHi << 9) | (downEvenLo >>> 55)) & NOT_FIRST_COL[1]) |
+      (((downOddHi << 7) | (downOddLo >>> 57)) & NOT_LAST_COL[1]);
+
+    dilatedLo = outLo;
+    dilatedHi = outHi & HI_VALID;
+  }
+
+  /**
+   * Check states of all bubbles.  This is a bit-parallel equivalent of
+   * <code>CollisionHelper.checkState()</code>, and produces exactly the
+   * same states.
+   * @param x X-coord of the new bubble.
+   * @param y Y-Coord of the new bubble.
+   * @param color Color of new new bubble.
+   * @param outGrid Grid to store all the new states in.  If the new
+   * bubble doesn't change anything, values are only potential.
+   * @return The number of bubbles in the group of the new bubble,
+   * including the new bubble itself.
+   */
+  public int checkState(int x, int y, int color, int[][] outGrid) {
+    int nbRemove = checkState(x, y, color);
+    int remove   = nbRemove >= 3 ?
+        CollisionHelper.STATE_REMOVE : CollisionHelper.STATE_POTENTIAL_REMOVE;
+    int detached = nbRemove >= 3 ?
+        CollisionHelper.STATE_DETACHED :
+        CollisionHelper.STATE_POTENTIAL_DETACHED;
+
+    for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        int  index = j * LevelManager.NUM_COLS + i;
+        long bit   = 1L << (index & 63);
+        long occupied, removed, attached;
+
+        if (index < LO_CELLS) {
+          occupied = occupiedLo & bit;
+          removed  = removeLo & bit;
+          attached = attachedLo & bit;
+        }
+        else {
+          occupied = occupiedHi & bit;
+          removed  = removeHi & bit;
+          attached = attachedHi & bit;
+        }
+
+        if (removed != 0) {
+          outGrid[i][j] = remove;
+        }
+        else if (attached != 0) {
+          outGrid[i][j] = CollisionHelper.STATE_ATTACHED;
+        }
+        else if (occupied != 0) {
+          outGrid[i][j] = detached;
+        }
+        else {
+          outGrid[i][j] = CollisionHelper.STATE_UNDEFINED;
+        }
+      }
+    }
+    return nbRemove;
+  }
+
+  /**
+   * Compute the group of same colored bubbles connected to the new
+   * bubble, and the set of bubbles still attached to the ceiling once
+   * that group is removed.  The resulting states may be obtained via
+   * <code>countRemoved()</code> and <code>countDetached()</code>
+   * without building the whole state grid.
+   * @param x X-coord of the new bubble.
+   * @param y Y-Coord of the new bubble.
+   * @param color Color of new new bubble.
+   * @return The number of bubbles in the group of the new bubble,
+   * including the new bubble itself.
+   */
+  public int checkState(int x, int y, int color) {
+    int  index    = y * LevelManager.NUM_COLS + x;
+    originLo      = index < LO_CELLS ? 1L << index : 0;
+    originHi      = index < LO_CELLS ? 0 : 1L << (index - LO_CELLS);
+    long sameLo   = colorLo[color] | originLo;
+    long sameHi   = colorHi[color] | originHi;
+
+    /*
+     * Flood fill the same color group from the new bubble.
+     */
+    long groupLo = originLo;
+    long groupHi = originHi;
+    long prevLo, prevHi;
+    do {
+      prevLo = groupLo;
+      prevHi = groupHi;
+      dilate(groupLo, groupHi);
+      groupLo = (groupLo | dilatedLo) & sameLo;
+      groupHi = (groupHi | dilatedHi) & sameHi;
+    } while ((groupLo != prevLo) || (groupHi != prevHi));
+    removeLo = groupLo;
+    removeHi = groupHi;
+
+    /*
+     * Flood fill the bubbles attached to the ceiling.  The group of the
+     * new bubble blocks the fill even when it is too small to be
+     * removed, as is the case for CollisionHelper.checkState().
+     */
+    long passLo = occupiedLo & ~groupLo;
+    long passHi = occupiedHi & ~groupHi;
+    long fillLo = passLo & TOP_ROW[0];
+    long fillHi = passHi & TOP_ROW[1];
+    do {
+      prevLo = fillLo;
+      prevHi = fillHi;
+      dilate(fillLo, fillHi);
+      fillLo = (fillLo | dilatedLo) & passLo;
+      fillHi = (fillHi | dilatedHi) & passHi;
+    } while ((fillLo != prevLo) || (fillHi != prevHi));
+    attachedLo = fillLo;
+    attachedHi = fillHi;
+
+    return Long.bitCount(groupLo) + Long.bitCount(groupHi);
+  }
+
+  /**
+   * Count the bubbles of the group of the last new bubble passed to
+   * <code>checkState()</code>, excluding the new bubble itself and the
+   * last grid row.
+   * @return The number of bubbles in the group.
+   */
+  public int countRemoved() {
+    return Long.bitCount(removeLo & ~originLo & SCORED_ROWS[0]) +
+           Long.bitCount(removeHi & ~originHi & SCORED_ROWS[1]);
+  }
+
+  /**
+   * Count the bubbles that are (potentially) detached from the ceiling
+   * by the last new bubble passed to <code>checkState()</code>,
+   * excluding the last grid row.
+   * @return The number of detached bubbles.
+   */
+  public int countDetached() {
+    return Long.bitCount(occupiedLo & ~removeLo & ~attachedLo &
+                         SCORED_ROWS[0]) +
+           Long.bitCount(occupiedHi & ~removeHi & ~attachedHi &
+                         SCORED_ROWS[1]);
+  }
+
+  /**
+   * Add a new bubble to the grid as if it was launched into the
+   * supplied location.  If it forms a group of at least 3 bubbles of the
+   * same color, the group is removed along with the bubbles that are no
+   * longer attached to the ceiling.
+   * @param x X-coord of the new bubble.
+   * @param y Y-Coord of the new bubble.
+   * @param color Color of new new bubble.
+   * @return The number of bubbles removed from the grid, including the
+   * new bubble, or 0 if the new bubble sticks to the grid.
+   */
+  public int play(int x, int y, int color) {
+    if (checkState(x, y, color) < 3) {
+      set(x, y, color);
+      return 0;
+    }
+
+    long keepLo  = attachedLo;
+    long keepHi  = attachedHi;
+    int  removed = Long.bitCount(occupiedLo & ~keepLo) +
+                   Long.bitCount(occupiedHi & ~keepHi);
+
+    /*
+     * The new bubble is not part of the grid yet.
+     */
+    if ((occupiedLo & originLo) == 0 && (occupiedHi & originHi) == 0) {
+      removed++;
+    }
+
+    occupiedLo = keepLo;
+    occupiedHi = keepHi;
+    for (int i = 0; i < NUM_COLORS; i++) {
+      colorLo[i] &= keepLo;
+      colorHi[i] &= keepHi;
+    }
+    return removed;
+  }
+
+  /**
+   * Get the set of colors present in the grid.
+   * @return A bit mask with bit <code>i</code> set if at least one
+   * bubble of color <code>i</code> is in the grid.
+   */
+  public int getColorMask() {
+    int mask = 0;
+
+    for (int i = 0; i < NUM_COLORS; i++) {
+      if ((colorLo[i] | colorHi[i]) != 0) {
+        mask |= 1 << i;
+      }
+    }
+    return mask;
+  }
+
+  public boolean isEmpty() {
+    return (occupiedLo | occupiedHi) == 0;
+  }
+
+  /**
+   * Get the lowest row holding a bubble.
+   * @return The index of the lowest row holding a bubble, or -1 if the
+   * grid is empty.
+   */
+  public int getBottomRow() {
+    if (occupiedHi != 0) {
+      return (127 - Long.numberOfLeadingZeros(occupiedHi)) /
+             LevelManager.NUM_COLS;
+    }
+    if (occupiedLo == 0) {
+      return -1;
+    }
+    return (63 - Long.numberOfLeadingZeros(occupiedLo)) /
+           LevelManager.NUM_COLS;
+  }
+}
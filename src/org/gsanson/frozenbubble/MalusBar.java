@@ -53,7 +53,7 @@
 package org.gsanson.frozenbubble;
 
 import org.jfedor.frozenbubble.BmpWrap;
-import org.jfedor.frozenbubble.LevelManager;
+import org.jfedor.frozenbubble.GameSnapshot;
 import org.jfedor.frozenbubble.Sprite;
 
 import android.graphics.Canvas;
@@ -61,24 +61,16 @@ import android.graphics.Rect;
 import android.os.Bundle;
 
 public class MalusBar extends Sprite {
-  public final static int MAX_ATTACK = LevelManager.NUM_COLS - 1;
-
   /* X-pos for tomatoes */
   int minX;
   /* Max Y-pos for bar */
   int maxY;
-  /* Number of waiting bubbles */
-  int nbMalus;
-  /* Time to release bubbles */
-  public int releaseTime;
+  /* Waiting attack bubbles */
+  private final Malus malus;
   /* Banana Image */
   private BmpWrap banana;
   /* Tomato Image */
   private BmpWrap tomato;
-  /* Attack bubble array */
-  public byte[] attackBubbles = { -1, -1, -1, -1, -1,
-                                  -1, -1, -1, -1, -1,
-                                  -1, -1, -1, -1, -1 };
 
   /**
    * Manages a malus bar (bananas & tomatoes).
@@ -90,20 +82,20 @@ public class MalusBar extends Sprite {
    */
   public MalusBar(int coordX, int coordY, BmpWrap banana, BmpWrap tomato) {
     super(new Rect(coordX, coordY, coordX + 33, coordY + 354));
-    minX        = coordX;
-    maxY        = coordY + 354;
-    releaseTime = 0;
+    minX  = coordX;
+    maxY  = coordY + 354;
+    malus = new Malus();
     setBitmaps(banana, tomato);
   }
 
   @Override
   public final void paint(Canvas c, double scale, int dx, int dy) {
-    int count = nbMalus;
+    int count = malus.nbMalus;
     int pos = maxY;
-    while (count >= MAX_ATTACK) {
+    while (count >= Malus.MAX_ATTACK) {
       pos -= 13;
       drawImage(tomato, minX, pos, c, scale, dx, dy);
-      count -= MAX_ATTACK;
+      count -= Malus.MAX_ATTACK;
     }
     while (count > 0) {
       pos -= 11;
@@ -113,64 +105,38 @@ public class MalusBar extends Sprite {
   }
 
   public void addBubbles(int toAdd) {
-    if ((toAdd > 0) && (nbMalus == 0))
-      releaseTime = 0;
-    nbMalus += toAdd;
-  }
-
-  /**
-   * Clear the attack bubbles stored in the attack bubble array.
-   */
-  public void clearAttackBubbles() {
-    for (int i = 0; i < LevelManager.LANES; i++)
-      this.attackBubbles[i] = -1;
+    malus.addBubbles(toAdd);
   }
 
   public int getAttackBarBubbles() {
-    return nbMalus;
-  }
-
-  public int getTypeId() {
-    return Sprite.TYPE_IMAGE;
+    return malus.getAttackBarBubbles();
   }
 
   /**
-   * The number of attack bubbles will be decremented by the supplied
-   * number of bubbles, which is the number of attack bubbles that were
-   * previously launched.
-   * @param remove - the number of attack bubbles to remove from the
-   * total number of attack bubbles.
+   * Obtain the attack bubbles shown by this malus bar.
+   * @return The attack bubbles waiting to be released.
    */
-  public void removeAttackBubbles(int remove) {
-    nbMalus -= remove;
-
-    if (nbMalus < 0)
-      nbMalus = 0;
+  public Malus getMalus() {
+    return malus;
   }
 
-  public int removeLine() {
-    int nb = Math.min(MAX_ATTACK, nbMalus);
-    nbMalus -= nb;
-    return nb;
+  public int getTypeId() {
+    return Sprite.TYPE_MALUS_BAR;
   }
 
   public void restoreState(Bundle map, int id) {
-    nbMalus     = map.getInt(String.format("%d-nbMalus", id));
-    releaseTime = map.getInt(String.format("%d-releaseTime", id));
+    malus.nbMalus     = map.getInt(String.format("%d-nbMalus", id));
+    malus.releaseTime = map.getInt(String.format("%d-releaseTime", id));
   }
 
-  public void saveState(Bundle map, int id) {
-    map.putInt(String.format("%d-nbMalus", id), nbMalus);
-    map.putInt(String.format("%d-releaseTime", id), releaseTime);
+  public void restoreState(GameSnapshot in) {
+    malus.nbMalus     = in.getInt();
+    malus.releaseTime = in.getInt();
   }
 
-  /**
-   * Set the value of an attack bubble color in the attack bubble array.
-   * @param bubbleIndex - the update index in the attack bubble array.
-   * @param bubbleColor - the attack bubble color.
-   */
-  public void setAttackBubble(int bubbleIndex, int bubbleColor) {
-    this.attackBubbles[bubbleIndex] = (byte) bubbleColor;
+  public void saveState(GameSnapshot out) {
+    out.putInt(malus.nbMalus);
+    out.putInt(malus.releaseTime);
   }
 
   /** 
@@ -180,11 +146,7 @@ public class MalusBar extends Sprite {
    * @param attackBubbles - the array of attack bubbles.
    */
   public void setAttackBubbles(int numBubbles, byte[] attackBubbles) {
-    nbMalus = numBubbles;
-
-    if (attackBubbles != null)
-      for (int i = 0; i < LevelManager.LANES; i++)
-        this.attackBubbles[i] = attackBubbles[i];
+    malus.setAttackBubbles(numBubbles, attackBubbles);
   }
 
   public void setBitmaps(BmpWrap banana, BmpWrap tomato) {
@@ -0,0 +1,692 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Random;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * CPU opponent based on a Monte Carlo tree search.
+ * <p>The tree alternates decision nodes, whose edges are the distinct
+ * landing locations reachable with the current or the next bubble
+ * color, and chance outcomes, which are the colors drawn for the next
+ * bubble.  Edges are selected with the UCT formula, and new states are
+ * valued by a rollout, a short game played on a copy of the grid where
+ * each launch is the best of a few random directions.  Rollouts remove
+ * the bubbles detached from the ceiling and lower the compressor every
+ * <code>COMPRESSOR_SHOTS</code> launches.
+ * <p>A search runs until either the rollout budget or the time budget
+ * is spent.  When the grid observed for the next search is the one
+ * predicted for a child of the previous search, the subtree of that
+ * child is kept for the new search.
+ * <p><code>getRolloutsPerSecond()</code> reports the rollout throughput,
+ * which is what the budgets should be tuned from.
+ * @author Eric Fortin
+ */
+public class MonteCarlo extends BaseOpponent {
+
+  /* Default rollout budget per search */
+  public static final int  DEFAULT_ROLLOUTS = 4000;
+  /* Default time budget per search, in milliseconds */
+  public static final long DEFAULT_TIME     = 1000;
+
+  /* Tree capacity */
+  private static final int MAX_NODES      = 16384;
+  private static final int MAX_EDGES      = 65536;
+  /* Maximum number of launches played in the tree per iteration */
+  private static final int MAX_TREE_DEPTH = 16;
+  /* Number of launches played by a rollout */
+  private static final int ROLLOUT_SHOTS   = 8;
+  /* Number of random directions compared per rollout launch */
+  private static final int ROLLOUT_SAMPLES = 4;
+  /* Number of launches between compressor steps */
+  private static final int COMPRESSOR_SHOTS = 8;
+  /* UCT exploration constant */
+  private static final double EXPLORATION    = 0.7;
+  /* Reward weight of the bubbles removed versus the room left */
+  private static final double REMOVED_WEIGHT = 0.5;
+  /* Number of bubbles removed for half the removed reward */
+  private static final double REMOVED_SCALE  = 10.;
+
+  /**
+   * Search tree storage.  Nodes and edges are kept in flat arrays so
+   * that the search does not allocate.  Each node lists its edges as a
+   * contiguous range, and each edge lists its children, one per color
+   * drawn, as a linked list.
+   */
+  private static class Tree {
+    final int[]     nodeDraw      = new int[MAX_NODES];
+    final int[]     nodeSibling   = new int[MAX_NODES];
+    final int[]     nodeFirstEdge = new int[MAX_NODES];
+    final int[]     nodeNumEdges  = new int[MAX_NODES];
+    final int[]     nodeVisits    = new int[MAX_NODES];
+    final int[]     edgeCell      = new int[MAX_EDGES];
+    final int[]     edgeDirection = new int[MAX_EDGES];
+    final boolean[] edgeSwap      = new boolean[MAX_EDGES];
+    final int[]     edgeVisits    = new int[MAX_EDGES];
+    final double[]  edgeValue     = new double[MAX_EDGES];
+    final int[]     edgeChild     = new int[MAX_EDGES];
+    int             numNodes;
+    int             numEdges;
+
+    void clear() {
+      numNodes = 0;
+      numEdges = 0;
+    }
+
+    /**
+     * Add an unexpanded node.
+     * @param draw - the color drawn for the next bubble.
+     * @return The node index, or -1 if the tree is full.
+     */
+    int addNode(int draw) {
+      if (numNodes == MAX_NODES) {
+        return -1;
+      }
+
+      int node = numNodes++;
+      nodeDraw[node]      = draw;
+      nodeSibling[node]   = -1;
+      nodeFirstEdge[node] = -1;
+      nodeNumEdges[node]  = 0;
+      nodeVisits[node]    = 0;
+      return node;
+    }
+
+    /**
+     * Reserve a range of edges.
+     * @param count - the number of edges.
+     * @return The index of the first edge, or -1 if the tree is full.
+     */
+    int addEdges(int count) {
+      if (numEdges + count > MAX_EDGES) {
+        return -1;
+      }
+
+      int first = numEdges;
+      numEdges += count;
+      for (int i = first; i < numEdges; i++) {
+        edgeVisits[i] = 0;
+        edgeValue[i]  = 0.;
+        edgeChild[i]  = -1;
+      }
+      return first;
+    }
+
+    /**
+     * Find the child of an edge for a drawn color.
+     * @param edge - the edge index.
+     * @param draw - the color drawn for the next bubble.
+     * @return The child index, or -1 if there is no such child.
+     */
+    int findChild(int edge, int draw) {
+      int child = edgeChild[edge];
+
+      while ((child != -1) && (nodeDraw[child] != draw)) {
+        child = nodeSibling[child];
+      }
+      return child;
+    }
+
+    /**
+     * Copy a subtree of another tree in this tree.
+     * @param source - the tree to copy from.
+     * @param sourceNode - the root of the subtree to copy.
+     * @return The index of the copied root.
+     */
+    int copySubtree(Tree source, int sourceNode) {
+      int node = addNode(source.nodeDraw[sourceNode]);
+      int numEdges = source.nodeNumEdges[sourceNode];
+      int sourceFirst = source.nodeFirstEdge[sourceNode];
+
+      nodeVisits[node] = source.nodeVisits[sourceNode];
+      if (sourceFirst == -1) {
+        return node;
+      }
+
+      int first = addEdges(numEdges);
+      nodeFirstEdge[node] = first;
+      nodeNumEdges[node]  = numEdges;
+      for (int i = 0; i < numEdges; i++) {
+        int edge = first + i;
+        int sourceEdge = sourceFirst + i;
+        edgeCell[edge]      = source.edgeCell[sourceEdge];
+        edgeDirection[edge] = source.edgeDirection[sourceEdge];
+        edgeSwap[edge]      = source.edgeSwap[sourceEdge];
+        edgeVisits[edge]    = source.edgeVisits[sourceEdge];
+        edgeValue[edge]     = source.edgeValue[sourceEdge];
+        for (int child = source.edgeChild[sourceEdge]; child != -1;
+             child = source.nodeSibling[child]) {
+          int copy = copySubtree(source, child);
+          nodeSibling[copy] = edgeChild[edge];
+          edgeChild[edge]   = copy;
+        }
+      }
+      return node;
+    }
+  }
+
+  /* Current color */
+  private int color;
+  /* Next color */
+  private int nextColor;
+  /* Current compressor level */
+  private int compressor;
+  /* Search budgets */
+  private int  rolloutBudget;
+  private long timeBudget;
+
+  /* Search tree, and the storage used to compact it */
+  private Tree tree;
+  private Tree spare;
+  /* Hash of the grid to search */
+  private long gridHash;
+  /* Root state */
+  private int          root;
+  private long         rootHash;
+  private GridBitboard rootBoard;
+  private int          rootColor;
+  private int          rootNextColor;
+  private int          rootCompressor;
+  /* Number of launches from the first search of the tree to the root */
+  private int          rootShots;
+
+  /* Iteration state */
+  private GridBitboard     board;
+  private GridBitboard     observed;
+  private TrajectoryCaster caster;
+  private Random           random;
+  private int[]            position = {0, 0};
+  private int[]            path = new int[MAX_TREE_DEPTH];
+  private int[]            landingCell = new int[GridBitboard.NUM_CELLS];
+  private int[]            landingDirection =
+      new int[GridBitboard.NUM_CELLS];
+  private int[]            landingStamp = new int[GridBitboard.NUM_CELLS];
+  private int              stamp;
+  private int              simColor;
+  private int              simNextColor;
+  private int              simShots;
+  private int              simRemoved;
+
+  /* Throughput statistics */
+  private long totalRollouts;
+  private long totalNanos;
+  private int  lastRollouts;
+
+  public MonteCarlo(Bubble[][] grid) {
+    this(grid, DEFAULT_ROLLOUTS, DEFAULT_TIME);
+  }
+
+  /**
+   * Monte Carlo opponent class constructor.
+   * @param grid - the game grid.
+   * @param rolloutBudget - the maximum number of rollouts per search.
+   * @param timeBudget - the maximum time to search for a launch, in
+   * milliseconds.
+   */
+  public MonteCarlo(Bubble[][] grid, int rolloutBudget,
+                    long timeBudget) {
+    this(grid, rolloutBudget, timeBudget, OpponentService.getDefault());
+  }
+
+  /**
+   * Monte Carlo opponent class constructor.
+   * @param grid - the game grid.
+   * @param rolloutBudget - the maximum number of rollouts per search.
+   * @param timeBudget - the maximum time to search for a launch, in
+   * milliseconds.
+   * @param service - the service computing the launches.
+   */
+  public MonteCarlo(Bubble[][] grid, int rolloutBudget,
+                    long timeBudget, OpponentService service) {
+    super(grid, service);
+    initSearch(rolloutBudget, timeBudget);
+  }
+
+  /**
+   * Monte Carlo opponent class constructor, for a game grid only kept
+   * as a bitboard.
+   * @param board - the bitboard of the game grid.
+   * @param rolloutBudget - the maximum number of rollouts per search.
+   * @param timeBudget - the maximum time to search for a launch, in
+   * milliseconds.
+   * @param service - the service computing the launches.
+   */
+  public MonteCarlo(GridBitboard board, int rolloutBudget, long timeBudget,
+                    OpponentService service) {
+    super(board, service);
+    initSearch(rolloutBudget, timeBudget);
+  }
+
+  private void initSearch(int rolloutBudget, long timeBudget) {
+    this.rolloutBudget = rolloutBudget;
+    this.timeBudget    = timeBudget;
+    tree               = new Tree();
+    spare              = new Tree();
+    root               = -1;
+    rootBoard          = new GridBitboard();
+    board              = new GridBitboard();
+    observed           = new GridBitboard();
+    caster             = new TrajectoryCaster();
+    random             = new Random();
+  }
+
+  /**
+   * Get the number of rollouts played by the last search.
+   * @return The number of rollouts played by the last search.
+   */
+  public int getLastRollouts() {
+    return lastRollouts;
+  }
+
+  /**
+   * Get the average rollout throughput over all the searches.
+   * @return The number of rollouts played per second of search.
+   */
+  public double getRolloutsPerSecond() {
+    if (totalNanos == 0) {
+      return 0.;
+    }
+    return totalRollouts * 1000000000. / totalNanos;
+  }
+
+  /**
+   * Get the compressor level after a number of launches from the root.
+   * @param shots - the number of launches from the root.
+   * @return The compressor level.
+   */
+  private int compressorAt(int shots) {
+    return rootCompressor + (rootShots + shots) / COMPRESSOR_SHOTS -
+           rootShots / COMPRESSOR_SHOTS;
+  }
+
+  /**
+   * Draw the color of the next bubble like
+   * <code>BubbleManager.nextBubbleIndex()</code> does.
+   * @param colorMask - the set of colors present in the grid.
+   * @return The color drawn.
+   */
+  private int drawColor(int colorMask) {
+    if (colorMask == 0) {
+      return 0;
+    }
+
+    int select = random.nextInt(GridBitboard.NUM_COLORS) %
+                 Integer.bitCount(colorMask);
+
+    while (select-- > 0) {
+      colorMask &= colorMask - 1;
+    }
+    return Integer.numberOfTrailingZeros(colorMask);
+  }
+
+  /**
+   * Add the edges of a node, one per distinct landing location and
+   * color that can be launched.
+   * @param node - the node to expand.
+   * @return <code>false</code> if the tree is full.
+   */
+  private boolean expand(int node) {
+    int numLandings = 0;
+    int numColors   = simColor != simNextColor ? 2 : 1;
+
+    stamp++;
+    caster.setGrid(board);
+    for (int i = 0; i < Freile.SCAN_DIRECTIONS.length; i++) {
+      caster.getCollision(Freile.SCAN_DIRECTIONS[i], compressorAt(simShots),
+                          position);
+      int cell = position[1] * LevelManager.NUM_COLS + position[0];
+      if (landingStamp[cell] != stamp) {
+        landingStamp[cell]           = stamp;
+        landingCell[numLandings]      = cell;
+        landingDirection[numLandings] = i;
+        numLandings++;
+      }
+    }
+
+    int first = tree.addEdges(numLandings * numColors);
+    if (first == -1) {
+      return false;
+    }
+
+    tree.nodeFirstEdge[node] = first;
+    tree.nodeNumEdges[node]  = numLandings * numColors;
+    for (int swap = 0; swap < numColors; swap++) {
+      for (int i = 0; i < numLandings; i++) {
+        int edge = first + swap * numLandings + i;
+        tree.edgeCell[edge]      = landingCell[i];
+        tree.edgeDirection[edge] = landingDirection[i];
+        tree.edgeSwap[edge]      = swap != 0;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Launch a bubble on the simulated grid, then draw the next bubble.
+   * @param cell - the landing location.
+   * @param swap - <code>true</code> to launch the next bubble instead of
+   * the current bubble.
+   * @return 1 if the grid was cleared, -1 if the game was lost, 0
+   * otherwise.
+   */
+  private int launch(int cell, boolean swap) {
+    int x         = cell % LevelManager.NUM_COLS;
+    int y         = cell / LevelManager.NUM_COLS;
+    int launched  = swap ? simNextColor : simColor;
+    int remaining = swap ? simColor : simNextColor;
+    int draw      = drawColor(board.getColorMask());
+
+    simRemoved += board.play(x, y, launched);
+    simShots++;
+    simColor     = remaining;
+    simNextColor = draw;
+
+    if (board.isEmpty()) {
+      return 1;
+    }
+    if (board.getBottomRow() >= LevelManager.NUM_ROWS - 1 -
+                                compressorAt(simShots)) {
+      return -1;
+    }
+    return 0;
+  }
+
+  /**
+   * Play a short game from the simulated state and value its outcome.
+   * @return The reward, from 0 for a lost game to 1 for a cleared grid.
+   */
+  private double rollout() {
+    for (int shot = 0; shot < ROLLOUT_SHOTS; shot++) {
+      int bestCell  = 0;
+      int bestScore = Integer.MIN_VALUE;
+      int level     = compressorAt(simShots);
+
+      caster.setGrid(board);
+      for (int i = 0; i < ROLLOUT_SAMPLES; i++) {
+        int direction = random.nextInt(Freile.SCAN_DIRECTIONS.length);
+        caster.getCollision(Freile.SCAN_DIRECTIONS[direction], level,
+                            position);
+        int score = Freile.scoreOption(board, position[0], position[1],
+                                       simColor);
+        if (score > bestScore) {
+          bestScore = score;
+          bestCell  = position[1] * LevelManager.NUM_COLS + position[0];
+        }
+      }
+
+      int result = launch(bestCell, false);
+      if (result != 0) {
+        return result > 0 ? 1. : 0.;
+      }
+    }
+    return reward();
+  }
+
+  /**
+   * Value a simulated state which is neither lost nor cleared.
+   * @return The reward, strictly between 0 and 1.
+   */
+  private double reward() {
+    int    lostRow = LevelManager.NUM_ROWS - 1 - compressorAt(simShots);
+    double room    = (double)(lostRow - 1 - board.getBottomRow()) /
+                     (LevelManager.NUM_ROWS - 1);
+    double removed = simRemoved / (simRemoved + REMOVED_SCALE);
+
+    if (room < 0.) {
+      room = 0.;
+    }
+    return (REMOVED_WEIGHT * removed + (1. - REMOVED_WEIGHT) * room) *
+           0.999;
+  }
+
+  /**
+   * Select the edge of a node to explore with the UCT formula.  Edges
+   * never explored are selected first.
+   * @param node - the node to select an edge of.
+   * @return The selected edge.
+   */
+  private int select(int node) {
+    int    first     = tree.nodeFirstEdge[node];
+    int    last      = first + tree.nodeNumEdges[node];
+    int    best      = first;
+    double bestValue = Double.NEGATIVE_INFINITY;
+    double logVisits = Math.log(tree.nodeVisits[node] + 1);
+
+    for (int edge = first; edge < last; edge++) {
+      int visits = tree.edgeVisits[edge];
+      if (visits == 0) {
+        return edge;
+      }
+
+      double value = tree.edgeValue[edge] / visits +
+                     EXPLORATION * Math.sqrt(logVisits / visits);
+      if (value > bestValue) {
+        bestValue = value;
+        best      = edge;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Run one search iteration: descend the tree from the root, add a new
+   * node, value it with a rollout and update the statistics of the
+   * edges traversed.
+   */
+  private void iterate() {
+    int    node   = root;
+    int    depth  = 0;
+    double reward = -1.;
+
+    board.copyFrom(rootBoard);
+    simColor     = rootColor;
+    simNextColor = rootNextColor;
+    simShots     = 0;
+    simRemoved   = 0;
+
+    while (depth < MAX_TREE_DEPTH) {
+      if ((tree.nodeFirstEdge[node] == -1) && !expand(node)) {
+        break;
+      }
+
+      int edge = select(node);
+      path[depth++] = edge;
+      tree.nodeVisits[node]++;
+
+      int result = launch(tree.edgeCell[edge], tree.edgeSwap[edge]);
+      if (result != 0) {
+        reward = result > 0 ? 1. : 0.;
+        break;
+      }
+
+      int child = tree.findChild(edge, simNextColor);
+      if (child == -1) {
+        child = tree.addNode(simNextColor);
+        if (child != -1) {
+          tree.nodeSibling[child] = tree.edgeChild[edge];
+          tree.edgeChild[edge]    = child;
+        }
+        break;
+      }
+      node = child;
+    }
+
+    if (reward < 0.) {
+      reward = rollout();
+    }
+    for (int i = 0; i < depth; i++) {
+      tree.edgeVisits[path[i]]++;
+      tree.edgeValue[path[i]] += reward;
+    }
+  }
+
+  /**
+   * Find the child of the root matching the observed state, if the
+   * search predicted it.
+   * @return The matching child, or -1 if there is none.
+   */
+  private int findObservedChild() {
+    if ((root == -1) || (tree.nodeFirstEdge[root] == -1) ||
+        (compressor != compressorAt(1))) {
+      return -1;
+    }
+
+    int first = tree.nodeFirstEdge[root];
+    int last  = first + tree.nodeNumEdges[root];
+
+    for (int edge = first; edge < last; edge++) {
+      if (tree.edgeVisits[edge] == 0) {
+        continue;
+      }
+
+      boolean swap      = tree.edgeSwap[edge];
+      int     remaining = swap ? rootColor : rootNextColor;
+      if (remaining != color) {
+        continue;
+      }
+
+      int cell = tree.edgeCell[edge];
+      board.copyFrom(rootBoard);
+      board.play(cell % LevelManager.NUM_COLS, cell / LevelManager.NUM_COLS,
+                 swap ? rootNextColor : rootColor);
+      if (board.equals(observed)) {
+        return tree.findChild(edge, nextColor);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Set the root of the search to the observed state, keeping the part
+   * of the tree that is still relevant.
+   * @param state - the observed game state.
+   */
+  private void setRoot(Snapshot state) {
+    color      = state.color;
+    nextColor  = state.nextColor;
+    compressor = state.compressor;
+    gridHash   = state.gridHash;
+    if ((root != -1) && (color == rootColor) &&
+        (nextColor == rootNextColor) && (gridHash == rootHash)) {
+      return;
+    }
+    observed.copyFrom(state.grid);
+
+    int child = findObservedChild();
+    if (child != -1) {
+      Tree swap = spare;
+      spare = tree;
+      tree  = swap;
+      tree.clear();
+      root = tree.copySubtree(spare, child);
+      rootShots++;
+    }
+    else {
+      tree.clear();
+      root      = tree.addNode(-1);
+      rootShots = 0;
+    }
+    rootBoard.copyFrom(observed);
+    rootHash       = gridHash;
+    rootColor      = color;
+    rootNextColor  = nextColor;
+    rootCompressor = compressor;
+  }
+
+  /**
+   * Search for the best launch until the rollout budget or the time
+   * budget is spent, then pick the most explored launch of the root.
+   * @param state - the game state to search a launch for.
+   * @return The most explored launch.
+   */
+  protected Decision decide(Snapshot state) throws InterruptedException {
+    long start    = System.nanoTime();
+    long deadline = start + timeBudget * 1000000L;
+    int  rollouts = 0;
+
+    setRoot(state);
+    while (rollouts < rolloutBudget) {
+      iterate();
+      rollouts++;
+      if ((System.nanoTime() > deadline) ||
+          Thread.currentThread().isInterrupted()) {
+        break;
+      }
+    }
+    lastRollouts   = rollouts;
+    totalRollouts += rollouts;
+    totalNanos    += System.nanoTime() - start;
+
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+
+    int first = tree.nodeFirstEdge[root];
+    int last  = first + tree.nodeNumEdges[root];
+    int best  = first;
+
+    for (int edge = first; edge < last; edge++) {
+      if (tree.edgeVisits[edge] > tree.edgeVisits[best]) {
+        best = edge;
+      }
+    }
+
+    int cell = tree.edgeCell[best];
+    return new Decision(Freile.SCAN_DIRECTIONS[tree.edgeDirection[best]],
+                        cell % LevelManager.NUM_COLS,
+                        cell / LevelManager.NUM_COLS, tree.edgeSwap[best]);
+  }
+}
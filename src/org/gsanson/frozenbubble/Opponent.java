@@ -58,8 +58,13 @@ public interface Opponent {
    * @param currentColor
    * @param nextColor
    * @param compressor
+   * @param attackBubbles - the number of attack bubbles waiting in the
+   * malus bar.
+   * @param gridHash - the Zobrist hash of the grid, including the
+   * compressor level.
    */
-  public void compute(int currentColor, int nextColor, int compressor);
+  public void compute(int currentColor, int nextColor, int compressor,
+                      int attackBubbles, long gridHash);
 
   /**
    * Get the action the CPU opponent wants to make (aim left, aim right,
@@ -87,4 +92,15 @@ public interface Opponent {
    * @return
    */
   public boolean isComputing();
+
+  /**
+   * Set the listener notified when the opponent is done computing.
+   * @param ol
+   */
+  public void setOpponentListener(Freile.OpponentListener ol);
+
+  /**
+   * Stop the opponent computation thread.
+   */
+  public void stopThread();
 }
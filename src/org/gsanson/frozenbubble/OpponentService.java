@@ -0,0 +1,291 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the computations of the CPU opponents on a bounded pool of
+ * worker threads shared by all the opponents.
+ * <p>Each computation is submitted as a task computing a
+ * <code>Decision</code>, and results in a <code>DecisionFuture</code>
+ * which notifies a listener when the computation completes or is
+ * cancelled.  When the queue of pending tasks is full, the oldest
+ * pending task is cancelled to make room, as it is the most likely to
+ * have been computed for an outdated game state.
+ * <p>The service reports the number of pending tasks and the latency
+ * of the decisions, from submission to completion.
+ * @author Eric Fortin
+ */
+public class OpponentService {
+
+  /* Default maximum number of pending tasks */
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+  /* Number of decision latencies kept for the percentiles */
+  private static final int LATENCY_SAMPLES       = 256;
+  /* Time after which idle worker threads terminate, in seconds */
+  private static final long KEEP_ALIVE           = 5;
+
+  private static OpponentService defaultService = null;
+
+  /**
+   * Listener notified when a decision is complete.
+   */
+  public interface DecisionListener {
+    /**
+     * Called from the worker thread when a decision is computed or
+     * cancelled.
+     * @param future - the future of the decision.
+     */
+    public abstract void onDecision(DecisionFuture future);
+  }
+
+  /**
+   * Pending result of a decision task.
+   */
+  public class DecisionFuture extends FutureTask<Decision> {
+    private final DecisionListener listener;
+    private final long             submitTime;
+
+    DecisionFuture(Callable<Decision> task, DecisionListener listener) {
+      super(task);
+      this.listener   = listener;
+      this.submitTime = System.nanoTime();
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        addCancelled();
+      }
+      else {
+        addLatency(System.nanoTime() - submitTime);
+      }
+      if (listener != null) {
+        listener.onDecision(this);
+      }
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final long[] latencies = new long[LATENCY_SAMPLES];
+  private int  numLatencies;
+  private int  nextLatency;
+  private long numDecisions;
+  private long numCancelled;
+
+  /**
+   * Get the service shared by the CPU opponents of the game.
+   * @return The default opponent service.
+   */
+  public static synchronized OpponentService getDefault() {
+    if (defaultService == null) {
+      defaultService =
+          new OpponentService(Runtime.getRuntime().availableProcessors(),
+                              DEFAULT_QUEUE_CAPACITY);
+    }
+    return defaultService;
+  }
+
+  /**
+   * Opponent service class constructor.
+   * @param numThreads - the maximum number of worker threads.
+   * @param queueCapacity - the maximum number of pending tasks.
+   */
+  public OpponentService(int numThreads, int queueCapacity) {
+    executor = new ThreadPoolExecutor(numThreads, numThreads,
+                                      KEEP_ALIVE, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<Runnable>(
+                                          queueCapacity),
+                                      new ThreadFactory() {
+      private int count = 0;
+
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "opponent-" + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, new RejectedExecutionHandler() {
+      public void rejectedExecution(Runnable runnable,
+                                    ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+          ((Future<?>) runnable).cancel(false);
+          return;
+        }
+
+        Runnable oldest = executor.getQueue().poll();
+        if (oldest != null) {
+          ((Future<?>) oldest).cancel(false);
+        }
+        executor.execute(runnable);
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Submit a decision task.
+   * @param task - the task computing the decision.
+   * @param listener - the listener to notify when the decision is
+   * complete, or <code>null</code>.
+   * @return The future of the decision.
+   */
+  public DecisionFuture submit(Callable<Decision> task,
+                               DecisionListener listener) {
+    DecisionFuture future = prepare(task, listener);
+    execute(future);
+    return future;
+  }
+
+  /**
+   * Create the future of a decision task without submitting it, so
+   * that the caller may keep track of the future before the task may
+   * complete.
+   * @param task - the task computing the decision.
+   * @param listener - the listener to notify when the decision is
+   * complete, or <code>null</code>.
+   * @return The future of the decision.
+   */
+  public DecisionFuture prepare(Callable<Decision> task,
+                                DecisionListener listener) {
+    return new DecisionFuture(task, listener);
+  }
+
+  /**
+   * Submit a decision task created by <code>prepare()</code>.
+   * @param future - the future of the decision task.
+   */
+  public void execute(DecisionFuture future) {
+    executor.execute(future);
+  }
+
+  private synchronized void addLatency(long latency) {
+    latencies[nextLatency] = latency;
+    nextLatency = (nextLatency + 1) % LATENCY_SAMPLES;
+    if (numLatencies < LATENCY_SAMPLES) {
+      numLatencies++;
+    }
+    numDecisions++;
+  }
+
+  private synchronized void addCancelled() {
+    numCancelled++;
+  }
+
+  /**
+   * Get the number of tasks waiting for a worker thread.
+   * @return The number of pending tasks.
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Get the number of tasks being computed.
+   * @return The number of worker threads computing a task.
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public synchronized long getNumDecisions() {
+    return numDecisions;
+  }
+
+  public synchronized long getNumCancelled() {
+    return numCancelled;
+  }
+
+  /**
+   * Get a percentile of the latency of the most recent decisions, from
+   * submission to completion.
+   * @param percentile - the percentile, between 0 and 100.
+   * @return The latency percentile in nanoseconds, or 0 if no decision
+   * was completed yet.
+   */
+  public synchronized long getLatencyPercentile(double percentile) {
+    if (numLatencies == 0) {
+      return 0;
+    }
+
+    long[] sorted = Arrays.copyOf(latencies, numLatencies);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100. * numLatencies) - 1;
+    return sorted[Math.max(0, Math.min(numLatencies - 1, index))];
+  }
+
+  /**
+   * Check if the service was shut down.
+   * @return <code>true</code> if the service no longer runs tasks.
+   */
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  /**
+   * Stop the worker threads.  Pending tasks are cancelled.
+   */
+  public void shutdown() {
+    for (Runnable runnable : executor.shutdownNow()) {
+      ((Future<?>) runnable).cancel(false);
+    }
+  }
+}
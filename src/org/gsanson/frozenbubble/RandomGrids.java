@@ -0,0 +1,148 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Random;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Random grids of fixed bubbles for the CPU opponent benchmarks.
+ * <p>Each grid is a random number of rows hanging from the ceiling,
+ * with random holes.  It is provided both as the bubble grid the game
+ * keeps and as the equivalent bitboard, so that the bitboard engine can
+ * be checked against the original grid code.
+ * @author Eric Fortin
+ */
+final class RandomGrids {
+  /* One location out of HOLE_RATE is left empty */
+  private static final int HOLE_RATE = 6;
+
+  private final Random random;
+  private final int    numColors;
+
+  /**
+   * Create a random grid generator.
+   * @param seed - the random number generator seed.
+   * @param numColors - the number of bubble colors.
+   */
+  RandomGrids(long seed, int numColors) {
+    this.random    = new Random(seed);
+    this.numColors = numColors;
+  }
+
+  /**
+   * Create an empty bubble grid.
+   * @return The bubble grid.
+   */
+  static Bubble[][] newGrid() {
+    return new Bubble[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+  }
+
+  /**
+   * Fill a grid with random bubbles.  Odd rows are shifted by half a
+   * bubble, so their first location is left empty as in the levels.
+   * @param grid - the bubble grid to fill.
+   * @param board - the bitboard to load with the same bubbles.
+   * @return The number of rows filled, which leaves at least one empty
+   * row above the last row.
+   */
+  int next(Bubble[][] grid, GridBitboard board) {
+    int rows = 1 + random.nextInt(LevelManager.NUM_ROWS - 2);
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        grid[i][j] = null;
+      }
+    }
+    for (int j = 0; j < rows; j++) {
+      for (int i = j % 2; i < LevelManager.NUM_COLS; i++) {
+        if (random.nextInt(HOLE_RATE) != 0) {
+          int x = 190+i*32-(j%2)*16;
+          int y = 44+j*28;
+          grid[i][j] = new Bubble(null, x, y, random.nextInt(numColors),
+                                  0., 0., x, y, true, false, false, -1,
+                                  i + j * LevelManager.NUM_COLS);
+        }
+      }
+    }
+    board.load(grid);
+    return rows;
+  }
+
+  /**
+   * Pick a random empty location a bubble may be placed at.
+   * @param grid - the bubble grid.
+   * @param rows - the number of rows filled in the grid.
+   * @param location - the resulting grid location.
+   */
+  void nextEmpty(Bubble[][] grid, int rows, int[] location) {
+    int x, y;
+
+    do {
+      y = random.nextInt(rows + 1);
+      x = (y % 2) + random.nextInt(LevelManager.NUM_COLS - (y % 2));
+    } while (grid[x][y] != null);
+    location[0] = x;
+    location[1] = y;
+  }
+
+  /**
+   * Pick a random bubble color.
+   * @return The bubble color.
+   */
+  int nextColor() {
+    return random.nextInt(numColors);
+  }
+}
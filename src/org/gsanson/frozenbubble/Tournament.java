@@ -0,0 +1,380 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Batch tool playing headless matches between two CPU opponents.
+ * <p>Usage, where the Android library is only on the class path to
+ * link the game classes:
+ * <pre>
+ * java -cp bin/classes:android.jar org.gsanson.frozenbubble.Tournament
+ *      [-games N] [-threads N] [-colors N] [-rounds N] [-seed N]
+ *      [-compressor] opponent opponent
+ * </pre>
+ * where an opponent is <code>freile</code>,
+ * <code>expectimax[:deadline]</code> or
+ * <code>montecarlo[:rollouts[:time]]</code>, times being in
+ * milliseconds.
+ * <p>Matches are played concurrently, one per thread, and the decisions
+ * are computed on an <code>OpponentService</code> with as many workers.
+ * Each pair of matches plays the same level with the players swapped.
+ * The report gives the score of each opponent, a draw counting half a
+ * win, with its 95% confidence interval, the number of games played per
+ * second, and the average and 99th percentile decision latencies.
+ * @author Eric Fortin
+ */
+public class Tournament {
+
+  /* Default number of games */
+  public static final int DEFAULT_GAMES = 1000;
+
+  private final String[]                      names;
+  private final VersusMatch.OpponentFactory[] factories;
+  private final int     numGames;
+  private final int     numThreads;
+  private final int     numColors;
+  private final int     maxRounds;
+  private final boolean compressorOn;
+  private final long    seed;
+
+  /* Results, per opponent */
+  private final int[]    wins         = {0, 0};
+  private final long[][] latencies    = {new long[1024], new long[1024]};
+  private final int[]    numLatencies = {0, 0};
+  private int  draws;
+  private int  gamesPlayed;
+  private long roundsPlayed;
+  private long elapsedNanos;
+
+  /**
+   * Tournament class constructor.
+   * @param first - the specification of the first opponent.
+   * @param second - the specification of the second opponent.
+   * @param numGames - the number of games to play.
+   * @param numThreads - the number of games played concurrently.
+   * @param numColors - the number of bubble colors.
+   * @param maxRounds - the number of rounds after which a game is a
+   * draw.
+   * @param compressorOn - <code>true</code> to lower the compressor.
+   * @param seed - the seed of the first level.
+   */
+  public Tournament(String first, String second, int numGames,
+                    int numThreads, int numColors, int maxRounds,
+                    boolean compressorOn, long seed) {
+    this.names        = new String[] {first, second};
+    this.factories    = new VersusMatch.OpponentFactory[] {
+                          getFactory(first), getFactory(second)};
+    this.numGames     = numGames;
+    this.numThreads   = numThreads;
+    this.numColors    = numColors;
+    this.maxRounds    = maxRounds;
+    this.compressorOn = compressorOn;
+    this.seed         = seed;
+  }
+
+  /**
+   * Get the factory of the opponents matching a specification.
+   * @param spec - the opponent specification.
+   * @return The opponent factory.
+   */
+  public static VersusMatch.OpponentFactory getFactory(String spec) {
+    final String[] fields = spec.split(":");
+
+    if (fields[0].equals("freile") && (fields.length == 1)) {
+      return new VersusMatch.OpponentFactory() {
+        public Opponent create(GridBitboard board, OpponentService service) {
+          return new Freile(board, service);
+        }
+      };
+    }
+    else if (fields[0].equals("expectimax") && (fields.length <= 2)) {
+      final long deadline = fields.length > 1 ?
+          Long.parseLong(fields[1]) : Expectimax.DEFAULT_DEADLINE;
+
+      return new VersusMatch.OpponentFactory() {
+        public Opponent create(GridBitboard board, OpponentService service) {
+          return new Expectimax(board, deadline, service);
+        }
+      };
+    }
+    else if (fields[0].equals("montecarlo") && (fields.length <= 3)) {
+      final int  rollouts = fields.length > 1 ?
+          Integer.parseInt(fields[1]) : MonteCarlo.DEFAULT_ROLLOUTS;
+      final long time     = fields.length > 2 ?
+          Long.parseLong(fields[2]) : MonteCarlo.DEFAULT_TIME;
+
+      return new VersusMatch.OpponentFactory() {
+        public Opponent create(GridBitboard board, OpponentService service) {
+          return new MonteCarlo(board, rollouts, time, service);
+        }
+      };
+    }
+    throw new IllegalArgumentException("Unknown opponent: " + spec);
+  }
+
+  /**
+   * Play all the games of the tournament.
+   */
+  public void play() throws InterruptedException {
+    final OpponentService service = new OpponentService(numThreads,
+                                                        2 * numThreads);
+    ExecutorService       games   = Executors.newFixedThreadPool(numThreads);
+    long                  start   = System.nanoTime();
+
+    for (int i = 0; i < numGames; i++) {
+      final int game = i;
+      games.execute(new Runnable() {
+        public void run() {
+          playGame(game, service);
+        }
+      });
+    }
+    games.shutdown();
+    games.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    elapsedNanos = System.nanoTime() - start;
+    service.shutdown();
+  }
+
+  private void playGame(int game, OpponentService service) {
+    boolean     swapped = (game % 2) != 0;
+    int         first   = swapped ? 1 : 0;
+    VersusMatch match   = new VersusMatch(seed + 3L * (game / 2), numColors,
+                                          compressorOn, maxRounds,
+                                          factories[first],
+                                          factories[1 - first], service);
+    int         winner;
+
+    try {
+      winner = match.play();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    synchronized (this) {
+      if (winner == VersusMatch.DRAW) {
+        draws++;
+      }
+      else {
+        wins[swapped ? 1 - winner : winner]++;
+      }
+      for (int player = 0; player < 2; player++) {
+        addLatencies(swapped ? 1 - player : player,
+                     match.getLatencies(player));
+      }
+      gamesPlayed++;
+      roundsPlayed += match.getRounds();
+    }
+  }
+
+  private void addLatencies(int opponent, long[] samples) {
+    int count = numLatencies[opponent];
+
+    if (count + samples.length > latencies[opponent].length) {
+      latencies[opponent] =
+          Arrays.copyOf(latencies[opponent],
+                        Math.max(2 * latencies[opponent].length,
+                                 count + samples.length));
+    }
+    System.arraycopy(samples, 0, latencies[opponent], count, samples.length);
+    numLatencies[opponent] = count + samples.length;
+  }
+
+  /**
+   * Get the score of an opponent, a draw counting half a win.
+   * @param opponent - the opponent index.
+   * @return The score, between 0 and 1.
+   */
+  public synchronized double getScore(int opponent) {
+    if (gamesPlayed == 0) {
+      return 0.;
+    }
+    return (wins[opponent] + 0.5 * draws) / gamesPlayed;
+  }
+
+  /**
+   * Get the half width of the 95% confidence interval of the score of an
+   * opponent, from the normal approximation of the mean game score.
+   * @param opponent - the opponent index.
+   * @return The half width of the confidence interval.
+   */
+  public synchronized double getScoreInterval(int opponent) {
+    if (gamesPlayed < 2) {
+      return 1.;
+    }
+
+    double score    = getScore(opponent);
+    double squares  = (wins[opponent] + 0.25 * draws) / gamesPlayed;
+    double variance = (squares - score * score) * gamesPlayed /
+                      (gamesPlayed - 1);
+
+    return 1.96 * Math.sqrt(Math.max(0., variance) / gamesPlayed);
+  }
+
+  /**
+   * Get a percentile of the decision latencies of an opponent.
+   * @param opponent - the opponent index.
+   * @param percentile - the percentile, between 0 and 100.
+   * @return The latency percentile in nanoseconds.
+   */
+  public synchronized long getLatencyPercentile(int opponent,
+                                                double percentile) {
+    int count = numLatencies[opponent];
+
+    if (count == 0) {
+      return 0;
+    }
+
+    long[] sorted = Arrays.copyOf(latencies[opponent], count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100. * count) - 1;
+    return sorted[Math.max(0, Math.min(count - 1, index))];
+  }
+
+  /**
+   * Get the average decision latency of an opponent.
+   * @param opponent - the opponent index.
+   * @return The average latency in nanoseconds.
+   */
+  public synchronized double getAverageLatency(int opponent) {
+    int  count = numLatencies[opponent];
+    long total = 0;
+
+    for (int i = 0; i < count; i++) {
+      total += latencies[opponent][i];
+    }
+    return count == 0 ? 0. : (double) total / count;
+  }
+
+  /**
+   * Print the tournament results.
+   */
+  public synchronized void printReport() {
+    double seconds = elapsedNanos / 1000000000.;
+
+    System.out.println(String.format("%s vs %s: %d games, %d colors, " +
+                                     "compressor %s",
+                                     names[0], names[1], gamesPlayed,
+                                     numColors, compressorOn ? "on" : "off"));
+    for (int i = 0; i < 2; i++) {
+      System.out.println(String.format(
+          "  %-20s %5d wins  score %5.1f%% +/- %4.1f%%  " +
+          "%7d decisions  avg %7.2f ms  p99 %7.2f ms",
+          names[i], wins[i], 100. * getScore(i),
+          100. * getScoreInterval(i), numLatencies[i],
+          getAverageLatency(i) / 1000000.,
+          getLatencyPercentile(i, 99.) / 1000000.));
+    }
+    System.out.println(String.format("  %-20s %5d", "draws", draws));
+    System.out.println(String.format(
+        "  %.1f s, %.2f games/s, %.1f rounds/game, %d threads",
+        seconds, seconds > 0. ? gamesPlayed / seconds : 0.,
+        gamesPlayed > 0 ? (double) roundsPlayed / gamesPlayed : 0.,
+        numThreads));
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int     numGames     = DEFAULT_GAMES;
+    int     numThreads   = Runtime.getRuntime().availableProcessors();
+    int     numColors    = LevelManager.NORMAL;
+    int     maxRounds    = VersusMatch.DEFAULT_MAX_ROUNDS;
+    boolean compressorOn = false;
+    long    seed         = System.currentTimeMillis();
+    String[] opponents   = new String[2];
+    int     numOpponents = 0;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-games")) {
+        numGames = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-threads")) {
+        numThreads = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-colors")) {
+        numColors = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-rounds")) {
+        maxRounds = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else if (args[i].equals("-compressor")) {
+        compressorOn = true;
+      }
+      else if (numOpponents < 2) {
+        opponents[numOpponents++] = args[i];
+      }
+    }
+
+    if (numOpponents < 2) {
+      System.err.println("usage: Tournament [-games N] [-threads N] " +
+                         "[-colors N] [-rounds N] [-seed N] [-compressor] " +
+                         "opponent opponent");
+      System.exit(1);
+    }
+
+    Tournament tournament = new Tournament(opponents[0], opponents[1],
+                                           numGames, numThreads, numColors,
+                                           maxRounds, compressorOn, seed);
+    tournament.play();
+    tournament.printReport();
+  }
+}
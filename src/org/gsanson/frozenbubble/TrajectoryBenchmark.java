@@ -0,0 +1,309 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Random;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Batch tool checking the analytic <code>TrajectoryCaster</code> against
+ * a launched bubble moved step by step.
+ * <p>Usage, where the Android library is only on the class path to
+ * link the game classes:
+ * <pre>
+ * java -cp bin/classes:android.jar org.gsanson.frozenbubble.TrajectoryBenchmark
+ *      [-grids N] [-seed N]
+ * </pre>
+ * <p>Every launcher direction evaluated by the CPU opponent is cast on
+ * each random grid, with a random number of compressor steps, and the
+ * landing location is compared with the one found by moving the bubble
+ * <code>Freile.MOVE_SPEED</code> pixels at a time and checking for a
+ * collision after every step, as the CPU opponent originally did.  The
+ * report gives the agreement rate, which must be 100%, and the time per
+ * shot of both methods.  The process exits with a non-zero status on
+ * any mismatch.
+ * @author Eric Fortin
+ */
+public class TrajectoryBenchmark {
+
+  /* Default number of grids */
+  public static final int DEFAULT_GRIDS = 10000;
+
+  /* Number of timed passes over the grids */
+  private static final int PASSES = 3;
+
+  private final Bubble[][][]   grids;
+  private final GridBitboard[] boards;
+  private final int[]          compressors;
+  private final long           seed;
+
+  /* Neighbor bubble locations to check for collision */
+  private final int[][] toCheck = {{0, 0}, {0, 0}, {0, 0}, {0, 0}};
+
+  private long shots;
+  private long mismatches;
+  private long stepNanos;
+  private long castNanos;
+  private long castTests;
+
+  /* Accumulated results, so that the timed loops are not optimized out */
+  private long checksum;
+
+  /**
+   * TrajectoryBenchmark class constructor.
+   * @param numGrids - the number of random grids.
+   * @param seed - the random grid seed.
+   */
+  public TrajectoryBenchmark(int numGrids, long seed) {
+    RandomGrids grid   = new RandomGrids(seed, GridBitboard.NUM_COLORS);
+    Random      random = new Random(seed);
+
+    this.grids       = new Bubble[numGrids][][];
+    this.boards      = new GridBitboard[numGrids];
+    this.compressors = new int[numGrids];
+    this.seed        = seed;
+    for (int n = 0; n < numGrids; n++) {
+      grids[n]  = RandomGrids.newGrid();
+      boards[n] = new GridBitboard();
+      int rows  = grid.next(grids[n], boards[n]);
+      /*
+       * Keep the launch position below the lowest bubble.
+       */
+      compressors[n] = random.nextInt(LevelManager.NUM_ROWS - 1 - rows);
+    }
+  }
+
+  /**
+   * Compute the grid location where a launched bubble stops by moving it
+   * step by step.  This is the trajectory computation
+   * <code>TrajectoryCaster</code> replaces.
+   * @param grid - the grid of fixed bubbles.
+   * @param direction - the launch direction in radians, 0 being
+   * straight up.
+   * @param compressor - the number of compressor steps.
+   * @param position - the resulting grid location.
+   * @return <code>true</code> if a collision was found.
+   */
+  private boolean step(Bubble[][] grid, double direction, int compressor,
+                       int[] position) {
+    boolean collision = false;
+    double  posX      = 112.;
+    double  posY      = 350. - compressor * 28.;
+    double  speedX    = Freile.MOVE_SPEED * Math.cos(direction - Math.PI / 2.);
+    double  speedY    = Freile.MOVE_SPEED * Math.sin(direction - Math.PI / 2.);
+
+    while (!collision) {
+      posX += speedX;
+      posY += speedY;
+
+      if (posX < 0.) {
+        posX = - posX;
+        speedX = -speedX;
+      } else if (posX > 224.) {
+        posX = 448. - posX;
+        speedX = -speedX;
+      }
+
+      /*
+       * Check top collision.
+       */
+      if (posY < 0.) {
+        int valX = (int) posX;
+
+        collision = true;
+        position[0] = valX >> 5;
+
+        if ((valX & 16) > 0) {
+          position[0]++;
+        }
+
+        position[1] = 0;
+      } else {
+        /*
+         * Check other collision.
+         */
+        collision = CollisionHelper.collide((int) posX, (int) posY,
+                                            grid, toCheck, position);
+      }
+    }
+    return collision;
+  }
+
+  /**
+   * Compare the landing locations of both methods over all the grids.
+   */
+  public void check() {
+    TrajectoryCaster caster   = new TrajectoryCaster();
+    int[]            expected = new int[2];
+    int[]            actual   = new int[2];
+
+    shots      = 0;
+    mismatches = 0;
+    for (int n = 0; n < grids.length; n++) {
+      caster.setGrid(boards[n]);
+      for (int i = 0; i < Freile.SCAN_DIRECTIONS.length; i++) {
+        double direction = Freile.SCAN_DIRECTIONS[i];
+
+        step(grids[n], direction, compressors[n], expected);
+        caster.getCollision(direction, compressors[n], actual);
+        if ((expected[0] != actual[0]) || (expected[1] != actual[1])) {
+          if (mismatches == 0) {
+            System.out.println(String.format(
+                "  first mismatch: grid %d, direction %.2f, " +
+                "(%d, %d) instead of (%d, %d)", n, direction,
+                actual[0], actual[1], expected[0], expected[1]));
+          }
+          mismatches++;
+        }
+        shots++;
+      }
+    }
+  }
+
+  /**
+   * Time both methods over all the grids.  The first pass warms up the
+   * JIT compiler and is not timed.
+   */
+  public void time() {
+    int[] position = new int[2];
+
+    stepNanos = 0;
+    castNanos = 0;
+    for (int pass = 0; pass <= PASSES; pass++) {
+      long start = System.nanoTime();
+      for (int n = 0; n < grids.length; n++) {
+        for (int i = 0; i < Freile.SCAN_DIRECTIONS.length; i++) {
+          step(grids[n], Freile.SCAN_DIRECTIONS[i], compressors[n],
+               position);
+          checksum += position[0] + position[1];
+        }
+      }
+      long stepped = System.nanoTime() - start;
+
+      TrajectoryCaster caster = new TrajectoryCaster();
+      start = System.nanoTime();
+      for (int n = 0; n < grids.length; n++) {
+        caster.setGrid(boards[n]);
+        for (int i = 0; i < Freile.SCAN_DIRECTIONS.length; i++) {
+          caster.getCollision(Freile.SCAN_DIRECTIONS[i], compressors[n],
+                              position);
+          checksum += position[0] + position[1];
+        }
+      }
+      long cast = System.nanoTime() - start;
+
+      if (pass > 0) {
+        stepNanos += stepped;
+        castNanos += cast;
+        castTests += caster.getSteps();
+      }
+    }
+  }
+
+  /**
+   * Get the number of shots on which both methods disagree.
+   * @return The number of mismatching shots.
+   */
+  public long getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Print the benchmark results.
+   */
+  public void printReport() {
+    double timed   = (double) PASSES * shots;
+    double stepped = stepNanos / timed;
+    double cast    = castNanos / timed;
+
+    System.out.println(String.format("%d grids, %d shots, seed %d: " +
+                                     "%d mismatches (%.4f%% agreement)",
+                                     grids.length, shots, seed, mismatches,
+                                     100. * (shots - mismatches) / shots));
+    System.out.println(String.format(
+        "  %-18s %8.1f ns/shot", "stepping", stepped));
+    System.out.println(String.format(
+        "  %-18s %8.1f ns/shot  %5.1fx  %.2f collision tests/shot",
+        "TrajectoryCaster", cast, stepped / cast, castTests / timed));
+    System.out.println(String.format("  checksum %d", checksum));
+  }
+
+  public static void main(String[] args) {
+    int  numGrids = DEFAULT_GRIDS;
+    long seed     = System.currentTimeMillis();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-grids")) {
+        numGrids = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else {
+        System.err.println("usage: TrajectoryBenchmark [-grids N] " +
+                           "[-seed N]");
+        System.exit(1);
+      }
+    }
+
+    TrajectoryBenchmark benchmark = new TrajectoryBenchmark(numGrids, seed);
+    benchmark.check();
+    benchmark.time();
+    benchmark.printReport();
+    if (benchmark.getMismatches() != 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Computes where a bubble launched by the CPU opponent lands.
+ * <p>The virtual bubble moves <code>Freile.MOVE_SPEED</code> pixels
+ * per step and rebounds off the walls at <code>x = 0</code> and
+ * <code>x = 224</code>.  Rather than moving the bubble step by step and
+ * checking for a collision at every step, the position after any number
+ * of steps is obtained in closed form by folding the unobstructed
+ * trajectory at the walls.  The first step at which the bubble comes
+ * close enough to an occupied grid location to possibly collide is then
+ * obtained by intersecting each leg of the trajectory with a circle
+ * around every occupied location.  The exact collision test is only
+ * performed from that step onward, which yields the same landing
+ * location as stepping the bubble all the way.
+ * @author Eric Fortin
+ */
+public class TrajectoryCaster {
+
+  /* Launch position, relative to the game area */
+  private static final double LAUNCH_X   = 112.;
+  private static final double LAUNCH_Y   = 350.;
+  /* Distance between the walls */
+  private static final double WALL_X     = 224.;
+  /* Grid row height */
+  private static final double ROW_HEIGHT = 28.;
+  /*
+   * The collision test is performed on truncated integer coordinates,
+   * which may be up to sqrt(2) pixels closer to a bubble than the real
+   * coordinates.  Widen the collision distance accordingly.
+   */
+  private static final double TRUNCATION_MARGIN = 1.5;
+
+  /* Coordinates of the occupied grid locations */
+  private final double[] cellX = new double[GridBitboard.NUM_CELLS];
+  private final double[] cellY = new double[GridBitboard.NUM_CELLS];
+  private int numCells;
+  /* Bitboard of fixed bubbles */
+  private GridBitboard grid;
+  /* Neighbor bubble locations to check for collision */
+  private final int[][] toCheck = {{0, 0}, {0, 0}, {0, 0}, {0, 0}};
+
+  /* Current trajectory */
+  private double startY;
+  private double speedX;
+  private double speedY;
+  private double radius;
+  private int    topStep;
+
+  /* Number of exact collision tests performed (for profiling) */
+  private long steps;
+
+  /**
+   * Set the bitboard of fixed bubbles to compute trajectories for.  This
+   * must be called again whenever the bitboard contents change.
+   * @param grid - the bitboard of fixed bubbles.
+   */
+  public void setGrid(GridBitboard grid) {
+    this.grid = grid;
+    numCells  = 0;
+    /*
+     * Store the locations from the bottom row upwards, so that they are
+     * sorted in the order a launched bubble may reach them.
+     */
+    for (int j = LevelManager.NUM_ROWS - 1; j >= 0; j--) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (grid.isOccupied(i, j)) {
+          cellX[numCells] = (i << 5) - ((j % 2) << 4);
+          cellY[numCells] = j * ROW_HEIGHT;
+          numCells++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of exact collision tests performed so far.
+   * @return The number of exact collision tests performed.
+   */
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * Compute the grid location where a launched bubble stops.
+   * @param direction - the launch direction in radians, 0 being
+   * straight up.
+   * @param compressor - the number of compressor steps.
+   * @param position - the resulting grid location.
+   * @return <code>true</code> if a collision was found.
+   */
+  public boolean getCollision(double direction, int compressor,
+                              int[] position) {
+    startY = LAUNCH_Y - compressor * ROW_HEIGHT;
+    speedX = Freile.MOVE_SPEED * Math.cos(direction - Math.PI / 2.);
+    speedY = Freile.MOVE_SPEED * Math.sin(direction - Math.PI / 2.);
+    radius = Math.sqrt(Bubble.minDistance) + TRUNCATION_MARGIN;
+
+    /*
+     * Find the first step at which the bubble is above the ceiling.
+     */
+    topStep = Math.max(1, (int)Math.floor(-startY / speedY));
+    while ((topStep > 1) && (getY(topStep - 1) < 0.)) {
+      topStep--;
+    }
+    while (getY(topStep) >= 0.) {
+      topStep++;
+    }
+
+    /*
+     * A bubble travels at most twice the collision distance while
+     * staying within the collision distance of a given location.
+     */
+    int maxWalk = (int)Math.ceil(2. * radius / Freile.MOVE_SPEED) + 1;
+    int step    = firstCandidateStep(1);
+    int walk    = 0;
+
+    while (step < topStep) {
+      steps++;
+      if (CollisionHelper.collide((int)getX(step), (int)getY(step),
+                                  grid, toCheck, position)) {
+        return true;
+      }
+      step++;
+      walk++;
+      if (walk > maxWalk) {
+        step = firstCandidateStep(step);
+        walk = 0;
+      }
+    }
+
+    /*
+     * Top collision.
+     */
+    int valX = (int)getX(topStep);
+
+    position[0] = valX >> 5;
+
+    if ((valX & 16) > 0) {
+      position[0]++;
+    }
+
+    position[1] = 0;
+    return true;
+  }
+
+  /**
+   * Find the first step, starting from the supplied step, at which the
+   * bubble may collide with a fixed bubble.
+   * <p>The unobstructed trajectory is a straight line when it is
+   * unfolded at the walls.  Each leg of the trajectory between two
+   * walls is intersected with the images of the occupied grid locations
+   * mirrored into that leg.
+   * @param fromStep - the first step to consider.
+   * @return The first step at which a collision is possible, or
+   * <code>topStep</code> if no collision is possible.
+   */
+  private int firstCandidateStep(int fromStep) {
+    double radius2 = radius * radius;
+    double speed2  = speedX * speedX + speedY * speedY;
+    double unfoldX = LAUNCH_X + fromStep * speedX;
+    int    leg     = (int)Math.floor(unfoldX / WALL_X);
+    double legStart = fromStep;
+
+    while (legStart < topStep) {
+      /*
+       * Compute the range of steps spent in the current leg.
+       */
+      double legEnd;
+      if (speedX > 0.) {
+        legEnd = ((leg + 1) * WALL_X - LAUNCH_X) / speedX;
+      }
+      else if (speedX < 0.) {
+        legEnd = (leg * WALL_X - LAUNCH_X) / speedX;
+      }
+      else {
+        legEnd = topStep;
+      }
+      legEnd = Math.min(legEnd, topStep);
+
+      /*
+       * Mirror the occupied locations into the current leg, and
+       * intersect the trajectory with a circle around each of them.
+       */
+      boolean mirror = (leg & 1) != 0;
+      double  offset = mirror ? (leg + 1) * WALL_X : leg * WALL_X;
+      double  minY   = getY(legEnd) - radius;
+      double  maxY   = getY(legStart) + radius;
+      int     first  = topStep;
+
+      for (int i = 0; i < numCells; i++) {
+        if (cellY[i] > maxY) {
+          continue;
+        }
+
+        /*
+         * The bubble moves upwards, so the remaining locations, which
+         * are higher, can not be reached before the best step found so
+         * far.
+         */
+        if ((cellY[i] < minY) ||
+            ((startY - cellY[i] - radius) / -speedY > first)) {
+          break;
+        }
+
+        double imageX = mirror ? offset - cellX[i] : offset + cellX[i];
+        double dx     = LAUNCH_X - imageX;
+        double dy     = startY - cellY[i];
+        double b      = dx * speedX + dy * speedY;
+        double c      = dx * dx + dy * dy - radius2;
+        double disc   = b * b - speed2 * c;
+
+        if (disc >= 0.) {
+          double root  = Math.sqrt(disc);
+          double enter = Math.max((-b - root) / speed2, legStart);
+          double exit  = Math.min((-b + root) / speed2, legEnd);
+          int    step  = (int)Math.ceil(enter);
+
+          if ((step <= exit) && (step < first)) {
+            first = step;
+          }
+        }
+      }
+
+      if (first < topStep) {
+        return first;
+      }
+
+      legStart = legEnd;
+      leg += speedX > 0. ? 1 : -1;
+    }
+    return topStep;
+  }
+
+  /**
+   * Get the horizontal bubble position after the supplied number of
+   * steps, taking the rebounds off the walls into account.
+   * @param step - the number of steps.
+   * @return The horizontal bubble position.
+   */
+  private double getX(int step) {
+    double x = (LAUNCH_X + step * speedX) % (2. * WALL_X);
+
+    if (x < 0.) {
+      x += 2. * WALL_X;
+    }
+    if (x > WALL_X) {
+      x = 2. * WALL_X - x;
+    }
+    return x;
+  }
+
+  /**
+   * Get the vertical bubble position after the supplied number of
+   * steps.
+   * @param step - the number of steps.
+   * @return The vertical bubble position.
+   */
+  private double getY(double step) {
+    return startY + step * speedY;
+  }
+}
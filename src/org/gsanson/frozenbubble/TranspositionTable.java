@@ -0,0 +1,172 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of launch scores, keyed by the Zobrist hash of the grid
+ * and by the launch location and color.
+ * <p>When the cache is full, the least recently used score is evicted.
+ * The cache is shared by the evaluator threads, so all of its methods
+ * are synchronized.
+ * <p>Hits and lookups are counted both over the life of the cache and
+ * since the last call to <code>newTurn()</code>.
+ * @author Eric Fortin
+ */
+public class TranspositionTable {
+
+  /* Default maximum number of scores kept */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final LinkedHashMap<Long, Integer> scores;
+  private long hits;
+  private long lookups;
+  private int  turnHits;
+  private int  turnLookups;
+
+  public TranspositionTable() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Transposition table class constructor.
+   * @param capacity - the maximum number of scores kept.
+   */
+  public TranspositionTable(final int capacity) {
+    scores = new LinkedHashMap<Long, Integer>((capacity * 4) / 3 + 1, 0.75f,
+                                              true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  private static long key(long hash, int x, int y, int color) {
+    return hash ^ ZobristHash.probeKey(x, y, color);
+  }
+
+  /**
+   * Look up the score of a launch.
+   * @param hash - the hash of the grid.
+   * @param x - X-coord of the launched bubble.
+   * @param y - Y-coord of the launched bubble.
+   * @param color - color of the launched bubble.
+   * @return The score stored for the launch, or -1 if there is none.
+   */
+  public synchronized int get(long hash, int x, int y, int color) {
+    Integer score = scores.get(key(hash, x, y, color));
+
+    lookups++;
+    turnLookups++;
+    if (score == null) {
+      return -1;
+    }
+    hits++;
+    turnHits++;
+    return score;
+  }
+
+  /**
+   * Store the score of a launch.
+   * @param hash - the hash of the grid.
+   * @param x - X-coord of the launched bubble.
+   * @param y - Y-coord of the launched bubble.
+   * @param color - color of the launched bubble.
+   * @param score - the score of the launch.
+   */
+  public synchronized void put(long hash, int x, int y, int color,
+                               int score) {
+    scores.put(key(hash, x, y, color), score);
+  }
+
+  /**
+   * Reset the per turn hit and lookup counters.
+   */
+  public synchronized void newTurn() {
+    turnHits    = 0;
+    turnLookups = 0;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getLookups() {
+    return lookups;
+  }
+
+  public synchronized int getTurnHits() {
+    return turnHits;
+  }
+
+  public synchronized int getTurnLookups() {
+    return turnLookups;
+  }
+
+  /**
+   * Get the ratio of lookups which found a score, over the life of the
+   * cache.
+   * @return The hit rate, between 0 and 1.
+   */
+  public synchronized double getHitRate() {
+    if (lookups == 0) {
+      return 0.;
+    }
+    return (double) hits / lookups;
+  }
+}
@@ -0,0 +1,451 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jfedor.frozenbubble.LevelManager;
+
+import android.view.KeyEvent;
+
+/**
+ * Headless two player match between CPU opponents.
+ * <p>The match follows the rules of a two player <code>FrozenGame</code>
+ * on bitboards, without any sprite or canvas:
+ * <ul>
+ * <li>both players start from the same random level of
+ * <code>LevelManager.VS_ROWS</code> rows, and draw their launch bubbles
+ * like <code>BubbleManager.nextBubbleIndex()</code> does.
+ * <li>a launch removing a group sends the opponent one attack bubble
+ * per bubble removed beyond the first 3, and one per bubble detached
+ * from the ceiling.
+ * <li>attack bubbles are released a line of at most
+ * <code>Malus.MAX_ATTACK</code> bubbles at a time, after a launch
+ * which did not detach any bubble, like <code>releaseBubbles()</code>
+ * does.  They rise straight up in random lanes and stick where the game
+ * would stick them.
+ * <li>when enabled, the compressor is lowered every 8 launches.
+ * </ul>
+ * <p>Both players launch once per round.  A player clearing the grid
+ * wins, a player with a bubble on the last row loses, and the match is
+ * a draw if both happen in the same round or if no player won after
+ * the maximum number of rounds.
+ * @author Eric Fortin
+ */
+public class VersusMatch implements Freile.OpponentListener {
+
+  /* Result of a match without a winner */
+  public static final int DRAW = -1;
+  /* Default maximum number of rounds */
+  public static final int DEFAULT_MAX_ROUNDS = 500;
+
+  /* Number of launches between compressor steps */
+  private static final int COMPRESSOR_SHOTS = 8;
+
+  /**
+   * Creates the CPU opponent of a player.
+   */
+  public interface OpponentFactory {
+    /**
+     * Create an opponent.
+     * @param board - the bitboard of the player grid.
+     * @param service - the service computing the decisions.
+     * @return The opponent.
+     */
+    public Opponent create(GridBitboard board,
+                           OpponentService service);
+  }
+
+  /**
+   * State of a player.
+   */
+  private static class Player {
+    final GridBitboard     board  = new GridBitboard();
+    final TrajectoryCaster caster = new TrajectoryCaster();
+    final Random           random;
+    Opponent opponent;
+    int      currentColor;
+    int      nextColor;
+    int      compressor;
+    int      fixedBubbles;
+    int      malus;
+    int      sendToOpponent;
+    boolean  dropped;
+    boolean  lost;
+    boolean  won;
+    long[]   latencies = new long[64];
+    int      numDecisions;
+
+    Player(long seed) {
+      random = new Random(seed);
+    }
+
+    void addLatency(long latency) {
+      if (numDecisions == latencies.length) {
+        latencies = Arrays.copyOf(latencies, numDecisions * 2);
+      }
+      latencies[numDecisions++] = latency;
+    }
+
+    int getOutcome() {
+      if (lost) {
+        return -1;
+      }
+      return won ? 1 : 0;
+    }
+  }
+
+  private final Player[] players;
+  private final int      numColors;
+  private final boolean  compressorOn;
+  private final int      maxRounds;
+  private final int[]    position = {0, 0};
+  /* Attack bubbles rising, per lane */
+  private final int[]    laneColor = new int[LevelManager.LANES];
+  private final int[]    laneOpenX = new int[LevelManager.LANES];
+  private final int[]    laneOpenY = new int[LevelManager.LANES];
+  private int rounds;
+
+  /**
+   * Headless match class constructor.
+   * @param seed - the seed of the level and of the random draws.
+   * @param numColors - the number of bubble colors.
+   * @param compressorOn - <code>true</code> to lower the compressor.
+   * @param maxRounds - the number of rounds after which the match is a
+   * draw.
+   * @param first - creates the opponent of the first player.
+   * @param second - creates the opponent of the second player.
+   * @param service - the service computing the decisions.
+   */
+  public VersusMatch(long seed, int numColors, boolean compressorOn,
+                     int maxRounds, OpponentFactory first,
+                     OpponentFactory second, OpponentService service) {
+    this.numColors    = numColors;
+    this.compressorOn = compressorOn;
+    this.maxRounds    = maxRounds;
+    players           = new Player[] {new Player(seed + 1),
+                                      new Player(seed + 2)};
+
+    /*
+     * Generate the level like LevelManager does for a two player game.
+     */
+    Random rand = new Random(seed);
+    for (int j = 0; j < LevelManager.VS_ROWS; j++) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        int color = rand.nextInt(numColors);
+        if (i >= j % 2) {
+          players[0].board.set(i, j, color);
+          players[1].board.set(i, j, color);
+        }
+      }
+    }
+
+    players[0].opponent = first.create(players[0].board, service);
+    players[1].opponent = second.create(players[1].board, service);
+    for (int i = 0; i < players.length; i++) {
+      Player player = players[i];
+      player.currentColor = nextBubbleIndex(player);
+      player.nextColor    = nextBubbleIndex(player);
+      player.opponent.setOpponentListener(this);
+    }
+  }
+
+  public synchronized void onOpponentEvent(Freile.eventEnum event) {
+    notifyAll();
+  }
+
+  /**
+   * Play the match until a player wins or the maximum number of rounds
+   * is reached.  The opponents are stopped when the match is over.
+   * @return The index of the winning player, or <code>DRAW</code>.
+   */
+  public int play() throws InterruptedException {
+    int winner = DRAW;
+
+    try {
+      for (rounds = 1; rounds <= maxRounds; rounds++) {
+        for (int i = 0; i < players.length; i++) {
+          launch(players[i]);
+        }
+        if ((winner = getWinner()) != DRAW || isOver()) {
+          break;
+        }
+
+        for (int i = 0; i < players.length; i++) {
+          Player player = players[i];
+          if (!player.dropped && (player.malus > 0)) {
+            releaseBubbles(player);
+          }
+        }
+        players[0].malus += players[1].sendToOpponent;
+        players[1].malus += players[0].sendToOpponent;
+        if ((winner = getWinner()) != DRAW || isOver()) {
+          break;
+        }
+      }
+    } finally {
+      for (int i = 0; i < players.length; i++) {
+        players[i].opponent.stopThread();
+      }
+    }
+    return winner;
+  }
+
+  /**
+   * Get the number of rounds played.
+   * @return The number of rounds played.
+   */
+  public int getRounds() {
+    return Math.min(rounds, maxRounds);
+  }
+
+  /**
+   * Get the decision latencies of a player.
+   * @param player - the player index.
+   * @return The time taken by each decision of the player, from the
+   * request to the result, in nanoseconds.
+   */
+  public long[] getLatencies(int player) {
+    return Arrays.copyOf(players[player].latencies,
+                         players[player].numDecisions);
+  }
+
+  private int getWinner() {
+    int first  = players[0].getOutcome();
+    int second = players[1].getOutcome();
+
+    if (first > second) {
+      return 0;
+    }
+    else if (second > first) {
+      return 1;
+    }
+    return DRAW;
+  }
+
+  private boolean isOver() {
+    return (players[0].getOutcome() != 0) || (players[1].getOutcome() != 0);
+  }
+
+  /**
+   * Draw the color of the next launch bubble like
+   * <code>BubbleManager.nextBubbleIndex()</code> does.
+   * @param player - the player drawing the color.
+   * @return The color drawn.
+   */
+  private static int nextBubbleIndex(Player player) {
+    int colorMask = player.board.getColorMask();
+
+    if (colorMask == 0) {
+      return 0;
+    }
+
+    int select = player.random.nextInt() % GridBitboard.NUM_COLORS;
+
+    if (select < 0) {
+      select = -select;
+    }
+
+    int count    = -1;
+    int position = -1;
+
+    while (count != select) {
+      position = (position + 1) % GridBitboard.NUM_COLORS;
+      if ((colorMask & (1 << position)) != 0) {
+        count++;
+      }
+    }
+    return position;
+  }
+
+  /**
+   * Ask the opponent of a player for a launch and play it.
+   * @param player - the launching player.
+   */
+  private void launch(Player player) throws InterruptedException {
+    Opponent opponent = player.opponent;
+    long     start    = System.nanoTime();
+    long     gridHash = ZobristHash.hash(player.board) ^
+                        ZobristHash.compressorKey(player.compressor);
+
+    opponent.compute(player.currentColor, player.nextColor,
+                     player.compressor, player.malus, gridHash);
+    synchronized (this) {
+      while (opponent.isComputing()) {
+        wait(100);
+      }
+    }
+    player.addLatency(System.nanoTime() - start);
+
+    if (opponent.getAction(0.) == KeyEvent.KEYCODE_DPAD_DOWN) {
+      int color = player.currentColor;
+      player.currentColor = player.nextColor;
+      player.nextColor    = color;
+    }
+
+    player.caster.setGrid(player.board);
+    player.caster.getCollision(opponent.getExactDirection(0.),
+                               player.compressor, position);
+
+    int x     = position[0];
+    int y     = position[1];
+    int color = player.currentColor;
+
+    /*
+     * The next bubble is drawn when the bubble is launched, before it
+     * lands.
+     */
+    player.currentColor   = player.nextColor;
+    player.nextColor      = nextBubbleIndex(player);
+    player.sendToOpponent = 0;
+    player.dropped        = false;
+
+    if (!player.board.isOccupied(x, y)) {
+      int group   = player.board.checkState(x, y, color);
+      int removed = player.board.play(x, y, color);
+
+      if (removed > 0) {
+        player.sendToOpponent = removed - 3;
+        player.dropped        = removed > group;
+      }
+    }
+
+    checkLost(player);
+    if (!player.lost && player.board.isEmpty()) {
+      player.won = true;
+    }
+    else if (compressorOn && (++player.fixedBubbles == COMPRESSOR_SHOTS)) {
+      player.fixedBubbles = 0;
+      player.compressor++;
+      checkLost(player);
+    }
+  }
+
+  private void checkLost(Player player) {
+    int bottom = player.board.getBottomRow();
+
+    if (bottom >= LevelManager.NUM_ROWS - 1 - player.compressor) {
+      player.lost = true;
+    }
+  }
+
+  /**
+   * Release a line of attack bubbles into random lanes, and let them
+   * rise until they stick like <code>Bubble.goUp()</code> does.
+   * @param player - the player receiving the attack bubbles.
+   */
+  private void releaseBubbles(Player player) {
+    GridBitboard board      = player.board;
+    double       moveDown   = player.compressor * 28.;
+    int          malusBalls = Math.min(Malus.MAX_ATTACK, player.malus);
+    int          rising     = 0;
+
+    player.malus -= malusBalls;
+    Arrays.fill(laneColor, -1);
+    while (malusBalls > 0) {
+      int lane = player.random.nextInt(LevelManager.LANES);
+      if (laneColor[lane] == -1) {
+        laneColor[lane] = 0;
+        malusBalls--;
+      }
+    }
+
+    /*
+     * The attack bubbles rise together, so each lane is moved in turn
+     * rather than using AttackLanes.land(), which ignores the other
+     * lanes.
+     */
+    double realY = AttackLanes.getStartY();
+    for (int i = 0; i < LevelManager.LANES; i++) {
+      if (laneColor[i] != -1) {
+        laneColor[i] = player.random.nextInt(numColors);
+        laneOpenY[i] = AttackLanes.getRow(realY, moveDown);
+        laneOpenX[i] = AttackLanes.getColumn(i, laneOpenY[i]);
+        rising++;
+      }
+    }
+
+    while (rising > 0) {
+      realY = AttackLanes.moveUp(realY);
+      for (int i = 0; i < LevelManager.LANES; i++) {
+        if (laneColor[i] == -1) {
+          continue;
+        }
+
+        int row    = AttackLanes.getRow(realY, moveDown);
+        int column = AttackLanes.getColumn(i, row);
+        if (!board.isOccupied(column, row)) {
+          laneOpenX[i] = column;
+          laneOpenY[i] = row;
+        }
+
+        int openX = laneOpenX[i];
+        int openY = laneOpenY[i];
+        if (AttackLanes.collides(board, openX, openY,
+                                 AttackLanes.getLaneX(i), realY, moveDown) ||
+            (realY < 44. + moveDown)) {
+          if (board.isOccupied(openX, openY)) {
+            player.malus++;
+          }
+          else {
+            board.set(openX, openY, laneColor[i]);
+          }
+          laneColor[i] = -1;
+          rising--;
+        }
+      }
+    }
+    checkLost(player);
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.gsanson.frozenbubble;
+
+import java.util.Random;
+
+import org.jfedor.frozenbubble.Bubble;
+import org.jfedor.frozenbubble.LevelManager;
+
+/**
+ * Zobrist keys of the bubble grid states.
+ * <p>The hash of a grid is the exclusive or of the keys of its bubbles,
+ * each key depending on the bubble location and color, and of the key
+ * of the compressor level.  Adding or removing a bubble thus updates
+ * the hash with a single exclusive or.
+ * @author Eric Fortin
+ */
+public class ZobristHash {
+
+  /* Fixed seed, so that hashes are the same from one run to the next */
+  private static final long SEED = 0x2545F4914F6CDD1DL;
+
+  private static final long[] CELL_KEYS       =
+      new long[GridBitboard.NUM_CELLS * GridBitboard.NUM_COLORS];
+  private static final long[] PROBE_KEYS      =
+      new long[GridBitboard.NUM_CELLS * GridBitboard.NUM_COLORS];
+  private static final long[] COMPRESSOR_KEYS =
+      new long[LevelManager.NUM_ROWS];
+
+  static {
+    Random random = new Random(SEED);
+
+    for (int i = 0; i < CELL_KEYS.length; i++) {
+      CELL_KEYS[i] = random.nextLong();
+    }
+    for (int i = 0; i < PROBE_KEYS.length; i++) {
+      PROBE_KEYS[i] = random.nextLong();
+    }
+    for (int i = 0; i < COMPRESSOR_KEYS.length; i++) {
+      COMPRESSOR_KEYS[i] = random.nextLong();
+    }
+  }
+
+  private static int index(int x, int y, int color) {
+    return ((y * LevelManager.NUM_COLS) + x) * GridBitboard.NUM_COLORS +
+           color;
+  }
+
+  /**
+   * Get the key of a bubble.
+   * @param x - X-coord of the bubble.
+   * @param y - Y-coord of the bubble.
+   * @param color - color of the bubble.
+   * @return The key to combine with the grid hash.
+   */
+  public static long cellKey(int x, int y, int color) {
+    return CELL_KEYS[index(x, y, color)];
+  }
+
+  /**
+   * Get the key of a compressor level.
+   * @param steps - the number of compressor steps.
+   * @return The key to combine with the grid hash.
+   */
+  public static long compressorKey(int steps) {
+    return COMPRESSOR_KEYS[steps % COMPRESSOR_KEYS.length];
+  }
+
+  /**
+   * Get the key of a launch into a grid location.  The keys of launches
+   * are independent of the keys of bubbles, so that a launch into a grid
+   * and the grid itself hash differently.
+   * @param x - X-coord of the launched bubble.
+   * @param y - Y-coord of the launched bubble.
+   * @param color - color of the launched bubble.
+   * @return The key to combine with the grid hash.
+   */
+  public static long probeKey(int x, int y, int color) {
+    return PROBE_KEYS[index(x, y, color)];
+  }
+
+  /**
+   * Compute the hash of a grid of bubble sprites from scratch, without
+   * the compressor key.
+   * @param grid - the grid of bubble sprites.
+   * @return The hash of the bubbles in the grid.
+   */
+  public static long hash(Bubble[][] grid) {
+    long hash = 0;
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (grid[i][j] != null) {
+          hash ^= cellKey(i, j, grid[i][j].getColor());
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Compute the hash of a bitboard from scratch, without the compressor
+   * key.
+   * @param grid - the bitboard of fixed bubbles.
+   * @return The hash of the bubbles in the grid.
+   */
+  public static long hash(GridBitboard grid) {
+    long hash = 0;
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        int color = grid.getColor(i, j);
+        if (color != -1) {
+          hash ^= cellKey(i, j, color);
+        }
+      }
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
+
+/**
+ * Batch tool checking that the game simulation core does not allocate
+ * memory while a game is played.
+ * <p>Usage, on a Java virtual machine whose thread management bean
+ * counts the bytes allocated by each thread:
+ * <pre>
+ * java -Xint -cp bin/classes org.jfedor.frozenbubble.AllocationBenchmark
+ *      [-frames N] [-warmup N] [-arcade] [-seed N]
+ * </pre>
+ * <p>The interpreter is used so that no allocation is optimized away by
+ * escape analysis, which the Android runtime may not do, and so that
+ * the compiler does not allocate on the measured thread.
+ * <p>Headless games are played with random aiming and launches, a new
+ * game starting whenever one is over.  After the warm up frames, the
+ * bytes allocated by each call to <code>FrozenCore.play()</code> are
+ * measured.  Starting a new game is not measured, as it is not a frame
+ * of a game in play, and neither are the frames where a new game fills
+ * its bubble pool, which are reported apart.  The report gives the
+ * number of steady state frames that allocated memory and the bytes
+ * allocated per frame.  The process exits with a non-zero status if any
+ * steady state frame allocated memory.
+ * @author Eric Fortin
+ */
+public class AllocationBenchmark {
+
+  /* Default numbers of measured and warm up frames */
+  public static final int DEFAULT_FRAMES = 200000;
+  public static final int DEFAULT_WARMUP = 20000;
+
+  /* One frame out of FIRE_RATE launches a bubble, if possible */
+  private static final int FIRE_RATE = 40;
+
+  private final boolean arcade;
+  private final long    seed;
+  private final Random  random;
+
+  /* Thread allocation counter, read by reflection */
+  private final Object   threadBean;
+  private final Method   allocatedBytes;
+  private final Object[] threadId;
+  private long           overhead;
+
+  private FrozenCore core;
+  private int        numGames;
+  private long       numFrames;
+  private long       numLaunches;
+  private long       allocatingFrames;
+  private long       allocatingLaunches;
+  private long       totalBytes;
+  private long       maxBytes;
+  private long       poolFrames;
+  private long       poolBytes;
+
+  /**
+   * AllocationBenchmark class constructor.
+   * @param arcade - <code>true</code> to play arcade games.
+   * @param seed - the seed of the levels and of the player inputs.
+   * @throws UnsupportedOperationException if the virtual machine does
+   * not count the bytes allocated by each thread.
+   */
+  public AllocationBenchmark(boolean arcade, long seed) {
+    this.arcade = arcade;
+    this.seed   = seed;
+    this.random = new Random(seed);
+    try {
+      Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+      Class<?> bean    = Class.forName("com.sun.management.ThreadMXBean");
+      threadBean       = factory.getMethod("getThreadMXBean").invoke(null);
+      allocatedBytes   = bean.getMethod("getThreadAllocatedBytes", long.class);
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(
+          "Thread allocation counters are not available", e);
+    }
+    threadId = new Object[] {Long.valueOf(Thread.currentThread().getId())};
+    newGame();
+  }
+
+  private long getAllocatedBytes() {
+    try {
+      return ((Long) allocatedBytes.invoke(threadBean, threadId)).longValue();
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(
+          "Thread allocation counters are not available", e);
+    }
+  }
+
+  /**
+   * Measure the bytes allocated by reading the allocation counter
+   * itself, to subtract from each frame measurement.
+   */
+  private void calibrate() {
+    overhead = Long.MAX_VALUE;
+    for (int i = 0; i < 10000; i++) {
+      long start = getAllocatedBytes();
+      long bytes = getAllocatedBytes() - start;
+      if (bytes < overhead) {
+        overhead = bytes;
+      }
+    }
+  }
+
+  private void newGame() {
+    LevelManager levels = new LevelManager(random.nextLong(),
+                                           LevelManager.NORMAL, arcade);
+    core = new FrozenCore(levels.getCurrentLevel(), levels, null,
+                          LevelManager.NORMAL, arcade, false, false,
+                          random.nextLong(), null);
+    numGames++;
+  }
+
+  /**
+   * Play a frame, starting a new game first if the last one is over.
+   * @param measure - <code>true</code> to count the bytes allocated.
+   */
+  private void frame(boolean measure) {
+    if (core.getGameResult() != gameEnum.PLAYING) {
+      newGame();
+    }
+
+    boolean fire = random.nextInt(FIRE_RATE) == 0;
+    double  dx   = (random.nextInt(3) - 1) * FrozenCore.LAUNCH_DIRECTION_STEP;
+
+    if (!measure) {
+      core.play(fire, false, false, dx);
+      return;
+    }
+
+    int  misses = core.getBubblePool().getMisses();
+    long start  = getAllocatedBytes();
+    core.play(fire, false, false, dx);
+    long bytes  = getAllocatedBytes() - start - overhead;
+
+    /*
+     * A bubble pool miss allocates a new bubble, until the pool holds
+     * as many bubbles as the game keeps in play at once.
+     */
+    if (core.getBubblePool().getMisses() != misses) {
+      poolFrames++;
+      poolBytes += bytes;
+      return;
+    }
+
+    /*
+     * The player may also be hurried into a launch.
+     */
+    boolean launch = core.bubbleLaunched;
+
+    numFrames++;
+    if (launch) {
+      numLaunches++;
+    }
+    if (bytes > 0) {
+      allocatingFrames++;
+      if (launch) {
+        allocatingLaunches++;
+      }
+      totalBytes += bytes;
+      if (bytes > maxBytes) {
+        maxBytes = bytes;
+      }
+    }
+  }
+
+  /**
+   * Play the warm up frames, then the measured frames.
+   * @param frames - the number of measured frames.
+   * @param warmup - the number of warm up frames.
+   */
+  public void run(int frames, int warmup) {
+    for (int i = 0; i < warmup; i++) {
+      frame(false);
+    }
+    calibrate();
+    for (int i = 0; i < frames; i++) {
+      frame(true);
+    }
+  }
+
+  /**
+   * Get the number of steady state frames that allocated memory.
+   * @return The number of allocating frames.
+   */
+  public long getAllocatingFrames() {
+    return allocatingFrames;
+  }
+
+  /**
+   * Print the benchmark results.
+   */
+  public void printReport() {
+    System.out.println(String.format("%s games, seed %d: %d frames, " +
+                                     "%d launches, %d games",
+                                     arcade ? "arcade" : "puzzle", seed,
+                                     numFrames, numLaunches, numGames));
+    System.out.println(String.format(
+        "  %d allocating frames (%d with a launch), %d bytes, " +
+        "%.3f bytes/frame, at most %d bytes",
+        allocatingFrames, allocatingLaunches, totalBytes,
+        numFrames > 0 ? (double) totalBytes / numFrames : 0., maxBytes));
+    System.out.println(String.format(
+        "  %d bubble pool filling frames not counted, %d bytes",
+        poolFrames, poolBytes));
+  }
+
+  public static void main(String[] args) {
+    int     frames = DEFAULT_FRAMES;
+    int     warmup = DEFAULT_WARMUP;
+    boolean arcade = false;
+    long    seed   = System.currentTimeMillis();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-frames")) {
+        frames = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-warmup")) {
+        warmup = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-arcade")) {
+        arcade = true;
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else {
+        System.err.println("usage: AllocationBenchmark [-frames N] " +
+                           "[-warmup N] [-arcade] [-seed N]");
+        System.exit(1);
+      }
+    }
+
+    AllocationBenchmark benchmark = new AllocationBenchmark(arcade, seed);
+    benchmark.run(frames, warmup);
+    benchmark.printReport();
+    if (benchmark.getAllocatingFrames() != 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,663 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+/**
+ * A bubble of the game simulation core.
+ * <p>This holds the position, motion and grid state of a bubble, and
+ * moves it as the game is played.  It has no dependency on the Android
+ * framework; a <code>BubbleSprite</code> draws it on screen.
+ * <p>The position and speed of the bubble are computed in fixed point,
+ * in <code>1 / FixedPoint.ONE</code> pixel units, so that its trajectory
+ * is identical on every device.
+ * <p>While the bubble is in the grid or in the scrolling row, its
+ * vertical position is relative to the grid offset of the core, which
+ * moves all these bubbles at once when the grid scrolls or the
+ * compressor is lowered.
+ * @author Eric Fortin
+ */
+public class Bubble {
+  public static final int MIN_PIX = 20;
+  public static final int MAX_PIX = 29;
+  public static double minDistance = MIN_PIX * MIN_PIX;
+
+  private static final int FP_SHIFT = FixedPoint.SHIFT;
+
+  private static final int FALL_SPEED       = 1 << FP_SHIFT;
+  private static final int MAX_BUBBLE_SPEED = 8 << FP_SHIFT;
+  private static final int GO_UP_SPEED      = 20 << FP_SHIFT;
+
+  /*
+   * Playfield bounds and grid geometry, in fixed point.
+   */
+  private static final int LEFT_WALL   = 190 << FP_SHIFT;
+  private static final int RIGHT_WALL  = 414 << FP_SHIFT;
+  private static final int TOP         = 44 << FP_SHIFT;
+  private static final int BOTTOM      = 680 << FP_SHIFT;
+  private static final int COL_WIDTH   = 32 << FP_SHIFT;
+  private static final int ROW_HEIGHT  = 28 << FP_SHIFT;
+  private static final int GRID_LEFT   = 174 << FP_SHIFT;
+  private static final int HALF_COL    = 16 << FP_SHIFT;
+
+  /*
+   * The collision distance in pixels, and its square in squared
+   * fixed-point units.
+   */
+  private static int  collision     = MIN_PIX;
+  private static long minDistanceFp = (long) MIN_PIX * MIN_PIX <<
+                                      (2 * FP_SHIFT);
+
+  private FrozenCore core;
+  private Object     tag;
+
+  /*
+   * Neighbor buffer filled when checking for collisions.
+   */
+  private final Bubble[] neighbors = new Bubble[HexGrid.MAX_NEIGHBORS];
+
+  int    color;
+  int    fixedAnim;
+  int    lastOpenPosition;
+  int    x, y;
+  int    moveX, moveY;
+  int    realX, realY;
+  /*
+   * Position before the last simulation step that moved the bubble, and
+   * the number of that step, to interpolate between steps when drawing.
+   */
+  int    lastX, lastY;
+  int    lastTick = -1;
+
+  boolean blink;
+  boolean fixed;
+  boolean inGrid;
+  boolean released;
+
+  /**
+   * Class constructor used when restoring the game state.  The motion
+   * is specified in pixels, and converted to fixed point.
+   */
+  public Bubble(FrozenCore core, int x, int y, int color,
+                double moveX, double moveY, double realX, double realY,
+                boolean fixed, boolean blink, boolean released,
+                int fixedAnim, int lastOpenPosition) {
+    this.core = core;
+    this.x = x;
+    this.y = y;
+    this.lastX = x;
+    this.lastY = y;
+    this.color = color;
+    this.moveX = FixedPoint.toFixed(moveX);
+    this.moveY = FixedPoint.toFixed(moveY);
+    this.realX = FixedPoint.toFixed(realX);
+    this.realY = FixedPoint.toFixed(realY);
+    this.fixed = fixed;
+    this.blink = blink;
+    this.released = released;
+    this.fixedAnim = fixedAnim;
+    this.lastOpenPosition = lastOpenPosition;
+  }
+
+  /**
+   * Class constructor used when creating a launched bubble.
+   */
+  public Bubble(FrozenCore core, int x, int y, double direction, int color) {
+    this.core = core;
+    initLaunched(x, y, direction, color);
+  }
+
+  /**
+   * Class constructor used when initializing a new level.
+   */
+  public Bubble(FrozenCore core, int x, int y, int color) {
+    this.core = core;
+    initFixed(x, y, color);
+  }
+
+  public void blink() {
+    blink = true;
+  }
+
+  /**
+   * Advance the blink and the fixed animation by a simulation step.  A
+   * blink is shown during the step it was set in, and the fixed
+   * animation shows one of its frames per step.
+   */
+  void animate() {
+    blink = false;
+    if (fixedAnim != -1) {
+      fixedAnim++;
+
+      if (fixedAnim == 6) {
+        fixedAnim = -1;
+      }
+    }
+  }
+
+  boolean checkCollision(Bubble[] neighbors, int numNeighbors) {
+    for (int i=0 ; i<numNeighbors ; i++) {
+      Bubble current = neighbors[i];
+
+      if (current != null) {
+        if (checkCollision(current)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  boolean checkCollision(Bubble bubble) {
+    long dx = (bubble.x << FP_SHIFT) - this.realX;
+    long dy = (bubble.getY() << FP_SHIFT) - this.realY;
+
+    return (dx * dx + dy * dy) < minDistanceFp;
+  }
+
+  /**
+   * Obtain the grid location the bubble is currently over.
+   * @return The grid location, as <code>x + y * NUM_COLS</code>.
+   */
+  int currentPosition() {
+    int rowOffset = core.getRowOffset();
+    int posY = FixedPoint.floorDiv(realY - ROW_HEIGHT - getMoveDown(),
+                                   ROW_HEIGHT);
+    int posX = FixedPoint.floorDiv(realX - GRID_LEFT +
+                                   ((posY + rowOffset) % 2) * HALF_COL,
+                                   COL_WIDTH);
+
+    if (posX > (LevelManager.NUM_COLS - 1)) {
+      posX = LevelManager.NUM_COLS - 1;
+    }
+
+    if (posX < 0) {
+      posX = 0;
+    }
+
+    if (posY > (LevelManager.NUM_ROWS - 1)) {
+      posY = LevelManager.NUM_ROWS - 1;
+    }
+
+    if (posY < 0) {
+      posY = 0;
+    }
+
+    return posX + posY * LevelManager.NUM_COLS;
+  }
+
+  public int getColor() {
+    return this.color;
+  }
+
+  public boolean fixed() {
+    return fixed;
+  }
+
+  /**
+   * Fill a buffer with the grid entries adjacent to a grid location.
+   * Empty grid locations are included as <code>null</code> entries.
+   * @param position - the grid location, as
+   * <code>x + y * NUM_COLS</code>.
+   * @param list - the buffer to fill, which must hold at least six
+   * entries.
+   * @return The number of entries written to the buffer.
+   */
+  int getNeighbors(int position, Bubble[] list) {
+    Bubble[][] grid = core.getGrid();
+    int table = HexGrid.tableIndex(position, core.getRowOffset());
+    int first = table * HexGrid.MAX_NEIGHBORS;
+    int count = HexGrid.NUM_NEIGHBORS[table];
+
+    for (int i = 0; i < count; i++) {
+      int cell = HexGrid.NEIGHBORS[first + i];
+      list[i] = grid[cell % LevelManager.NUM_COLS]
+                    [cell / LevelManager.NUM_COLS];
+    }
+
+    return count;
+  }
+
+  /**
+   * Obtain the renderer data attached to this bubble.
+   * @return The object attached with <code>setTag()</code>.
+   */
+  public Object getTag() {
+    return tag;
+  }
+
+  /**
+   * Obtain the horizontal position of the bubble on the game field,
+   * truncated to a whole pixel.
+   * @return The X-coord of the top left corner of the bubble.
+   */
+  public int getX() {
+    return x;
+  }
+
+  /**
+   * Obtain the vertical position of the bubble on the game field,
+   * truncated to a whole pixel.
+   * @return The Y-coord of the top left corner of the bubble.
+   */
+  public int getY() {
+    if (inGrid) {
+      return y + core.gridOffset;
+    }
+    return y;
+  }
+
+  public void fall() {
+    if (fixed) {
+      moveY = core.getRandom().nextInt(5 << FP_SHIFT);
+    }
+
+    fixed = false;
+    moveY += FALL_SPEED;
+    realY += moveY;
+
+    updatePosition();
+
+    if (realY >= BOTTOM) {
+      core.deleteFallingBubble(this);
+    }
+  }
+
+  public void goUp() {
+    realX += moveX;
+
+    if (realX >= RIGHT_WALL) {
+      moveX = -moveX;
+      realX += (RIGHT_WALL - realX);
+    }
+    else if (realX <= LEFT_WALL) {
+      moveX = -moveX;
+      realX += (LEFT_WALL - realX);
+    }
+
+    moveY = -GO_UP_SPEED;
+    realY += moveY;
+    int currentPosition = currentPosition();
+    Bubble[][] grid = core.getGrid();
+
+    if (grid[currentPosition % LevelManager.NUM_COLS]
+            [currentPosition / LevelManager.NUM_COLS] == null)
+      lastOpenPosition = currentPosition;
+
+    int numNeighbors = getNeighbors(lastOpenPosition, neighbors);
+
+    if (checkCollision(neighbors, numNeighbors) ||
+        (realY < TOP + getMoveDown())) {
+      int lastOpenX = lastOpenPosition % LevelManager.NUM_COLS;
+      int lastOpenY = lastOpenPosition / LevelManager.NUM_COLS;
+      realX = LEFT_WALL + lastOpenX * COL_WIDTH - (lastOpenY % 2) * HALF_COL;
+      realY = TOP + lastOpenY * ROW_HEIGHT + getMoveDown();
+      fixed = true;
+      updatePosition();
+
+      if (!this.register(grid, lastOpenPosition)) {
+        core.removeBubble(this);
+        core.getMalus().addBubbles(1);
+      }
+      else {
+        moveX = 0;
+        moveY = 0;
+        fixedAnim = 0;
+      }
+      core.deleteGoingUpBubble(this);
+      return;
+    }
+
+    updatePosition();
+  }
+
+  /**
+   * Reinitialize the bubble as a bubble fixed in the grid, like the
+   * bubbles of a new level.
+   */
+  void initFixed(int x, int y, int color) {
+    this.x = x;
+    this.y = y;
+    this.lastX = x;
+    this.lastY = y;
+    this.lastTick = -1;
+    this.color = color;
+    this.moveX = 0;
+    this.moveY = 0;
+    this.realX = x << FP_SHIFT;
+    this.realY = y << FP_SHIFT;
+    this.lastOpenPosition = currentPosition();
+
+    blink     = false;
+    fixed     = true;
+    fixedAnim = -1;
+    released  = false;
+  }
+
+  /**
+   * Reinitialize the bubble as a launched bubble.
+   */
+  void initLaunched(int x, int y, double direction, int color) {
+    this.x = x;
+    this.y = y;
+    this.lastX = x;
+    this.lastY = y;
+    this.lastTick = -1;
+    this.color = color;
+    int index = FixedPoint.directionIndex(direction);
+    this.moveX = -((MAX_BUBBLE_SPEED * FixedPoint.cos(index)) >>
+                   FixedPoint.TRIG_SHIFT);
+    this.moveY = -((MAX_BUBBLE_SPEED * FixedPoint.sin(index)) >>
+                   FixedPoint.TRIG_SHIFT);
+    this.realX = x << FP_SHIFT;
+    this.realY = y << FP_SHIFT;
+    this.lastOpenPosition = currentPosition();
+
+    blink     = false;
+    fixed     = false;
+    fixedAnim = -1;
+    released  = false;
+  }
+
+  public void jump() {
+    if (fixed) {
+      moveX = -(6 << FP_SHIFT) + core.getRandom().nextInt(12 << FP_SHIFT);
+      moveY = -(5 << FP_SHIFT) - core.getRandom().nextInt(10 << FP_SHIFT);
+      fixed = false;
+    }
+
+    moveY += FALL_SPEED;
+    realY += moveY;
+    realX += moveX;
+
+    updatePosition();
+
+    if (realY >= BOTTOM) {
+      core.deleteJumpingBubble(this);
+    }
+  }
+
+  public void move() {
+    realX += moveX;
+
+    if (realX >= RIGHT_WALL) {
+      moveX = -moveX;
+      realX += (RIGHT_WALL - realX);
+      core.gameEvent(FrozenCore.EVENT_REBOUND);
+    }
+    else if (realX <= LEFT_WALL) {
+      moveX = -moveX;
+      realX += (LEFT_WALL - realX);
+      core.gameEvent(FrozenCore.EVENT_REBOUND);
+    }
+
+    realY += moveY;
+    int currentPosition = currentPosition();
+    Bubble[][] grid = core.getGrid();
+
+    if (grid[currentPosition % LevelManager.NUM_COLS]
+            [currentPosition / LevelManager.NUM_COLS] == null)
+      lastOpenPosition = currentPosition;
+
+    int numNeighbors = getNeighbors(lastOpenPosition, neighbors);
+
+    if (checkCollision(neighbors, numNeighbors) ||
+        (realY < TOP + getMoveDown())) {
+      int rowOffset = core.getRowOffset();
+      int lastOpenX = lastOpenPosition % LevelManager.NUM_COLS;
+      int lastOpenY = lastOpenPosition / LevelManager.NUM_COLS;
+      realX = LEFT_WALL + lastOpenX * COL_WIDTH -
+              ((lastOpenY + rowOffset) % 2) * HALF_COL;
+      realY = TOP + lastOpenY * ROW_HEIGHT + getMoveDown();
+      fixed = true;
+
+      FloodFill fill = core.floodFill;
+      int groupSize = fill.fill(grid, core.getRowOffset(), lastOpenPosition,
+                                color);
+
+      if ((groupSize + 1) >= FloodFill.MIN_GROUP) {
+        released = true;
+        core.addAttackBubbles(groupSize + 1 - FloodFill.MIN_GROUP);
+        core.addJumpingBubble(this);
+
+        for (int i = 0; i < groupSize; i++) {
+          int cell = fill.getGroup(i);
+          int currentX = cell % LevelManager.NUM_COLS;
+          int currentY = cell / LevelManager.NUM_COLS;
+          core.addJumpingBubble(grid[currentX][currentY]);
+          core.takeBubble(currentX, currentY);
+        }
+
+        for (int i = 0; i < fill.getNumDetached(); i++) {
+          int cell = fill.getDetached(i);
+          int currentX = cell % LevelManager.NUM_COLS;
+          int currentY = cell / LevelManager.NUM_COLS;
+          core.addFallingBubble(grid[currentX][currentY]);
+          core.takeBubble(currentX, currentY);
+        }
+
+        core.gameEvent(FrozenCore.EVENT_DESTROY_GROUP);
+      }
+      else if (!this.register(grid, lastOpenPosition)) {
+        /*
+         * If the moving bubble failed to register because the grid
+         * location it would fill is already occupied, simply remove
+         * the bubble, but otherwise act like it became affixed.
+         */
+        core.removeBubble(this);
+        core.gameEvent(FrozenCore.EVENT_STICK);
+        return;
+      }
+      else {
+        moveX = 0;
+        moveY = 0;
+        fixedAnim = 0;
+        core.gameEvent(FrozenCore.EVENT_STICK);
+      }
+    }
+
+    updatePosition();
+  }
+
+  /**
+   * Adds a bubble to the fixed grid.
+   * @param grid - the array of fixed bubbles.
+   * @param position - the position in the grid to check for occupancy,
+   * as <code>x + y * NUM_COLS</code>.
+   * @return true if the bubble becomes registered in the grid (false if
+   * another bubble already occupies the same position).
+   */
+  public boolean register(Bubble[][] grid, int position) {
+    int posX = position % LevelManager.NUM_COLS;
+    int posY = position / LevelManager.NUM_COLS;
+    boolean register = grid[posX][posY] == null;
+
+    if (register) {
+      core.placeBubble(posX, posY, this);
+    }
+
+    return register;
+  }
+
+  public boolean released() {
+    return released;
+  }
+
+  /**
+   * Reset the links of a recycled bubble when it is obtained again.
+   */
+  void reset() {
+    tag    = null;
+    inGrid = false;
+    for (int i = 0; i < HexGrid.MAX_NEIGHBORS; i++) {
+      neighbors[i] = null;
+    }
+  }
+
+  public static int getCollisionThreshold() {
+    return collision;
+  }
+
+  public static void setCollisionThreshold(int collision) {
+    Bubble.collision = collision;
+    minDistance = collision * collision;
+    minDistanceFp = (long) collision * collision << (2 * FP_SHIFT);
+  }
+
+  /**
+   * Attach renderer data to this bubble, e.g. the sprite that draws it.
+   * @param tag - the object to attach.
+   */
+  public void setTag(Object tag) {
+    this.tag = tag;
+  }
+
+  /**
+   * Make the vertical position of the bubble relative to the grid
+   * offset, as it enters the grid or the scrolling row.
+   * @param offset - the grid offset, in pixels.
+   * @param stepOffset - the grid offset at the start of the current
+   * simulation step, to keep interpolating from the same position.
+   */
+  void enterGrid(int offset, int stepOffset) {
+    realY -= offset << FP_SHIFT;
+    y     -= offset;
+    lastY -= stepOffset;
+    inGrid = true;
+  }
+
+  /**
+   * Make the vertical position of the bubble absolute again, as it
+   * leaves the grid.
+   * @param offset - the grid offset, in pixels.
+   * @param stepOffset - the grid offset at the start of the current
+   * simulation step.
+   */
+  void leaveGrid(int offset, int stepOffset) {
+    realY += offset << FP_SHIFT;
+    y     += offset;
+    lastY += stepOffset;
+    inGrid = false;
+  }
+
+  /**
+   * Obtain the horizontal position to draw the bubble at.
+   * @param alpha - the elapsed fraction of the current simulation step,
+   * from 0 to 1.
+   * @return The position, interpolated between the positions before and
+   * after the last simulation step if the bubble moved during it.
+   */
+  public int getDrawX(float alpha) {
+    if (lastTick != core.tick) {
+      return x;
+    }
+    return lastX + (int)((x - lastX) * alpha);
+  }
+
+  /**
+   * Obtain the vertical position of the bubble on the game field, in
+   * fixed point.
+   * @return The Y-coord of the top left corner of the bubble.
+   */
+  int getRealY() {
+    if (inGrid) {
+      return realY + (core.gridOffset << FP_SHIFT);
+    }
+    return realY;
+  }
+
+  /**
+   * Obtain the vertical position to draw the bubble at.
+   * @param alpha - the elapsed fraction of the current simulation step,
+   * from 0 to 1.
+   * @return The interpolated position.
+   * @see #getDrawX(float)
+   */
+  public int getDrawY(float alpha) {
+    int drawY = y;
+
+    if (lastTick == core.tick) {
+      drawY = lastY + (int)((y - lastY) * alpha);
+    }
+    if (inGrid) {
+      drawY += core.getGridOffset(alpha);
+    }
+    return drawY;
+  }
+
+  /**
+   * Obtain the simulation step counter of the game this bubble is in.
+   * @return The simulation step counter.
+   */
+  int getTick() {
+    return core.tick;
+  }
+
+  /**
+   * Obtain how far the bubbles have been moved down, in fixed point.
+   * @return The compressor or scrolling offset of the grid.
+   */
+  private int getMoveDown() {
+    return ((int) core.getMoveDown()) << FP_SHIFT;
+  }
+
+  private void updatePosition() {
+    if (lastTick != core.tick) {
+      lastX    = x;
+      lastY    = y;
+      lastTick = core.tick;
+    }
+    x = realX >> FP_SHIFT;
+    y = realY >> FP_SHIFT;
+  }
+}
@@ -54,39 +54,25 @@ package org.jfedor.frozenbubble;
 
 import java.util.Random;
 
-import android.os.Bundle;
-
 public class BubbleManager {
+  /* Number of bubble colors, one per bubble image */
+  public static final int NUM_COLORS = 8;
+
   int bubblesLeft;
-  BmpWrap[] bubbles;
   int[] countBubbles;
 
-  public BubbleManager(BmpWrap[] bubbles) {
-    this.bubbles      = bubbles;
-    this.countBubbles = new int[bubbles.length];
+  public BubbleManager() {
+    this.countBubbles = new int[NUM_COLORS];
     this.bubblesLeft  = 0;
   }
 
-  public void saveState(Bundle map, int id) {
-    map.putInt(String.format("%d-BubbleManager-bubblesLeft", id), bubblesLeft);
-    map.putIntArray(String.format("%d-BubbleManager-countBubbles", id),
-                    countBubbles);
-  }
-
-  public void restoreState(Bundle map, int id) {
-    bubblesLeft  =
-        map.getInt(String.format("%d-BubbleManager-bubblesLeft", id));
-    countBubbles =
-        map.getIntArray(String.format("%d-BubbleManager-countBubbles", id));
-  }
-
-  public void addBubble(BmpWrap bubble) {
-    countBubbles[findBubble(bubble)]++;
+  public void addBubble(int color) {
+    countBubbles[color]++;
     bubblesLeft++;
   }
 
-  public void removeBubble(BmpWrap bubble) {
-    countBubbles[findBubble(bubble)]--;
+  public void removeBubble(int color) {
+    countBubbles[color]--;
     bubblesLeft--;
   }
 
@@ -95,14 +81,14 @@ public class BubbleManager {
   }
 
   public void initialize() {
-    for (int i=0 ; i<bubbles.length ; i++) {
+    for (int i=0 ; i<countBubbles.length ; i++) {
       countBubbles[i] = 0;
     }
     bubblesLeft = 0;
   }
 
   public int nextBubbleIndex(Random rand) {
-    int select = rand.nextInt() % bubbles.length;
+    int select = rand.nextInt() % countBubbles.length;
 
     if (select < 0) {
       select = -select;
@@ -114,7 +100,7 @@ public class BubbleManager {
     while (count != select) {
       position++;
 
-      if (position == bubbles.length) {
+      if (position == countBubbles.length) {
         position = 0;
       }
 
@@ -126,17 +112,43 @@ public class BubbleManager {
     return position;
   }
 
-  public BmpWrap nextBubble(Random rand) {
-    return bubbles[nextBubbleIndex(rand)];
-  }
+  /**
+   * Compute the probability of each bubble color being returned by
+   * <code>nextBubbleIndex()</code>.
+   * <p><code>nextBubbleIndex()</code> draws a uniform index in
+   * <code>[0, numColors)</code> and returns the color at that index
+   * when counting only the colors still present, wrapping around as
+   * needed.  Unless the number of colors present divides the number of
+   * colors, the first colors present are thus more likely.
+   * @param colorMask - a bit mask with bit <code>i</code> set if color
+   * <code>i</code> is still present.
+   * @param numColors - the total number of bubble colors.
+   * @param probabilities - the array to store the probability of each
+   * color in.
+   */
+  public static void nextBubbleProbabilities(int colorMask, int numColors,
+                                             double[] probabilities) {
+    int numPresent = Integer.bitCount(colorMask);
+
+    for (int i = 0; i < numColors; i++) {
+      probabilities[i] = 0.;
+    }
 
-  private int findBubble(BmpWrap bubble) {
-    for (int i=0 ; i<bubbles.length ; i++) {
-      if (bubbles[i] == bubble) {
-        return i;
-      }
+    if (numPresent == 0) {
+      return;
     }
 
-    return -1;
+    for (int select = 0; select < numColors; select++) {
+      int count = select % numPresent;
+      int position = 0;
+
+      while ((count > 0) || ((colorMask & (1 << position)) == 0)) {
+        if ((colorMask & (1 << position)) != 0) {
+          count--;
+        }
+        position++;
+      }
+      probabilities[position] += 1. / numColors;
+    }
   }
 }
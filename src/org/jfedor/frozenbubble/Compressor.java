@@ -56,7 +56,6 @@ import android.graphics.Canvas;
 import android.os.Bundle;
 
 public class Compressor {
-  private static final int SCROLL_START = 6;
   private static final int BAR_L_X      = 235;
   private static final int BAR_R_X      = 391;
   private static final int BAR_Y        = 28;
@@ -66,75 +65,46 @@ public class Compressor {
 
   private BmpWrap compressor;
   private BmpWrap compressorHead;
-  private double moveDown;
-  private int scroll;
-  private int scrollMax;
-  private int steps;
+  private FrozenCore core;
 
-  public Compressor(BmpWrap compressorHead, BmpWrap compressor) {
-    init();
+  public Compressor(FrozenCore core, BmpWrap compressorHead,
+                    BmpWrap compressor) {
+    this.core = core;
     setBitmaps(compressorHead, compressor);
   }
 
-  public boolean checkScroll() {
-    if (scroll++ > scrollMax) {
-      scroll = 0;
-      moveDown += 1.;
-    }
-    return scroll == 0;
-  }
-
-  public double getMoveDown() {
-    return moveDown;
-  }
-
-  public int getSteps() {
-    return steps;
-  }
-
-  public void init() {
-    moveDown  = 0.;
-    scroll    = 0;
-    scrollMax = SCROLL_START;
-    steps     = 0;
-  }
-
-  public void moveDown() {
-    moveDown += 28.;
-    steps++;
-  }
-
-  public void moveDownSubtract(double subtract) {
-    moveDown -= subtract;
-  }
-
   public void paint(Canvas c, double scale, int dx, int dy) {
+    int steps = core.getCompressorSteps();
+
     for (int i = 0; i < steps; i++) {
-      c.drawBitmap(compressor.bmp,
-                   (float)(BAR_L_X * scale + dx),
-                   (float)((BAR_Y * i + BAR_Y_ADJ) * scale + dy), null);
-      c.drawBitmap(compressor.bmp,
-                   (float)(BAR_R_X * scale + dx),
-                   (float)((BAR_Y * i + BAR_Y_ADJ) * scale + dy), null);
+      Sprite.drawImage(compressor, BAR_L_X, BAR_Y * i + BAR_Y_ADJ, c,
+                       scale, dx, dy);
+      Sprite.drawImage(compressor, BAR_R_X, BAR_Y * i + BAR_Y_ADJ, c,
+                       scale, dx, dy);
     }
-    c.drawBitmap(compressorHead.bmp,
-                 (float)(HEAD_X * scale + dx),
-                 (float)((BAR_Y * steps + HEAD_Y_ADJ) * scale + dy), null);
+    Sprite.drawImage(compressorHead, HEAD_X, BAR_Y * steps + HEAD_Y_ADJ, c,
+                     scale, dx, dy);
   }
 
   public void restoreState(Bundle map, int id) {
-    moveDown  = map.getDouble(String.format("%d-compressor-moveDown", id));
-    scroll    = map.getInt(String.format("%d-compressor-scroll", id));
-    scrollMax = map.getInt(String.format("%d-compressor-scrollMax", id));
-    steps     = map.getInt(String.format("%d-compressor-steps", id));
+    core.moveDown  = map.getDouble(String.format("%d-compressor-moveDown", id));
+    core.scroll    = map.getInt(String.format("%d-compressor-scroll", id));
+    core.scrollMax = map.getInt(String.format("%d-compressor-scrollMax", id));
+    core.steps     = map.getInt(String.format("%d-compressor-steps", id));
+  }
+
+  public void restoreState(GameSnapshot in) {
+    core.moveDown  = in.getDouble();
+    core.scroll    = in.getInt();
+    core.scrollMax = in.getInt();
+    core.steps     = in.getInt();
   }
 
-  public void saveState(Bundle map, int id) {
-    map.putDouble(String.format("%d-compressor-moveDown", id), moveDown);
-    map.putInt(String.format("%d-compressor-scroll", id), scroll);
-    map.putInt(String.format("%d-compressor-scrollMax", id), scrollMax);
-    map.putInt(String.format("%d-compressor-steps", id), steps);
-    map.putInt(String.format("%d-compressor-steps", id), steps);
+  public void saveState(GameSnapshot out) {
+    out.putDouble(core.moveDown);
+    out.putInt(core.scroll);
+    out.putInt(core.scrollMax);
+    out.putInt(core.steps);
   }
 
   public void setBitmaps(BmpWrap compressorHead, BmpWrap compressor) {
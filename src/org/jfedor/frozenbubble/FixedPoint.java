@@ -0,0 +1,179 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+/**
+ * Fixed-point arithmetic of the bubble physics.
+ * <p>Bubble positions and speeds are integers counting
+ * <code>1 / ONE</code> of a pixel, so that every device playing the
+ * same game computes exactly the same bubble trajectories, which a
+ * network game relies on.  The launch directions range from
+ * <code>MIN_LAUNCH_DIRECTION</code> to <code>MAX_LAUNCH_DIRECTION</code>,
+ * in units of <code>PI / 40</code> radians.  Their cosines and sines are
+ * tabulated once, at <code>DIRECTION_STEPS</code> entries per unit.  The
+ * tables are computed with <code>StrictMath</code>, whose results are
+ * specified bit for bit, and rounded to integers, so they are identical
+ * on every virtual machine.
+ * @author Eric Fortin
+ */
+public final class FixedPoint {
+  /*
+   * Number of fractional bits of a position.
+   */
+  public static final int SHIFT = 8;
+  public static final int ONE   = 1 << SHIFT;
+
+  /*
+   * Number of fractional bits of the trigonometric tables.
+   */
+  public static final int TRIG_SHIFT = 16;
+
+  /*
+   * Number of table entries per launch direction unit.
+   */
+  public static final int DIRECTION_STEPS = 64;
+
+  private static final int NUM_DIRECTIONS =
+      ((int) FrozenCore.MAX_LAUNCH_DIRECTION + 1) * DIRECTION_STEPS + 1;
+
+  private static final int[] COS = new int[NUM_DIRECTIONS];
+  private static final int[] SIN = new int[NUM_DIRECTIONS];
+
+  static {
+    for (int i = 0; i < NUM_DIRECTIONS; i++) {
+      double angle = i * Math.PI / (40. * DIRECTION_STEPS);
+      COS[i] = (int) StrictMath.round(StrictMath.cos(angle) *
+                                      (1 << TRIG_SHIFT));
+      SIN[i] = (int) StrictMath.round(StrictMath.sin(angle) *
+                                      (1 << TRIG_SHIFT));
+    }
+  }
+
+  private FixedPoint() {
+  }
+
+  /**
+   * Obtain the cosine of a launch direction.
+   * @param direction - the direction table index.
+   * @return The cosine, with <code>TRIG_SHIFT</code> fractional bits.
+   * @see #directionIndex(double)
+   */
+  public static int cos(int direction) {
+    return COS[direction];
+  }
+
+  /**
+   * Obtain the table index of the launch direction nearest to the
+   * specified one.
+   * @param direction - the launch direction, in units of
+   * <code>PI / 40</code> radians.
+   * @return The direction table index.
+   */
+  public static int directionIndex(double direction) {
+    int index = (int) Math.floor(direction * DIRECTION_STEPS + 0.5);
+
+    if (index < 0) {
+      index = 0;
+    }
+    else if (index >= NUM_DIRECTIONS) {
+      index = NUM_DIRECTIONS - 1;
+    }
+
+    return index;
+  }
+
+  /**
+   * Divide and round towards negative infinity, so that a position is
+   * mapped to the same grid location on both sides of zero.
+   * @param value - the dividend.
+   * @param divisor - the divisor, which must be positive.
+   * @return The quotient, rounded down.
+   */
+  public static int floorDiv(int value, int divisor) {
+    int quotient = value / divisor;
+
+    if ((value % divisor) < 0) {
+      quotient--;
+    }
+
+    return quotient;
+  }
+
+  /**
+   * Obtain the sine of a launch direction.
+   * @param direction - the direction table index.
+   * @return The sine, with <code>TRIG_SHIFT</code> fractional bits.
+   * @see #directionIndex(double)
+   */
+  public static int sin(int direction) {
+    return SIN[direction];
+  }
+
+  /**
+   * Convert a pixel value to fixed point, rounding to the nearest unit.
+   * @param value - the value in pixels.
+   * @return The value in <code>1 / ONE</code> pixel units.
+   */
+  public static int toFixed(double value) {
+    return (int) Math.floor(value * ONE + 0.5);
+  }
+
+  /**
+   * Convert a fixed-point value to pixels.
+   * @param value - the value in <code>1 / ONE</code> pixel units.
+   * @return The value in pixels, which is exact.
+   */
+  public static double toPixels(int value) {
+    return (double) value / ONE;
+  }
+}
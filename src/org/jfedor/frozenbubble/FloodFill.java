@@ -0,0 +1,236 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+package org.jfedor.frozenbubble;
+
+/**
+ * Flood fills of the bubble grid performed when a launched bubble
+ * sticks.
+ * <p>A single call to <code>fill()</code> finds the group of bubbles
+ * of the launched bubble color connected to the grid location where it
+ * sticks, and if the group is large enough to be removed, the bubbles
+ * left detached from the top row once it is gone.
+ * <p>Visited grid locations are marked with a generation stamp instead
+ * of per-bubble flags, so nothing has to be cleared between fills, and
+ * the fills walk the shared <code>HexGrid</code> neighbor tables with
+ * explicit int stacks instead of recursing.  No memory is allocated
+ * once the flood fill has been created.
+ * @author Eric Fortin
+ */
+public class FloodFill {
+  /*
+   * The number of bubbles of the same color, including the launched
+   * bubble, that have to touch for them to be removed.
+   */
+  public static final int MIN_GROUP = 3;
+
+  private static final int NUM_CELLS = HexGrid.NUM_CELLS;
+
+  /* Generation stamp of each grid location */
+  private final int[] stamp = new int[NUM_CELLS];
+  private int generation;
+
+  /* Depth first search stack of grid locations and next neighbors */
+  private final int[] stackCell = new int[NUM_CELLS + 1];
+  private final int[] stackNext = new int[NUM_CELLS + 1];
+
+  /* Results of the last fill */
+  private final int[] group    = new int[NUM_CELLS];
+  private final int[] detached = new int[NUM_CELLS];
+  private int groupSize;
+  private int numDetached;
+
+  /**
+   * Find the group of bubbles connected to a grid location, and if the
+   * group is removed, the bubbles that are detached as a result.
+   * <p>The grid is not modified.  The group bubbles are listed in the
+   * order they are reached by a depth first search, and the detached
+   * bubbles column by column, from the top row down.  Bubbles in the
+   * last row are never listed as detached.
+   * @param grid - the bubble grid.
+   * @param rowOffset - the row offset of the game field.
+   * @param origin - the grid location where the launched bubble
+   * sticks, as <code>x + y * NUM_COLS</code>.
+   * @param color - the launched bubble color.
+   * @return The number of bubbles in the group, not including the
+   * launched bubble.  If the launched bubble completes a group of at
+   * least <code>MIN_GROUP</code> bubbles, the detached bubbles are
+   * found as well, otherwise there are none.
+   */
+  public int fill(Bubble[][] grid, int rowOffset, int origin, int color) {
+    int groupGeneration = nextGeneration();
+    int sp = 1;
+
+    groupSize   = 0;
+    numDetached = 0;
+    stackCell[0] = origin;
+    stackNext[0] = 0;
+
+    while (sp > 0) {
+      int table = HexGrid.tableIndex(stackCell[sp - 1], rowOffset);
+      int next  = stackNext[sp - 1];
+
+      if (next == HexGrid.NUM_NEIGHBORS[table]) {
+        sp--;
+        continue;
+      }
+
+      stackNext[sp - 1] = next + 1;
+      int cell = HexGrid.NEIGHBORS[table * HexGrid.MAX_NEIGHBORS + next];
+      Bubble bubble = grid[cell % LevelManager.NUM_COLS]
+                          [cell / LevelManager.NUM_COLS];
+
+      if ((bubble != null) && (stamp[cell] != groupGeneration) &&
+          (bubble.color == color)) {
+        stamp[cell]        = groupGeneration;
+        group[groupSize++] = cell;
+        stackCell[sp]      = cell;
+        stackNext[sp]      = 0;
+        sp++;
+      }
+    }
+
+    if ((groupSize + 1) >= MIN_GROUP) {
+      findDetached(grid, rowOffset, groupGeneration);
+    }
+
+    return groupSize;
+  }
+
+  /**
+   * Find the bubbles which are no longer attached to the top row once
+   * the group stamped with the supplied generation is removed.
+   */
+  private void findDetached(Bubble[][] grid, int rowOffset,
+                            int groupGeneration) {
+    int attachedGeneration = nextGeneration();
+    int sp = 0;
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      if ((grid[i][0] != null) && (stamp[i] != groupGeneration)) {
+        stamp[i] = attachedGeneration;
+        stackCell[sp++] = i;
+      }
+    }
+
+    while (sp > 0) {
+      int table = HexGrid.tableIndex(stackCell[--sp], rowOffset);
+      int first = table * HexGrid.MAX_NEIGHBORS;
+      int last  = first + HexGrid.NUM_NEIGHBORS[table];
+
+      for (int i = first; i < last; i++) {
+        int cell = HexGrid.NEIGHBORS[i];
+
+        if ((stamp[cell] != groupGeneration) &&
+            (stamp[cell] != attachedGeneration) &&
+            (grid[cell % LevelManager.NUM_COLS]
+                 [cell / LevelManager.NUM_COLS] != null)) {
+          stamp[cell] = attachedGeneration;
+          stackCell[sp++] = cell;
+        }
+      }
+    }
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
+        int cell = HexGrid.cellIndex(i, j);
+
+        if ((grid[i][j] != null) && (stamp[cell] != groupGeneration) &&
+            (stamp[cell] != attachedGeneration)) {
+          detached[numDetached++] = cell;
+        }
+      }
+    }
+  }
+
+  /**
+   * Obtain a detached bubble found by the last fill.
+   * @param index - the index of the detached bubble, from 0 to
+   * <code>getNumDetached() - 1</code>.
+   * @return The grid location of the detached bubble.
+   */
+  public int getDetached(int index) {
+    return detached[index];
+  }
+
+  /**
+   * Obtain a bubble of the group found by the last fill.
+   * @param index - the index of the group bubble, from 0 to
+   * <code>getGroupSize() - 1</code>.
+   * @return The grid location of the group bubble.
+   */
+  public int getGroup(int index) {
+    return group[index];
+  }
+
+  public int getGroupSize() {
+    return groupSize;
+  }
+
+  public int getNumDetached() {
+    return numDetached;
+  }
+
+  private int nextGeneration() {
+    /*
+     * Start over with fresh stamps rather than let the generation
+     * counter wrap around to a value still stamped on the grid.
+     */
+    if (generation == Integer.MAX_VALUE) {
+      for (int i = 0; i < NUM_CELLS; i++) {
+        stamp[i] = 0;
+      }
+      generation = 0;
+    }
+
+    return ++generation;
+  }
+}
@@ -76,7 +76,6 @@ package org.jfedor.frozenbubble;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Random;
 
@@ -140,6 +139,7 @@ public class FrozenBubble extends Activity
   public final static int MENU_ABOUT          = 9;
   public final static int MENU_EDITOR         = 10;
   public final static int MENU_TARGET_MODE    = 11;
+  public final static int MENU_UNDO           = 12;
 
   public final static int AIM_TO_SHOOT    = 0;
   public final static int POINT_TO_SHOOT  = 1;
@@ -172,6 +172,7 @@ public class FrozenBubble extends Activity
   private int        currentOrientation;
   private GameThread mGameThread           = null;
   private GameView   mGameView             = null;
+  private SaveJournal mJournal             = null;
   private ModPlayer  myModPlayer           = null;
   private OrientationEventListener myOrientationEventListener = null;
 
@@ -238,6 +239,7 @@ public class FrozenBubble extends Activity
   @Override
   public boolean onCreateOptionsMenu(Menu menu) {
     super.onCreateOptionsMenu(menu);
+    menu.add(0, MENU_UNDO,           0, R.string.menu_undo);
     menu.add(0, MENU_COLORBLIND_ON,  0, R.string.menu_colorblind_on);
     menu.add(0, MENU_COLORBLIND_OFF, 0, R.string.menu_colorblind_off);
     menu.add(0, MENU_FULLSCREEN_ON,  0, R.string.menu_fullscreen_on);
@@ -350,6 +352,10 @@ public class FrozenBubble extends Activity
       case MENU_EDITOR:
         startEditor();
         return true;
+      case MENU_UNDO:
+        if (mGameThread != null)
+          mGameThread.rewind();
+        return true;
     }
 
     if (prefsUpdated) {
@@ -389,6 +395,8 @@ public class FrozenBubble extends Activity
     menu.findItem(MENU_TARGET_MODE   ).setVisible(true);
     menu.findItem(MENU_DONT_RUSH_ME  ).setVisible(!prefs.dontRushMe);
     menu.findItem(MENU_RUSH_ME       ).setVisible(prefs.dontRushMe);
+    menu.findItem(MENU_UNDO          ).setVisible((mGameThread != null) &&
+                                                  mGameThread.canRewind());
     return true;
   }
 
@@ -448,7 +456,7 @@ public class FrozenBubble extends Activity
 
   public static void setCollision(int newCollision) {
     prefs.collision = newCollision;
-    BubbleSprite.setCollisionThreshold(prefs.collision);
+    Bubble.setCollisionThreshold(prefs.collision);
   }
 
   public static boolean getColorMode() {
@@ -551,6 +559,10 @@ public class FrozenBubble extends Activity
   }
 
   private void cleanUpGameView() {
+    if (mJournal != null) {
+      mJournal.close();
+    }
+    mJournal    = null;
     mGameThread = null;
     if (mGameView != null) {
       mGameView.cleanUp();
@@ -814,6 +826,27 @@ public class FrozenBubble extends Activity
     mGameThread = mGameView.getThread();
     mGameThread.restoreState(map);
     mGameView.requestFocus();
+    if ((numPlayers < 2) && (gameLocale == LOCALE_LOCAL)) {
+      startJournal();
+    }
+  }
+
+  /**
+   * Autosave the game in progress, which replaces the player saved
+   * game.
+   */
+  private void startJournal() {
+    Bundle config = new Bundle();
+    saveConfig(config);
+    mJournal = new SaveJournal(getFilesDir(), config);
+    mGameThread.setJournal(mJournal);
+    /*
+     * Set a flag indicating that there is a saved game to continue.
+     */
+    Editor editor =
+        PreferenceManager.getDefaultSharedPreferences(this).edit();
+    editor.putBoolean("playerSave", true);
+    editor.apply();
   }
 
   @Override
@@ -984,25 +1017,37 @@ public class FrozenBubble extends Activity
   }
 
   /**
-   * Restore the game from a player saved bundle.
-   * <p>Note that this implementation uses a practice that is not
-   * recommended by the API documentation, as serializing a
-   * <code>Parcel</code> object is not guaranteed to be compatible
-   * amongst disparate versions of the Android OS.
+   * Restore the game from a player saved game file, and replay the
+   * shots of its autosave journal.
+   * <p>Games saved by previous versions are marshalled
+   * <code>Parcel</code> objects, which are still read back, although
+   * serializing a <code>Parcel</code> object is not guaranteed to be
+   * compatible amongst disparate versions of the Android OS.
+   * @see #saveGame(Bundle)
+   * @see SaveJournal
    */
   private Bundle restoreSavedGame() {
     Bundle inState = null;
-    Parcel parcel  = Parcel.obtain();
 
     try {
       FileInputStream fis = openFileInput(SAVE_GAME);
       byte[] array = new byte[(int) fis.getChannel().size()];
       fis.read(array, 0, array.length);
       fis.close();
-      parcel.unmarshall(array, 0, array.length);
-      parcel.setDataPosition(0);
-      inState = parcel.readBundle();
-      inState.putAll(inState);
+      if (GameSnapshot.isSnapshot(array)) {
+        inState = SaveJournal.restore(array,
+                                      getFileStreamPath(SaveJournal.JOURNAL));
+      }
+      else {
+        Parcel parcel = Parcel.obtain();
+        try {
+          parcel.unmarshall(array, 0, array.length);
+          parcel.setDataPosition(0);
+          inState = parcel.readBundle();
+        } finally {
+          parcel.recycle();
+        }
+      }
     } catch (FileNotFoundException fnfe) {
       /*
        * Cannot open file, so the game could not be restored.
@@ -1012,8 +1057,6 @@ public class FrozenBubble extends Activity
        * Error occurred while reading from file.
        */
       ioe.printStackTrace();
-    } finally {
-      parcel.recycle();
     }
 
     return inState;
@@ -1031,52 +1074,41 @@ public class FrozenBubble extends Activity
      * Some game options require additional handling to fully implement
      * changes to game play.
      */
-    BubbleSprite.setCollisionThreshold(prefs.collision);
+    Bubble.setCollisionThreshold(prefs.collision);
     setTargetModeOrientation();
   }
 
   /**
-   * Save the game to a player saved bundle.
-   * <p>Note that this implementation uses a practice that is not
-   * recommended by the API documentation, as serializing a
-   * <code>Parcel</code> object is not guaranteed to be compatible
-   * amongst disparate versions of the Android OS.
+   * Save the game to a player saved game file.
+   * <p>An autosaved game is saved as a checkpoint of its journal, and
+   * any other game as a checkpoint without journal records.  Either
+   * way the file is written in the background.
+   * @see SaveJournal
    */
   private void saveGame(Bundle map) {
+    if ((map == null) && (mJournal != null) && (mGameThread != null)) {
+      saveState(null);
+      mGameThread.saveCheckpoint();
+      return;
+    }
+
     Bundle outState = map;
-    Parcel parcel   = Parcel.obtain();
 
     if (outState == null) {
       outState = new Bundle();
       saveState(outState);
     }
 
-    try {
-      FileOutputStream fos = openFileOutput(SAVE_GAME, Context.MODE_PRIVATE);
-      outState.writeToParcel(parcel, 0);
-      fos.write(parcel.marshall());
-      fos.flush();
-      fos.close();
-      /*
-       * Set a flag indicating that the player saved the game.
-       */
-      Editor editor =
-          PreferenceManager.getDefaultSharedPreferences(this).edit();
-      editor.putBoolean("playerSave", true);
-      editor.commit();
-    } catch (FileNotFoundException fnfe) {
-      /*
-       * Cannot create file, so the game could not be saved.
-       */
-      fnfe.printStackTrace();
-    } catch (IOException ioe) {
-      /*
-       * Error occurred while writing to file.
-       */
-      ioe.printStackTrace();
-    } finally {
-      parcel.recycle();
-    }
+    SaveJournal journal = new SaveJournal(getFilesDir(), outState);
+    journal.checkpoint(outState.getByteArray(GameThread.SNAPSHOT_KEY));
+    journal.close();
+    /*
+     * Set a flag indicating that the player saved the game.
+     */
+    Editor editor =
+        PreferenceManager.getDefaultSharedPreferences(this).edit();
+    editor.putBoolean("playerSave", true);
+    editor.commit();
   }
 
   /**
@@ -1107,18 +1139,25 @@ public class FrozenBubble extends Activity
       editor.commit();
     }
     if (map != null) {
-      map.putBoolean("arcadeGame", arcadeGame);
-      map.putInt    ("gameLocale", gameLocale);
-      map.putInt    ("myPlayerId", myPlayerId);
-      map.putInt    ("numPlayers", numPlayers);
-      map.putInt    ("opponentId", opponentId);
-  
+      saveConfig(map);
+
       if (mGameThread != null) {
         mGameThread.saveState(map);
       }
     }
   }
 
+  /**
+   * Save the game configuration.
+   */
+  private void saveConfig(Bundle map) {
+    map.putBoolean("arcadeGame", arcadeGame);
+    map.putInt    ("gameLocale", gameLocale);
+    map.putInt    ("myPlayerId", myPlayerId);
+    map.putInt    ("numPlayers", numPlayers);
+    map.putInt    ("opponentId", opponentId);
+  }
+
   private void setFullscreen() {
     final int flagFs   = WindowManager.LayoutParams.FLAG_FULLSCREEN;
     final int flagNoFs = WindowManager.LayoutParams.FLAG_FORCE_NOT_FULLSCREEN;
@@ -0,0 +1,1461 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.util.Random;
+import java.util.Vector;
+
+import org.gsanson.frozenbubble.Malus;
+import org.gsanson.frozenbubble.ZobristHash;
+
+/**
+ * The game simulation core.
+ * <p>This holds the complete state of a player's game - the bubble
+ * grid, the launched bubble, the falling, jumping and rising bubbles,
+ * the compressor, the attack bubbles and the launch bubble colors -
+ * and steps it one frame at a time from the player inputs.  It has no
+ * dependency on the Android framework, so that a game can be played
+ * headless as fast as the CPU allows.
+ * <p><code>FrozenGame</code> renders the core.  It is told about the
+ * bubbles to draw and the sounds and animations to play through the
+ * <code>GameListener</code> interface.  Given the same level, random
+ * seed and inputs, the core always plays out the same game.
+ * @author Eric Fortin
+ */
+public class FrozenCore {
+  private static final int[] columnX = {190, 206, 222, 238, 254,
+                                        270, 286, 302, 318, 334,
+                                        350, 366, 382, 398, 414};
+
+  public final static double MIN_LAUNCH_DIRECTION   = 1.0d;
+  public final static double START_LAUNCH_DIRECTION = 20.0d;
+  public final static double MAX_LAUNCH_DIRECTION   = 39.0d;
+  public final static double LAUNCH_DIRECTION_STEP  = 0.5d;
+
+  public static final int HURRY_ME_TIME = 480;
+  public static final int RELEASE_TIME  = 300;
+
+  private static final int SCROLL_START = 6;
+
+  public static enum gameEnum {
+    PLAYING,
+    LOST,
+    WON,
+    NEXT_LOST,
+    NEXT_WON;
+  }
+
+  /*
+   * The most bubbles that can be in play at once: a full grid plus an
+   * arcade scroll row.  The bubble vectors are created with this
+   * capacity so that they never grow during a game.
+   */
+  static final int MAX_BUBBLES =
+      LevelManager.NUM_COLS * (LevelManager.NUM_ROWS + 1);
+
+  /*
+   * Game events reported to the game listener.
+   */
+  public static final int EVENT_LAUNCH        = 0;
+  public static final int EVENT_SWAP          = 1;
+  public static final int EVENT_REBOUND       = 2;
+  public static final int EVENT_STICK         = 3;
+  public static final int EVENT_DESTROY_GROUP = 4;
+  public static final int EVENT_COMPRESS      = 5;
+  public static final int EVENT_HURRY_SHOW    = 6;
+  public static final int EVENT_HURRY_HIDE    = 7;
+  public static final int EVENT_AIM           = 8;
+  public static final int EVENT_AIM_LEFT      = 9;
+  public static final int EVENT_AIM_RIGHT     = 10;
+  public static final int EVENT_IDLE          = 11;
+  public static final int EVENT_WON           = 12;
+  public static final int EVENT_LOST          = 13;
+  public static final int EVENT_SETTLED       = 14;
+  public static final int EVENT_RESYNC        = 15;
+
+  /**
+   * Interface used by the core to notify its renderer of changes to the
+   * bubbles in play and of game events.
+   */
+  public interface GameListener {
+    /**
+     * A bubble was put into play.
+     * @param bubble - the new bubble.
+     * @param toBack - <code>true</code> if the bubble is to be drawn
+     * behind everything else.
+     */
+    public void bubbleAdded(Bubble bubble, boolean toBack);
+
+    /**
+     * A bubble was taken out of play.
+     * @param bubble - the removed bubble.
+     */
+    public void bubbleRemoved(Bubble bubble);
+
+    /**
+     * A bubble is to be drawn in front of everything else.
+     * @param bubble - the bubble to bring to the front.
+     */
+    public void bubbleToFront(Bubble bubble);
+
+    /**
+     * A game event occurred.
+     * @param event - the game event, e.g. <code>EVENT_LAUNCH</code>.
+     */
+    public void gameEvent(int event);
+  }
+
+  /**
+   * Interface used by the core to obtain new rows of bubbles in an
+   * arcade game.
+   */
+  public interface RowSource {
+    /**
+     * Obtain the next row of bubbles to scroll onto the game field.
+     * @return The bubble colors of the row, -1 for no bubble.  The core
+     * consumes the row before asking for the next one, so the array may
+     * be reused.
+     */
+    public byte[] getNewRow();
+
+    /**
+     * Obtain the offset of the row parity for the current row.
+     * @return 0 or 1.
+     */
+    public int getRowOffset();
+  }
+
+  private static final GameListener NO_LISTENER = new GameListener() {
+    public void bubbleAdded(Bubble bubble, boolean toBack) {}
+    public void bubbleRemoved(Bubble bubble) {}
+    public void bubbleToFront(Bubble bubble) {}
+    public void gameEvent(int event) {}
+  };
+
+  private final boolean      isArcade;
+  private final boolean      isNetworked;
+  private final boolean      isRemote;
+  private final boolean[]    lanes;
+  private final int          numColors;
+  private final Pool<Bubble> bubblePool = new Pool<Bubble>(MAX_BUBBLES);
+  private final GameListener listener;
+  private final Malus        malus;
+  private final Random       random;
+  private final RowSource    rowSource;
+
+  BubbleManager  bubbleManager;
+  Bubble[][]     bubblePlay;
+  Bubble[]       scrolling;
+  Bubble         movingBubble;
+  Vector<Bubble> falling;
+  Vector<Bubble> goingUp;
+  Vector<Bubble> jumping;
+  FloodFill      floodFill;
+
+  double launchBubblePosition;
+  int    currentColor;
+  int    nextColor;
+  int    newNextColor;
+
+  /*
+   * Compressor state.
+   */
+  double moveDown;
+  int    scroll;
+  int    scrollMax;
+  int    steps;
+
+  /*
+   * Vertical offset of the bubble grid, in pixels.  The bubbles in the
+   * grid and in the scrolling row are positioned relative to it, so
+   * that scrolling or compressing the grid moves them all at once.  The
+   * offset at the start of the step it last changed in is kept to draw
+   * the grid between steps.
+   */
+  int gridOffset;
+  int lastGridOffset;
+  int gridOffsetTick = -1;
+
+  boolean  compressor;
+  boolean  dontRushMe;
+  boolean  endOfGame;
+  boolean  readyToFire;
+  boolean  swapPressed;
+  gameEnum playResult;
+  long     gridHash;
+  int      blinkDelay;
+  int      fixedBubbles;
+  int      hurryTime;
+  int      nbBubbles;
+  int      sendToOpponent;
+
+  /*
+   * Number of launched bubbles that came to rest, and the direction
+   * and color of the last launched bubble.
+   */
+  int    shots;
+  double shotDirection;
+  int    shotColor;
+
+  /*
+   * What happened during the last frame.
+   */
+  int     attackBarBubbles;
+  boolean bubbleLaunched;
+  boolean compressed;
+  int     numAttackBubbles;
+  byte[]  releasedBubbles;
+
+  /*
+   * Number of simulation steps played, used by the renderer to tell
+   * which bubbles moved during the last step.  Not part of the saved
+   * game state.
+   */
+  int tick;
+
+  /*
+   * Optional debug checker of the bubble accounting, and whether it
+   * found an inconsistency to repair at the end of the frame.
+   */
+  private GridInvariantChecker checker;
+  private boolean              resyncPending;
+
+  /**
+   * Create a game.
+   * @param level - the bubble colors of the level to play, -1 for no
+   * bubble.
+   * @param rowSource - the source of new rows in an arcade game, and of
+   * the row parity.
+   * @param malus - the attack bubbles sent by the opponent, or
+   * <code>null</code> in a single player game.
+   * @param numColors - the number of attack bubble colors.
+   * @param isArcade - <code>true</code> for an arcade game.
+   * @param isRemote - <code>true</code> if this game is played by a
+   * remote player, whose launch colors and attack bubbles are supplied.
+   * @param isNetworked - <code>true</code> in a network game.
+   * @param seed - the random number generator seed.
+   * @param listener - the game listener, or <code>null</code> to play
+   * headless.
+   */
+  public FrozenCore(byte[][] level, RowSource rowSource, Malus malus,
+                    int numColors, boolean isArcade, boolean isRemote,
+                    boolean isNetworked, long seed, GameListener listener) {
+    this.rowSource   = rowSource;
+    this.malus       = malus;
+    this.numColors   = numColors;
+    this.isArcade    = isArcade;
+    this.isRemote    = isRemote;
+    this.isNetworked = isNetworked;
+    this.random      = new Random(seed);
+
+    if (listener != null) {
+      this.listener = listener;
+    }
+    else {
+      this.listener = NO_LISTENER;
+    }
+
+    bubbleManager        = new BubbleManager();
+    bubblePlay           = new Bubble[LevelManager.NUM_COLS]
+                                     [LevelManager.NUM_ROWS];
+    scrolling            = new Bubble[LevelManager.NUM_COLS];
+    falling              = new Vector<Bubble>(MAX_BUBBLES);
+    goingUp              = new Vector<Bubble>(MAX_BUBBLES);
+    jumping              = new Vector<Bubble>(MAX_BUBBLES);
+    floodFill            = new FloodFill();
+    lanes                = new boolean[LevelManager.LANES];
+    releasedBubbles      = new byte[LevelManager.LANES];
+    launchBubblePosition = START_LAUNCH_DIRECTION;
+    playResult           = gameEnum.PLAYING;
+    readyToFire          = false;
+    swapPressed          = false;
+    initCompressor();
+
+    if (level == null) {
+      return;
+    }
+
+    for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
+      for (int i = j%2; i < LevelManager.NUM_COLS; i++) {
+        if (level[i][j] != -1) {
+          Bubble newOne = newBubble(190+i*32-(j%2)*16, 44+j*28,
+                                    level[i][j]);
+          placeBubble(i, j, newOne);
+          this.listener.bubbleAdded(newOne, false);
+        }
+      }
+    }
+
+    if (isArcade) {
+      addScrollRow();
+    }
+
+    currentColor = bubbleManager.nextBubbleIndex(random);
+    nextColor    = bubbleManager.nextBubbleIndex(random);
+  }
+
+  void addAttackBubbles(int attackBubbles) {
+    sendToOpponent += attackBubbles;
+  }
+
+  void addFallingBubble(Bubble bubble) {
+    if (malus != null)
+      malus.releaseTime = 0;
+    sendToOpponent++;
+    listener.bubbleToFront(bubble);
+    falling.addElement(bubble);
+  }
+
+  void addJumpingBubble(Bubble bubble) {
+    listener.bubbleToFront(bubble);
+    jumping.addElement(bubble);
+  }
+
+  private void addScrollRow() {
+    byte[] newRow = rowSource.getNewRow();
+    int colIdx = (rowSource.getRowOffset() + 1) % 2;
+    int rowMove = (int) moveDown;
+    for (int column = 0; column < LevelManager.NUM_COLS; column++) {
+      scrolling[column] = null;
+    }
+    for (int column = colIdx; column < LevelManager.NUM_COLS; column++) {
+      if (newRow[column] != -1) {
+        Bubble tempBubble = newBubble(columnX[colIdx], 44 - 28 + rowMove,
+                                      newRow[column]);
+        scrolling[column] = tempBubble;
+        tempBubble.enterGrid(gridOffset, getStepGridOffset());
+        bubbleManager.addBubble(tempBubble.color);
+        listener.bubbleAdded(tempBubble, true);
+      }
+      colIdx += 2;
+    }
+    checkAccounting(GridInvariantChecker.MUTATION_NEW_ROW, -1, -1);
+  }
+
+  /**
+   * Advance the animations of the bubbles in play by a simulation step,
+   * so that the renderer only has to read their state.
+   */
+  private void animateBubbles() {
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (bubblePlay[i][j] != null) {
+          bubblePlay[i][j].animate();
+        }
+      }
+      if (scrolling[i] != null) {
+        scrolling[i].animate();
+      }
+    }
+
+    for (int i = 0; i < falling.size(); i++) {
+      falling.elementAt(i).animate();
+    }
+
+    for (int i = 0; i < jumping.size(); i++) {
+      jumping.elementAt(i).animate();
+    }
+  }
+
+  private void blinkLine(int number) {
+    int move = number%2;
+    int column = (number+1) >> 1;
+
+    for (int i = move; i < LevelManager.NUM_ROWS; i++) {
+      if (bubblePlay[column][i] != null) {
+        bubblePlay[column][i].blink();
+      }
+    }
+  }
+
+  private boolean checkLost() {
+    boolean lost = false;
+
+    if (!endOfGame) {
+      if (movingBubble != null) {
+        if (movingBubble.fixed() && !movingBubble.released() &&
+            (movingBubble.getY() >= 380)) {
+          lost = true;
+        }
+      }
+
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (bubblePlay[i][(LevelManager.NUM_ROWS - 1) - steps] != null) {
+          lost = true;
+          break;
+        }
+      }
+
+      if (lost) {
+        playResult = gameEnum.LOST;
+        endOfGame = true;
+        listener.gameEvent(EVENT_LOST);
+      }
+    }
+
+    return playResult == gameEnum.LOST;
+  }
+
+  private boolean checkScroll() {
+    if (scroll++ > scrollMax) {
+      scroll = 0;
+      moveDown += 1.;
+    }
+    return scroll == 0;
+  }
+
+  private void clampLaunchPosition() {
+    if (launchBubblePosition < MIN_LAUNCH_DIRECTION) {
+      launchBubblePosition = MIN_LAUNCH_DIRECTION;
+    }
+    if (launchBubblePosition > MAX_LAUNCH_DIRECTION) {
+      launchBubblePosition = MAX_LAUNCH_DIRECTION;
+    }
+  }
+
+  void deleteFallingBubble(Bubble bubble) {
+    falling.removeElement(bubble);
+    recycleBubble(bubble);
+  }
+
+  /**
+   * Remove the designated goingUp bubble from the vector of attack
+   * bubbles because it is now inserted into the game grid.  The bubble
+   * is still in play because it has been added to the play field.
+   * @param bubble - the attack bubble inserted into the game grid.
+   */
+  void deleteGoingUpBubble(Bubble bubble) {
+    goingUp.removeElement(bubble);
+  }
+
+  void deleteJumpingBubble(Bubble bubble) {
+    jumping.removeElement(bubble);
+    recycleBubble(bubble);
+  }
+
+  void gameEvent(int event) {
+    listener.gameEvent(event);
+  }
+
+  public int getAttackBarBubbles() {
+    return malus.getAttackBarBubbles();
+  }
+
+  /**
+   * Obtain the pool of bubbles recycled once they leave play.
+   * @return The bubble pool, whose counters show how many bubbles were
+   * reused and allocated.
+   */
+  public Pool<Bubble> getBubblePool() {
+    return bubblePool;
+  }
+
+  public int getCompressorSteps() {
+    return steps;
+  }
+
+  public int getCurrentColor() {
+    return currentColor;
+  }
+
+  public Vector<Bubble> getFalling() {
+    return falling;
+  }
+
+  public gameEnum getGameResult() {
+    return playResult;
+  }
+
+  public Vector<Bubble> getGoingUp() {
+    return goingUp;
+  }
+
+  public Bubble[][] getGrid() {
+    return bubblePlay;
+  }
+
+  /**
+   * Obtain the Zobrist hash of the bubble grid and compressor level.
+   * <p>The grid part of the hash is updated as bubbles are added to and
+   * removed from the grid, so this does not scan the grid.
+   * @return The hash of the current grid state.
+   */
+  public long getGridHash() {
+    return gridHash ^ ZobristHash.compressorKey(steps);
+  }
+
+  public Vector<Bubble> getJumping() {
+    return jumping;
+  }
+
+  public Malus getMalus() {
+    return malus;
+  }
+
+  public double getMoveDown() {
+    return moveDown;
+  }
+
+  public Bubble getMovingBubble() {
+    return movingBubble;
+  }
+
+  /**
+   * Obtain the number of bubbles launched since the start of the game.
+   * @return The number of bubbles launched.
+   */
+  public int getNbBubbles() {
+    return nbBubbles;
+  }
+
+  public int getNewNextColor() {
+    return newNextColor;
+  }
+
+  public int getNextColor() {
+    return nextColor;
+  }
+
+  public boolean getOkToFire() {
+    return (movingBubble == null) && (playResult == gameEnum.PLAYING) &&
+           ((goingUp.size() == 0) || !isNetworked) && readyToFire;
+  }
+
+  /**
+   * Obtain the grid offset at the start of the current step.
+   */
+  private int getStepGridOffset() {
+    if (gridOffsetTick != tick) {
+      return gridOffset;
+    }
+    return lastGridOffset;
+  }
+
+  public double getPosition() {
+    return launchBubblePosition;
+  }
+
+  public Random getRandom() {
+    return random;
+  }
+
+  public int getRowOffset() {
+    return rowSource.getRowOffset();
+  }
+
+  /**
+   * Obtain the number of launched bubbles that came to rest, which
+   * changes once the outcome of each shot is known.
+   * @return The number of shots played.
+   */
+  public int getShotCount() {
+    return shots;
+  }
+
+  public Bubble[] getScrolling() {
+    return scrolling;
+  }
+
+  /**
+   * Obtain the number of simulation steps played so far.
+   * @return The simulation step counter.
+   */
+  public int getTick() {
+    return tick;
+  }
+
+  /**
+   * Obtain the number of attack bubbles to add to the opponent's attack
+   * bar as a result of the last frame.
+   * @return The number of attack bubbles to send to the opponent.
+   */
+  public int getSendToOpponent() {
+    return sendToOpponent;
+  }
+
+  /**
+   * Check the bubble accounting after a grid mutation, if a grid
+   * invariant checker is attached.  An inconsistency is repaired at the
+   * end of the frame.
+   * @param mutation - the mutation, e.g.
+   * <code>GridInvariantChecker.MUTATION_PLACE</code>.
+   * @param position - the grid location affected, or -1.
+   * @param color - the color of the bubble affected, or -1.
+   */
+  private void checkAccounting(int mutation, int position, int color) {
+    if ((checker != null) &&
+        !checker.check(this, mutation, position, color)) {
+      resyncPending = true;
+    }
+  }
+
+  /**
+   * Obtain the grid offset to draw the grid bubbles with.
+   * @param alpha - the elapsed fraction of the current simulation step,
+   * from 0 to 1.
+   * @return The grid offset in pixels, interpolated if the grid moved
+   * during the current step.
+   */
+  int getGridOffset(float alpha) {
+    if (gridOffsetTick != tick) {
+      return gridOffset;
+    }
+    return lastGridOffset + (int)((gridOffset - lastGridOffset) * alpha);
+  }
+
+  public GridInvariantChecker getInvariantChecker() {
+    return checker;
+  }
+
+  /**
+   * Update the grid hash for a bubble added to or removed from the
+   * grid.
+   * @param x - X-coord of the bubble.
+   * @param y - Y-coord of the bubble.
+   * @param color - color of the bubble.
+   */
+  private void hashBubble(int x, int y, int color) {
+    gridHash ^= ZobristHash.cellKey(x, y, color);
+  }
+
+  private void initCompressor() {
+    moveDown  = 0.;
+    scroll    = 0;
+    scrollMax = SCROLL_START;
+    steps     = 0;
+  }
+
+  public boolean isEndOfGame() {
+    return endOfGame;
+  }
+
+  private void launch() {
+    nbBubbles++;
+    shotDirection = launchBubblePosition;
+    shotColor     = currentColor;
+    movingBubble = newLaunchedBubble(302, 390, launchBubblePosition,
+                                     currentColor);
+    listener.bubbleAdded(movingBubble, false);
+    bubbleLaunched = true;
+    currentColor = nextColor;
+
+    if (isRemote) {
+      nextColor = newNextColor;
+    }
+    else {
+      nextColor = bubbleManager.nextBubbleIndex(random);
+    }
+
+    readyToFire = false;
+    hurryTime = 0;
+
+    if (malus != null) {
+      malus.releaseTime = RELEASE_TIME;
+    }
+
+    listener.gameEvent(EVENT_LAUNCH);
+  }
+
+  /**
+   * Lower the bubbles in play and drop the compressor a step.
+   * @param playSound - <code>true</code> to play the compression sound.
+   */
+  public void lowerCompressor(boolean playSound) {
+    fixedBubbles = 0;
+
+    if (isArcade) {
+      return;
+    }
+
+    if (playSound) {
+      listener.gameEvent(EVENT_COMPRESS);
+    }
+
+    moveGrid(28);
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
+        if (bubblePlay[i][j] != null) {
+          if ((bubblePlay[i][j].getY() >= 380) && !endOfGame) {
+            playResult = gameEnum.LOST;
+            endOfGame = true;
+            listener.gameEvent(EVENT_LOST);
+          }
+        }
+      }
+    }
+
+    moveDown += 28.;
+    steps++;
+  }
+
+  /**
+   * Move the grid to a vertical offset, as recorded by an autosave
+   * journal.
+   * @param offset - the grid offset, in pixels.
+   */
+  void setGridOffset(int offset) {
+    moveGrid(offset - gridOffset);
+  }
+
+  /**
+   * Move the bubbles of the grid and of the scrolling row down.
+   * @param pixels - the distance to move by.
+   */
+  private void moveGrid(int pixels) {
+    if (gridOffsetTick != tick) {
+      lastGridOffset = gridOffset;
+      gridOffsetTick = tick;
+    }
+    gridOffset += pixels;
+  }
+
+  /**
+   * Obtain a bubble fixed in the grid, recycled if possible.
+   */
+  private Bubble newBubble(int x, int y, int color) {
+    Bubble bubble = bubblePool.obtain();
+
+    if (bubble == null) {
+      bubble = new Bubble(this, x, y, color);
+    }
+    else {
+      bubble.reset();
+      bubble.initFixed(x, y, color);
+    }
+
+    return bubble;
+  }
+
+  /**
+   * Obtain a launched bubble, recycled if possible.
+   */
+  private Bubble newLaunchedBubble(int x, int y, double direction,
+                                   int color) {
+    Bubble bubble = bubblePool.obtain();
+
+    if (bubble == null) {
+      bubble = new Bubble(this, x, y, direction, color);
+    }
+    else {
+      bubble.reset();
+      bubble.initLaunched(x, y, direction, color);
+    }
+
+    return bubble;
+  }
+
+  /**
+   * Move the launched bubble.
+   * @return <code>true</code> if the compressor was lowered.
+   */
+  private boolean manageMovingBubble() {
+    boolean compressed = false;
+
+    if (movingBubble != null) {
+      movingBubble.move();
+      if (movingBubble.fixed()) {
+        if (!checkLost() && !isArcade) {
+          /*
+           * If there are no bubbles in the bubble manager, then the
+           * player has won the game.  The bubble manager counts bubbles
+           * that are fixed in position on the bubble grid.  Thus if
+           * there are attack bubbles in motion when the bubble manager
+           * is cleared, then the attack bubbles will be added to the
+           * bubble manager when they stick to the bubble grid after the
+           * player has already won the game.  This may need to change.
+           */
+          if (bubbleManager.countBubbles() == 0) {
+            playResult = gameEnum.WON;
+            endOfGame = true;
+            listener.gameEvent(EVENT_WON);
+          }
+          else if ((malus == null) || compressor) {
+            fixedBubbles++;
+            blinkDelay = 0;
+
+            if ((fixedBubbles == 8) && !isRemote) {
+              lowerCompressor(true);
+              compressed = true;
+            }
+          }
+        }
+        movingBubble = null;
+        shots++;
+      }
+    }
+    return compressed;
+  }
+
+  /**
+   * Play a frame of the game from the player controls, as read by the
+   * game view, so that a recorded game can be replayed from the same
+   * inputs.
+   * @param keyLeft - <code>true</code> to turn the launcher left.
+   * @param keyRight - <code>true</code> to turn the launcher right.
+   * @param keyFire - <code>true</code> to launch a bubble.
+   * @param keySwap - <code>true</code> to swap the launch bubbles.
+   * @param trackballDx - the amount the trackball turned the launcher.
+   * @param touchFire - <code>true</code> if the screen was touched.
+   * @param touchX - the horizontal position of the touch.
+   * @param touchY - the vertical position of the touch.
+   * @param atsTouchFire - <code>true</code> if the launch button was
+   * touched in aim then shoot mode.
+   * @param atsTouchDx - the amount dragging turned the launcher in aim
+   * then shoot mode.
+   * @param aimThenShoot - <code>true</code> in aim then shoot mode, where
+   * touching the screen turns the launcher instead of aiming it at the
+   * touched spot.
+   * @return <code>NEXT_WON</code> or <code>NEXT_LOST</code> if the game
+   * is over and the player asked to move on, <code>PLAYING</code>
+   * otherwise.
+   */
+  public gameEnum play(boolean keyLeft, boolean keyRight, boolean keyFire,
+                       boolean keySwap, double trackballDx,
+                       boolean touchFire, double touchX, double touchY,
+                       boolean atsTouchFire, double atsTouchDx,
+                       boolean aimThenShoot) {
+    if ((aimThenShoot && atsTouchFire) ||
+        ((!aimThenShoot || isRemote) && touchFire)) {
+      keyFire = true;
+    }
+
+    if (!aimThenShoot && touchFire && !isRemote && (movingBubble == null)) {
+      double xx = touchX - 318;
+      double yy = 406 - touchY;
+      setPosition((Math.PI - Math.atan2(yy, xx)) * 40.0 / Math.PI);
+    }
+
+    double dx = 0;
+    if (keyLeft && !keyRight) {
+      dx -= LAUNCH_DIRECTION_STEP;
+    }
+    else if (keyRight && !keyLeft) {
+      dx += LAUNCH_DIRECTION_STEP;
+    }
+    dx += trackballDx;
+    if (aimThenShoot) {
+      dx += atsTouchDx;
+    }
+
+    return play(keyFire, touchFire, keySwap, dx);
+  }
+
+  /**
+   * Play a frame of the game.
+   * @param fire - <code>true</code> to launch a bubble.
+   * @param touchFire - <code>true</code> if the launch was requested by
+   * touching the screen, which does not need to be released before the
+   * next launch.
+   * @param swap - <code>true</code> to swap the launch bubbles.
+   * @param dx - the amount to turn the launcher by if no bubble is
+   * launched.
+   * @return <code>NEXT_WON</code> or <code>NEXT_LOST</code> if the game
+   * is over and the player asked to move on, <code>PLAYING</code>
+   * otherwise.
+   */
+  public gameEnum play(boolean fire, boolean touchFire, boolean swap,
+                       double dx) {
+    tick++;
+    animateBubbles();
+    bubbleLaunched   = false;
+    compressed       = false;
+    attackBarBubbles = 0;
+    numAttackBubbles = 0;
+
+    if (malus != null) {
+      sendToOpponent = 0;
+      attackBarBubbles = malus.getAttackBarBubbles();
+    }
+
+    if (swap) {
+      if (!swapPressed) {
+        swapNextLaunchBubble();
+        swapPressed = true;
+      }
+    }
+    else {
+      swapPressed = false;
+    }
+
+    if (!fire || touchFire) {
+      readyToFire = true;
+    }
+
+    /*
+     * If the option to rush the player is disabled or this game
+     * represents the remote player in a network game, initialize
+     * hurryTime to disable automatic bubbles launches.
+     */
+    if (dontRushMe || isRemote) {
+      hurryTime = 1;
+    }
+
+    if (endOfGame && readyToFire) {
+      if (fire) {
+        if (playResult == gameEnum.WON) {
+          playResult = gameEnum.NEXT_WON;
+        }
+        else {
+          playResult = gameEnum.NEXT_LOST;
+        }
+        return playResult;
+      }
+      else {
+        listener.gameEvent(EVENT_IDLE);
+
+        /*
+         * If the game is over because of bubble overflow, wait until
+         * all the bubbles have stopped moving to freeze them.
+         */
+        if ((goingUp.size() == 0) && (movingBubble == null)) {
+          listener.gameEvent(EVENT_SETTLED);
+        }
+      }
+    }
+    else {
+      if (fire || (hurryTime > HURRY_ME_TIME)) {
+        if (getOkToFire()) {
+          launch();
+        }
+        else {
+          listener.gameEvent(EVENT_IDLE);
+        }
+      }
+      else {
+        launchBubblePosition += dx;
+        clampLaunchPosition();
+
+        if (dx < 0) {
+          listener.gameEvent(EVENT_AIM_LEFT);
+        }
+        else if (dx > 0) {
+          listener.gameEvent(EVENT_AIM_RIGHT);
+        }
+        else {
+          listener.gameEvent(EVENT_AIM);
+        }
+      }
+    }
+
+    /*
+     * The moving bubble is moved twice, which produces smoother
+     * animation. Thus the moving bubble effectively moves at twice the
+     * animation speed with respect to other bubbles that are only
+     * moved once per iteration.
+     */
+    compressed  = manageMovingBubble();
+    compressed |= manageMovingBubble();
+
+    if ((movingBubble == null) && !endOfGame) {
+      hurryTime++;
+      if (malus != null)
+        malus.releaseTime++;
+      /*
+       * If hurryTime == 2 (1 + 1) we could be in the "Don't rush me"
+       * mode.  Hide the hurry warning just in case the user switched
+       * to this mode when it was shown, to make it disappear.
+       */
+      if (hurryTime == 2) {
+        listener.gameEvent(EVENT_HURRY_HIDE);
+      }
+      if (hurryTime >= 240) {
+        if (hurryTime%40 == 10) {
+          listener.gameEvent(EVENT_HURRY_SHOW);
+        }
+        else if (hurryTime%40 == 35) {
+          listener.gameEvent(EVENT_HURRY_HIDE);
+        }
+      }
+      if (malus != null) {
+        if (getOkToFire() && (attackBarBubbles > 0) &&
+            ((malus.releaseTime > RELEASE_TIME) || isRemote)) {
+          numAttackBubbles = releaseBubbles();
+          malus.releaseTime = 0;
+        }
+      }
+    }
+
+    if (!isArcade && ((malus == null) || compressor)) {
+      if (fixedBubbles == 6) {
+        if (blinkDelay < 15) {
+          blinkLine(blinkDelay);
+        }
+        blinkDelay++;
+        if (blinkDelay == 40) {
+          blinkDelay = 0;
+        }
+      }
+      else if (fixedBubbles == 7) {
+        if (blinkDelay < 15) {
+          blinkLine(blinkDelay);
+        }
+        blinkDelay++;
+        if (blinkDelay == 25) {
+          blinkDelay = 0;
+        }
+      }
+    }
+
+    if (!endOfGame && isArcade) {
+      scrollBubbles();
+    }
+
+    for (int i = 0; i < falling.size(); i++) {
+      falling.elementAt(i).fall();
+    }
+
+    for (int i = 0; i < goingUp.size(); i++) {
+      goingUp.elementAt(i).goUp();
+    }
+
+    for (int i = 0; i < jumping.size(); i++) {
+      jumping.elementAt(i).jump();
+    }
+
+    /*
+     * With a grid invariant checker attached, check the bubble
+     * accounting once the frame is complete, and rebuild it and the
+     * bubble sprites if it diverged from the grid.
+     */
+    if (checker != null) {
+      checkAccounting(GridInvariantChecker.MUTATION_FRAME, -1, -1);
+      if (resyncPending) {
+        resyncPending = false;
+        recountBubbles();
+        listener.gameEvent(EVENT_RESYNC);
+      }
+    }
+
+    /*
+     * In an arcade or multiplayer game, check if the player lost due to
+     * scrolling or attack bubbles overflowing the play area.
+     */
+    if ((malus != null) || isArcade) {
+      checkLost();
+    }
+
+    /*
+     * Keep the attack bubbles released during this frame so that they
+     * can be sent to a remote player.
+     */
+    if (malus != null) {
+      for (int i = 0; i < LevelManager.LANES; i++) {
+        releasedBubbles[i] = malus.attackBubbles[i];
+      }
+      malus.clearAttackBubbles();
+    }
+
+    return gameEnum.PLAYING;
+  }
+
+  /**
+   * Place a bubble in an empty grid location.  The bubble counts and
+   * the grid hash are updated accordingly; all the bubbles placed in the
+   * grid must go through here, or through <code>takeBubble()</code> to
+   * leave it, for the accounting to remain consistent.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @param bubble - the bubble to place.
+   */
+  void placeBubble(int x, int y, Bubble bubble) {
+    bubblePlay[x][y] = bubble;
+    bubble.enterGrid(gridOffset, getStepGridOffset());
+    hashBubble(x, y, bubble.color);
+    bubbleManager.addBubble(bubble.color);
+    checkAccounting(GridInvariantChecker.MUTATION_PLACE,
+                    HexGrid.cellIndex(x, y), bubble.color);
+  }
+
+  /**
+   * Replace the bubble of a cell of the grid or of the scrolling row,
+   * as recorded by an autosave journal.
+   * @param cell - the cell index, the scrolling row following the last
+   * grid row.
+   * @param color - the color of the new bubble, or -1 to empty the cell.
+   * @param x - the horizontal position of the new bubble.
+   * @param y - the absolute vertical position of the new bubble.
+   */
+  void replaceCell(int cell, int color, int x, int y) {
+    int column = cell % LevelManager.NUM_COLS;
+    int row    = cell / LevelManager.NUM_COLS;
+
+    if (row < LevelManager.NUM_ROWS) {
+      if (bubblePlay[column][row] != null) {
+        recycleBubble(takeBubble(column, row));
+      }
+    }
+    else if (scrolling[column] != null) {
+      Bubble bubble = scrolling[column];
+      scrolling[column] = null;
+      bubble.leaveGrid(gridOffset, getStepGridOffset());
+      bubbleManager.removeBubble(bubble.color);
+      recycleBubble(bubble);
+    }
+
+    if (color != -1) {
+      Bubble bubble = newBubble(x, y, color);
+      if (row < LevelManager.NUM_ROWS) {
+        placeBubble(column, row, bubble);
+        listener.bubbleAdded(bubble, false);
+      }
+      else {
+        scrolling[column] = bubble;
+        bubble.enterGrid(gridOffset, getStepGridOffset());
+        bubbleManager.addBubble(color);
+        listener.bubbleAdded(bubble, true);
+      }
+    }
+  }
+
+  /**
+   * Take over the bubbles of a restored bubble grid and scrolling row,
+   * whose positions are absolute, and rebuild the bubble counts and the
+   * grid hash from them.
+   */
+  void restoreGrid() {
+    gridOffset     = 0;
+    lastGridOffset = 0;
+    gridOffsetTick = -1;
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (bubblePlay[i][j] != null) {
+          bubblePlay[i][j].inGrid = true;
+        }
+      }
+      if (scrolling[i] != null) {
+        scrolling[i].inGrid = true;
+      }
+    }
+    recountBubbles();
+  }
+
+  /**
+   * Rebuild the bubble counts and the grid hash from the bubble grid
+   * and the scrolling row.
+   */
+  private void recountBubbles() {
+    bubbleManager.initialize();
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (bubblePlay[i][j] != null) {
+          bubbleManager.addBubble(bubblePlay[i][j].color);
+        }
+      }
+      if (scrolling[i] != null) {
+        bubbleManager.addBubble(scrolling[i].color);
+      }
+    }
+    rehashGrid();
+    checkAccounting(GridInvariantChecker.MUTATION_RESTORE, -1, -1);
+  }
+
+  private void recycleBubble(Bubble bubble) {
+    listener.bubbleRemoved(bubble);
+    bubblePool.recycle(bubble);
+  }
+
+  private void recycleBubbles(Vector<Bubble> bubbles) {
+    for (int i = 0; i < bubbles.size(); i++) {
+      recycleBubble(bubbles.elementAt(i));
+    }
+    bubbles.clear();
+  }
+
+  private void rehashGrid() {
+    gridHash = ZobristHash.hash(bubblePlay);
+  }
+
+  /**
+   * Populate random columns in a row of attack bubbles to launch onto
+   * the game field.
+   * <p>In an actual play field, the rows alternate between a maximum 7
+   * and 8 bubbles per row.  Thus 7 bubbles are sent up as that is the
+   * maximum number of bubbles that can fit in each alternating row.
+   * <p>There are 15 distinct positions ("lanes") for bubbles to occupy
+   * between two consecutive rows.  Thus we send up a maximum 7 bubbles
+   * in randomly selected "lanes" from the 15 available.
+   * @return The number of attack bubbles launched.
+   */
+  private int releaseBubbles() {
+    if (malus == null) {
+      return 0;
+    }
+
+    int numBubblesLaunched = 0;
+
+    /*
+     * If this game represents a remote player, the the attack bubbles
+     * are calculated on the remote machine and sent over the network.
+     * Simply use the supplied attack bubble buffer to initiate attack
+     * bubble launches. 
+     */
+    if (isRemote) {
+      for (int i = 0; i < LevelManager.LANES; i++) {
+        if (malus.attackBubbles[i] >= 0) {
+          numBubblesLaunched++;
+          Bubble malusBubble =
+              newLaunchedBubble(columnX[i], 44+(LevelManager.MAX_ROWS*28),
+                                START_LAUNCH_DIRECTION,
+                                malus.attackBubbles[i]);
+          goingUp.add(malusBubble);
+          listener.bubbleAdded(malusBubble, false);
+        }
+      }
+      malus.removeAttackBubbles(numBubblesLaunched);
+    }
+    else if (malus.getAttackBarBubbles() > 0) {
+      int malusBalls = malus.removeLine();
+      int pos;
+
+      for (int i = 0; i < LevelManager.LANES; i++) {
+        lanes[i] = false;
+      }
+
+      while (malusBalls > 0) {
+        pos = random.nextInt(LevelManager.LANES);
+        if (!lanes[pos]) {
+          lanes[pos] = true;
+          malusBalls--;
+        }
+      }
+
+      for (int i = 0; i < LevelManager.LANES; i++) {
+        if (lanes[i]) {
+          numBubblesLaunched++;
+          int color = random.nextInt(numColors);
+          malus.setAttackBubble(i, color);
+          Bubble malusBubble =
+              newLaunchedBubble(columnX[i], 44+(LevelManager.MAX_ROWS*28),
+                                START_LAUNCH_DIRECTION, color);
+          goingUp.add(malusBubble);
+          listener.bubbleAdded(malusBubble, false);
+        }
+      }
+    }
+
+    return numBubblesLaunched;
+  }
+
+  /**
+   * Remove a bubble from play, and recycle it.  The state of a recycled
+   * bubble is left as is until it is obtained again, so the caller may
+   * still check it for the rest of the current move.
+   * @param bubble - the bubble to remove.
+   */
+  void removeBubble(Bubble bubble) {
+    recycleBubble(bubble);
+  }
+
+  private void scrollBubbles() {
+    boolean scroll = checkScroll();
+    int rowMove = (int) moveDown;
+    if (scroll) {
+      moveGrid(1);
+    }
+    if ((movingBubble == null) && (rowMove >= 28.)) {
+      moveDown -= 28.;
+      /*
+       * The bottom row scrolls out of the grid.  The game is lost by
+       * then, but the bubbles still have to leave play.
+       */
+      for (int column = 0; column < LevelManager.NUM_COLS; column++) {
+        if (bubblePlay[column][LevelManager.NUM_ROWS - 1] != null) {
+          recycleBubble(takeBubble(column, LevelManager.NUM_ROWS - 1));
+        }
+      }
+      for (int row = LevelManager.NUM_ROWS - 1; row > 0; row--) {
+        for (int column = 0; column < LevelManager.NUM_COLS; column++) {
+          bubblePlay[column][row    ] = bubblePlay[column][row - 1];
+          bubblePlay[column][row - 1] = null;
+        }
+      }
+      for (int column = 0; column < LevelManager.NUM_COLS; column++) {
+        bubblePlay[column][0] = scrolling[column];
+        scrolling[column]     = null;
+      }
+      rehashGrid();
+      checkAccounting(GridInvariantChecker.MUTATION_SHIFT_ROWS, -1, -1);
+      addScrollRow();
+    }
+  }
+
+  /**
+   * Enable or disable the compressor in a multiplayer game.  It is
+   * always enabled in a single player game.
+   * @param compressor - <code>true</code> to enable the compressor.
+   */
+  public void setCompressor(boolean compressor) {
+    this.compressor = compressor;
+  }
+
+  /**
+   * Enable or disable the automatic bubble launch when the player takes
+   * too long to launch.
+   * @param dontRushMe - <code>true</code> to disable automatic launches.
+   */
+  public void setDontRushMe(boolean dontRushMe) {
+    this.dontRushMe = dontRushMe;
+  }
+
+  /**
+   * Set the game result associated with this player.
+   * @param result - WON if this player won the game, LOST if this
+   * player lost the game.
+   * @return <code>true</code> if the game was not already over.
+   */
+  public boolean setGameResult(gameEnum result) {
+    if (!endOfGame) {
+      playResult = result;
+      endOfGame = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Perform bubble grid and compressor synchronization.
+   * @param newGrid - the new bubble grid to apply to the game field.
+   * @param newSteps - the number of compressor steps to lower to.
+   */
+  public void setGrid(byte[][] newGrid, byte newSteps) {
+    if (newGrid != null) {
+      initCompressor();
+      /*
+       * The compressor is raised back to its initial position, so the
+       * grid is placed at its initial offset before lowering it.
+       */
+      if (!isArcade) {
+        gridOffset     = 0;
+        lastGridOffset = 0;
+        gridOffsetTick = -1;
+      }
+      recycleBubbles(falling);
+      recycleBubbles(goingUp);
+      recycleBubbles(jumping);
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+          if (bubblePlay[i][j] != null) {
+            recycleBubble(takeBubble(i, j));
+          }
+          if (newGrid[i][j] != -1) {
+            Bubble newOne = newBubble(190+i*32-(j%2)*16, 44+j*28,
+                                      newGrid[i][j]);
+            placeBubble(i, j, newOne);
+            listener.bubbleAdded(newOne, false);
+          }
+        }
+      }
+      checkAccounting(GridInvariantChecker.MUTATION_SET_GRID, -1, -1);
+    }
+    for (int index = 0; index < newSteps; index++) {
+      lowerCompressor(false);
+    }
+    /*
+     * Draw the grid at its new offset right away rather than sliding it
+     * down to it.
+     */
+    lastGridOffset = gridOffset;
+  }
+
+  /**
+   * Attach a debug checker of the bubble accounting.
+   * @param checker - the checker, or <code>null</code> to play without
+   * checks.
+   */
+  public void setInvariantChecker(GridInvariantChecker checker) {
+    this.checker = checker;
+  }
+
+  public void setLaunchBubbleColors(int current, int next, int newNext) {
+    currentColor = current;
+    nextColor    = next;
+    newNextColor = newNext;
+  }
+
+  /**
+   * Set the launcher direction.
+   * @param value - the new launch direction, which is clamped to the
+   * allowed range.
+   */
+  public void setPosition(double value) {
+    launchBubblePosition = value;
+    clampLaunchPosition();
+  }
+
+  public void swapNextLaunchBubble() {
+    if (currentColor != nextColor) {
+      int tempColor = currentColor;
+      currentColor  = nextColor;
+      nextColor     = tempColor;
+      listener.gameEvent(EVENT_SWAP);
+    }
+  }
+
+  /**
+   * Take a bubble out of the grid.  The bubble counts and the grid hash
+   * are updated accordingly.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @return The bubble taken, which is still in play.
+   */
+  Bubble takeBubble(int x, int y) {
+    Bubble bubble = bubblePlay[x][y];
+    bubblePlay[x][y] = null;
+    bubble.leaveGrid(gridOffset, getStepGridOffset());
+    hashBubble(x, y, bubble.color);
+    bubbleManager.removeBubble(bubble.color);
+    checkAccounting(GridInvariantChecker.MUTATION_TAKE,
+                    HexGrid.cellIndex(x, y), bubble.color);
+    return bubble;
+  }
+}
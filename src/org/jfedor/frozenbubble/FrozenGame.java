@@ -56,9 +56,9 @@ import java.util.Random;
 import java.util.Vector;
 
 import org.gsanson.frozenbubble.MalusBar;
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
 
 import android.graphics.Canvas;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
@@ -69,34 +69,48 @@ import com.efortin.frozenbubble.HighscoreManager;
 import com.efortin.frozenbubble.NetworkManager;
 import com.efortin.frozenbubble.VirtualInput;
 
-public class FrozenGame extends GameScreen {
-  private final int[] columnX = {190, 206, 222, 238, 254,
-                                 270, 286, 302, 318, 334,
-                                 350, 366, 382, 398, 414};
-
+/**
+ * Renders a game played by a <code>FrozenCore</code>, and feeds it the
+ * player inputs.
+ */
+public class FrozenGame extends GameScreen
+    implements FrozenCore.GameListener {
   public final static int HORIZONTAL_MOVE = 0;
   public final static int FIRE            = 1;
 
   public final static double LAUNCH_DIRECTION_MIN_STEP = 0.25d;
-  public final static double LAUNCH_DIRECTION_STEP     = 0.5d;
-  public final static double MIN_LAUNCH_DIRECTION      = 1.0d;
-  public final static double START_LAUNCH_DIRECTION    = 20.0d;
-  public final static double MAX_LAUNCH_DIRECTION      = 39.0d;
+  public final static double LAUNCH_DIRECTION_STEP     =
+      FrozenCore.LAUNCH_DIRECTION_STEP;
+  public final static double MIN_LAUNCH_DIRECTION      =
+      FrozenCore.MIN_LAUNCH_DIRECTION;
+  public final static double START_LAUNCH_DIRECTION    =
+      FrozenCore.START_LAUNCH_DIRECTION;
+  public final static double MAX_LAUNCH_DIRECTION      =
+      FrozenCore.MAX_LAUNCH_DIRECTION;
 
   public final static int KEY_UP    = 38;
   public final static int KEY_LEFT  = 37;
   public final static int KEY_RIGHT = 39;
   public final static int KEY_SHIFT = 16;
 
-  public static final int HURRY_ME_TIME = 480;
-  public static final int RELEASE_TIME  = 300;
+  public static final int HURRY_ME_TIME = FrozenCore.HURRY_ME_TIME;
+  public static final int RELEASE_TIME  = FrozenCore.RELEASE_TIME;
 
-  double launchBubblePosition;
-  LaunchBubbleSprite launchBubble;
+  /*
+   * Set to true to check the bubble accounting of the game after every
+   * grid mutation, and log the mutation after which it first diverges
+   * from the bubble grid.  This is slow, and meant for debugging only.
+   */
+  private static final boolean CHECK_GRID_INVARIANTS = false;
 
-  int currentColor;
-  int nextColor;
-  int newNextColor;
+  /*
+   * Grid bubbles drawn lower than this may overlap the rotated launcher,
+   * which is painted under them.  They are painted every frame over the
+   * launcher, rather than in the retained image of the game field.
+   */
+  private static final int LAUNCHER_OVERLAP_Y = 335 - 32;
+
+  LaunchBubbleSprite launchBubble;
   ImageSprite nextBubble;
 
   BmpWrap          gameLost;
@@ -106,11 +120,8 @@ public class FrozenGame extends GameScreen {
   BmpWrap[]        bubblesBlind;
   BmpWrap[]        frozenBubbles;
   BmpWrap[]        targetedBubbles;
-  BubbleSprite     movingBubble;
-  BubbleManager    bubbleManager;
-  BubbleSprite[][] bubblePlay;
-  BubbleSprite[]   scrolling;
   Compressor       compressor;
+  FrozenCore       core;
   Drawable         launcher;
   LevelManager     levelManager;
   HighscoreManager highscoreManager;
@@ -123,29 +134,46 @@ public class FrozenGame extends GameScreen {
   Random           random;
   SoundManager     soundManager;
 
-  Vector<Sprite> falling;
-  Vector<Sprite> goingUp;
-  Vector<Sprite> jumping;
-
   BmpWrap bubbleBlink;
-  int blinkDelay;
 
   ImageSprite hurrySprite;
-  int hurryTime;
 
-  boolean endOfGame;
+  Pool<BubbleSprite> spritePool;
+
+  /*
+   * The bubble grid as of the last autosave journal record.
+   */
+  final GridDelta gridDelta = new GridDelta();
+
+  /*
+   * The level and the seeds this game started from, and the recording
+   * of its inputs.
+   */
+  private byte[][]  startLevel;
+  private long      startRowSeed;
+  private int       startRowOffset;
+  private long      startSeed;
+  private ReplayLog replayLog;
+
+  /*
+   * Whether the last frame was painted over the retained image of the
+   * game field.
+   */
+  private boolean layerPainted;
+
+  /*
+   * The snapshots of the settled puzzle grid to take shots back with,
+   * and the shot count when the last snapshot was taken.
+   */
+  private RewindBuffer rewindBuffer;
+  private int          rewindShots;
+
   boolean frozenify;
   boolean isArcade;
   boolean isRemote;
-  boolean readyToFire;
-  boolean swapPressed;
-  gameEnum playResult;
   short gridChecksum;
-  int fixedBubbles;
   int frozenifyX, frozenifyY;
-  int nbBubbles;
   int player;
-  int sendToOpponent;
 
   public FrozenGame(BmpWrap[] bubbles_arg,
                     BmpWrap[] bubblesBlind_arg,
@@ -183,10 +211,7 @@ public class FrozenGame extends GameScreen {
     highscoreManager     = highscoreManager_arg;
     networkManager       = networkManager_arg;
     malusBar             = malusBar_arg;
-    playResult           = gameEnum.PLAYING;
-    launchBubblePosition = START_LAUNCH_DIRECTION;
-    readyToFire          = false;
-    swapPressed          = false;
+    spritePool           = new Pool<BubbleSprite>(FrozenCore.MAX_BUBBLES);
 
     /*
      * Initialize game modifier variables.
@@ -208,7 +233,7 @@ public class FrozenGame extends GameScreen {
     if (pauseButton_arg != null) {
       pauseButtonSprite = new ImageSprite(new Rect(167, 444, 32, 32),
                                           pauseButton_arg);
-      this.addSprite(pauseButtonSprite);
+      this.addSprite(pauseButtonSprite, LAYER_HUD);
     }
     else {
       pauseButtonSprite = null;
@@ -223,59 +248,43 @@ public class FrozenGame extends GameScreen {
     }
 
     penguin = new PenguinSprite(getPenguinRect(player), penguins_arg, random);
-    this.addSprite(penguin);
+    this.addSprite(penguin, LAYER_HUD);
 
-    compressor   = new Compressor(compressorHead_arg, compressor_arg);
     hurrySprite  = new ImageSprite(new Rect(203, 265, 203 + 240, 265 + 90),
                                    hurry_arg);
     pausedSprite = new ImageSprite(new Rect(152, 190, 337, 116),
                                    gamePaused_arg);
 
     if (malusBar != null)
-      this.addSprite(malusBar);
-
-    falling = new Vector<Sprite>();
-    goingUp = new Vector<Sprite>();
-    jumping = new Vector<Sprite>();
-
-    bubblePlay    = new BubbleSprite[LevelManager.NUM_COLS]
-                                    [LevelManager.NUM_ROWS];
-    scrolling     = new BubbleSprite[LevelManager.NUM_COLS];
-    bubbleManager = new BubbleManager(bubbles);
+      this.addSprite(malusBar, LAYER_HUD);
 
     /*
-     * Load the current level to the bubble play grid.
+     * Load the current level into the game simulation core, which adds
+     * the sprites of the bubbles in play as it creates them.
      */
     byte[][] currentLevel = levelManager.getCurrentLevel();
+    startLevel     = currentLevel;
+    startRowSeed   = levelManager.getRandomSeed();
+    startRowOffset = levelManager.getRowOffset();
+    startSeed      = random.nextLong();
+    core = new FrozenCore(currentLevel, levelManager,
+                          (malusBar != null) ? malusBar.getMalus() : null,
+                          FrozenBubble.getDifficulty(), isArcade, isRemote,
+                          networkManager != null, startSeed, this);
+    if (CHECK_GRID_INVARIANTS) {
+      core.setInvariantChecker(new GridInvariantChecker());
+    }
+    compressor = new Compressor(core, compressorHead_arg, compressor_arg);
+
     if (currentLevel == null) {
       //Log.i("frozen-bubble", "Level not available.");
       return;
     }
 
-    for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
-      for (int i = j%2; i < LevelManager.NUM_COLS; i++) {
-        if (currentLevel[i][j] != -1) {
-          BubbleSprite newOne = new BubbleSprite(
-            new Rect(190+i*32-(j%2)*16, 44+j*28, 32, 32),
-            currentLevel[i][j],
-            bubbles[currentLevel[i][j]], bubblesBlind[currentLevel[i][j]],
-            frozenBubbles[currentLevel[i][j]], bubbleBlink, bubbleManager,
-            soundManager, this);
-          bubblePlay[i][j] = newOne;
-          this.addSprite(newOne);
-        }
-      }
-    }
-
-    if (isArcade) {
-      addScrollRow();
-    }
-
     /*
      * Initialize the launch bubbles.
      */
-    currentColor = bubbleManager.nextBubbleIndex(random);
-    nextColor    = bubbleManager.nextBubbleIndex(random);
+    int nextColor = core.getNextColor();
 
     if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL) {
       nextBubble = new ImageSprite(new Rect(302, 440, 302 + 32, 440 + 32),
@@ -286,17 +295,11 @@ public class FrozenGame extends GameScreen {
                                    bubblesBlind[nextColor]);
     }
 
-    this.addSprite(nextBubble);
-    launchBubble = new LaunchBubbleSprite(currentColor, 
-                                          launchBubblePosition,
+    this.addSprite(nextBubble, LAYER_HUD);
+    launchBubble = new LaunchBubbleSprite(core.getCurrentColor(),
+                                          core.getPosition(),
                                           launcher, bubbles, bubblesBlind);
-    this.spriteToBack(launchBubble);
-
-    /*
-     * Initialize game metrics.
-     */
-    nbBubbles      = 0;
-    sendToOpponent = 0;
+    this.spriteToBack(launchBubble, LAYER_BACKGROUND);
   }
 
   public FrozenGame(BmpWrap[] bubbles_arg,
@@ -322,57 +325,43 @@ public class FrozenGame extends GameScreen {
          null, null);
   }
 
-  public void addAttackBubbles(int attackBubbles) {
-    sendToOpponent += attackBubbles;
-  }
+  public void bubbleAdded(Bubble bubble, boolean toBack) {
+    int color = bubble.getColor();
+    BubbleSprite sprite = spritePool.obtain();
 
-  public void addFallingBubble(BubbleSprite sprite) {
-    if (malusBar != null)
-      malusBar.releaseTime = 0;
-    sendToOpponent++;
-    spriteToFront(sprite);
-    falling.addElement(sprite);
-  }
-
-  public void addJumpingBubble(BubbleSprite sprite) {
-    spriteToFront(sprite);
-    jumping.addElement(sprite);
-  }
-
-  private void addScrollRow() {
-    byte[] newRow = levelManager.getNewRow(bubblePlay);
-    int colIdx = (levelManager.getRowOffset() + 1) % 2;
-    int rowMove = (int) compressor.getMoveDown();
-    for (int column = 0; column < LevelManager.NUM_COLS; column++) {
-      scrolling[column] = null;
-    }
-    for (int column = colIdx; column < LevelManager.NUM_COLS; column++) {
-      if (newRow[column] != -1) {
-        int color = newRow[column];
-        BubbleSprite tempBubble = new BubbleSprite(
-          new Rect(columnX[colIdx], 44 - 28 + rowMove, 32, 32),
-          color, bubbles[color], bubblesBlind[color], frozenBubbles[color],
-          bubbleBlink, bubbleManager, soundManager, this);
-        scrolling[column] = tempBubble;
-        this.addSprite(tempBubble);
-        this.spriteToBack(tempBubble);
-      }
-      colIdx += 2;
+    if (sprite == null) {
+      sprite = new BubbleSprite(bubble, bubbles[color], bubblesBlind[color],
+                                frozenBubbles[color], targetedBubbles,
+                                bubbleBlink);
+    }
+    else {
+      sprite.reinit(bubble, bubbles[color], bubblesBlind[color],
+                    frozenBubbles[color]);
+    }
+    if (toBack) {
+      this.spriteToBack(sprite, LAYER_BACKGROUND);
+    }
+    else if (bubble.fixed()) {
+      this.addSprite(sprite, LAYER_GRID);
+    }
+    else {
+      this.addSprite(sprite, LAYER_MOVING);
     }
   }
 
-  private void blinkLine(int number) {
-    int move = number%2;
-    int column = (number+1) >> 1;
+  public void bubbleRemoved(Bubble bubble) {
+    BubbleSprite sprite = BubbleSprite.getSprite(bubble);
+    removeSprite(sprite);
+    sprite.reset();
+    spritePool.recycle(sprite);
+  }
 
-    for (int i = move; i < LevelManager.NUM_ROWS; i++) {
-      if (bubblePlay[column][i] != null) {
-        bubblePlay[column][i].blink();
-      }
-    }
+  public void bubbleToFront(Bubble bubble) {
+    addSprite(BubbleSprite.getSprite(bubble), LAYER_FALLING);
   }
 
   public void calculateGridChecksum() {
+    Bubble[][] bubblePlay = core.getGrid();
     CRC16 gridCRC = new CRC16(0);
 
     for (int i = 0; i < LevelManager.NUM_COLS; i++) {
@@ -386,92 +375,27 @@ public class FrozenGame extends GameScreen {
     gridChecksum = (short) gridCRC.getValue();
   }
 
-  private boolean checkLost() {
-    boolean lost = false;
-
-    if (!endOfGame) {
-      if (movingBubble != null) {
-        if (movingBubble.fixed() && !movingBubble.released() &&
-            (movingBubble.getSpritePosition().y >= 380)) {
-          lost = true;
-        }
-      }
-
-      int steps = compressor.getSteps();
-
-      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        if (bubblePlay[i][(LevelManager.NUM_ROWS - 1) - steps] != null) {
-          lost = true;
-          break;
-        }
-      }
-
-      if (lost) {
-        penguin.updateState(PenguinSprite.STATE_GAME_LOST);
-        if (highscoreManager != null) {
-          if (isArcade) {
-            highscoreManager.endLevel(nbBubbles);
-          }
-          else {
-            highscoreManager.lostLevel();
-          }
-        }
-        playResult = gameEnum.LOST;
-        endOfGame = true;
-        initFrozenify();
-        soundManager.playSound("lose", R.raw.lose);
-      }
-    }
-
-    return playResult == gameEnum.LOST;
-  }
-
-  public void clampLaunchPosition() {
-    if (launchBubblePosition < MIN_LAUNCH_DIRECTION) {
-      launchBubblePosition = MIN_LAUNCH_DIRECTION;
-    }
-    if (launchBubblePosition > MAX_LAUNCH_DIRECTION) {
-      launchBubblePosition = MAX_LAUNCH_DIRECTION;
-    }
-  }
-
-  public void deleteFallingBubble(BubbleSprite sprite) {
-    removeSprite(sprite);
-    falling.removeElement(sprite);
-  }
-
-  /**
-   * Remove the designated goingUp bubble sprite from the vector of
-   * attack bubbles because it is now inserted into the game grid.  The
-   * sprite is not removed from the vector of all sprites in the game
-   * because it has been added to the play field.
-   * @param sprite - the attack bubble inserted into the game grid.
-   */
-  public void deleteGoingUpBubble(BubbleSprite sprite) {
-    goingUp.removeElement(sprite);
-  }
-
-  public void deleteJumpingBubble(BubbleSprite sprite) {
-    removeSprite(sprite);
-    jumping.removeElement(sprite);
-  }
-
   private void finishFrozenify() {
     if (isArcade) {
+      Bubble[] scrolling = core.getScrolling();
+
       for (int column = 0; column < LevelManager.NUM_COLS; column++) {
         if (scrolling[column] != null) {
-          this.spriteToBack(scrolling[column]);
-          scrolling[column].frozenify();
+          BubbleSprite sprite = BubbleSprite.getSprite(scrolling[column]);
+          this.spriteToBack(sprite, LAYER_BACKGROUND);
+          sprite.frozenify();
         }
       }
     }
     frozenify = false;
     this.addSprite(new ImageSprite(new Rect(152, 190, 337, 116),
-                                   gameLost));
+                                   gameLost), LAYER_HUD);
     soundManager.playSound("noh", R.raw.noh);
   }
 
   private void frozenify() {
+    Bubble[][] bubblePlay = core.getGrid();
+
     frozenifyX--;
     if (frozenifyX < 0) {
       frozenifyX = LevelManager.NUM_COLS - 1;
@@ -496,10 +420,118 @@ public class FrozenGame extends GameScreen {
       }
     }
 
-    this.spriteToBack(bubblePlay[frozenifyX][frozenifyY]);
-    bubblePlay[frozenifyX][frozenifyY].frozenify();
+    BubbleSprite sprite =
+        BubbleSprite.getSprite(bubblePlay[frozenifyX][frozenifyY]);
+    this.spriteToBack(sprite, LAYER_GRID);
+    sprite.frozenify();
 
-    this.spriteToBack(launchBubble);
+    this.spriteToBack(launchBubble, LAYER_BACKGROUND);
+  }
+
+  /**
+   * Play the sounds and animations of a game event reported by the game
+   * simulation core.
+   * @param event - the game event.
+   */
+  public void gameEvent(int event) {
+    switch (event) {
+      case FrozenCore.EVENT_LAUNCH:
+        updateLaunchBubbles();
+        penguin.updateState(PenguinSprite.STATE_FIRE);
+        soundManager.playSound("launch", R.raw.launch);
+        removeSprite(hurrySprite);
+        break;
+
+      case FrozenCore.EVENT_SWAP:
+        updateLaunchBubbles();
+        soundManager.playSound("whip", R.raw.whip);
+        break;
+
+      case FrozenCore.EVENT_REBOUND:
+        soundManager.playSound("rebound", R.raw.rebound);
+        break;
+
+      case FrozenCore.EVENT_STICK:
+        soundManager.playSound("stick", R.raw.stick);
+        break;
+
+      case FrozenCore.EVENT_DESTROY_GROUP:
+        soundManager.playSound("destroy_group", R.raw.destroy_group);
+        break;
+
+      case FrozenCore.EVENT_COMPRESS:
+        soundManager.playSound("newroot_solo", R.raw.newroot_solo);
+        break;
+
+      case FrozenCore.EVENT_HURRY_SHOW:
+        addSprite(hurrySprite, LAYER_HUD);
+        soundManager.playSound("hurry", R.raw.hurry);
+        break;
+
+      case FrozenCore.EVENT_HURRY_HIDE:
+        removeSprite(hurrySprite);
+        break;
+
+      case FrozenCore.EVENT_AIM:
+      case FrozenCore.EVENT_AIM_LEFT:
+      case FrozenCore.EVENT_AIM_RIGHT:
+        launchBubble.changeDirection(core.getPosition());
+        if (event == FrozenCore.EVENT_AIM_LEFT) {
+          updatePenguinState(-1);
+        }
+        else if (event == FrozenCore.EVENT_AIM_RIGHT) {
+          updatePenguinState(1);
+        }
+        else {
+          updatePenguinState(0);
+        }
+        break;
+
+      case FrozenCore.EVENT_IDLE:
+        penguin.updateState(PenguinSprite.STATE_VOID);
+        break;
+
+      case FrozenCore.EVENT_WON:
+        penguin.updateState(PenguinSprite.STATE_GAME_WON);
+        this.addSprite(new ImageSprite(new Rect(152, 190,
+                                                152 + 337,
+                                                190 + 116), gameWon),
+                       LAYER_HUD);
+        if (highscoreManager != null) {
+          highscoreManager.endLevel(core.getNbBubbles());
+        }
+        soundManager.playSound("applause", R.raw.applause);
+        break;
+
+      case FrozenCore.EVENT_LOST:
+        penguin.updateState(PenguinSprite.STATE_GAME_LOST);
+        if (highscoreManager != null) {
+          if (isArcade) {
+            highscoreManager.endLevel(core.getNbBubbles());
+          }
+          else {
+            highscoreManager.lostLevel();
+          }
+        }
+        initFrozenify();
+        soundManager.playSound("lose", R.raw.lose);
+        break;
+
+      case FrozenCore.EVENT_SETTLED:
+        if (frozenify) {
+          frozenify();
+        }
+        break;
+
+      case FrozenCore.EVENT_RESYNC:
+        Log.e("frozen-bubble", "Bubble accounting diverged at " +
+              core.getInvariantChecker().getFailure());
+        resynchronizeSprites();
+        break;
+
+      default:
+        break;
+    }
   }
 
   public int getAttackBarBubbles() {
@@ -507,36 +539,55 @@ public class FrozenGame extends GameScreen {
   }
 
   public int getCompressorSteps() {
-    return compressor.getSteps();
+    return core.getCompressorSteps();
+  }
+
+  /**
+   * Obtain the game simulation core played by this game.
+   * @return The game simulation core.
+   */
+  public FrozenCore getCore() {
+    return core;
   }
 
   public int getCurrentColor() {
-    return currentColor;
+    return core.getCurrentColor();
   }
 
   public gameEnum getGameResult() {
-    return playResult;
+    return core.getGameResult();
   }
 
-  public BubbleSprite[][] getGrid() {
-    return bubblePlay;
+  public Bubble[][] getGrid() {
+    return core.getGrid();
+  }
+
+  /**
+   * Obtain the Zobrist hash of the bubble grid and compressor level.
+   * @return The hash of the current grid state.
+   */
+  public long getGridHash() {
+    return core.getGridHash();
   }
 
   public double getMoveDown() {
-    return compressor.getMoveDown();
+    return core.getMoveDown();
+  }
+
+  public int getNbBubbles() {
+    return core.getNbBubbles();
   }
 
   public int getNewNextColor() {
-    return newNextColor;
+    return core.getNewNextColor();
   }
 
   public int getNextColor() {
-    return nextColor;
+    return core.getNextColor();
   }
 
   public boolean getOkToFire() {
-    return (movingBubble == null) && (playResult == gameEnum.PLAYING) &&
-           ((goingUp.size() == 0) || (networkManager == null)) && readyToFire;
+    return core.getOkToFire();
   }
 
   private Rect getPenguinRect(int player) {
@@ -549,17 +600,30 @@ public class FrozenGame extends GameScreen {
   }
 
   public double getPosition() {
-    return launchBubblePosition;
-  }
-
-  public Random getRandom() {
-    return random;
+    return core.getPosition();
   }
 
   public int getRowOffset() {
     return levelManager.getRowOffset();
   }
 
+  /**
+   * Obtain the number of shots played in this game.
+   * @return The number of launched bubbles that came to rest.
+   */
+  public int getShotCount() {
+    return core.getShotCount();
+  }
+
+  /**
+   * Obtain the recording of the inputs of this game.
+   * @return The replay log, or <code>null</code> if the game is not
+   * recorded.
+   */
+  public ReplayLog getReplayLog() {
+    return replayLog;
+  }
+
   /**
    * Obtain this player's <code>sendToOpponent</code> value, which is
    * the number of attack bubbles to add to the opponent's attack bar.
@@ -567,17 +631,29 @@ public class FrozenGame extends GameScreen {
    * attack bar.
    */
   public int getSendToOpponent() {
-    return sendToOpponent;
+    return core.getSendToOpponent();
+  }
+
+  /**
+   * Obtain the pool of bubble sprites recycled once their bubbles leave
+   * play.
+   * @return The sprite pool, whose counters show how many sprites were
+   * reused and allocated.
+   */
+  public Pool<BubbleSprite> getSpritePool() {
+    return spritePool;
   }
 
   private void initFrozenify() {
     ImageSprite freezeLaunchBubble =
-      new ImageSprite(new Rect(301, 389, 34, 42), frozenBubbles[currentColor]);
+      new ImageSprite(new Rect(301, 389, 34, 42),
+                      frozenBubbles[core.getCurrentColor()]);
     ImageSprite freezeNextBubble =
-      new ImageSprite(new Rect(301, 439, 34, 42), frozenBubbles[nextColor]);
+      new ImageSprite(new Rect(301, 439, 34, 42),
+                      frozenBubbles[core.getNextColor()]);
 
-    this.addSprite(freezeLaunchBubble);
-    this.addSprite(freezeNextBubble);
+    this.addSprite(freezeLaunchBubble, LAYER_HUD);
+    this.addSprite(freezeNextBubble, LAYER_HUD);
 
     frozenifyX = LevelManager.NUM_COLS;
     frozenifyY = LevelManager.NUM_ROWS - 1;
@@ -589,99 +665,108 @@ public class FrozenGame extends GameScreen {
    * @param playSound - <code>true</code> to play the compression sound.
    */
   public void lowerCompressor(boolean playSound) {
-    fixedBubbles = 0;
+    core.lowerCompressor(playSound);
+  }
 
-    if (isArcade) {
-      return;
-    }
+  public void paint(Canvas c, double scale, int dx, int dy) {
+    updateNextBubble();
+    compressor.paint(c, scale, dx, dy);
+    super     .paint(c, scale, dx, dy);
+  }
 
-    if (playSound) {
-      soundManager.playSound("newroot_solo", R.raw.newroot_solo);
+  /**
+   * Check whether all the grid bubbles look the same from one frame to
+   * the next.
+   */
+  private boolean isGridStatic() {
+    for (Sprite sprite = getFirstSprite(LAYER_GRID); sprite != null;
+         sprite = sprite.next) {
+      if ((sprite.getTypeId() == Sprite.TYPE_BUBBLE) &&
+          !((BubbleSprite)sprite).isStatic()) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-      for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
-        if (bubblePlay[i][j] != null) {
-          bubblePlay[i][j].moveDown();
-
-          if ((bubblePlay[i][j].getSpritePosition().y >= 380) && !endOfGame) {
-            penguin.updateState(PenguinSprite.STATE_GAME_LOST);
-            if (highscoreManager != null)
-              highscoreManager.lostLevel();
-            playResult = gameEnum.LOST;
-            endOfGame = true;
-            initFrozenify();
-            soundManager.playSound("lose", R.raw.lose);
-          }
-        }
+  /**
+   * Paint the grid bubbles that are not in the retained image of the
+   * game field, or those that are.
+   * @param overLauncher - <code>true</code> to paint the bubbles that
+   * may overlap the launcher, which are not retained.
+   */
+  private void paintGrid(Canvas c, double scale, int dx, int dy,
+                         boolean overLauncher) {
+    float alpha = getInterpolation();
+    for (Sprite sprite = getFirstSprite(LAYER_GRID); sprite != null;
+         sprite = sprite.next) {
+      boolean low = (sprite.getTypeId() == Sprite.TYPE_BUBBLE) &&
+          (((BubbleSprite)sprite).getBubble().getDrawY(alpha) >
+           LAUNCHER_OVERLAP_Y);
+      if (low == overLauncher) {
+        sprite.paint(c, scale, dx, dy, alpha);
       }
     }
-
-    compressor.moveDown();
   }
 
   /**
-   * Move the launched bubble.
-   * @return <code>true</code> if the compressor was lowered.
+   * Paint the static part of the game field, which is the retained
+   * image of its background, compressor and bubble grid.  The image is
+   * only redrawn when one of them changed.  While a grid bubble is
+   * animated, the background alone is painted, and
+   * <code>paintSprites()</code> paints the rest directly.
+   * @param layer - the retained image of this player's game field.
    */
-  public boolean manageMovingBubble() {
-    boolean compressed = false;
-
-    if (movingBubble != null) {
-      movingBubble.move();
-      if (movingBubble.fixed()) {
-        if (!checkLost() && !isArcade) {
-          /*
-           * If there are no bubbles in the bubble manager, then the
-           * player has won the game.  The bubble manager counts bubbles
-           * that are fixed in position on the bubble grid.  Thus if
-           * there are attack bubbles in motion when the bubble manager
-           * is cleared, then the attack bubbles will be added to the
-           * bubble manager when they stick to the bubble grid after the
-           * player has already won the game.  This may need to change.
-           */
-          if (bubbleManager.countBubbles() == 0) {
-            penguin.updateState(PenguinSprite.STATE_GAME_WON);
-            this.addSprite(new ImageSprite(new Rect(152, 190,
-                                                    152 + 337,
-                                                    190 + 116), gameWon));
-            if (highscoreManager != null) {
-              highscoreManager.endLevel(nbBubbles);
-            }
-            playResult = gameEnum.WON;
-            endOfGame = true;
-            soundManager.playSound("applause", R.raw.applause);
-          }
-          else if ((malusBar == null) || FrozenBubble.getCompressor()) {
-            fixedBubbles++;
-            blinkDelay = 0;
-
-            if ((fixedBubbles == 8) && !isRemote) {
-              lowerCompressor(true);
-              compressed = true;
-            }
-          }
+  void paintPlayfield(Canvas c, double scale, int dx, int dy,
+                      PlayfieldLayer layer) {
+    layerPainted = false;
+    if (isGridStatic()) {
+      int     gridVersion = getLayerVersion(LAYER_GRID);
+      int     gridOffset  = core.getGridOffset(getInterpolation());
+      int     steps       = core.getCompressorSteps();
+      boolean colorMode   = FrozenBubble.getColorMode();
+
+      if (layer.isCurrent(this, gridVersion, gridOffset, steps,
+                          colorMode)) {
+        layerPainted = true;
+      }
+      else {
+        Canvas layerCanvas = layer.beginUpdate();
+        if (layerCanvas != null) {
+          int layerDX = dx - layer.getLeft();
+          int layerDY = dy - layer.getTop();
+          compressor.paint(layerCanvas, scale, layerDX, layerDY);
+          paintGrid(layerCanvas, scale, layerDX, layerDY, false);
+          layer.endUpdate(this, gridVersion, gridOffset, steps, colorMode);
+          layerPainted = true;
         }
-        movingBubble = null;
       }
     }
-    return compressed;
-  }
-
-  public void paint(Canvas c, double scale, int dx, int dy) {
-    if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL) {
-        nextBubble.changeImage(bubbles[nextColor]);
+    if (layerPainted) {
+      layer.paint(c);
     }
     else {
-      nextBubble.changeImage(bubblesBlind[nextColor]);
+      layer.paintBackground(c);
     }
-    compressor.paint(c, scale, dx, dy);
-    super     .paint(c, scale, dx, dy);
+  }
+
+  /**
+   * Paint the game over the static part of the game field painted by
+   * <code>paintPlayfield()</code>.
+   */
+  void paintSprites(Canvas c, double scale, int dx, int dy) {
+    if (!layerPainted) {
+      paint(c, scale, dx, dy);
+      return;
+    }
+    updateNextBubble();
+    paintLayers(c, scale, dx, dy, LAYER_BACKGROUND, LAYER_GRID);
+    paintGrid(c, scale, dx, dy, true);
+    paintLayers(c, scale, dx, dy, LAYER_GRID + 1, NUM_LAYERS);
   }
 
   public void pause() {
-    this.removeSprite(pausedSprite);
-    this.addSprite(pausedSprite);
+    this.addSprite(pausedSprite, LAYER_HUD);
   }
 
   public void pauseButtonPressed(boolean paused) {
@@ -690,8 +775,7 @@ public class FrozenGame extends GameScreen {
         this.removeSprite(pauseButtonSprite);
       }
       if (playButtonSprite != null) {
-        this.removeSprite(playButtonSprite);
-        this.addSprite(playButtonSprite);
+        this.addSprite(playButtonSprite, LAYER_HUD);
       }
     }
     else {
@@ -699,8 +783,7 @@ public class FrozenGame extends GameScreen {
         this.removeSprite(playButtonSprite);
       }
       if (pauseButtonSprite != null) {
-        this.removeSprite(pauseButtonSprite);
-        this.addSprite(pauseButtonSprite);
+        this.addSprite(pauseButtonSprite, LAYER_HUD);
       }
     }
   }
@@ -711,358 +794,270 @@ public class FrozenGame extends GameScreen {
                        boolean touch_fire, double touch_x, double touch_y,
                        boolean ats_touch_fire, double ats_touch_dx) {
     boolean ats = FrozenBubble.getAimThenShoot();
-    boolean bubbleLaunched = false;
-    boolean compressed = false;
-    int[]   move = new int[2];
-    int     attackBarBubbles = 0;
-    int     currentColorWas = currentColor;
-    int     nextColorWas = nextColor;
-    int     numAttackBubbles = 0;
-
-    if (malusBar != null) {
-      sendToOpponent = 0;
-      attackBarBubbles = malusBar.getAttackBarBubbles();
-    }
+    boolean compressor = FrozenBubble.getCompressor();
+    boolean dontRushMe = FrozenBubble.getDontRushMe();
+    int     currentColorWas = core.getCurrentColor();
+    int     nextColorWas = core.getNextColor();
 
-    if ((ats && ats_touch_fire) || ((!ats || isRemote) && touch_fire)) {
-      key_fire = true;
+    if (replayLog != null) {
+      replayLog.recordFrame(key_left, key_right, key_fire, key_swap,
+                            trackball_dx, touch_fire, touch_x, touch_y,
+                            ats_touch_fire, ats_touch_dx,
+                            ats, compressor, dontRushMe);
     }
 
-    if (key_left && !key_right) {
-      move[HORIZONTAL_MOVE] = KEY_LEFT;
-    }
-    else if (key_right && !key_left) {
-      move[HORIZONTAL_MOVE] = KEY_RIGHT;
-    }
-    else {
-      move[HORIZONTAL_MOVE] = 0;
-    }
+    core.setCompressor(compressor);
+    core.setDontRushMe(dontRushMe);
 
-    if (key_fire) {
-      move[FIRE] = KEY_UP;
-    }
-    else {
-      move[FIRE] = 0;
-    }
+    int shots = core.getShotCount();
+    gameEnum result = core.play(key_left, key_right, key_fire, key_swap,
+                                trackball_dx, touch_fire, touch_x, touch_y,
+                                ats_touch_fire, ats_touch_dx, ats);
 
-    if (key_swap) {
-      if (!swapPressed) {
-        swapNextLaunchBubble();
-        swapPressed = true;
-      }
-    }
-    else {
-      swapPressed = false;
+    if ((replayLog != null) && (core.getShotCount() != shots)) {
+      replayLog.recordShot(core.getGridHash());
     }
 
-    if (!ats && touch_fire && !isRemote && (movingBubble == null)) {
-      double xx = touch_x - 318;
-      double yy = 406 - touch_y;
-      launchBubblePosition = (Math.PI - Math.atan2(yy, xx)) * 40.0 / Math.PI;
-      clampLaunchPosition();
+    if ((rewindBuffer != null) && core.getOkToFire() &&
+        (rewindBuffer.isEmpty() || (core.getShotCount() != rewindShots))) {
+      rewindBuffer.save(core);
+      rewindShots = core.getShotCount();
     }
 
-    if ((move[FIRE] == 0) || touch_fire) {
-      readyToFire = true;
+    if (result != gameEnum.PLAYING) {
+      return result;
     }
 
     /*
-     * If the option to rush the player is disabled or this game
-     * represents the remote player in a network game, initialize
-     * hurryTime to disable automatic bubbles launches.
+     * If this player is the local player and is participating in a
+     * network game, transmit the local player action to the remote
+     * player if an action occurred.
      */
-    if (FrozenBubble.getDontRushMe() || isRemote) {
-      hurryTime = 1;
-    }
-
-    if (endOfGame && readyToFire) {
-      if (move[FIRE] == KEY_UP) {
-        if (playResult == gameEnum.WON) {
-          playResult = gameEnum.NEXT_WON;
+    if ((networkManager != null) && (malusBar != null)) {
+      if (core.bubbleLaunched || core.compressed || core.swapPressed ||
+          (core.numAttackBubbles > 0)) {
+        if (core.bubbleLaunched || (core.numAttackBubbles > 0)) {
+          gridChecksum = 0;
         }
-        else {
-          playResult = gameEnum.NEXT_LOST;
+        if (!isRemote) {
+          networkManager.sendLocalPlayerAction(player,
+                                               core.compressed,
+                                               core.bubbleLaunched,
+                                               core.swapPressed,
+                                               0,
+                                               currentColorWas,
+                                               nextColorWas,
+                                               core.getNextColor(),
+                                               core.attackBarBubbles,
+                                               core.releasedBubbles,
+                                               core.getPosition());
         }
-        return playResult;
       }
-      else {
-        penguin.updateState(PenguinSprite.STATE_VOID);
-
-        /*
-         * If the game is over because of bubble overflow, wait until
-         * all the bubbles have stopped moving to freeze them.
-         */
-        if (frozenify && (goingUp.size() == 0) && (movingBubble == null)) {
-          frozenify();
-        }
+      else if ((gridChecksum == 0) && core.getOkToFire()) {
+        calculateGridChecksum();
       }
     }
-    else {
-      if ((move[FIRE] == KEY_UP) || (hurryTime > HURRY_ME_TIME)) {
-        if (getOkToFire()) {
-          nbBubbles++;
-          movingBubble = new BubbleSprite(new Rect(302, 390, 32, 32),
-                                          launchBubblePosition,
-                                          currentColor,
-                                          bubbles[currentColor],
-                                          bubblesBlind[currentColor],
-                                          frozenBubbles[currentColor],
-                                          targetedBubbles, bubbleBlink,
-                                          bubbleManager, soundManager, this);
-          this.addSprite(movingBubble);
-          bubbleLaunched = true;
-          currentColor = nextColor;
-
-          if (isRemote) {
-            nextColor = newNextColor;
-          }
-          else {
-            nextColor = bubbleManager.nextBubbleIndex(random);
-          }
 
-          if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL) {
-            nextBubble.changeImage(bubbles[nextColor]);
-          }
-          else {
-            nextBubble.changeImage(bubblesBlind[nextColor]);
-          }
-
-          launchBubble.changeColor(currentColor);
-          penguin.updateState(PenguinSprite.STATE_FIRE);
-          soundManager.playSound("launch", R.raw.launch);
-          readyToFire = false;
-          hurryTime = 0;
+    return gameEnum.PLAYING;
+  }
 
-          if (malusBar != null) {
-            malusBar.releaseTime = RELEASE_TIME;
-          }
+  /**
+   * Re-add the sprites of all the bubbles in play, after the game
+   * simulation core had to rebuild its bubble accounting.
+   */
+  private void resynchronizeSprites() {
+    Bubble[][] bubblePlay = core.getGrid();
 
-          removeSprite(hurrySprite);
-        }
-        else {
-          penguin.updateState(PenguinSprite.STATE_VOID);
-        }
-      }
-      else {
-        double dx = 0;
-        if (move[HORIZONTAL_MOVE] == KEY_LEFT) {
-          dx -= LAUNCH_DIRECTION_STEP;
-        }
-        if (move[HORIZONTAL_MOVE] == KEY_RIGHT) {
-          dx += LAUNCH_DIRECTION_STEP;
-        }
-        dx += trackball_dx;
-        if (ats) {
-          dx += ats_touch_dx;
+    removeAllBubbleSprites();
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (bubblePlay[i][j] != null ) {
+          this.addSprite(BubbleSprite.getSprite(bubblePlay[i][j]),
+                         LAYER_GRID);
         }
-        launchBubblePosition += dx;
-        clampLaunchPosition();
-        launchBubble.changeDirection(launchBubblePosition);
-        updatePenguinState(dx);
       }
     }
+    if (isArcade) {
+      Bubble[] scrolling = core.getScrolling();
 
-    /*
-     * The moving bubble is moved twice, which produces smoother
-     * animation. Thus the moving bubble effectively moves at twice the
-     * animation speed with respect to other bubbles that are only
-     * moved once per iteration.
-     */
-    compressed  = manageMovingBubble();
-    compressed |= manageMovingBubble();
-
-    if ((movingBubble == null) && !endOfGame) {
-      hurryTime++;
-      if (malusBar != null)
-        malusBar.releaseTime++;
-      /*
-       * If hurryTime == 2 (1 + 1) we could be in the "Don't rush me"
-       * mode.  Remove the sprite just in case the user switched
-       * to this mode when the "Hurry" sprite was shown, to make it
-       * disappear.
-       */
-      if (hurryTime == 2) {
-        removeSprite(hurrySprite);
-      }
-      if (hurryTime >= 240) {
-        if (hurryTime%40 == 10) {
-          addSprite(hurrySprite);
-          soundManager.playSound("hurry", R.raw.hurry);
-        }
-        else if (hurryTime%40 == 35) {
-          removeSprite(hurrySprite);
-        }
-      }
-      if (malusBar != null) {
-        if (getOkToFire() && (attackBarBubbles > 0) &&
-            ((malusBar.releaseTime > RELEASE_TIME) || isRemote)) {
-          numAttackBubbles = releaseBubbles();
-          malusBar.releaseTime = 0;
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (scrolling[i] != null) {
+          this.addSprite(BubbleSprite.getSprite(scrolling[i]),
+                         LAYER_BACKGROUND);
         }
       }
     }
-
-    if (!isArcade && ((malusBar == null) || FrozenBubble.getCompressor())) {
-      if (fixedBubbles == 6) {
-        if (blinkDelay < 15) {
-          blinkLine(blinkDelay);
-        }
-        blinkDelay++;
-        if (blinkDelay == 40) {
-          blinkDelay = 0;
-        }
-      }
-      else if (fixedBubbles == 7) {
-        if (blinkDelay < 15) {
-          blinkLine(blinkDelay);
-        }
-        blinkDelay++;
-        if (blinkDelay == 25) {
-          blinkDelay = 0;
-        }
-      }
+    for (int i = 0; i < core.falling.size(); i++) {
+      this.addSprite(BubbleSprite.getSprite(core.falling.elementAt(i)),
+                     LAYER_FALLING);
     }
-
-    if (!endOfGame && isArcade) {
-      scrollBubbles();
+    for (int i = 0; i < core.goingUp.size(); i++) {
+      this.addSprite(BubbleSprite.getSprite(core.goingUp.elementAt(i)),
+                     LAYER_MOVING);
     }
-
-    for (int i = 0; i < falling.size(); i++) {
-      ((BubbleSprite)falling.elementAt(i)).fall();
+    for (int i = 0; i < core.jumping.size(); i++) {
+      this.addSprite(BubbleSprite.getSprite(core.jumping.elementAt(i)),
+                     LAYER_FALLING);
     }
+  }
 
-    for (int i = 0; i < goingUp.size(); i++) {
-      ((BubbleSprite)goingUp.elementAt(i)).goUp();
+  protected Sprite restoreSprite(GameSnapshot in, Vector<Sprite> savedSprites,
+                                 Vector<BmpWrap> imageList) {
+    int spriteIdx = in.getShort();
+    if (spriteIdx == -1) {
+      return null;
     }
-
-    for (int i = 0; i < jumping.size(); i++) {
-      ((BubbleSprite)jumping.elementAt(i)).jump();
+    else if (spriteIdx < savedSprites.size()) {
+      return savedSprites.elementAt(spriteIdx);
     }
-
-    /*
-     * Perform game synchronization tasks.
-     */
-    if (!endOfGame && movingBubble == null) {
-      synchronizeBubbleManager();
+    int type = in.getByte();
+    int left = in.getShort();
+    int top = in.getShort();
+    int right = in.getShort();
+    int bottom = in.getShort();
+    Sprite sprite;
+    if (type == Sprite.TYPE_BUBBLE) {
+      int color = in.getByte();
+      int flags = in.getByte();
+      int fixedAnim = in.getByte();
+      int lastOpenPosition = in.getShort();
+      double moveX = FixedPoint.toPixels(in.getInt());
+      double moveY = FixedPoint.toPixels(in.getInt());
+      double realX = FixedPoint.toPixels(in.getInt());
+      double realY = FixedPoint.toPixels(in.getInt());
+      boolean frozen = (flags & BubbleSprite.RECORD_FROZEN) != 0;
+      if (frozen) {
+        left++;
+        top++;
+      }
+      Bubble bubble = new Bubble(core, left, top, color, moveX, moveY,
+                                 realX, realY,
+                                 (flags & BubbleSprite.RECORD_FIXED) != 0,
+                                 (flags & BubbleSprite.RECORD_BLINK) != 0,
+                                 (flags & BubbleSprite.RECORD_RELEASED) != 0,
+                                 fixedAnim, lastOpenPosition);
+      sprite = new BubbleSprite(bubble,
+                                frozen ? frozenBubbles[color] : bubbles[color],
+                                bubblesBlind[color],
+                                frozenBubbles[color],
+                                targetedBubbles, bubbleBlink);
     }
-
-    /*
-     * In an arcade or multiplayer game, check if the player lost due to
-     * scrolling or attack bubbles overflowing the play area.
-     */
-    if ((malusBar != null) || isArcade) {
-      checkLost();
+    else if (type == Sprite.TYPE_IMAGE) {
+      int imageId = in.getShort();
+      sprite = new ImageSprite(new Rect(left, top, right, bottom),
+                               imageList.elementAt(imageId));
     }
-
-    /*
-     * If this player is the local player and is participating in a
-     * network game, transmit the local player action to the remote
-     * player if an action occurred.
-     */
-    if ((networkManager != null) && (malusBar != null)) {
-      if (bubbleLaunched || compressed || swapPressed ||
-          (numAttackBubbles > 0)) {
-        if (bubbleLaunched || (numAttackBubbles > 0)) {
-          gridChecksum = 0;
-        }
-        if (!isRemote) {
-          networkManager.sendLocalPlayerAction(player,
-                                               compressed,
-                                               bubbleLaunched,
-                                               swapPressed,
-                                               0,
-                                               currentColorWas,
-                                               nextColorWas,
-                                               nextColor,
-                                               attackBarBubbles,
-                                               malusBar.attackBubbles,
-                                               launchBubblePosition);
-        }
-      }
-      else if ((gridChecksum == 0) && getOkToFire()) {
-        calculateGridChecksum();
-      }
+    else if (type == Sprite.TYPE_LAUNCH_BUBBLE) {
+      int currentColor = in.getByte();
+      double currentDirection = in.getDouble();
+      sprite = new LaunchBubbleSprite(currentColor, currentDirection,
+                                      launcher, bubbles, bubblesBlind);
     }
-
-    if (malusBar != null) {
-      malusBar.clearAttackBubbles();
+    else if (type == Sprite.TYPE_PENGUIN) {
+      int currentPenguin = in.getByte();
+      int count = in.getInt();
+      int finalState = in.getByte();
+      int nextPosition = in.getByte();
+      sprite = new PenguinSprite(getPenguinRect(player), penguins, random,
+                                 currentPenguin, count, finalState,
+                                 nextPosition);
+    }
+    else if (type == Sprite.TYPE_MALUS_BAR) {
+      sprite = malusBar;
+    }
+    else {
+      /*
+       * The length of an unknown record is unknown, so the rest of the
+       * snapshot cannot be read.
+       */
+      throw new IllegalArgumentException("Unrecognized sprite type: " + type);
     }
+    savedSprites.addElement(sprite);
+    return sprite;
+  }
 
-    return gameEnum.PLAYING;
+  private Bubble restoreBubble(GameSnapshot in, Vector<Sprite> savedSprites,
+                               Vector<BmpWrap> imageList) {
+    BubbleSprite sprite =
+        (BubbleSprite)restoreSprite(in, savedSprites, imageList);
+    return (sprite != null) ? sprite.getBubble() : null;
   }
 
-  /**
-   * Populate random columns in a row of attack bubbles to launch onto
-   * the game field.
-   * <p>In an actual play field, the rows alternate between a maximum 7
-   * and 8 bubbles per row.  Thus 7 bubbles are sent up as that is the
-   * maximum number of bubbles that can fit in each alternating row.
-   * <p>There are 15 distinct positions ("lanes") for bubbles to occupy
-   * between two consecutive rows.  Thus we send up a maximum 7 bubbles
-   * in randomly selected "lanes" from the 15 available.
-   * @return The number of attack bubbles launched.
-   */
-  private int releaseBubbles() {
-    if (malusBar == null) {
-      return 0;
+  private void restoreBubbles(GameSnapshot in, Vector<Sprite> savedSprites,
+                              Vector<BmpWrap> imageList,
+                              Vector<Bubble> bubbles) {
+    bubbles.clear();
+    int numBubbles = in.getShort();
+    for (int i = 0; i < numBubbles; i++) {
+      bubbles.addElement(restoreBubble(in, savedSprites, imageList));
     }
+  }
 
-    int numBubblesLaunched = 0;
+  /**
+   * Restore the game from a snapshot written by <code>saveState()</code>.
+   * @param in - the snapshot to read from.
+   * @param imageList - the images displayed by image sprites.
+   * @throws IllegalArgumentException if the snapshot holds an unknown
+   * sprite type.
+   */
+  public void restoreState(GameSnapshot in, Vector<BmpWrap> imageList) {
+    Vector<Sprite> savedSprites = new Vector<Sprite>();
 
-    /*
-     * If this game represents a remote player, the the attack bubbles
-     * are calculated on the remote machine and sent over the network.
-     * Simply use the supplied attack bubble buffer to initiate attack
-     * bubble launches. 
-     */
-    if (isRemote) {
-      for (int i = 0; i < LevelManager.LANES; i++) {
-        if (malusBar.attackBubbles[i] >= 0) {
-          numBubblesLaunched++;
-          int color = malusBar.attackBubbles[i];
-          BubbleSprite malusBubble = new BubbleSprite(
-            new Rect(columnX[i], 44+(LevelManager.MAX_ROWS*28), 32, 32),
-            START_LAUNCH_DIRECTION,
-            color, bubbles[color], bubblesBlind[color],
-            frozenBubbles[color], targetedBubbles, bubbleBlink,
-            bubbleManager, soundManager, this);
-          goingUp.add(malusBubble);
-          this.addSprite(malusBubble);
+    restoreSprites(in, savedSprites, imageList);
+    restoreBubbles(in, savedSprites, imageList, core.jumping);
+    restoreBubbles(in, savedSprites, imageList, core.goingUp);
+    restoreBubbles(in, savedSprites, imageList, core.falling);
+    for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+      int columns = in.getByte();
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if ((columns & (1 << i)) != 0) {
+          core.bubblePlay[i][j] = restoreBubble(in, savedSprites, imageList);
         }
-      }
-      malusBar.removeAttackBubbles(numBubblesLaunched);
-    }
-    else if (malusBar.getAttackBarBubbles() > 0) {
-      boolean[] lanes = new boolean[LevelManager.LANES];
-      int malusBalls = malusBar.removeLine();
-      int pos;
-
-      while (malusBalls > 0) {
-        pos = random.nextInt(LevelManager.LANES);
-        if (!lanes[pos]) {
-          lanes[pos] = true;
-          malusBalls--;
+        else {
+          core.bubblePlay[i][j] = null;
         }
       }
-
-      for (int i = 0; i < LevelManager.LANES; i++) {
-        if (lanes[i]) {
-          numBubblesLaunched++;
-          int color = random.nextInt(FrozenBubble.getDifficulty());
-          malusBar.setAttackBubble(i, color);
-          BubbleSprite malusBubble = new BubbleSprite(
-            new Rect(columnX[i], 44+(LevelManager.MAX_ROWS*28), 32, 32),
-            START_LAUNCH_DIRECTION,
-            color, bubbles[color], bubblesBlind[color],
-            frozenBubbles[color], targetedBubbles, bubbleBlink,
-            bubbleManager, soundManager, this);
-          goingUp.add(malusBubble);
-          this.addSprite(malusBubble);
+    }
+    if (isArcade) {
+      int columns = in.getByte();
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if ((columns & (1 << i)) != 0) {
+          core.scrolling[i] = restoreBubble(in, savedSprites, imageList);
+        }
+        else {
+          core.scrolling[i] = null;
         }
       }
     }
-
-    return numBubblesLaunched;
+    launchBubble =
+        (LaunchBubbleSprite)restoreSprite(in, savedSprites, imageList);
+    core.launchBubblePosition = in.getDouble();
+    if (malusBar != null) {
+      malusBar.restoreState(in);
+    }
+    penguin = (PenguinSprite)restoreSprite(in, savedSprites, imageList);
+    compressor.restoreState(in);
+    nextBubble = (ImageSprite)restoreSprite(in, savedSprites, imageList);
+    core.currentColor = in.getByte();
+    core.nextColor    = in.getByte();
+    core.movingBubble = restoreBubble(in, savedSprites, imageList);
+    pauseButtonSprite =
+        (ImageSprite)restoreSprite(in, savedSprites, imageList);
+    playButtonSprite  =
+        (ImageSprite)restoreSprite(in, savedSprites, imageList);
+    core.fixedBubbles   = in.getInt();
+    core.nbBubbles      = in.getInt();
+    core.sendToOpponent = in.getInt();
+    core.blinkDelay     = in.getInt();
+    hurrySprite    = (ImageSprite)restoreSprite(in, savedSprites, imageList);
+    core.hurryTime = in.getInt();
+    pausedSprite   = (ImageSprite)restoreSprite(in, savedSprites, imageList);
+    core.readyToFire = in.getBoolean();
+    core.endOfGame   = in.getBoolean();
+    frozenify        = in.getBoolean();
+    frozenifyX       = in.getShort();
+    frozenifyY       = in.getShort();
+    restoreComplete(savedSprites);
   }
 
   private Sprite restoreSprite(Bundle map, Vector<BmpWrap> imageList, int i) {
@@ -1081,28 +1076,29 @@ public class FrozenGame extends GameScreen {
       boolean blink = map.getBoolean(String.format("%d-%d-blink", player, i));
       boolean released =
           map.getBoolean(String.format("%d-%d-released", player, i));
-      boolean checkJump =
-          map.getBoolean(String.format("%d-%d-checkJump", player, i));
-      boolean checkFall =
-          map.getBoolean(String.format("%d-%d-checkFall", player, i));
       int fixedAnim = map.getInt(String.format("%d-%d-fixedAnim", player, i));
       boolean frozen =
           map.getBoolean(String.format("%d-%d-frozen", player, i));
-      Point lastOpenPosition = new Point(
-          map.getInt(String.format("%d-%d-lastOpenPosition.x", player, i)),
-          map.getInt(String.format("%d-%d-lastOpenPosition.y", player, i)));
-      int scroll = map.getInt(String.format("%d-%d-scroll", player, i));
-      int scrollMax = map.getInt(String.format("%d-%d-scrollMax", player, i));
-      return new BubbleSprite(new Rect(left, top, right, bottom),
-                              color, moveX, moveY, realX, realY,
-                              fixed, blink, released, checkJump, checkFall,
-                              fixedAnim, scroll, scrollMax,
+      int lastOpenPosition =
+          map.getInt(String.format("%d-%d-lastOpenPosition.x", player, i)) +
+          map.getInt(String.format("%d-%d-lastOpenPosition.y", player, i)) *
+          LevelManager.NUM_COLS;
+      /*
+       * A frozen bubble sprite is drawn one pixel up and to the left of
+       * the bubble.
+       */
+      if (frozen) {
+        left++;
+        top++;
+      }
+      Bubble bubble = new Bubble(core, left, top, color, moveX, moveY,
+                                 realX, realY, fixed, blink, released,
+                                 fixedAnim, lastOpenPosition);
+      return new BubbleSprite(bubble,
                               (frozen ? frozenBubbles[color] : bubbles[color]),
-                              lastOpenPosition,
                               bubblesBlind[color],
                               frozenBubbles[color],
-                              targetedBubbles, bubbleBlink,
-                              bubbleManager, soundManager, this);
+                              targetedBubbles, bubbleBlink);
     }
     else if (type == Sprite.TYPE_IMAGE) {
       int imageId = map.getInt(String.format("%d-%d-imageId", player, i));
@@ -1136,6 +1132,15 @@ public class FrozenGame extends GameScreen {
     }
   }
 
+  private static Bubble restoredBubble(Vector<Sprite> savedSprites,
+                                       int spriteIdx) {
+    return ((BubbleSprite)savedSprites.elementAt(spriteIdx)).getBubble();
+  }
+
+  /**
+   * Restore the game from a Bundle written by a previous version, which
+   * saved every field under its own key.
+   */
   public void restoreState(Bundle map, Vector<BmpWrap> imageList) {
     Vector<Sprite> savedSprites = new Vector<Sprite>();
     int numSavedSprites =
@@ -1146,89 +1151,75 @@ public class FrozenGame extends GameScreen {
 
     restoreSprites(map, savedSprites, player);
 
-    if (jumping == null) {
-      jumping = new Vector<Sprite>();
-    }
+    core.jumping.clear();
     int numJumpingSprites =
         map.getInt(String.format("%d-numJumpingSprites", player));
     for (int i = 0; i < numJumpingSprites; i++) {
       int spriteIdx = map.getInt(String.format("%d-jumping-%d", player, i));
-      jumping.addElement(savedSprites.elementAt(spriteIdx));
-    }
-    if (goingUp == null) {
-      goingUp = new Vector<Sprite>();
+      core.jumping.addElement(restoredBubble(savedSprites, spriteIdx));
     }
+    core.goingUp.clear();
     int numGoingUpSprites =
         map.getInt(String.format("%d-numGoingUpSprites", player));
     for (int i = 0; i < numGoingUpSprites; i++) {
       int spriteIdx = map.getInt(String.format("%d-goingUp-%d", player, i));
-      goingUp.addElement(savedSprites.elementAt(spriteIdx));
-    }
-    if (falling == null) {
-      falling = new Vector<Sprite>();
+      core.goingUp.addElement(restoredBubble(savedSprites, spriteIdx));
     }
+    core.falling.clear();
     int numFallingSprites =
         map.getInt(String.format("%d-numFallingSprites", player));
     for (int i = 0; i < numFallingSprites; i++) {
       int spriteIdx = map.getInt(String.format("%d-falling-%d", player, i));
-      falling.addElement(savedSprites.elementAt(spriteIdx));
-    }
-    if (bubblePlay == null) {
-      bubblePlay = new BubbleSprite[LevelManager.NUM_COLS]
-                                   [LevelManager.NUM_ROWS];
+      core.falling.addElement(restoredBubble(savedSprites, spriteIdx));
     }
     for (int i = 0; i < LevelManager.NUM_COLS; i++) {
       for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
         int spriteIdx =
             map.getInt(String.format("%d-play-%d-%d", player, i, j));
         if (spriteIdx != -1) {
-          bubblePlay[i][j] = (BubbleSprite)savedSprites.elementAt(spriteIdx);
+          core.bubblePlay[i][j] = restoredBubble(savedSprites, spriteIdx);
         }
         else {
-          bubblePlay[i][j] = null;
+          core.bubblePlay[i][j] = null;
         }
       }
     }
     if (isArcade) {
-      if (scrolling == null) {
-        scrolling = new BubbleSprite[LevelManager.NUM_COLS];
-      }
       for (int i = 0; i < LevelManager.NUM_COLS; i++) {
         int spriteIdx =
             map.getInt(String.format("%d-scrolling-%d", player, i));
         if (spriteIdx != -1) {
-          scrolling[i] = (BubbleSprite)savedSprites.elementAt(spriteIdx);
+          core.scrolling[i] = restoredBubble(savedSprites, spriteIdx);
         }
         else {
-          scrolling[i] = null;
+          core.scrolling[i] = null;
         }
       }
     }
     int launchBubbleId =
         map.getInt(String.format("%d-launchBubbleId", player));
     launchBubble = (LaunchBubbleSprite)savedSprites.elementAt(launchBubbleId);
-    launchBubblePosition =
+    core.launchBubblePosition =
         map.getDouble(String.format("%d-launchBubblePosition", player));
     if (malusBar != null) {
       malusBar.restoreState(map, player);
-      this.addSprite(malusBar);
+      this.addSprite(malusBar, LAYER_HUD);
     }
     int penguinId = map.getInt(String.format("%d-penguinId", player));
     penguin       = (PenguinSprite)savedSprites.elementAt(penguinId);
     compressor.restoreState(map, player);
     int nextBubbleId = map.getInt(String.format("%d-nextBubbleId", player));
-    nextBubble       = (ImageSprite)savedSprites.elementAt(nextBubbleId);
-    currentColor     = map.getInt(String.format("%d-currentColor", player));
-    nextColor        = map.getInt(String.format("%d-nextColor", player));
+    nextBubble        = (ImageSprite)savedSprites.elementAt(nextBubbleId);
+    core.currentColor = map.getInt(String.format("%d-currentColor", player));
+    core.nextColor    = map.getInt(String.format("%d-nextColor", player));
     int movingBubbleId =
         map.getInt(String.format("%d-movingBubbleId", player));
     if (movingBubbleId == -1) {
-      movingBubble = null;
+      core.movingBubble = null;
     }
     else {
-      movingBubble = (BubbleSprite)savedSprites.elementAt(movingBubbleId);
+      core.movingBubble = restoredBubble(savedSprites, movingBubbleId);
     }
-    bubbleManager.restoreState(map, player);
     int pauseButtonId =
         map.getInt(String.format("%d-pauseButtonId", player));
     if (pauseButtonId < 1) {
@@ -1245,190 +1236,309 @@ public class FrozenGame extends GameScreen {
     else {
       playButtonSprite = (ImageSprite) savedSprites.elementAt(playButtonId);
     }
-    fixedBubbles   = map.getInt(String.format("%d-fixedBubbles", player));
-    nbBubbles      = map.getInt(String.format("%d-nbBubbles", player));
-    sendToOpponent = map.getInt(String.format("%d-sendToOpponent", player));
-    blinkDelay     = map.getInt(String.format("%d-blinkDelay", player));
-    int hurryId    = map.getInt(String.format("%d-hurryId", player));
-    hurrySprite    = (ImageSprite)savedSprites.elementAt(hurryId);
-    hurryTime      = map.getInt(String.format("%d-hurryTime", player));
-    int pausedId   = map.getInt(String.format("%d-pausedId", player));
-    pausedSprite   = (ImageSprite)savedSprites.elementAt(pausedId);
-    readyToFire    = map.getBoolean(String.format("%d-readyToFire", player));
-    endOfGame      = map.getBoolean(String.format("%d-endOfGame", player));
+    core.fixedBubbles   =
+        map.getInt(String.format("%d-fixedBubbles", player));
+    core.nbBubbles      = map.getInt(String.format("%d-nbBubbles", player));
+    core.sendToOpponent =
+        map.getInt(String.format("%d-sendToOpponent", player));
+    core.blinkDelay     = map.getInt(String.format("%d-blinkDelay", player));
+    int hurryId         = map.getInt(String.format("%d-hurryId", player));
+    hurrySprite         = (ImageSprite)savedSprites.elementAt(hurryId);
+    core.hurryTime      = map.getInt(String.format("%d-hurryTime", player));
+    int pausedId        = map.getInt(String.format("%d-pausedId", player));
+    pausedSprite        = (ImageSprite)savedSprites.elementAt(pausedId);
+    core.readyToFire    =
+        map.getBoolean(String.format("%d-readyToFire", player));
+    core.endOfGame      =
+        map.getBoolean(String.format("%d-endOfGame", player));
     frozenify      = map.getBoolean(String.format("%d-frozenify", player));
     frozenifyX     = map.getInt(String.format("%d-frozenifyX", player));
     frozenifyY     = map.getInt(String.format("%d-frozenifyY", player));
+    restoreComplete(savedSprites);
+  }
+
+  private void restoreComplete(Vector<Sprite> savedSprites) {
+    /*
+     * The saved bubble counts are not restored, but recounted from the
+     * restored bubble grid, which they could have diverged from.
+     */
+    core.restoreGrid();
+
+    /*
+     * The autosave journal records replayed on the restored game move
+     * its grid relative to its restored position.
+     */
+    gridDelta.reset(core);
+
+    /*
+     * The inputs recorded so far do not lead to the restored game.
+     */
+    replayLog = null;
+
+    /*
+     * Shots played before the restored game can not be taken back.
+     */
+    if (rewindBuffer != null) {
+      rewindBuffer.clear();
+    }
+
+    /*
+     * The bubbles of the level loaded when this game was created were
+     * replaced by the restored bubbles, which were not obtained from
+     * the pools.
+     */
+    int numBubbles = 0;
+    for (int i = 0; i < savedSprites.size(); i++) {
+      if (savedSprites.elementAt(i) instanceof BubbleSprite) {
+        numBubbles++;
+      }
+    }
+    spritePool.clear(numBubbles);
+    core.getBubblePool().clear(numBubbles);
   }
 
   public void resume() {
     this.removeSprite(pausedSprite);
   }
 
-  public void saveState(Bundle map) {
-    Vector<Sprite> savedSprites = new Vector<Sprite>();
-
-    saveSprites(map, savedSprites, player);
+  /**
+   * Write a sprite reference to a snapshot.
+   * @param sprite - the sprite, or <code>null</code>.
+   */
+  private static void saveSprite(GameSnapshot out, Vector<Sprite> savedSprites,
+                                 Sprite sprite) {
+    if (sprite != null) {
+      sprite.saveState(out, savedSprites);
+    }
+    else {
+      out.putShort(-1);
+    }
+  }
 
-    for (int i = 0; i < jumping.size(); i++) {
-      ((Sprite)jumping.elementAt(i)).saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-jumping-%d", player, i),
-                 ((Sprite)jumping.elementAt(i)).getSavedId());
+  private static void saveBubble(GameSnapshot out, Vector<Sprite> savedSprites,
+                                 Bubble bubble) {
+    if (bubble != null) {
+      BubbleSprite.getSprite(bubble).saveState(out, savedSprites);
     }
-    map.putInt(String.format("%d-numJumpingSprites", player), jumping.size());
-    for (int i = 0; i < goingUp.size(); i++) {
-      ((Sprite)goingUp.elementAt(i)).saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-goingUp-%d", player, i),
-                 ((Sprite)goingUp.elementAt(i)).getSavedId());
+    else {
+      out.putShort(-1);
     }
-    map.putInt(String.format("%d-numGoingUpSprites", player), goingUp.size());
-    for (int i = 0; i < falling.size(); i++) {
-      ((Sprite)falling.elementAt(i)).saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-falling-%d", player, i),
-                 ((Sprite)falling.elementAt(i)).getSavedId());
+  }
+
+  private static void saveBubbles(GameSnapshot out,
+                                  Vector<Sprite> savedSprites,
+                                  Vector<Bubble> bubbles) {
+    out.putShort(bubbles.size());
+    for (int i = 0; i < bubbles.size(); i++) {
+      saveBubble(out, savedSprites, bubbles.elementAt(i));
     }
-    map.putInt(String.format("%d-numFallingSprites", player), falling.size());
-    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
-        if (bubblePlay[i][j] != null) {
-          bubblePlay[i][j].saveState(map, savedSprites, player);
-          map.putInt(String.format("%d-play-%d-%d", player, i, j),
-                     bubblePlay[i][j].getSavedId());
+  }
+
+  /**
+   * Save the game to a snapshot.
+   * <p>The bubble grid is written a row at a time, as a byte flagging
+   * the occupied columns followed by the bubbles of those columns.
+   * The bubble counts are not saved, as they are recounted from the
+   * restored grid.
+   * @param out - the snapshot to write to.
+   */
+  public void saveState(GameSnapshot out) {
+    Vector<Sprite> savedSprites = new Vector<Sprite>();
+
+    saveSprites(out, savedSprites);
+    saveBubbles(out, savedSprites, core.jumping);
+    saveBubbles(out, savedSprites, core.goingUp);
+    saveBubbles(out, savedSprites, core.falling);
+    for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+      int columns = 0;
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (core.bubblePlay[i][j] != null) {
+          columns |= 1 << i;
         }
-        else {
-          map.putInt(String.format("%d-play-%d-%d", player, i, j), -1);
+      }
+      out.putByte(columns);
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (core.bubblePlay[i][j] != null) {
+          saveBubble(out, savedSprites, core.bubblePlay[i][j]);
         }
       }
     }
     if (isArcade) {
+      int columns = 0;
       for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        if (scrolling[i] != null) {
-          scrolling[i].saveState(map, savedSprites, player);
-          map.putInt(String.format("%d-scrolling-%d", player, i),
-                     scrolling[i].getSavedId());
+        if (core.scrolling[i] != null) {
+          columns |= 1 << i;
         }
-        else {
-          map.putInt(String.format("%d-scrolling-%d", player, i), -1);
+      }
+      out.putByte(columns);
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        if (core.scrolling[i] != null) {
+          saveBubble(out, savedSprites, core.scrolling[i]);
         }
       }
     }
-    launchBubble.saveState(map, savedSprites, player);
-    map.putInt(String.format("%d-launchBubbleId", player),
-               launchBubble.getSavedId());
-    map.putDouble(String.format("%d-launchBubblePosition", player),
-                  launchBubblePosition);
+    saveSprite(out, savedSprites, launchBubble);
+    out.putDouble(core.launchBubblePosition);
     if (malusBar != null) {
-      malusBar.saveState(map, player);
-    }
-    penguin.saveState(map, savedSprites, player);
-    compressor.saveState(map, player);
-    map.putInt(String.format("%d-penguinId", player), penguin.getSavedId());
-    nextBubble.saveState(map, savedSprites, player);
-    map.putInt(String.format("%d-nextBubbleId", player),
-               nextBubble.getSavedId());
-    map.putInt(String.format("%d-currentColor", player), currentColor);
-    map.putInt(String.format("%d-nextColor", player), nextColor);
-    if (movingBubble != null) {
-      movingBubble.saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-movingBubbleId", player),
-                 movingBubble.getSavedId());
-    }
-    else {
-      map.putInt(String.format("%d-movingBubbleId", player), -1);
-    }
-    bubbleManager.saveState(map, player);
-    if (pauseButtonSprite != null) {
-      pauseButtonSprite.saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-pauseButtonId", player),
-                 pauseButtonSprite.getSavedId());
-    }
-    else {
-      map.putInt(String.format("%d-pauseButtonId", player), -1);
-    }
-    if (playButtonSprite != null) {
-      playButtonSprite.saveState(map, savedSprites, player);
-      map.putInt(String.format("%d-playButtonId", player),
-                 playButtonSprite.getSavedId());
-    }
-    else {
-      map.putInt(String.format("%d-playButtonId", player), -1);
-    }
-    map.putInt(String.format("%d-fixedBubbles", player), fixedBubbles);
-    map.putInt(String.format("%d-nbBubbles", player), nbBubbles);
-    map.putInt(String.format("%d-sendToOpponent", player), sendToOpponent);
-    map.putInt(String.format("%d-blinkDelay", player), blinkDelay);
-    hurrySprite.saveState(map, savedSprites, player);
-    map.putInt(String.format("%d-hurryId", player), hurrySprite.getSavedId());
-    map.putInt(String.format("%d-hurryTime", player), hurryTime);
-    pausedSprite.saveState(map, savedSprites, player);
-    map.putInt(String.format("%d-pausedId", player), pausedSprite.getSavedId());
-    map.putBoolean(String.format("%d-readyToFire", player), readyToFire);
-    map.putBoolean(String.format("%d-endOfGame", player), endOfGame);
-    map.putBoolean(String.format("%d-frozenify", player), frozenify);
-    map.putInt(String.format("%d-frozenifyX", player), frozenifyX);
-    map.putInt(String.format("%d-frozenifyY", player), frozenifyY);
-    map.putInt(String.format("%d-numSavedSprites", player),
-               savedSprites.size());
+      malusBar.saveState(out);
+    }
+    saveSprite(out, savedSprites, penguin);
+    compressor.saveState(out);
+    saveSprite(out, savedSprites, nextBubble);
+    out.putByte(core.currentColor);
+    out.putByte(core.nextColor);
+    saveBubble(out, savedSprites, core.movingBubble);
+    saveSprite(out, savedSprites, pauseButtonSprite);
+    saveSprite(out, savedSprites, playButtonSprite);
+    out.putInt(core.fixedBubbles);
+    out.putInt(core.nbBubbles);
+    out.putInt(core.sendToOpponent);
+    out.putInt(core.blinkDelay);
+    saveSprite(out, savedSprites, hurrySprite);
+    out.putInt(core.hurryTime);
+    saveSprite(out, savedSprites, pausedSprite);
+    out.putBoolean(core.readyToFire);
+    out.putBoolean(core.endOfGame);
+    out.putBoolean(frozenify);
+    out.putShort(frozenifyX);
+    out.putShort(frozenifyY);
     for (int i = 0; i < savedSprites.size(); i++) {
-      ((Sprite)savedSprites.elementAt(i)).clearSavedId();
+      savedSprites.elementAt(i).clearSavedId();
     }
   }
 
-  void scrollBubbles() {
-    boolean scroll = compressor.checkScroll();
-    int moveDown = (int) compressor.getMoveDown();
-    if (scroll) {
-      for (int row = LevelManager.NUM_ROWS - 1; row >= 0; row--) {
-        for (int column = 0; column < LevelManager.NUM_COLS; column++) {
-          if (bubblePlay[column][row] != null) {
-            bubblePlay[column][row].scroll(moveDown);
-          }
-        }
-      }
-      for (int column = 0; column < LevelManager.NUM_COLS; column++) {
-        if (scrolling[column] != null) {
-          scrolling[column].scroll(moveDown);
-        }
-      }
+  /**
+   * Record the inputs of this game from its first frame, so that it can
+   * be replayed.  Only games without attack bubbles can be replayed, as
+   * their outcome only depends on their own inputs.
+   */
+  public void startRecording() {
+    if ((malusBar == null) && (core.getTick() == 0)) {
+      replayLog = new ReplayLog(startLevel, levelManager.getLevelIndex(),
+                                startRowSeed, startRowOffset,
+                                FrozenBubble.getDifficulty(), isArcade,
+                                startSeed);
     }
-    if ((movingBubble == null) && (moveDown >= 28.)) {
-      compressor.moveDownSubtract(28.);
-      for (int row = LevelManager.NUM_ROWS - 1; row > 0; row--) {
-        for (int column = 0; column < LevelManager.NUM_COLS; column++) {
-          bubblePlay[column][row    ] = bubblePlay[column][row - 1];
-          bubblePlay[column][row - 1] = null;
-        }
-      }
-      for (int column = 0; column < LevelManager.NUM_COLS; column++) {
-        bubblePlay[column][0] = scrolling[column];
-      }
-      addScrollRow();
+  }
+
+  /**
+   * Check whether a shot can be taken back with <code>rewind()</code>.
+   * @return <code>true</code> if the bubble grid is settled and there
+   * is a shot to take back.
+   */
+  public boolean canRewind() {
+    return (rewindBuffer != null) && (rewindBuffer.size() > 1) &&
+           core.getOkToFire();
+  }
+
+  /**
+   * Take back the last shot of a puzzle game, and restore the bubble
+   * grid, the compressor and the launch bubbles to what they were
+   * before it.  A shot can only be taken back while the bubble grid is
+   * settled.
+   * @return <code>true</code> if a shot was taken back.
+   */
+  public boolean rewind() {
+    if (!canRewind() || !rewindBuffer.rewind(core)) {
+      return false;
+    }
+
+    /*
+     * The recorded inputs no longer lead to the rewound game.
+     */
+    replayLog = null;
+    updateLaunchBubbles();
+    return true;
+  }
+
+  /**
+   * Keep snapshots of the settled bubble grid of a single player puzzle
+   * game, so that its shots can be taken back with
+   * <code>rewind()</code>.
+   * @param buffer - the snapshot buffer, which is cleared and may be
+   * reused from one game to the next.
+   */
+  void setRewindBuffer(RewindBuffer buffer) {
+    if (!isArcade && (malusBar == null)) {
+      rewindBuffer = buffer;
+      rewindBuffer.clear();
     }
   }
 
+  /**
+   * Start journaling the shots of this game, right after a checkpoint
+   * of the game was saved with <code>saveState()</code>.
+   */
+  public void startJournal() {
+    gridDelta.reset(core);
+  }
+
+  /**
+   * Write an autosave journal record of the last shot: the launch
+   * direction and color, the launcher state, and the changes to the
+   * bubble grid since the previous record.
+   * <p>Bubbles still falling or jumping off the grid are not recorded,
+   * as they no longer take part in the game.
+   * @param out - the record to write to.
+   */
+  public void saveShot(GameSnapshot out) {
+    out.putInt(core.shots);
+    out.putDouble(core.shotDirection);
+    out.putByte(core.shotColor);
+    out.putDouble(core.launchBubblePosition);
+    out.putByte(core.currentColor);
+    out.putByte(core.nextColor);
+    out.putInt(core.fixedBubbles);
+    out.putInt(core.nbBubbles);
+    compressor.saveState(out);
+    levelManager.saveState(out);
+    gridDelta.save(core, out);
+  }
+
+  /**
+   * Replay an autosave journal record on a game restored from the
+   * checkpoint it follows.
+   * @param in - the record to read from.
+   */
+  public void restoreShot(GameSnapshot in) {
+    core.shots         = in.getInt();
+    core.shotDirection = in.getDouble();
+    core.shotColor     = in.getByte();
+    core.launchBubblePosition = in.getDouble();
+    core.currentColor  = in.getByte();
+    core.nextColor     = in.getByte();
+    core.fixedBubbles  = in.getInt();
+    core.nbBubbles     = in.getInt();
+    compressor.restoreState(in);
+    levelManager.restoreState(in);
+    gridDelta.restore(core, in);
+    launchBubble.changeDirection(core.launchBubblePosition);
+    updateLaunchBubbles();
+  }
+
   /**
    * Set the game result associated with this player.
    * @param result - GAME_WON if this player won the game, GAME_LOST if
    * this player lost the game.
    */
   public void setGameResult(gameEnum result) {
-    if (!endOfGame) {
-      playResult = result;
+    if (core.setGameResult(result)) {
       if (result == gameEnum.WON)
       {
         penguin.updateState(PenguinSprite.STATE_GAME_WON);
         this.addSprite(new ImageSprite(new Rect(152, 190,
                                                 152 + 337,
-                                                190 + 116), gameWon));
+                                                190 + 116), gameWon),
+                       LAYER_HUD);
       }
       else if (result == gameEnum.LOST)
       {
         penguin.updateState(PenguinSprite.STATE_GAME_LOST);
         this.addSprite(new ImageSprite(new Rect(152, 190,
                                                 152 + 337,
-                                                190 + 116), gameLost));
+                                                190 + 116), gameLost),
+                       LAYER_HUD);
       }
-      endOfGame = true;
     }
   }
 
@@ -1440,147 +1550,47 @@ public class FrozenGame extends GameScreen {
    * @param newSteps - the number of compressor steps to lower to.
    */
   public void setGrid(byte[][] newGrid, byte newSteps) {
-    if (newGrid != null) {
-      compressor.init();
-      falling.clear();
-      goingUp.clear();
-      jumping.clear();
-      bubbleManager.initialize();
-      removeAllBubbleSprites();
-      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
-          bubblePlay[i][j] = null;
-          if (newGrid[i][j] != -1) {
-            bubblePlay[i][j] = new BubbleSprite(
-                new Rect(190+i*32-(j%2)*16, 44+j*28, 32, 32),
-                newGrid[i][j],
-                bubbles[newGrid[i][j]], bubblesBlind[newGrid[i][j]],
-                frozenBubbles[newGrid[i][j]], bubbleBlink, bubbleManager,
-                soundManager, this);
-            this.addSprite(bubblePlay[i][j]);
-          }
-        }
-      }
-    }
-    for (int index = 0; index < newSteps; index++) {
-      lowerCompressor(false);
-    }
+    core.setGrid(newGrid, newSteps);
   }
 
   public void setLaunchBubbleColors(int current, int next, int newNext) {
-    currentColor = current;
-    nextColor    = next;
-    newNextColor = newNext;
-    launchBubble.changeColor(currentColor);
-
-    if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL)
-      nextBubble.changeImage(bubbles[nextColor]);
-    else
-      nextBubble.changeImage(bubblesBlind[nextColor]);
+    core.setLaunchBubbleColors(current, next, newNext);
+    updateLaunchBubbles();
   }
 
   public void setPosition(double value) {
-    if (!endOfGame) {
-      double dx = value - launchBubblePosition;
+    if (!core.isEndOfGame()) {
+      double dx = value - core.getPosition();
       /*
        * For small position changes, don't update the penguin state.
        */
       if ((dx <  LAUNCH_DIRECTION_MIN_STEP) &&
           (dx > -LAUNCH_DIRECTION_MIN_STEP))
         dx = 0;
-      launchBubblePosition = value;
-      clampLaunchPosition();
-      launchBubble.changeDirection(launchBubblePosition);
+      core.setPosition(value);
+      launchBubble.changeDirection(core.getPosition());
       updatePenguinState(dx);
     }
   }
 
   public void swapNextLaunchBubble() {
-    if (currentColor != nextColor) {
-      int tempColor = currentColor;
-      currentColor  = nextColor;
-      nextColor     = tempColor;
-      launchBubble.changeColor(currentColor);
-
-      if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL)
-        nextBubble.changeImage(bubbles[nextColor]);
-      else
-        nextBubble.changeImage(bubblesBlind[nextColor]);
-
-      soundManager.playSound("whip", R.raw.whip);
-    }
+    core.swapNextLaunchBubble();
   }
 
   /**
-   * This function is an unfortunate patch that is necessitated due to
-   * the fact that there is as of yet an unfixed bug in the BubbleSprite
-   * management code.
-   * <p>Somewhere amongst goUp() and move() in BubbleSprite.java, a flaw
-   * exists whereby a bubble is added to the bubble manager, and the
-   * bubble sprite is added to the game screen, but the entry in the
-   * bubblePlay grid was either rendered null or a bubble superposition
-   * in the grid occurred.  The former is suspected, because ensuring
-   * the grid location is null before assigning a bubble sprite to it is
-   * very rigorously enforced.
-   * <p><b>TODO</b> - fix the grid entry bug.
+   * Show the current launch bubble color and the next one.
    */
-  public void synchronizeBubbleManager() {
-    int numBubblesManager = bubbleManager.countBubbles();
-    int numBubblesPlay = 0;
-    /*
-     * Check the bubble sprite grid for occupied locations.
-     */
-    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
-        if (bubblePlay[i][j] != null ) {
-          numBubblesPlay++;
-        }
-      }
-    }
-    if (isArcade) {
-      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        if (scrolling[i] != null) {
-          numBubblesPlay++;
-        }
-      }
+  private void updateLaunchBubbles() {
+    launchBubble.changeColor(core.getCurrentColor());
+    updateNextBubble();
+  }
+
+  private void updateNextBubble() {
+    if (FrozenBubble.getColorMode() == FrozenBubble.GAME_NORMAL) {
+      nextBubble.changeImage(bubbles[core.getNextColor()]);
     }
-    /*
-     * If the number of bubble sprite grid entries does not match the
-     * number of bubbles in the bubble manager, then we need to re-
-     * initialize the bubble manager, and re-initialize all the bubble
-     * sprites on the game screen.  You would be unable to win prior to
-     * the addition of this synchronization code due to the number of
-     * bubbles in the bubble manager never reaching zero, and the excess
-     * sprite or sprites would remain stuck on the screen.
-     */
-    if (numBubblesManager != numBubblesPlay) {
-      bubbleManager.initialize();
-      removeAllBubbleSprites();
-      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-        for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
-          if (bubblePlay[i][j] != null ) {
-            bubblePlay[i][j].addToManager();
-            this.addSprite(bubblePlay[i][j]);
-          }
-        }
-      }
-      if (isArcade) {
-        for (int i = 0; i < LevelManager.NUM_COLS; i++) {
-          if (scrolling[i] != null) {
-            scrolling[i].addToManager();
-            this.addSprite(scrolling[i]);
-          }
-        }
-      }
-      for (int i = 0; i < falling.size(); i++) {
-        this.addSprite(falling.elementAt(i));
-      }
-      for (int i = 0; i < goingUp.size(); i++) {
-        this.addSprite(goingUp.elementAt(i));
-      }
-      for (int i = 0; i < jumping.size(); i++) {
-        this.addSprite(jumping.elementAt(i));
-      }
+    else {
+      nextBubble.changeImage(bubblesBlind[core.getNextColor()]);
     }
   }
 
@@ -54,6 +54,8 @@ package org.jfedor.frozenbubble;
 
 import java.util.Vector;
 
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
+
 import android.graphics.Canvas;
 import android.os.Bundle;
 
@@ -68,82 +70,267 @@ public abstract class GameScreen {
     GAME_EXIT;
   }
 
-  public static enum gameEnum {
-    PLAYING,
-    LOST,
-    WON,
-    NEXT_LOST,
-    NEXT_WON;
-  }
-
   public static enum stateEnum {
     RUNNING,
     PAUSED,
     ABOUT;
   }
 
-  private Vector<Sprite> sprites;
+  /*
+   * Sprite layers, from back to front.  Sprites are painted layer by
+   * layer, and in the order they were added within each layer.
+   */
+  public static final int LAYER_BACKGROUND = 0;
+  public static final int LAYER_GRID       = 1;
+  public static final int LAYER_MOVING     = 2;
+  public static final int LAYER_FALLING    = 3;
+  public static final int LAYER_HUD        = 4;
+  public static final int NUM_LAYERS       = 5;
+
+  /*
+   * Each layer is a doubly linked list threaded through the sprites
+   * themselves, so that sprites are added, removed and reordered in
+   * constant time.
+   */
+  private final Sprite[] first = new Sprite[NUM_LAYERS];
+  private final Sprite[] last  = new Sprite[NUM_LAYERS];
+
+  /*
+   * Number of sprites added to or removed from each layer, to tell
+   * whether a retained image of a layer is out of date.
+   */
+  private final int[] versions = new int[NUM_LAYERS];
+
+  /*
+   * Elapsed fraction of the current simulation step, used to draw moving
+   * sprites between their positions of the last two steps.
+   */
+  private float interpolation = 1f;
 
-  public final void saveSprites(Bundle map, Vector<Sprite> savedSprites,
-                                int id) {
-    for (int i = 0; i < sprites.size(); i++) {
-      ((Sprite)sprites.elementAt(i)).saveState(map, savedSprites, id);
-      map.putInt(String.format("%d-game-%d", id, i),
-                 ((Sprite)sprites.elementAt(i)).getSavedId());
+  /**
+   * Save the sprites of the game screen, back to front, each preceded
+   * by its layer.
+   */
+  public final void saveSprites(GameSnapshot out, Vector<Sprite> savedSprites) {
+    int numSprites = 0;
+    for (int layer = 0; layer < NUM_LAYERS; layer++) {
+      for (Sprite sprite = first[layer]; sprite != null; sprite = sprite.next) {
+        numSprites++;
+      }
+    }
+    out.putShort(numSprites);
+    for (int layer = 0; layer < NUM_LAYERS; layer++) {
+      for (Sprite sprite = first[layer]; sprite != null; sprite = sprite.next) {
+        out.putByte(layer);
+        sprite.saveState(out, savedSprites);
+      }
     }
-    map.putInt(String.format("%d-numGameSprites", id), sprites.size());
   }
 
+  /**
+   * Restore the sprites of the game screen from a snapshot.
+   */
+  public final void restoreSprites(GameSnapshot in, Vector<Sprite> savedSprites,
+                                   Vector<BmpWrap> imageList) {
+    removeAllSprites();
+    int numSprites = in.getShort();
+    for (int i = 0; i < numSprites; i++) {
+      int layer = in.getByte();
+      link(restoreSprite(in, savedSprites, imageList), layer, false);
+    }
+  }
+
+  /**
+   * Read a sprite reference from a snapshot.  The first reference to a
+   * sprite is followed by the sprite record, which is restored and
+   * appended to the restored sprites.
+   * @param in - the snapshot to read from.
+   * @param savedSprites - the sprites restored so far.
+   * @param imageList - the images displayed by image sprites.
+   * @return The sprite, or <code>null</code> for a null reference.
+   */
+  protected abstract Sprite restoreSprite(GameSnapshot in,
+                                          Vector<Sprite> savedSprites,
+                                          Vector<BmpWrap> imageList);
+
+  /**
+   * Restore the sprites of the game screen from a game saved by a
+   * previous version.  Games saved before the sprites were split into
+   * layers are assigned a layer by sprite type.
+   */
   public final void restoreSprites(Bundle map, Vector<Sprite> savedSprites,
                                    int id) {
-    sprites = new Vector<Sprite>();
+    removeAllSprites();
     int numSprites = map.getInt(String.format("%d-numGameSprites", id));
     for (int i = 0; i < numSprites; i++) {
       int spriteIdx = map.getInt(String.format("%d-game-%d", id, i));
-      sprites.addElement(savedSprites.elementAt(spriteIdx));
+      Sprite sprite = savedSprites.elementAt(spriteIdx);
+      String layerKey = String.format("%d-game-layer-%d", id, i);
+      int layer;
+      if (map.containsKey(layerKey)) {
+        layer = map.getInt(layerKey);
+      }
+      else if (sprite.getTypeId() == Sprite.TYPE_BUBBLE) {
+        layer = LAYER_GRID;
+      }
+      else if (sprite.getTypeId() == Sprite.TYPE_LAUNCH_BUBBLE) {
+        layer = LAYER_BACKGROUND;
+      }
+      else {
+        layer = LAYER_HUD;
+      }
+      link(sprite, layer, false);
     }
   }
 
   public GameScreen() {
-    sprites = new Vector<Sprite>();
   }
 
-  public final void addSprite(Sprite sprite) {
-    sprites.removeElement(sprite);
-    sprites.addElement(sprite);
+  /**
+   * Add a sprite in front of the other sprites of a layer.  If the
+   * sprite is already displayed, it is moved.
+   * @param sprite - the sprite to add.
+   * @param layer - the layer to add the sprite to.
+   */
+  public final void addSprite(Sprite sprite, int layer) {
+    link(sprite, layer, false);
+  }
+
+  /**
+   * Obtain the frontmost sprite of a layer.  The other sprites of the
+   * layer follow it through their <code>next</code> links.
+   * @param layer - the layer.
+   * @return The sprite, or <code>null</code> if the layer is empty.
+   */
+  protected final Sprite getFirstSprite(int layer) {
+    return first[layer];
+  }
+
+  protected final float getInterpolation() {
+    return interpolation;
+  }
+
+  /**
+   * Obtain the version of the sprites of a layer, which changes every
+   * time a sprite is added to or removed from the layer.
+   * @param layer - the layer.
+   * @return The layer version.
+   */
+  public final int getLayerVersion(int layer) {
+    return versions[layer];
+  }
+
+  private void link(Sprite sprite, int layer, boolean back) {
+    unlink(sprite);
+    sprite.layer = layer;
+    versions[layer]++;
+    if (back) {
+      sprite.next = first[layer];
+      if (first[layer] != null) {
+        first[layer].prev = sprite;
+      }
+      else {
+        last[layer] = sprite;
+      }
+      first[layer] = sprite;
+    }
+    else {
+      sprite.prev = last[layer];
+      if (last[layer] != null) {
+        last[layer].next = sprite;
+      }
+      else {
+        first[layer] = sprite;
+      }
+      last[layer] = sprite;
+    }
+  }
+
+  private void removeAllSprites() {
+    for (int layer = 0; layer < NUM_LAYERS; layer++) {
+      while (first[layer] != null) {
+        unlink(first[layer]);
+      }
+    }
   }
 
   public final void removeAllBubbleSprites() {
-    int i = 0;
-    while ((sprites.size() > 0) && (i < sprites.size())) {
-      if(((Sprite)sprites.elementAt(i)).getTypeId() == Sprite.TYPE_BUBBLE) {
-        removeSprite((Sprite)sprites.elementAt(i));
+    for (int layer = 0; layer < NUM_LAYERS; layer++) {
+      Sprite sprite = first[layer];
+      while (sprite != null) {
+        Sprite next = sprite.next;
+        if (sprite.getTypeId() == Sprite.TYPE_BUBBLE) {
+          unlink(sprite);
+        }
+        sprite = next;
       }
-      else
-        i++;
     }
   }
 
   public final void removeSprite(Sprite sprite) {
-    sprites.removeElement(sprite);
+    unlink(sprite);
   }
 
-  public final void spriteToBack(Sprite sprite) {
-    sprites.removeElement(sprite);
-    sprites.insertElementAt(sprite,0);
+  /**
+   * Add a sprite behind the other sprites of a layer.  If the sprite is
+   * already displayed, it is moved.
+   * @param sprite - the sprite to add.
+   * @param layer - the layer to add the sprite to.
+   */
+  public final void spriteToBack(Sprite sprite, int layer) {
+    link(sprite, layer, true);
   }
 
-  public final void spriteToFront(Sprite sprite) {
-    sprites.removeElement(sprite);
-    sprites.addElement(sprite);
+  private void unlink(Sprite sprite) {
+    if (sprite.layer < 0) {
+      return;
+    }
+    versions[sprite.layer]++;
+    if (sprite.prev != null) {
+      sprite.prev.next = sprite.next;
+    }
+    else {
+      first[sprite.layer] = sprite.next;
+    }
+    if (sprite.next != null) {
+      sprite.next.prev = sprite.prev;
+    }
+    else {
+      last[sprite.layer] = sprite.prev;
+    }
+    sprite.prev  = null;
+    sprite.next  = null;
+    sprite.layer = -1;
   }
 
   public void paint(Canvas c, double scale, int dx, int dy) {
-    for (int i = 0; i < sprites.size(); i++) {
-      ((Sprite)sprites.elementAt(i)).paint(c, scale, dx, dy);
+    paintLayers(c, scale, dx, dy, 0, NUM_LAYERS);
+  }
+
+  /**
+   * Paint the sprites of a range of layers.
+   * @param from - the first layer to paint.
+   * @param to - the layer after the last layer to paint.
+   */
+  protected final void paintLayers(Canvas c, double scale, int dx, int dy,
+                                   int from, int to) {
+    for (int layer = from; layer < to; layer++) {
+      for (Sprite sprite = first[layer]; sprite != null; sprite = sprite.next) {
+        sprite.paint(c, scale, dx, dy, interpolation);
+      }
     }
   }
 
+  /**
+   * Set the elapsed fraction of the current simulation step, for the
+   * next paint.
+   * @param alpha - the fraction from 0 to 1, or 1 to draw the sprites
+   * at their last simulated positions.
+   */
+  public void setInterpolation(float alpha) {
+    interpolation = alpha;
+  }
+
   public abstract gameEnum play(boolean key_left, boolean key_right,
                                 boolean key_fire, boolean key_swap,
                                 double trackball_dx,
@@ -0,0 +1,265 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A compact binary snapshot of the game state.
+ * <p>A snapshot starts with the <code>MAGIC</code> number and the format
+ * <code>VERSION</code>, followed by the fields of each saved component,
+ * written and read back in the same order.  Numbers are stored big
+ * endian, whatever the device, so a snapshot saved to a file can be
+ * restored by any version of the Android OS.  Sprites are written as
+ * packed records the first time they are referenced, and as their
+ * 16-bit record index afterwards.
+ * <p>A snapshot being written reuses its buffer from one save to the
+ * next, and only grows it when a save does not fit.
+ * @author Eric Fortin
+ */
+public class GameSnapshot {
+  /*
+   * "FBS1" - identifies a snapshot, as opposed to a game saved as a
+   * marshalled <code>Parcel</code> by previous versions.
+   */
+  public static final int MAGIC   = 0x46425331;
+  public static final int VERSION = 1;
+
+  private static final int HEADER_SIZE      = 6;
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private ByteBuffer buffer;
+  private int        version;
+
+  /**
+   * Create an empty snapshot to write the game state to.
+   */
+  public GameSnapshot() {
+    buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    begin();
+  }
+
+  /**
+   * Open a snapshot to read the game state from.
+   * @param data - the snapshot, as obtained from
+   * <code>toByteArray()</code>.
+   * @throws IllegalArgumentException if the data is not a snapshot, or
+   * was written by a newer version of the format.
+   */
+  public GameSnapshot(byte[] data) {
+    if (!isSnapshot(data)) {
+      throw new IllegalArgumentException("Not a game snapshot");
+    }
+    buffer  = ByteBuffer.wrap(data);
+    buffer.getInt();
+    version = buffer.getShort();
+    if (version > VERSION) {
+      throw new IllegalArgumentException("Unsupported snapshot version " +
+                                         version);
+    }
+  }
+
+  /**
+   * Check whether data starts with the snapshot header.
+   * @param data - the data to check.
+   * @return <code>true</code> if the data is a snapshot.
+   */
+  public static boolean isSnapshot(byte[] data) {
+    return (data != null) && (data.length >= HEADER_SIZE) &&
+           (ByteBuffer.wrap(data).getInt() == MAGIC);
+  }
+
+  /**
+   * Discard the written fields to write a new snapshot in the same
+   * buffer.
+   */
+  public void begin() {
+    buffer.clear();
+    buffer.putInt(MAGIC);
+    buffer.putShort((short) VERSION);
+    version = VERSION;
+  }
+
+  /**
+   * Obtain the version of the snapshot format.  A snapshot written by
+   * an older version lacks the fields added since.
+   * @return The snapshot format version.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Obtain the number of bytes written so far, header included.
+   * @return The size of the snapshot.
+   */
+  public int size() {
+    return buffer.position();
+  }
+
+  /**
+   * Copy the written snapshot.
+   * @return The snapshot bytes.
+   */
+  public byte[] toByteArray() {
+    byte[] data = new byte[buffer.position()];
+    System.arraycopy(buffer.array(), 0, data, 0, data.length);
+    return data;
+  }
+
+  /**
+   * Write the snapshot to a stream, without copying it.
+   * @param stream - the stream to write to.
+   * @throws IOException if the stream cannot be written.
+   */
+  public void writeTo(OutputStream stream) throws IOException {
+    stream.write(buffer.array(), 0, buffer.position());
+  }
+
+  private void ensureCapacity(int length) {
+    if (buffer.remaining() < length) {
+      int capacity = buffer.capacity() * 2;
+      while (capacity - buffer.position() < length) {
+        capacity *= 2;
+      }
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      buffer.flip();
+      grown.put(buffer);
+      buffer = grown;
+    }
+  }
+
+  public void putBoolean(boolean value) {
+    putByte(value ? 1 : 0);
+  }
+
+  public void putByte(int value) {
+    ensureCapacity(1);
+    buffer.put((byte) value);
+  }
+
+  public void putShort(int value) {
+    ensureCapacity(2);
+    buffer.putShort((short) value);
+  }
+
+  public void putInt(int value) {
+    ensureCapacity(4);
+    buffer.putInt(value);
+  }
+
+  public void putLong(long value) {
+    ensureCapacity(8);
+    buffer.putLong(value);
+  }
+
+  public void putDouble(double value) {
+    ensureCapacity(8);
+    buffer.putDouble(value);
+  }
+
+  /**
+   * Write a byte array, preceded by its length.
+   * @param value - the bytes to write.
+   */
+  public void putBytes(byte[] value) {
+    putInt(value.length);
+    ensureCapacity(value.length);
+    buffer.put(value);
+  }
+
+  /**
+   * Check whether there are fields left to read.
+   * @return <code>true</code> if the end of the snapshot was not
+   * reached.
+   */
+  public boolean hasRemaining() {
+    return buffer.hasRemaining();
+  }
+
+  public boolean getBoolean() {
+    return buffer.get() != 0;
+  }
+
+  public int getByte() {
+    return buffer.get();
+  }
+
+  public int getShort() {
+    return buffer.getShort();
+  }
+
+  public int getInt() {
+    return buffer.getInt();
+  }
+
+  public long getLong() {
+    return buffer.getLong();
+  }
+
+  public double getDouble() {
+    return buffer.getDouble();
+  }
+
+  /**
+   * Read a byte array written by <code>putBytes()</code>.
+   * @return The bytes read.
+   */
+  public byte[] getBytes() {
+    byte[] value = new byte[buffer.getInt()];
+    buffer.get(value);
+    return value;
+  }
+}
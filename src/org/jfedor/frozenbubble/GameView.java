@@ -77,14 +77,15 @@ package org.jfedor.frozenbubble;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.BufferUnderflowException;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
 
 import org.gsanson.frozenbubble.MalusBar;
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
 import org.jfedor.frozenbubble.GameScreen.eventEnum;
-import org.jfedor.frozenbubble.GameScreen.gameEnum;
 import org.jfedor.frozenbubble.GameScreen.stateEnum;
 import org.jfedor.frozenbubble.GameView.NetGameInterface.NetworkStatus;
 import org.jfedor.frozenbubble.GameView.NetGameInterface.RemoteInterface;
@@ -97,6 +98,7 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.util.AttributeSet;
@@ -568,7 +570,26 @@ public class GameView extends SurfaceView
 
   class GameThread extends Thread {
 
-    private static final int FRAME_DELAY = 40;
+    /*
+     * The game simulation advances in fixed steps of SIM_STEP_MS,
+     * whatever the display rate.  Each drawn frame plays the steps due
+     * since the previous frame, at most MAX_SIM_STEPS of them so that a
+     * slow frame does not lead to ever slower frames, and draws the
+     * moving bubbles between their positions of the last two steps.
+     * Frames are drawn at most every MIN_FRAME_MS, and otherwise as fast
+     * as the display takes them.
+     */
+    private static final int  SIM_STEP_MS   = 40;
+    private static final long SIM_STEP_NS   = SIM_STEP_MS * 1000000L;
+    private static final int  MAX_SIM_STEPS = 5;
+    private static final long MIN_FRAME_NS  = 8000000L;
+
+    /*
+     * A checkpoint of the autosaved game is saved at the start of each
+     * level, and once CHECKPOINT_SHOTS shots were journaled since the
+     * previous one, so that restoring the game replays few records.
+     */
+    private static final int CHECKPOINT_SHOTS = 16;
 
     public static final int    BACK_1P_X                  = 447;
     public static final int    BACK_1P_Y                  = 0;
@@ -585,6 +606,11 @@ public class GameView extends SurfaceView
     public static final double ATS_TOUCH_COEFFICIENT      = 0.2;
     public static final double ATS_TOUCH_FIRE_Y_THRESHOLD = 350;
 
+    /*
+     * Key of the game snapshot in the saved game Bundle.
+     */
+    public static final String SNAPSHOT_KEY = "GameView-snapshot";
+
     private boolean mImagesReady = false;
     private boolean mRun         = false;
     private boolean mShowNetwork = false;
@@ -595,12 +621,32 @@ public class GameView extends SurfaceView
     private int    mDisplayDY;
     private double mDisplayScale;
     private long   mLastTime;
+    private long   mSimTime;
+    private float  mInterpolation = 1f;
     private int    mPlayer1DX;
     private int    mPlayer2DX;
 
     private stateEnum mMode;
     private stateEnum mModeWas;
 
+    /*
+     * Frame timing counters.
+     */
+    private long mNumFrames;
+    private long mNumSimSteps;
+    private long mNumDroppedSteps;
+    private long mFrameTime;
+    private long mMaxFrameTime;
+    private int  mDrawCalls;
+    private int  mMaxDrawCalls;
+
+    /*
+     * The retained images of the static part of each player's game
+     * field.
+     */
+    private PlayfieldLayer mPlayfield1;
+    private PlayfieldLayer mPlayfield2;
+
     private Bitmap mBackButtonOrig;
     private Bitmap mBackgroundOrig;
     private Bitmap[] mBubblesOrig;
@@ -609,7 +655,7 @@ public class GameView extends SurfaceView
     private Bitmap[] mTargetedBubblesOrig;
     private Bitmap mBubbleBlinkOrig;
     private Bitmap mGameWonOrig;
-    private Bitmap mGameLostOrig;
+    private Bitmap mGameLostOrig;
     private Bitmap mGamePausedOrig;
     private Bitmap mHurryOrig;
     private Bitmap mPauseButtonOrig;
@@ -630,7 +676,7 @@ public class GameView extends SurfaceView
     private BmpWrap[] mTargetedBubbles;
     private BmpWrap mBubbleBlink;
     private BmpWrap mGameWon;
-    private BmpWrap mGameLost;
+    private BmpWrap mGameLost;
     private BmpWrap mGamePaused;
     private BmpWrap mHurry;
     private BmpWrap mPauseButton;
@@ -656,6 +702,29 @@ public class GameView extends SurfaceView
 
     private final HighscoreManager mHighScoreManager;
 
+    /*
+     * Reused by every save, so that saving the game only allocates the
+     * snapshot copy handed over to the caller.
+     */
+    private final GameSnapshot mSnapshot = new GameSnapshot();
+
+    /*
+     * The autosave journal, the game it journals, the shot count of the
+     * last journal entry, and the number of records appended since the
+     * last checkpoint.
+     */
+    private SaveJournal  mJournal;
+    private FrozenGame   mJournalGame;
+    private int          mJournalShot;
+    private int          mJournalRecords;
+    private final GameSnapshot mRecord = new GameSnapshot();
+
+    /*
+     * The snapshots to take back the shots of a one player puzzle game,
+     * reused from one game to the next.
+     */
+    private final RewindBuffer mRewind = new RewindBuffer();
+
     Vector<BmpWrap> mImageList;
 
     public GameThread(SurfaceHolder surfaceHolder) {
@@ -843,7 +912,8 @@ public class GameView extends SurfaceView
         mHighScoreManager = null;
       }
 
-      mLevelManager = new LevelManager(0, FrozenBubble.getDifficulty());
+      mLevelManager = new LevelManager(0, FrozenBubble.getDifficulty(),
+                                       FrozenBubble.arcadeGame);
       newGame(false);
     }
 
@@ -1022,7 +1092,8 @@ public class GameView extends SurfaceView
             new HighscoreManager(getContext(),
                                  HighscoreManager.ARCADE_DATABASE_NAME);
         mLevelManager = new LevelManager(System.currentTimeMillis(),
-                                         FrozenBubble.getDifficulty());
+                                         FrozenBubble.getDifficulty(),
+                                         FrozenBubble.arcadeGame);
       }
       else {
         mHighScoreManager =
@@ -1077,6 +1148,15 @@ public class GameView extends SurfaceView
         mBackgroundOrig.recycle();
         mBackgroundOrig = null;
 
+        if (mPlayfield1 != null) {
+          mPlayfield1.recycle();
+          mPlayfield1 = null;
+        }
+        if (mPlayfield2 != null) {
+          mPlayfield2.recycle();
+          mPlayfield2 = null;
+        }
+
         for (int i = 0; i < mBubblesOrig.length; i++) {
           mBubblesOrig[i].recycle();
           mBubblesOrig[i] = null;
@@ -1213,30 +1293,44 @@ public class GameView extends SurfaceView
 
     private void doDraw(Canvas canvas) {
       //Log.i("frozen-bubble", "doDraw()");
-      if (!mImagesReady) {
+      if (!mImagesReady || (mPlayfield1 == null)) {
         //Log.i("frozen-bubble", "!mImagesReady, returning");
         return;
       }
+      int numDraws = Sprite.getNumDraws();
       if ((mDisplayDX > 0) || (mDisplayDY > 0)) {
         //Log.i("frozen-bubble", "Drawing black background.");
         canvas.drawRGB(0, 0, 0);
       }
-      drawBackground(canvas);
+      /*
+       * Paint the static part of both game fields before the sprites
+       * of either, as they are opaque.
+       */
+      drawPlayfield(canvas, mFrozenGame1, mPlayfield1, mPlayer1DX);
+      if (numPlayers > 1) {
+        drawPlayfield(canvas, mFrozenGame2, mPlayfield2, mPlayer2DX);
+      }
       if (mFrozenGame1 != null) {
-        mFrozenGame1.paint(canvas, mDisplayScale, mPlayer1DX, mDisplayDY);
+        mFrozenGame1.paintSprites(canvas, mDisplayScale, mPlayer1DX,
+                                  mDisplayDY);
       }
       if (FrozenBubble.arcadeGame) {
         drawDifficulty(canvas);
       }
       else if (numPlayers > 1) {
         if (mFrozenGame2 != null) {
-          mFrozenGame2.paint(canvas, mDisplayScale, mPlayer2DX, mDisplayDY);
+          mFrozenGame2.paintSprites(canvas, mDisplayScale, mPlayer2DX,
+                                    mDisplayDY);
         }
         drawWinTotals(canvas);
       }
       else {
         drawLevelNumber(canvas);
       }
+      mDrawCalls = Sprite.getNumDraws() - numDraws;
+      if (mDrawCalls > mMaxDrawCalls) {
+        mMaxDrawCalls = mDrawCalls;
+      }
     }
 
     /**
@@ -1547,16 +1641,19 @@ public class GameView extends SurfaceView
       }
     }
 
-    private void drawBackground(Canvas c) {
-      Sprite.drawImage(mBackground, 0, 0, c,
-                       mDisplayScale, mDisplayDX, mDisplayDY);
-      if (numPlayers > 1) {
-        Sprite.drawImage(mBackButton, BACK_2P_X, BACK_2P_Y, c,
-                         mDisplayScale, mDisplayDX, mDisplayDY);
+    /**
+     * Paint the static part of a player's game field, which is its
+     * retained image when it is up to date.
+     */
+    private void drawPlayfield(Canvas canvas, FrozenGame game,
+                               PlayfieldLayer playfield, int dx) {
+      if (game != null) {
+        game.setInterpolation(mInterpolation);
+        game.paintPlayfield(canvas, mDisplayScale, dx, mDisplayDY,
+                            playfield);
       }
       else {
-        Sprite.drawImage(mBackButton, BACK_1P_X, BACK_1P_Y, c,
-                         mDisplayScale, mDisplayDX, mDisplayDY);
+        playfield.paintBackground(canvas);
       }
     }
 
@@ -1913,6 +2010,57 @@ public class GameView extends SurfaceView
       return mLevelManager.getLevelIndex();
     }
 
+    /**
+     * Obtain the duration of the last frame, including the time spent
+     * waiting for the next frame to be due.
+     * @return The frame duration in nanoseconds.
+     */
+    public long getFrameTime() {
+      return mFrameTime;
+    }
+
+    /**
+     * Obtain the number of bitmaps drawn during the last frame.
+     * @return The number of draw calls.
+     */
+    public int getDrawCalls() {
+      return mDrawCalls;
+    }
+
+    /**
+     * Obtain the largest number of bitmaps drawn during a frame since the
+     * counters were reset.
+     * @return The number of draw calls.
+     */
+    public int getMaxDrawCalls() {
+      return mMaxDrawCalls;
+    }
+
+    /**
+     * Obtain the longest frame duration since the counters were reset.
+     * @return The frame duration in nanoseconds.
+     */
+    public long getMaxFrameTime() {
+      return mMaxFrameTime;
+    }
+
+    /**
+     * Obtain the number of simulation steps that were skipped because
+     * the frames took too long to catch up with them.
+     * @return The number of skipped simulation steps.
+     */
+    public long getNumDroppedSteps() {
+      return mNumDroppedSteps;
+    }
+
+    public long getNumFrames() {
+      return mNumFrames;
+    }
+
+    public long getNumSimSteps() {
+      return mNumSimSteps;
+    }
+
     private int getScreenOrientation() {
       return FrozenBubble.getScreenOrientation(((Activity) mContext).
                                                getWindowManager());
@@ -1996,6 +2144,7 @@ public class GameView extends SurfaceView
         }
 
         mImagesReady = false;
+        saveReplay();
         mPlayer1.setGameRef(null);
         mFrozenGame1 = new FrozenGame(mBubbles, mBubblesBlind,
                                       mFrozenBubbles, mTargetedBubbles,
@@ -2008,6 +2157,10 @@ public class GameView extends SurfaceView
                                       mHighScoreManager, mNetworkManager,
                                       mPlayer1);
         mPlayer1.setGameRef(mFrozenGame1);
+        if (numPlayers == 1) {
+          mFrozenGame1.startRecording();
+          mFrozenGame1.setRewindBuffer(mRewind);
+        }
 
         if (numPlayers > 1) {
           mPlayer2.setGameRef(null);
@@ -2085,7 +2238,7 @@ public class GameView extends SurfaceView
       }
       scaleFrom(mBubbleBlink, mBubbleBlinkOrig);
       scaleFrom(mGameWon, mGameWonOrig);
-      scaleFrom(mGameLost, mGameLostOrig);
+      scaleFrom(mGameLost, mGameLostOrig);
       scaleFrom(mGamePaused, mGamePausedOrig);
       scaleFrom(mHurry, mHurryOrig);
       if ((mPauseButton != null) && (mPauseButtonOrig != null)) {
@@ -2120,6 +2273,17 @@ public class GameView extends SurfaceView
      */
     public void restoreState(Bundle map) {
       if (map != null) {
+        byte[] snapshot = map.getByteArray(SNAPSHOT_KEY);
+        if (snapshot != null) {
+          if (restoreSnapshot(snapshot)) {
+            restoreRecords(map.getByteArray(SaveJournal.RECORDS_KEY));
+          }
+          return;
+        }
+        /*
+         * The game was saved by a previous version, which saved every
+         * field under its own key.
+         */
         synchronized(mSurfaceHolder) {
           setState(stateEnum.PAUSED);
           if (mFrozenGame1 != null) {
@@ -2134,7 +2298,9 @@ public class GameView extends SurfaceView
             }
           }
           if (mLevelManager != null) {
-            mLevelManager.restoreState(map);
+            mLevelManager.restoreState(
+                map.getInt("LevelManager-currentLevel"),
+                map.getInt("LevelManager-rowOffset"));
           }
           if (mHighScoreManager != null) {
             mHighScoreManager.restoreState(map);
@@ -2159,14 +2325,32 @@ public class GameView extends SurfaceView
       }
     }
 
+    public void resetFrameCounters() {
+      mNumFrames       = 0;
+      mNumSimSteps     = 0;
+      mNumDroppedSteps = 0;
+      mMaxFrameTime    = 0;
+      mMaxDrawCalls    = 0;
+    }
+
     @Override
     public void run() {
+      mLastTime = System.nanoTime();
       while (mRun) {
-        long now = System.currentTimeMillis();
-        long delay = FRAME_DELAY + mLastTime - now;
-        if (delay > 0) try {
-          sleep(delay);
-        } catch (InterruptedException e) {}
+        long now = System.nanoTime();
+        long delay = MIN_FRAME_NS + mLastTime - now;
+        if (delay > 0) {
+          try {
+            sleep(delay / 1000000L, (int) (delay % 1000000L));
+          } catch (InterruptedException e) {}
+          now = System.nanoTime();
+        }
+        mFrameTime = now - mLastTime;
+        if (mFrameTime > mMaxFrameTime) {
+          mMaxFrameTime = mFrameTime;
+        }
+        mNumFrames++;
+        mSimTime += mFrameTime;
         mLastTime = now;
         Canvas c = null;
         try {
@@ -2175,7 +2359,15 @@ public class GameView extends SurfaceView
             if (c != null) {
               synchronized(mSurfaceHolder) {
                 if (mRun) {
-                  monitorRemotePlayer();
+                  if (mMode != stateEnum.RUNNING) {
+                    /*
+                     * The simulation is stopped, so do not let steps
+                     * accumulate, and draw the last simulated state.
+                     */
+                    mSimTime = 0;
+                    mInterpolation = 1f;
+                    monitorRemotePlayer();
+                  }
                   if (mMode == stateEnum.ABOUT) {
                     drawAboutScreen(c);
                   }
@@ -2208,8 +2400,9 @@ public class GameView extends SurfaceView
                         }
                         mModeWas = stateEnum.RUNNING;
                         resumeGame();
+                        mSimTime = SIM_STEP_NS;
                       }
-                      updateGameState();
+                      stepSimulation();
                     }
                     doDraw(c);
                   }
@@ -2242,31 +2435,260 @@ public class GameView extends SurfaceView
      * @return Bundle with this view's state
      */
     public Bundle saveState(Bundle map) {
+      saveReplay();
+      if (map != null) {
+        map.putInt("numPlayers", (numPlayers > 1) ? 2 : 1);
+        map.putByteArray(SNAPSHOT_KEY, saveSnapshot());
+      }
+      return map;
+    }
+
+    /**
+     * Save the inputs recorded so far in the current game to the replay
+     * file, which is written in the background.
+     * @see Replay
+     */
+    public void saveReplay() {
       synchronized(mSurfaceHolder) {
-        if (map != null) {
-          if (mFrozenGame1 != null) {
-            mFrozenGame1.saveState(map);
+        if ((mFrozenGame1 != null) &&
+            (mFrozenGame1.getReplayLog() != null)) {
+          ReplayLog.save(mFrozenGame1.getReplayLog().toByteArray(),
+                         mContext.getFileStreamPath(ReplayLog.REPLAY_FILE));
+        }
+      }
+    }
+
+    /**
+     * Save the game state to a compact binary snapshot.
+     * @return The snapshot bytes.
+     * @see GameSnapshot
+     */
+    public byte[] saveSnapshot() {
+      synchronized(mSurfaceHolder) {
+        mSnapshot.begin();
+        mSnapshot.putByte(numPlayers);
+        mSnapshot.putBoolean(mFrozenGame1 != null);
+        if (mFrozenGame1 != null) {
+          mFrozenGame1.saveState(mSnapshot);
+        }
+        if (numPlayers > 1) {
+          mSnapshot.putInt(numPlayer1GamesWon);
+          mSnapshot.putInt(numPlayer2GamesWon);
+          mSnapshot.putBoolean(mFrozenGame2 != null);
+          if (mFrozenGame2 != null) {
+            mFrozenGame2.saveState(mSnapshot);
+          }
+        }
+        mSnapshot.putBoolean(mLevelManager != null);
+        if (mLevelManager != null) {
+          mLevelManager.saveState(mSnapshot);
+        }
+        mSnapshot.putBoolean(mHighScoreManager != null);
+        if (mHighScoreManager != null) {
+          mHighScoreManager.saveState(mSnapshot);
+        }
+        return mSnapshot.toByteArray();
+      }
+    }
+
+    /**
+     * Restore the game state from a snapshot obtained from
+     * <code>saveSnapshot()</code>, and pause the restored game.
+     * <p>A snapshot that is not a snapshot of this format version, or
+     * that was saved by a game with another number of players, is
+     * rejected before anything is restored.  A snapshot found to be
+     * truncated or saved in another game mode while it is restored
+     * leaves the games partly restored, so they are replaced with a new
+     * game, played in the mode the view was in.
+     * @param data - the snapshot bytes.
+     * @return <code>true</code> if the game was restored.
+     */
+    public boolean restoreSnapshot(byte[] data) {
+      synchronized(mSurfaceHolder) {
+        GameSnapshot in;
+        try {
+          in = new GameSnapshot(data);
+          if (in.getByte() != numPlayers) {
+            return false;
+          }
+        } catch (IllegalArgumentException iae) {
+          iae.printStackTrace();
+          return false;
+        } catch (BufferUnderflowException bue) {
+          bue.printStackTrace();
+          return false;
+        }
+
+        stateEnum modeWas = mMode;
+        setState(stateEnum.PAUSED);
+        try {
+          if (restoreNext(in, mFrozenGame1)) {
+            mFrozenGame1.restoreState(in, mImageList);
           }
           if (numPlayers > 1) {
-            map.putInt("numPlayers", 2);
-            map.putInt("numPlayer1GamesWon", numPlayer1GamesWon);
-            map.putInt("numPlayer2GamesWon", numPlayer2GamesWon);
-            if (mFrozenGame2 != null) {
-              mFrozenGame2.saveState(map);
+            int gamesWon1 = in.getInt();
+            int gamesWon2 = in.getInt();
+            if (restoreNext(in, mFrozenGame2)) {
+              mFrozenGame2.restoreState(in, mImageList);
+              startOpponent();
             }
+            numPlayer1GamesWon = gamesWon1;
+            numPlayer2GamesWon = gamesWon2;
           }
-          else {
-            map.putInt("numPlayers", 1);
+          if (restoreNext(in, mLevelManager)) {
+            mLevelManager.restoreState(in);
           }
-          if (mLevelManager != null) {
-            mLevelManager.saveState(map);
+          if (restoreNext(in, mHighScoreManager)) {
+            mHighScoreManager.restoreState(in);
           }
-          if (mHighScoreManager != null) {
-            mHighScoreManager.saveState(map);
+          return true;
+        } catch (IllegalArgumentException iae) {
+          iae.printStackTrace();
+        } catch (BufferUnderflowException bue) {
+          /*
+           * The snapshot was truncated.
+           */
+          bue.printStackTrace();
+        }
+
+        /*
+         * Drop the partly restored games, so that their replay is not
+         * saved, and start over.
+         */
+        mFrozenGame1 = null;
+        mFrozenGame2 = null;
+        newGame(false);
+        setState(modeWas);
+        return false;
+      }
+    }
+
+    /*
+     * Replay the autosave journal records of the shots played since the
+     * restored checkpoint.
+     */
+    private void restoreRecords(byte[] data) {
+      if ((data == null) || (mFrozenGame1 == null)) {
+        return;
+      }
+      synchronized(mSurfaceHolder) {
+        try {
+          GameSnapshot in = new GameSnapshot(data);
+          int numRecords = in.getInt();
+          for (int i = 0; i < numRecords; i++) {
+            mFrozenGame1.restoreShot(new GameSnapshot(in.getBytes()));
           }
+        } catch (IllegalArgumentException iae) {
+          iae.printStackTrace();
+        } catch (BufferUnderflowException bue) {
+          bue.printStackTrace();
+        }
+      }
+    }
+
+    /**
+     * Autosave the game to a journal, or stop autosaving it.  Only one
+     * player games are autosaved.
+     * @param journal - the journal, or <code>null</code>.
+     */
+    public void setJournal(SaveJournal journal) {
+      synchronized(mSurfaceHolder) {
+        mJournal     = journal;
+        mJournalGame = null;
+      }
+    }
+
+    /**
+     * Check whether the last shot of the game can be taken back.
+     * @return <code>true</code> if the game is a one player puzzle game
+     * with a shot to take back.
+     */
+    public boolean canRewind() {
+      synchronized(mSurfaceHolder) {
+        return (numPlayers == 1) && (mFrozenGame1 != null) &&
+               mFrozenGame1.canRewind();
+      }
+    }
+
+    /**
+     * Take back the last shot of a one player puzzle game.
+     */
+    public void rewind() {
+      synchronized(mSurfaceHolder) {
+        if ((numPlayers == 1) && (mFrozenGame1 != null) &&
+            mFrozenGame1.rewind()) {
+          /*
+           * The journal records what each shot changed in the grid, so
+           * the rewound grid needs a new checkpoint.
+           */
+          mJournalGame = null;
+        }
+      }
+    }
+
+    /**
+     * Save a checkpoint of the game to the autosave journal, which only
+     * queues it to be written.
+     */
+    public void saveCheckpoint() {
+      synchronized(mSurfaceHolder) {
+        if (mJournal == null) {
+          return;
+        }
+        mJournal.checkpoint(saveSnapshot());
+        /*
+         * Saving the high score manager state paused the level timer.
+         */
+        if ((mHighScoreManager != null) && (mMode == stateEnum.RUNNING)) {
+          mHighScoreManager.resumeLevel();
+        }
+        mJournalGame    = mFrozenGame1;
+        mJournalRecords = 0;
+        if (mFrozenGame1 != null) {
+          mJournalShot = mFrozenGame1.getShotCount();
+          mFrozenGame1.startJournal();
+        }
+      }
+    }
+
+    /*
+     * Journal the last shot once it came to rest, or save a checkpoint
+     * when a new level started or enough shots were journaled.
+     */
+    private void updateJournal() {
+      if ((mJournal == null) || (numPlayers > 1) || (mFrozenGame1 == null)) {
+        return;
+      }
+      if (mFrozenGame1 != mJournalGame) {
+        saveCheckpoint();
+      }
+      else if (mFrozenGame1.getShotCount() != mJournalShot) {
+        if (mJournalRecords >= CHECKPOINT_SHOTS) {
+          saveCheckpoint();
+        }
+        else {
+          mRecord.begin();
+          mFrozenGame1.saveShot(mRecord);
+          mJournal.append(mRecord.toByteArray());
+          mJournalShot = mFrozenGame1.getShotCount();
+          mJournalRecords++;
         }
       }
-      return map;
+    }
+
+    /*
+     * Check whether the next component of a snapshot was saved.  The
+     * fields of a saved component cannot be skipped, so a snapshot
+     * holding a component this game does not have cannot be restored.
+     */
+    private boolean restoreNext(GameSnapshot in, Object component) {
+      if (!in.getBoolean()) {
+        return false;
+      }
+      else if (component == null) {
+        throw new IllegalArgumentException("Snapshot of another game mode");
+      }
+      return true;
     }
 
     private void scaleFrom(BmpWrap image, Bitmap bmp) {
@@ -2399,8 +2821,8 @@ public class GameView extends SurfaceView
 
         mMode = newMode;
       }
-    }
-
+    }
+
     public void setSurfaceOK(boolean ok) {
       synchronized(mSurfaceHolder) {
         mSurfaceOK = ok;
@@ -2450,9 +2872,49 @@ public class GameView extends SurfaceView
         }
         mPlayer2DX = (int)(mDisplayDX + (mDisplayScale * (gameWidth / 2)));
         resizeBitmaps();
+        setPlayfieldBounds(width, height);
       }
     }
 
+    /**
+     * Set the parts of the surface covered by the retained images of the
+     * game fields.  In a multiplayer game, each player's image covers
+     * the half of the background behind its game field.
+     * @param width - the surface width.
+     * @param height - the surface height.
+     */
+    private void setPlayfieldBounds(int width, int height) {
+      if (mPlayfield1 == null) {
+        if (numPlayers > 1) {
+          mPlayfield1 = new PlayfieldLayer(mBackground, mBackButton,
+                                           BACK_2P_X, BACK_2P_Y);
+          mPlayfield2 = new PlayfieldLayer(mBackground, mBackButton,
+                                           BACK_2P_X, BACK_2P_Y);
+        }
+        else {
+          mPlayfield1 = new PlayfieldLayer(mBackground, mBackButton,
+                                           BACK_1P_X, BACK_1P_Y);
+        }
+      }
+      Rect surface = new Rect(0, 0, width, height);
+      Rect area = new Rect(mDisplayDX, mDisplayDY,
+                           mDisplayDX + mBackground.bmp.getWidth(),
+                           mDisplayDY + mBackground.bmp.getHeight());
+      if (numPlayers > 1) {
+        int split = mDisplayDX + (int)(mDisplayScale * GAMEFIELD_WIDTH);
+        Rect area2 = new Rect(split, area.top, area.right, area.bottom);
+        if (!area2.intersect(surface)) {
+          area2.setEmpty();
+        }
+        mPlayfield2.setBounds(area2, mDisplayScale, mDisplayDX, mDisplayDY);
+        area.right = split;
+      }
+      if (!area.intersect(surface)) {
+        area.setEmpty();
+      }
+      mPlayfield1.setBounds(area, mDisplayScale, mDisplayDX, mDisplayDY);
+    }
+
     /**
      * Create a CPU opponent object (if necessary) and start the thread.
      */
@@ -2493,7 +2955,7 @@ public class GameView extends SurfaceView
         if (transmit && (mNetworkManager != null)) {
           mNetworkManager.sendLocalPlayerAction(mLocalInput.playerID,
               false, false, false, keyCode, -1, -1, -1, -1, null,
-              mLocalInput.mGameRef.launchBubblePosition);
+              mLocalInput.mGameRef.getPosition());
         }
         pauseKeyToggle = !pauseKeyToggle;
         mGameThread.pauseButtonPressed(pauseKeyToggle);
@@ -2610,6 +3072,35 @@ public class GameView extends SurfaceView
       return false;
     }
 
+    /**
+     * Play the simulation steps due since the last frame, and compute
+     * how far into the next step the frame is drawn.
+     */
+    private void stepSimulation() {
+      int steps = 0;
+      while ((mSimTime >= SIM_STEP_NS) && (steps < MAX_SIM_STEPS) &&
+             (mMode == stateEnum.RUNNING)) {
+        monitorRemotePlayer();
+        if (mMode == stateEnum.RUNNING) {
+          updateGameState();
+          updateJournal();
+        }
+        mSimTime -= SIM_STEP_NS;
+        steps++;
+      }
+      mNumSimSteps += steps;
+
+      /*
+       * If the frames are too slow to catch up, drop the steps that are
+       * still due, so that the game slows down instead.
+       */
+      if (mSimTime >= SIM_STEP_NS) {
+        mNumDroppedSteps += mSimTime / SIM_STEP_NS;
+        mSimTime %= SIM_STEP_NS;
+      }
+      mInterpolation = (float) mSimTime / SIM_STEP_NS;
+    }
+
     private void updateGameState() {
       if ((mFrozenGame1 == null) ||
           ((numPlayers > 1) &&
@@ -2734,7 +3225,7 @@ public class GameView extends SurfaceView
           }
           else {
             if (mHighScoreManager != null) {
-              mHighScoreManager.endLevel(mFrozenGame1.nbBubbles);
+              mHighScoreManager.endLevel(mFrozenGame1.getNbBubbles());
             }
             mFrozenGame1.setGameResult(gameEnum.WON);
           }
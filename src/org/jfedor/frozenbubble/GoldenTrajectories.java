@@ -0,0 +1,313 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.util.Vector;
+
+/**
+ * Batch tool checking that bubble trajectories are the same on every
+ * virtual machine, against golden trajectory hashes.
+ * <p>Usage:
+ * <pre>
+ * java -cp bin/classes org.jfedor.frozenbubble.GoldenTrajectories
+ *      [-passes N] [-print]
+ * </pre>
+ * <p>A bubble is fired in every launcher direction, from the minimum to
+ * the maximum direction by <code>LAUNCH_DIRECTION_STEP</code>, at the
+ * start of a fixed puzzle level and of a fixed arcade level.  Every
+ * frame, until all the bubbles in play have stopped moving, the fixed
+ * point positions of the launched bubble and of the jumping and falling
+ * bubbles are hashed, along with the final grid hash and the number of
+ * frames.  The hashes are compared with the golden hashes below, which
+ * must match on every Java virtual machine and Android runtime.
+ * <p>All the shots are repeated for the given number of passes, so that
+ * the interpreted code and the code of each JIT compiler tier are all
+ * checked.  Run it under <code>-Xint</code> too.  The process exits
+ * with a non-zero status on any mismatch.
+ * <p>Use <code>-print</code> to print the hashes of this virtual
+ * machine as a golden table, when the game physics change on purpose.
+ * @author Eric Fortin
+ */
+public class GoldenTrajectories {
+
+  /* Default number of passes over all the shots */
+  public static final int DEFAULT_PASSES = 200;
+
+  /* Random seed of the levels and of the games */
+  private static final long SEED = 1;
+
+  /* Number of frames after which a shot is considered stuck */
+  private static final int MAX_FRAMES = 2000;
+
+  private static final int NUM_DIRECTIONS =
+      (int) ((FrozenCore.MAX_LAUNCH_DIRECTION -
+              FrozenCore.MIN_LAUNCH_DIRECTION) /
+             FrozenCore.LAUNCH_DIRECTION_STEP) + 1;
+
+  /*
+   * The trajectory hashes of every direction, in a puzzle game then in
+   * an arcade game.
+   */
+  private static final long[] GOLDEN = {
+    0x361f57039679d76eL, 0x63dd8f1c35cb2decL, 0x957185ea4f22e35bL,
+    0x5e157826dc05d6ccL, 0x8c87b20ea602bf50L, 0xd0d507a3186354fdL,
+    0x595725332f38d5dcL, 0xf7735cfef5816fcaL, 0x4510aefd4a1ccc28L,
+    0xc9f5052fa54a9038L, 0xa4a6985d4fc8f8a6L, 0x184804297f16368bL,
+    0x2ae479fbef08767aL, 0xe6861d507245a9d7L, 0x77b6542f75fa6280L,
+    0xeb49de0160fd8fa4L, 0xc3d8bd9ee0eedde8L, 0x2a34135cb18fdbeaL,
+    0x45734117bcdcd6cfL, 0xdee4e2411a3b386fL, 0x435ce84c60656aacL,
+    0xf5d169f349905af2L, 0x8f6f58b1765067b8L, 0xda3e38718cd449b5L,
+    0x002d8478a3ec98dbL, 0x12f14b0e43ee1a88L, 0x2175f288ed276b3aL,
+    0x05df504af6cc57d7L, 0x50d4ea16fadb68ceL, 0xa25e42c78ffd6b88L,
+    0x2941b06678f3a32bL, 0xd439b5b760d2f482L, 0x8798310ebf17cafaL,
+    0x9b0b965cf435bbb1L, 0x451787a2f4672554L, 0x25436ece4048722dL,
+    0xe902fb8d6695d6fdL, 0x5e93ea5074e17983L, 0xbac1df642df59772L,
+    0x1441945a7c542b27L, 0xffda2d6dfbf26938L, 0x3c508f264f65ab26L,
+    0x4add3ed1898f3ab2L, 0x9ba2384dc53b2732L, 0x3cc07552e2f5e261L,
+    0x3bc4a4711a998c87L, 0xc61d9019fc743dbfL, 0xbb051f5e3bbef7e4L,
+    0x9b811ea866280871L, 0x0e8b223f7e0ce00dL, 0x12b98e53363d35d3L,
+    0xa76762c4ae13b998L, 0xaa0c1319670f8f02L, 0x7b0bfe7495d03c2bL,
+    0xc73dfe1a3e8e4fdfL, 0xa8ffb687d89b1f42L, 0xe0a625598ba3b97eL,
+    0x4caf476230c85f84L, 0x93669859b110ec99L, 0xb01a3d4f44ffdbccL,
+    0xa5b815cb23a64bdcL, 0x897cae08b50a26b8L, 0x22f0758f0bf2c2c6L,
+    0x15db02861d9ea223L, 0x4464ce78549891cbL, 0x3535f6396fd0a918L,
+    0x6cf40bd0d6e04ef6L, 0x8a228f964ad17574L, 0xf8325d4feed92d82L,
+    0x1a651694c15bdc42L, 0x128728b9a055302eL, 0x6f408184db54ece1L,
+    0x83ed3d902008b165L, 0x39b0e591d51d5ae5L, 0xdd5eb0c95d4917a8L,
+    0xc183d626b752c5baL, 0xf639640a9c06e70fL, 0xc2802f495a92de08L,
+    0x0647016fbf1ed16dL, 0xf32a38985480ebbcL, 0x54557810ed75659cL,
+    0xb1c606467e4f2280L, 0x4ed1bd1c163e8bccL, 0x595725332f38d5dcL,
+    0xbb8d117ebd0b798eL, 0x8eb90508e2393586L, 0xb78aaa276f92bae0L,
+    0x44fad49049ab24faL, 0x615c35b7b201f1a7L, 0x7305fb35d47abc2eL,
+    0xf716a4448898dad9L, 0x7dda0f0da3c0cf1dL, 0x22f6560f91ead526L,
+    0xd561b8ddde4d7287L, 0x2a34135cb18fdbeaL, 0x45734117bcdcd6cfL,
+    0xdee4e2411a3b386fL, 0x435ce84c60656aacL, 0xf5d169f349905af2L,
+    0x098bfb19b89a1ab1L, 0x7f18e5941d098897L, 0x002d8478a3ec98dbL,
+    0x12f14b0e43ee1a88L, 0x7728aa1f9eb34ff2L, 0x05df504af6cc57d7L,
+    0x50d4ea16fadb68ceL, 0xa25e42c78ffd6b88L, 0x2941b06678f3a32bL,
+    0xd439b5b760d2f482L, 0x8798310ebf17cafaL, 0x9b0b965cf435bbb1L,
+    0x451787a2f4672554L, 0x25436ece4048722dL, 0xe902fb8d6695d6fdL,
+    0x5e93ea5074e17983L, 0xbac1df642df59772L, 0x1441945a7c542b27L,
+    0x63e2063df76c041dL, 0xfe0f20b01f3f821bL, 0xbfea2c810c72891fL,
+    0x9816b34c8cd6599fL, 0x37396855f4edc97cL, 0x05b135597f3638baL,
+    0x289c67232a87fdf2L, 0x12a67393731802e5L, 0x866efafd1f567ea0L,
+    0xc7fbbf945f53af54L, 0xbc859b3ef0d8219eL, 0x796c164cb30b98abL,
+    0x5cb760997c3963d9L, 0x7d0feb8593d6ffcaL, 0x0b5540684f2341e2L,
+    0x6aa638abe3156bcdL, 0x4c28a3bd77d7b02dL, 0xa08054ad6cc043b3L,
+    0x93669859b110ec99L, 0xb01a3d4f44ffdbccL, 0xa5b815cb23a64bdcL,
+    0x2fa00749eef4ad53L, 0xe2ba99ed82d8ccbaL, 0x15db02861d9ea223L,
+    0x129c673016525dcbL, 0x3535f6396fd0a918L, 0x6cf40bd0d6e04ef6L,
+    0x05f04fed886ad9e1L, 0xff97d94030e54d8fL, 0x1a7acaa42b518a22L,
+    0xde048970bb10c3ecL, 0xbb2b82eb1eac1f09L, 0xcccfd69c87958f7bL,
+    0x7611a95058e38523L, 0xae79483bb4fc9a94L, 0x4e1e79eaff5bf5c8L,
+    0xccc9e34eb06ac2f6L
+  };
+
+  private final long[] hashes = new long[2 * NUM_DIRECTIONS];
+
+  private int passes;
+  private int mismatches;
+
+  /**
+   * Fire a bubble at the start of a level, and hash its trajectory and
+   * the trajectories of the bubbles it releases.
+   * @param arcade - <code>true</code> to play an arcade game.
+   * @param direction - the launch direction.
+   * @return The trajectory hash.
+   */
+  private static long shoot(boolean arcade, double direction) {
+    LevelManager levels = new LevelManager(SEED, LevelManager.NORMAL,
+                                           arcade);
+    FrozenCore   core   = new FrozenCore(levels.getCurrentLevel(), levels,
+                                         null, LevelManager.NORMAL, arcade,
+                                         false, false, SEED, null);
+    long         hash   = 0xcbf29ce484222325L;
+    int          frames = 0;
+
+    core.setPosition(direction);
+    core.play(false, false, false, 0.);
+    core.play(true, false, false, 0.);
+    while ((frames < MAX_FRAMES) && !settled(core)) {
+      Bubble moving = core.getMovingBubble();
+
+      if (moving != null) {
+        hash = mix(mix(hash, moving.realX), moving.realY);
+      }
+      hash = mix(hash, core.getJumping());
+      hash = mix(hash, core.getFalling());
+      core.play(false, false, false, 0.);
+      frames++;
+    }
+
+    hash = mix(hash, (int) core.getGridHash());
+    hash = mix(hash, (int) (core.getGridHash() >>> 32));
+    return mix(hash, frames);
+  }
+
+  private static boolean settled(FrozenCore core) {
+    return (core.getMovingBubble() == null) &&
+           (core.getJumping().size() == 0) &&
+           (core.getFalling().size() == 0) &&
+           (core.getGoingUp().size() == 0);
+  }
+
+  private static long mix(long hash, Vector<Bubble> bubbles) {
+    for (int i = 0; i < bubbles.size(); i++) {
+      Bubble bubble = bubbles.elementAt(i);
+      hash = mix(mix(hash, bubble.realX), bubble.realY);
+    }
+    return hash;
+  }
+
+  /**
+   * Mix a value into a 64-bit FNV-1a hash.
+   */
+  private static long mix(long hash, int value) {
+    for (int i = 0; i < 4; i++) {
+      hash ^= (value >>> (i * 8)) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Hash the trajectories of all the shots, and compare them with the
+   * golden hashes.
+   */
+  public void check() {
+    for (int mode = 0; mode < 2; mode++) {
+      for (int i = 0; i < NUM_DIRECTIONS; i++) {
+        double direction = FrozenCore.MIN_LAUNCH_DIRECTION +
+                           i * FrozenCore.LAUNCH_DIRECTION_STEP;
+        int    shot      = mode * NUM_DIRECTIONS + i;
+
+        hashes[shot] = shoot(mode == 1, direction);
+        if ((shot >= GOLDEN.length) || (hashes[shot] != GOLDEN[shot])) {
+          if (mismatches == 0) {
+            System.out.println(String.format(
+                "  first mismatch: pass %d, %s game, direction %.1f",
+                passes, (mode == 1) ? "arcade" : "puzzle", direction));
+          }
+          mismatches++;
+        }
+      }
+    }
+    passes++;
+  }
+
+  /**
+   * Get the number of shots whose trajectory hash did not match.
+   * @return The number of mismatching shots over all the passes.
+   */
+  public int getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Print the trajectory hashes of the last pass as a golden table.
+   */
+  public void printGolden() {
+    System.out.println("  private static final long[] GOLDEN = {");
+    for (int i = 0; i < hashes.length; i += 3) {
+      StringBuilder line = new StringBuilder("   ");
+      for (int j = i; j < Math.min(i + 3, hashes.length); j++) {
+        line.append(String.format(" 0x%016xL", hashes[j]));
+        if (j < hashes.length - 1) {
+          line.append(',');
+        }
+      }
+      System.out.println(line);
+    }
+    System.out.println("  };");
+  }
+
+  /**
+   * Print the check results.
+   */
+  public void printReport() {
+    System.out.println(String.format("%d passes of %d shots: " +
+                                     "%d mismatches", passes, hashes.length,
+                                     mismatches));
+  }
+
+  public static void main(String[] args) {
+    int     passes = DEFAULT_PASSES;
+    boolean print  = false;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-passes")) {
+        passes = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-print")) {
+        print = true;
+      }
+      else {
+        System.err.println("usage: GoldenTrajectories [-passes N] " +
+                           "[-print]");
+        System.exit(1);
+      }
+    }
+
+    GoldenTrajectories golden = new GoldenTrajectories();
+    for (int i = 0; i < passes; i++) {
+      golden.check();
+    }
+    if (print) {
+      golden.printGolden();
+    }
+    golden.printReport();
+    if (golden.getMismatches() != 0) {
+      System.exit(1);
+    }
+  }
+}
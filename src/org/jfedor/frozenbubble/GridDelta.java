@@ -0,0 +1,176 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+/**
+ * The changes to the bubble grid and to the scrolling row from one
+ * autosave journal record to the next.
+ * <p>The cells are compared with a copy of their contents taken when
+ * the previous record was written.  A record lists the cells whose
+ * bubble changed color or position, with the color and absolute
+ * position of the new bubble, or -1 for an emptied cell.  Positions are
+ * compared relative to the grid offset, so that scrolling or
+ * compressing the grid only changes the grid offset, which every
+ * record holds relative to the offset of the checkpoint.  A restored
+ * grid starts over from a zero offset.
+ * @author Eric Fortin
+ */
+final class GridDelta {
+  /*
+   * The cells of the grid, row by row, followed by the cells of the
+   * scrolling row.
+   */
+  static final int NUM_CELLS =
+      (LevelManager.NUM_ROWS + 1) * LevelManager.NUM_COLS;
+
+  private final byte[]  color = new byte[NUM_CELLS];
+  private final short[] x     = new short[NUM_CELLS];
+  private final short[] y     = new short[NUM_CELLS];
+  private int baseOffset;
+
+  private static Bubble getBubble(FrozenCore core, int cell) {
+    int column = cell % LevelManager.NUM_COLS;
+    int row    = cell / LevelManager.NUM_COLS;
+
+    if (row < LevelManager.NUM_ROWS) {
+      return core.bubblePlay[column][row];
+    }
+    return core.scrolling[column];
+  }
+
+  private boolean changed(int cell, Bubble bubble) {
+    if (bubble == null) {
+      return color[cell] != -1;
+    }
+    return (color[cell] != bubble.color) || (x[cell] != bubble.x) ||
+           (y[cell] != bubble.y);
+  }
+
+  private void copy(int cell, Bubble bubble) {
+    if (bubble == null) {
+      color[cell] = -1;
+    }
+    else {
+      color[cell] = (byte) bubble.color;
+      x[cell]     = (short) bubble.x;
+      y[cell]     = (short) bubble.y;
+    }
+  }
+
+  /**
+   * Take the grid as the reference for the next record, when a
+   * checkpoint of the game is saved or restored.
+   * @param core - the game.
+   */
+  void reset(FrozenCore core) {
+    baseOffset = core.gridOffset;
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      copy(cell, getBubble(core, cell));
+    }
+  }
+
+  /**
+   * Write the changes to the grid since the previous record, and take
+   * the grid as the reference for the next one.
+   * @param core - the game.
+   * @param out - the record to write to.
+   */
+  void save(FrozenCore core, GameSnapshot out) {
+    int numChanges = 0;
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      if (changed(cell, getBubble(core, cell))) {
+        numChanges++;
+      }
+    }
+    out.putShort(core.gridOffset - baseOffset);
+    out.putByte(numChanges);
+    for (int cell = 0; cell < NUM_CELLS; cell++) {
+      Bubble bubble = getBubble(core, cell);
+      if (changed(cell, bubble)) {
+        out.putByte(cell);
+        if (bubble == null) {
+          out.putByte(-1);
+        }
+        else {
+          out.putByte(bubble.color);
+          out.putShort(bubble.x);
+          out.putShort(bubble.getY());
+        }
+        copy(cell, bubble);
+      }
+    }
+  }
+
+  /**
+   * Apply the changes of a record to a game restored from the
+   * checkpoint the record follows.
+   * @param core - the game.
+   * @param in - the record to read from.
+   */
+  void restore(FrozenCore core, GameSnapshot in) {
+    core.setGridOffset(baseOffset + in.getShort());
+    int numChanges = in.getByte();
+    for (int i = 0; i < numChanges; i++) {
+      int cell      = in.getByte();
+      int cellColor = in.getByte();
+      if (cellColor == -1) {
+        core.replaceCell(cell, -1, 0, 0);
+      }
+      else {
+        int cellX = in.getShort();
+        int cellY = in.getShort();
+        core.replaceCell(cell, cellColor, cellX, cellY);
+      }
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import org.gsanson.frozenbubble.ZobristHash;
+
+/**
+ * Debug checker of the bubble accounting of a game simulation core.
+ * <p>The core keeps its per-color bubble counts and its grid hash up to
+ * date as bubbles are placed in and taken from the grid, rather than
+ * recounting the grid.  When a checker is attached to the core, the
+ * whole grid is scanned after every such mutation, and the first
+ * mutation after which the counts, the hash or the bubble lists no
+ * longer match the grid is recorded, so that the code responsible for
+ * the divergence can be identified.  The falling, jumping and rising
+ * bubbles are only checked at the end of a frame, since a bubble is
+ * briefly both in the grid and in one of these lists as it moves from
+ * one to the other.  This is much slower than playing
+ * without a checker, and is meant for debugging only.
+ * @author Eric Fortin
+ */
+public class GridInvariantChecker {
+  /*
+   * Grid mutations reported by the game simulation core.
+   */
+  public static final int MUTATION_PLACE      = 0;
+  public static final int MUTATION_TAKE       = 1;
+  public static final int MUTATION_NEW_ROW    = 2;
+  public static final int MUTATION_SHIFT_ROWS = 3;
+  public static final int MUTATION_SET_GRID   = 4;
+  public static final int MUTATION_RESTORE    = 5;
+  public static final int MUTATION_FRAME      = 6;
+
+  private static final String[] MUTATION_NAMES = {
+    "place", "take", "new row", "shift rows", "set grid", "restore",
+    "end of frame"
+  };
+
+  private final int[] gridCounts = new int[BubbleManager.NUM_COLORS];
+  private int    numChecks;
+  private int    numFailures;
+  private String failure;
+
+  /**
+   * Check the bubble accounting of a game after a grid mutation.
+   * @param core - the game simulation core.
+   * @param mutation - the mutation, e.g. <code>MUTATION_PLACE</code>.
+   * @param position - the grid location affected by the mutation, as
+   * <code>x + y * NUM_COLS</code>, or -1 if not applicable.
+   * @param color - the color of the bubble placed or taken, or -1 if not
+   * applicable.
+   * @return <code>true</code> if the accounting is consistent.
+   */
+  public boolean check(FrozenCore core, int mutation, int position,
+                       int color) {
+    numChecks++;
+    String error = findError(core, mutation == MUTATION_FRAME);
+
+    if (error == null) {
+      return true;
+    }
+
+    numFailures++;
+    if (failure == null) {
+      StringBuilder description = new StringBuilder();
+      description.append("tick ").append(core.getTick()).append(": ");
+      description.append(MUTATION_NAMES[mutation]);
+      if (position != -1) {
+        description.append(" at (")
+                   .append(position % LevelManager.NUM_COLS).append(", ")
+                   .append(position / LevelManager.NUM_COLS).append(")");
+      }
+      if (color != -1) {
+        description.append(" color ").append(color);
+      }
+      description.append(": ").append(error);
+      failure = description.toString();
+    }
+
+    return false;
+  }
+
+  /**
+   * Scan the game for an accounting error.
+   * @param checkLists - <code>true</code> to also check that no bubble
+   * in motion is still in the grid.
+   * @return A description of the first error found, or
+   * <code>null</code> if there is none.
+   */
+  private String findError(FrozenCore core, boolean checkLists) {
+    Bubble[][] grid = core.bubblePlay;
+    int total = 0;
+
+    Arrays.fill(gridCounts, 0);
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        if (grid[i][j] != null) {
+          gridCounts[grid[i][j].color]++;
+          total++;
+        }
+      }
+      if (core.scrolling[i] != null) {
+        gridCounts[core.scrolling[i].color]++;
+        total++;
+      }
+    }
+
+    BubbleManager manager = core.bubbleManager;
+
+    if ((manager.countBubbles() != total) ||
+        !Arrays.equals(manager.countBubbles, gridCounts)) {
+      return "bubble manager counts " + manager.countBubbles() + " " +
+             Arrays.toString(manager.countBubbles) + ", grid counts " +
+             total + " " + Arrays.toString(gridCounts);
+    }
+
+    if (core.gridHash != ZobristHash.hash(grid)) {
+      return "grid hash mismatch";
+    }
+
+    if (!checkLists) {
+      return null;
+    }
+
+    String listName = findInGrid(grid, core.falling, "falling");
+    if (listName == null) {
+      listName = findInGrid(grid, core.jumping, "jumping");
+    }
+    if (listName == null) {
+      listName = findInGrid(grid, core.goingUp, "going up");
+    }
+    if (listName != null) {
+      return "a " + listName + " bubble is still in the grid";
+    }
+
+    return null;
+  }
+
+  private static String findInGrid(Bubble[][] grid, Vector<Bubble> bubbles,
+                                   String listName) {
+    for (int n = 0; n < bubbles.size(); n++) {
+      Bubble bubble = bubbles.elementAt(n);
+
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+          if (grid[i][j] == bubble) {
+            return listName;
+          }
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Obtain the description of the first mutation after which the
+   * accounting became inconsistent.
+   * @return The description, or <code>null</code> if the accounting has
+   * always been consistent.
+   */
+  public String getFailure() {
+    return failure;
+  }
+
+  public int getNumChecks() {
+    return numChecks;
+  }
+
+  public int getNumFailures() {
+    return numFailures;
+  }
+}
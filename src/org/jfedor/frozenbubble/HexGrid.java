@@ -0,0 +1,175 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+package org.jfedor.frozenbubble;
+
+/**
+ * Precomputed neighbor tables of the hexagonal bubble grid.
+ * <p>A grid location is identified by its cell index,
+ * <code>x + y * NUM_COLS</code>.  Every other row is shifted half a
+ * bubble to the left, and which rows are shifted depends on the row
+ * offset of the game field: in an arcade game, the row offset flips
+ * each time a new row scrolls in.  A row <code>y</code> is shifted
+ * when <code>(y + rowOffset) % 2</code> is 1.
+ * <p>The neighbors of every cell are listed for both row offsets in
+ * one flat array, <code>MAX_NEIGHBORS</code> entries per cell, so that
+ * the game engine, the flood fills and the computer opponents all
+ * share the same adjacency rules without recomputing them.  The
+ * neighbors of a cell are enumerated as follows:
+ * <pre>
+ *   int table = HexGrid.tableIndex(cell, rowOffset);
+ *   int first = table * HexGrid.MAX_NEIGHBORS;
+ *   int last  = first + HexGrid.NUM_NEIGHBORS[table];
+ *   for (int i = first; i < last; i++) {
+ *     int neighbor = HexGrid.NEIGHBORS[i];
+ *   }
+ * </pre>
+ * @author Eric Fortin
+ */
+public final class HexGrid {
+  /*
+   * A bubble has at most six neighbors on the hexagonal grid.
+   */
+  public static final int MAX_NEIGHBORS = 6;
+  public static final int NUM_CELLS     = LevelManager.NUM_COLS *
+                                          LevelManager.NUM_ROWS;
+
+  /**
+   * The neighbor cell indices of each cell, for row offsets 0 and 1.
+   * The neighbors of a cell are listed left and right first, then
+   * above, then below.  Do not modify.
+   */
+  public static final int[] NEIGHBORS =
+      new int[2 * NUM_CELLS * MAX_NEIGHBORS];
+
+  /**
+   * The number of neighbors of each cell, for row offsets 0 and 1.
+   * Do not modify.
+   */
+  public static final int[] NUM_NEIGHBORS = new int[2 * NUM_CELLS];
+
+  static {
+    for (int rowOffset = 0; rowOffset < 2; rowOffset++) {
+      for (int cell = 0; cell < NUM_CELLS; cell++) {
+        int table = tableIndex(cell, rowOffset);
+        int next  = table * MAX_NEIGHBORS;
+        int x     = cell % LevelManager.NUM_COLS;
+        int y     = cell / LevelManager.NUM_COLS;
+        /*
+         * The column of the other adjacent bubble in the rows above and
+         * below: a shifted row is adjacent to columns x - 1 and x, an
+         * unshifted row to columns x and x + 1.
+         */
+        int side  = (((y + rowOffset) % 2) == 0) ? x + 1 : x - 1;
+
+        if (side > x) {
+          if (x > 0) {
+            NEIGHBORS[next++] = cellIndex(x - 1, y);
+          }
+          if (x < (LevelManager.NUM_COLS - 1)) {
+            NEIGHBORS[next++] = cellIndex(x + 1, y);
+          }
+        }
+        else {
+          if (x < (LevelManager.NUM_COLS - 1)) {
+            NEIGHBORS[next++] = cellIndex(x + 1, y);
+          }
+          if (x > 0) {
+            NEIGHBORS[next++] = cellIndex(x - 1, y);
+          }
+        }
+
+        boolean hasSide = (side >= 0) && (side < LevelManager.NUM_COLS);
+
+        if (y > 0) {
+          NEIGHBORS[next++] = cellIndex(x, y - 1);
+          if (hasSide) {
+            NEIGHBORS[next++] = cellIndex(side, y - 1);
+          }
+        }
+        if (y < (LevelManager.NUM_ROWS - 1)) {
+          NEIGHBORS[next++] = cellIndex(x, y + 1);
+          if (hasSide) {
+            NEIGHBORS[next++] = cellIndex(side, y + 1);
+          }
+        }
+
+        NUM_NEIGHBORS[table] = next - table * MAX_NEIGHBORS;
+      }
+    }
+  }
+
+  private HexGrid() {
+  }
+
+  /**
+   * Obtain the cell index of a grid location.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @return The cell index, <code>x + y * NUM_COLS</code>.
+   */
+  public static int cellIndex(int x, int y) {
+    return x + y * LevelManager.NUM_COLS;
+  }
+
+  /**
+   * Obtain the index of a cell in the <code>NUM_NEIGHBORS</code> table.
+   * The neighbors of the cell start at index
+   * <code>tableIndex * MAX_NEIGHBORS</code> of the
+   * <code>NEIGHBORS</code> table.
+   * @param cell - the cell index, <code>x + y * NUM_COLS</code>.
+   * @param rowOffset - the row offset of the game field.
+   * @return The table index of the cell.
+   */
+  public static int tableIndex(int cell, int rowOffset) {
+    return (rowOffset & 1) * NUM_CELLS + cell;
+  }
+}
@@ -52,12 +52,8 @@
 
 package org.jfedor.frozenbubble;
 
-import java.util.Vector;
-
 import android.graphics.Canvas;
-import android.graphics.Point;
 import android.graphics.Rect;
-import android.os.Bundle;
 
 public class ImageSprite extends Sprite {
   private BmpWrap displayedImage;
@@ -67,13 +63,9 @@ public class ImageSprite extends Sprite {
     this.displayedImage = img;
   }
 
-  public void saveState(Bundle map, Vector<Sprite> savedSprites, int id) {
-    if (getSavedId() != -1) {
-      return;
-    }
-    super.saveState(map, savedSprites, id);
-    map.putInt(String.format("%d-%d-imageId", id, getSavedId()),
-               displayedImage.id);
+  protected void saveRecord(GameSnapshot out) {
+    super.saveRecord(out);
+    out.putShort(displayedImage.id);
   }
 
   public int getTypeId() {
@@ -85,7 +77,7 @@ public class ImageSprite extends Sprite {
   }
 
   public final void paint(Canvas c, double scale, int dx, int dy) {
-    Point p = super.getSpritePosition();
-    drawImage(displayedImage, p.x, p.y, c, scale, dx, dy);
+    Rect r = super.getSpriteArea();
+    drawImage(displayedImage, r.left, r.top, c, scale, dx, dy);
   }
 }
@@ -52,12 +52,9 @@
 
 package org.jfedor.frozenbubble;
 
-import java.util.Vector;
-
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.os.Bundle;
 
 public class LaunchBubbleSprite extends Sprite {
   private int currentColor;
@@ -79,15 +76,10 @@ public class LaunchBubbleSprite extends Sprite {
     this.colorblindBubbles = colorblindBubbles;
   }
 
-  public void saveState(Bundle map, Vector<Sprite> saved_sprites, int id) {
-    if (getSavedId() != -1) {
-      return;
-    }
-    super.saveState(map, saved_sprites, id);
-    map.putInt(String.format("%d-%d-currentColor", id, getSavedId()),
-               currentColor);
-    map.putDouble(String.format("%d-%d-currentDirection", id, getSavedId()),
-                  currentDirection);
+  protected void saveRecord(GameSnapshot out) {
+    super.saveRecord(out);
+    out.putByte(currentColor);
+    out.putDouble(currentDirection);
   }
 
   public int getTypeId() {
@@ -122,6 +114,7 @@ public class LaunchBubbleSprite extends Sprite {
                        (int)((xCenter + 50) * scale + dx),
                        (int)((yCenter + 50) * scale + dy));
     launcher.draw(c);
+    numDraws++;
     c.restore();
   }
 }
@@ -55,9 +55,7 @@ package org.jfedor.frozenbubble;
 import java.util.Random;
 import java.util.Vector;
 
-import android.os.Bundle;
-
-public class LevelManager {
+public class LevelManager implements FrozenCore.RowSource {
 
   /*
    * Level row and column definitions.
@@ -89,20 +87,40 @@ public class LevelManager {
     "insane"
   };
 
+  private boolean arcade;
   private boolean randomMode;
   private long randomSeed;
   private int  currentLevel;
   private int  rowOffset;
   private Vector<byte[][]> levelList;
 
-  public void saveState(Bundle map) {
-    map.putInt("LevelManager-currentLevel", currentLevel);
-    map.putInt("LevelManager-rowOffset", rowOffset);
+  /*
+   * Reused by getNewRow() so that scrolling rows in does not allocate.
+   */
+  private final byte[] newRow    = new byte[NUM_COLS];
+  private final Random rowRandom = new Random();
+
+  public void restoreState(int currentLevel, int rowOffset) {
+    this.currentLevel = currentLevel;
+    this.rowOffset = rowOffset;
+  }
+
+  public void saveState(GameSnapshot out) {
+    out.putInt(currentLevel);
+    out.putInt(rowOffset);
   }
 
-  public void restoreState(Bundle map) {
-    currentLevel = map.getInt("LevelManager-currentLevel");
-    rowOffset = map.getInt("LevelManager-rowOffset");
+  /**
+   * Restore the level state from a snapshot.  Both fields are read
+   * before either is set, so a truncated snapshot leaves the state as
+   * is.
+   * @param in - the snapshot to read the level state from.
+   */
+  public void restoreState(GameSnapshot in) {
+    int level  = in.getInt();
+    int offset = in.getInt();
+    currentLevel = level;
+    rowOffset    = offset;
   }
 
   /**
@@ -112,12 +130,15 @@ public class LevelManager {
    * generate.  Higher numbers make the level more difficult to play.
    * Use the static difficulty values defined in this class to set the
    * level difficulty, e.g. <code>EASY</code>, <code>HARD</code>, etc.
+   * @param arcade - <code>true</code> if the levels are played in an
+   * arcade game, whose rows alternate their parity as they scroll in.
    */
-  public LevelManager(long seed, int difficulty) {
+  public LevelManager(long seed, int difficulty, boolean arcade) {
+    this.arcade  = arcade;
     randomMode   = true;
     randomSeed   = seed;
     currentLevel = difficulty;
-    if (FrozenBubble.arcadeGame) {
+    if (arcade) {
       rowOffset = 1;
     }
     else {
@@ -132,12 +153,30 @@ public class LevelManager {
     levelList.addElement(getLevel(null));
   }
 
+  /**
+   * Constructor used to replay a recorded game, which only provides the
+   * rows generated after the recorded level.
+   * @param seed - the random bubble generation seed of the next row.
+   * @param difficulty - the number of different bubble colors.
+   * @param rowOffset - the row parity offset of the next row.
+   * @param arcade - <code>true</code> if the game is an arcade game.
+   */
+  LevelManager(long seed, int difficulty, int rowOffset, boolean arcade) {
+    this.arcade       = arcade;
+    this.randomMode   = true;
+    this.randomSeed   = seed;
+    this.currentLevel = difficulty;
+    this.rowOffset    = rowOffset;
+    this.levelList    = new Vector<byte[][]>();
+  }
+
   /**
    * Constructor used to parse levels provided via a formatted array.
    * @param levels - the byte array containing the level information.
    * @param startingLevel - the current level starting index.
    */
   public LevelManager(byte[] levels, int startingLevel) {
+    arcade = false;
     randomMode = false;
     randomSeed = 0;
     String allLevels = new String(levels);
@@ -212,7 +251,7 @@ public class LevelManager {
         for (int i = 0; i < NUM_COLS; i++) {
           temp[i][j] = (byte)rand.nextInt(currentLevel);
         }
-        if (FrozenBubble.arcadeGame) {
+        if (arcade) {
           rowOffset = (rowOffset + 1) % 2;
         }
       }
@@ -221,25 +260,36 @@ public class LevelManager {
     return temp;
   }
 
-  public byte[] getNewRow(BubbleSprite[][] grid) {
-    byte[] tempRow = new byte[NUM_COLS];
-    Random rand    = new Random(randomSeed);
-
+  /**
+   * Generate the next row of bubbles to scroll onto the game field.
+   * @return The bubble colors of the row.  The array is reused by the
+   * next call, so it must be consumed before then.
+   */
+  public byte[] getNewRow() {
+    rowRandom.setSeed(randomSeed);
     for (int column = 0; column < NUM_COLS; column++) {
-      tempRow[column] = (byte)rand.nextInt(currentLevel);
+      newRow[column] = (byte)rowRandom.nextInt(currentLevel);
     }
 
-    if (FrozenBubble.arcadeGame) {
+    if (arcade) {
       rowOffset = (rowOffset + 1) % 2;
     }
-    randomSeed = rand.nextInt();
-    return tempRow;
+    randomSeed = rowRandom.nextInt();
+    return newRow;
   }
 
   public int getRowOffset() {
     return rowOffset;
   }
 
+  /**
+   * Obtain the seed the next random row or level is generated from.
+   * @return The random bubble generation seed.
+   */
+  public long getRandomSeed() {
+    return randomSeed;
+  }
+
   public byte[][] getCurrentLevel() {
     if (!randomMode) {
       if (currentLevel < levelList.size()) {
@@ -247,7 +297,7 @@ public class LevelManager {
       }
     }
     else {
-      if (FrozenBubble.arcadeGame) {
+      if (arcade) {
         rowOffset = VS_ROWS % 2;
       }
       return (byte[][])levelList.elementAt(0);
@@ -0,0 +1,489 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Batch tool checking the precomputed <code>HexGrid</code> neighbor
+ * tables against the neighbor rules they replaced.
+ * <p>Usage:
+ * <pre>
+ * java -cp bin/classes org.jfedor.frozenbubble.NeighborBenchmark
+ *      [-lookups N] [-seed N]
+ * </pre>
+ * <p>For both row offsets, i.e. puzzle games and both row parities of
+ * an arcade game, the neighbors of every grid location returned by
+ * <code>Bubble.getNeighbors()</code> are compared, in order, with the
+ * ones the game engine used to compute.  The neighbor sets of the
+ * computer opponent, which always uses row offset 0, are compared with
+ * the rules of <code>CollisionHelper</code>, which never propagates
+ * downwards into the last row, and of <code>AttackLanes</code>.  The
+ * report gives the number of mismatching grid locations, which must be
+ * zero, and the time per lookup of the table and of the former engine
+ * code.  Both timed lookups read the grid and the row offset held by
+ * this tool, so that only the lookups themselves differ.  The process
+ * exits with a non-zero status on any mismatch.
+ * @author Eric Fortin
+ */
+public class NeighborBenchmark implements FrozenCore.RowSource {
+
+  /* Default number of timed lookups */
+  public static final int DEFAULT_LOOKUPS = 10000000;
+
+  /* Number of timed passes over the lookups */
+  private static final int PASSES = 5;
+
+  private final Bubble     bubble;
+  private final Bubble[][] grid;
+  private final int[]      cells;
+  private final long       seed;
+
+  private int  rowOffset;
+  private int  checks;
+  private int  mismatches;
+  private long engineNanos;
+  private long tableNanos;
+
+  /* Accumulated results, so that the timed loops are not optimized out */
+  private long checksum;
+
+  /**
+   * NeighborBenchmark class constructor.  Every location of the grid
+   * holds a distinct bubble, so that comparing the bubbles returned by
+   * two neighbor lookups compares their grid locations.
+   * @param numLookups - the number of random grid locations to time.
+   * @param seed - the random grid location seed.
+   */
+  public NeighborBenchmark(int numLookups, long seed) {
+    byte[][]   level  = new byte[LevelManager.NUM_COLS]
+                                [LevelManager.NUM_ROWS - 1];
+    FrozenCore core;
+    Random     random = new Random(seed);
+
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS - 1; j++) {
+        level[i][j] = -1;
+      }
+    }
+    /*
+     * The launcher colors are drawn from the bubbles in play.
+     */
+    level[0][0] = 0;
+    core = new FrozenCore(level, this, null, LevelManager.NORMAL, false,
+                          false, false, seed, null);
+    grid = core.getGrid();
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        grid[i][j] = new Bubble(core, i << 5, j * 28, 0);
+      }
+    }
+    bubble = grid[0][0];
+
+    this.cells = new int[numLookups];
+    this.seed  = seed;
+    for (int n = 0; n < numLookups; n++) {
+      cells[n] = random.nextInt(HexGrid.NUM_CELLS);
+    }
+  }
+
+  public byte[] getNewRow() {
+    return null;
+  }
+
+  public int getRowOffset() {
+    return rowOffset;
+  }
+
+  /**
+   * Fill a buffer with the grid entries adjacent to a grid location,
+   * as the game engine did before the neighbor tables.
+   * @param position - the grid location, as
+   * <code>x + y * NUM_COLS</code>.
+   * @param list - the buffer to fill.
+   * @return The number of entries written to the buffer.
+   */
+  private int engineNeighbors(int position, Bubble[] list) {
+    int count = 0;
+    int px = position % LevelManager.NUM_COLS;
+    int py = position / LevelManager.NUM_COLS;
+
+    if (((py + rowOffset) % 2) == 0) {
+      if (px > 0) {
+        list[count++] = grid[px-1][py];
+      }
+
+      if (px < (LevelManager.NUM_COLS - 1)) {
+        list[count++] = grid[px+1][py];
+
+        if (py > 0) {
+          list[count++] = grid[px][py-1];
+          list[count++] = grid[px+1][py-1];
+        }
+
+        if (py < (LevelManager.NUM_ROWS - 1)) {
+          list[count++] = grid[px][py+1];
+          list[count++] = grid[px+1][py+1];
+        }
+      }
+      else {
+        if (py > 0) {
+          list[count++] = grid[px][py-1];
+        }
+
+        if (py < (LevelManager.NUM_ROWS - 1)) {
+          list[count++] = grid[px][py+1];
+        }
+      }
+    }
+    else {
+      if (px < (LevelManager.NUM_COLS - 1)) {
+        list[count++] = grid[px+1][py];
+      }
+
+      if (px > 0) {
+        list[count++] = grid[px-1][py];
+
+        if (py > 0) {
+          list[count++] = grid[px][py-1];
+          list[count++] = grid[px-1][py-1];
+        }
+
+        if (py < (LevelManager.NUM_ROWS - 1)) {
+          list[count++] = grid[px][py+1];
+          list[count++] = grid[px-1][py+1];
+        }
+      }
+      else {
+        if (py > 0) {
+          list[count++] = grid[px][py-1];
+        }
+
+        if (py < (LevelManager.NUM_ROWS - 1)) {
+          list[count++] = grid[px][py+1];
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Fill a buffer with the grid entries adjacent to a grid location
+   * from the neighbor table, as <code>Bubble.getNeighbors()</code>
+   * does.
+   * @param position - the grid location, as
+   * <code>x + y * NUM_COLS</code>.
+   * @param list - the buffer to fill.
+   * @return The number of entries written to the buffer.
+   */
+  private int tableLookup(int position, Bubble[] list) {
+    int table = HexGrid.tableIndex(position, rowOffset);
+    int first = table * HexGrid.MAX_NEIGHBORS;
+    int count = HexGrid.NUM_NEIGHBORS[table];
+
+    for (int i = 0; i < count; i++) {
+      int cell = HexGrid.NEIGHBORS[first + i];
+      list[i] = grid[cell % LevelManager.NUM_COLS]
+                    [cell / LevelManager.NUM_COLS];
+    }
+
+    return count;
+  }
+
+  /**
+   * Obtain the neighbor set of a grid location under the former
+   * <code>CollisionHelper.checkNeighbors()</code> rules.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @param set - the resulting neighbor cells, one bit per cell index.
+   */
+  private static void helperNeighbors(int x, int y, BitSet set) {
+    set.clear();
+
+    if (x > 0) {
+      setCell(set, x-1, y);
+    }
+
+    if (x < (LevelManager.NUM_COLS - 1)) {
+      setCell(set, x+1, y);
+    }
+
+    if (y > 0) {
+      setCell(set, x, y-1);
+      if (y % 2 == 0) {
+        if (x < (LevelManager.NUM_COLS - 1)) {
+          setCell(set, x+1, y-1);
+        }
+      }
+      else {
+        if (x > 0) {
+          setCell(set, x-1, y-1);
+        }
+      }
+    }
+
+    if (y < (LevelManager.NUM_ROWS - 2)) {
+      setCell(set, x, y+1);
+      if (y % 2 == 0) {
+        if (x < (LevelManager.NUM_COLS - 1)) {
+          setCell(set, x+1, y+1);
+        }
+      }
+      else {
+        if (x > 0) {
+          setCell(set, x-1, y+1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Obtain the neighbor set of a grid location under the former
+   * <code>AttackLanes.collides()</code> rules.
+   * @param x - the grid column.
+   * @param y - the grid row.
+   * @param set - the resulting neighbor cells, one bit per cell index.
+   */
+  private static void lanesNeighbors(int x, int y, BitSet set) {
+    int side = (y % 2) == 0 ? 1 : -1;
+
+    set.clear();
+    setCell(set, x - 1, y);
+    setCell(set, x + 1, y);
+    setCell(set, x, y - 1);
+    setCell(set, x + side, y - 1);
+    setCell(set, x, y + 1);
+    setCell(set, x + side, y + 1);
+  }
+
+  private static void setCell(BitSet set, int x, int y) {
+    if ((x >= 0) && (x < LevelManager.NUM_COLS) && (y >= 0) &&
+        (y < LevelManager.NUM_ROWS)) {
+      set.set(HexGrid.cellIndex(x, y));
+    }
+  }
+
+  /**
+   * Obtain the neighbor set of a grid location from the table for row
+   * offset 0, as the computer opponent reads it.
+   * @param cell - the cell index.
+   * @param lastRow - <code>false</code> to leave out the neighbors in
+   * the last row below the location, as <code>CollisionHelper</code>
+   * does.
+   * @param set - the resulting neighbor cells, one bit per cell index.
+   */
+  private static void tableNeighbors(int cell, boolean lastRow,
+                                     BitSet set) {
+    int table = HexGrid.tableIndex(cell, 0);
+    int first = table * HexGrid.MAX_NEIGHBORS;
+    int last  = first + HexGrid.NUM_NEIGHBORS[table];
+    int y     = cell / LevelManager.NUM_COLS;
+
+    set.clear();
+
+    for (int i = first; i < last; i++) {
+      int cellY = HexGrid.NEIGHBORS[i] / LevelManager.NUM_COLS;
+
+      if (lastRow || (cellY <= y) || (cellY < (LevelManager.NUM_ROWS - 1))) {
+        set.set(HexGrid.NEIGHBORS[i]);
+      }
+    }
+  }
+
+  private void mismatch(String rule, int cell) {
+    if (mismatches == 0) {
+      System.out.println(String.format(
+          "  first mismatch: %s, row offset %d, location (%d, %d)", rule,
+          rowOffset, cell % LevelManager.NUM_COLS,
+          cell / LevelManager.NUM_COLS));
+    }
+    mismatches++;
+  }
+
+  /**
+   * Compare the neighbors of every grid location under all the rules.
+   */
+  public void check() {
+    Bubble[] expected = new Bubble[HexGrid.MAX_NEIGHBORS];
+    Bubble[] actual   = new Bubble[HexGrid.MAX_NEIGHBORS];
+    BitSet   rules    = new BitSet(HexGrid.NUM_CELLS);
+    BitSet   table    = new BitSet(HexGrid.NUM_CELLS);
+
+    checks     = 0;
+    mismatches = 0;
+    for (rowOffset = 0; rowOffset < 2; rowOffset++) {
+      for (int cell = 0; cell < HexGrid.NUM_CELLS; cell++) {
+        int count = engineNeighbors(cell, expected);
+        boolean same = bubble.getNeighbors(cell, actual) == count;
+
+        for (int i = 0; same && (i < count); i++) {
+          same = expected[i] == actual[i];
+        }
+        if (!same) {
+          mismatch("Bubble.getNeighbors()", cell);
+        }
+        checks++;
+      }
+    }
+
+    rowOffset = 0;
+    for (int cell = 0; cell < HexGrid.NUM_CELLS; cell++) {
+      int x = cell % LevelManager.NUM_COLS;
+      int y = cell / LevelManager.NUM_COLS;
+
+      helperNeighbors(x, y, rules);
+      tableNeighbors(cell, false, table);
+      if (!table.equals(rules)) {
+        mismatch("CollisionHelper", cell);
+      }
+      lanesNeighbors(x, y, rules);
+      tableNeighbors(cell, true, table);
+      if (!table.equals(rules)) {
+        mismatch("AttackLanes", cell);
+      }
+      checks += 2;
+    }
+  }
+
+  /**
+   * Time both neighbor lookups over the random grid locations, with
+   * alternating row offsets.  The first pass warms up the JIT compiler
+   * and is not timed.  The table lookup is timed without going through
+   * the bubble and its game core, as the former engine code is.
+   */
+  public void time() {
+    Bubble[] list = new Bubble[HexGrid.MAX_NEIGHBORS];
+
+    engineNanos = 0;
+    tableNanos  = 0;
+    for (int pass = 0; pass <= PASSES; pass++) {
+      long start = System.nanoTime();
+      for (int n = 0; n < cells.length; n++) {
+        rowOffset = n & 1;
+        int count = engineNeighbors(cells[n], list);
+        checksum += count + list[count - 1].x;
+      }
+      long engine = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int n = 0; n < cells.length; n++) {
+        rowOffset = n & 1;
+        int count = tableLookup(cells[n], list);
+        checksum += count + list[count - 1].x;
+      }
+      long table = System.nanoTime() - start;
+
+      if (pass > 0) {
+        engineNanos += engine;
+        tableNanos  += table;
+      }
+    }
+  }
+
+  /**
+   * Get the number of neighbor checks that failed.
+   * @return The number of mismatching grid locations.
+   */
+  public int getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Print the benchmark results.
+   */
+  public void printReport() {
+    double lookups = (double) PASSES * cells.length;
+    double engine  = engineNanos / lookups;
+    double table   = tableNanos / lookups;
+
+    System.out.println(String.format("%d checks: %d mismatches",
+                                     checks, mismatches));
+    System.out.println(String.format("%d lookups, seed %d:",
+                                     cells.length, seed));
+    System.out.println(String.format(
+        "  %-18s %8.1f ns/lookup", "former engine", engine));
+    System.out.println(String.format(
+        "  %-18s %8.1f ns/lookup  %5.1fx", "HexGrid", table,
+        engine / table));
+    System.out.println(String.format("  checksum %d", checksum));
+  }
+
+  public static void main(String[] args) {
+    int  numLookups = DEFAULT_LOOKUPS;
+    long seed       = System.currentTimeMillis();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-lookups")) {
+        numLookups = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else {
+        System.err.println("usage: NeighborBenchmark [-lookups N] " +
+                           "[-seed N]");
+        System.exit(1);
+      }
+    }
+
+    NeighborBenchmark benchmark = new NeighborBenchmark(numLookups, seed);
+    benchmark.check();
+    benchmark.time();
+    benchmark.printReport();
+    if (benchmark.getMismatches() != 0) {
+      System.exit(1);
+    }
+  }
+}
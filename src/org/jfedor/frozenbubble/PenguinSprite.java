@@ -53,11 +53,9 @@
 package org.jfedor.frozenbubble;
 
 import java.util.Random;
-import java.util.Vector;
 
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.os.Bundle;
 
 public class PenguinSprite extends Sprite {
   public final static int PENGUIN_HEIGHT = 45;
@@ -108,18 +106,12 @@ public class PenguinSprite extends Sprite {
   }
 
   @Override
-  public void saveState(Bundle map, Vector<Sprite> saved_sprites, int id) {
-    if (getSavedId() != -1) {
-      return;
-    }
-    super.saveState(map, saved_sprites, id);
-    map.putInt(String.format("%d-%d-currentPenguin", id, getSavedId()),
-               currentPenguin);
-    map.putInt(String.format("%d-%d-count", id, getSavedId()), count);
-    map.putInt(String.format("%d-%d-finalState", id, getSavedId()),
-               finalState);
-    map.putInt(String.format("%d-%d-nextPosition", id, getSavedId()),
-               nextPosition);
+  protected void saveRecord(GameSnapshot out) {
+    super.saveRecord(out);
+    out.putByte(currentPenguin);
+    out.putInt(count);
+    out.putByte(finalState);
+    out.putByte(nextPosition);
   }
 
   public int getTypeId() {
@@ -0,0 +1,241 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * A retained image of the static part of a player's game field: the
+ * background, the compressor and the bubbles fixed in the grid.
+ * <p>The image is only redrawn when the game it was drawn from changes
+ * its grid, compressor or color mode, so that each frame only has to
+ * draw it and the moving sprites over it.  Each player has its own
+ * layer, which covers the part of the background behind its game.
+ * @author Eric Fortin
+ */
+final class PlayfieldLayer {
+  private final BmpWrap background;
+  private final BmpWrap backButton;
+  private final int     backX;
+  private final int     backY;
+
+  /*
+   * The part of the surface the layer covers, the display scale, and
+   * the surface position of the background.
+   */
+  private final Rect area = new Rect();
+  private double     scale;
+  private int        backgroundX;
+  private int        backgroundY;
+
+  private final BmpWrap image = new BmpWrap(-1);
+  private Canvas        canvas;
+  private int           numUpdates;
+
+  /*
+   * The game and the game state the image was drawn from.
+   */
+  private boolean valid;
+  private Object  owner;
+  private int     gridVersion;
+  private int     gridOffset;
+  private int     steps;
+  private boolean colorMode;
+
+  /**
+   * Create the layer of a player's game field.
+   * @param background - the background image.
+   * @param backButton - the back button image, drawn over the
+   * background.
+   * @param backX - the horizontal position of the back button.
+   * @param backY - the vertical position of the back button.
+   */
+  PlayfieldLayer(BmpWrap background, BmpWrap backButton,
+                 int backX, int backY) {
+    this.background = background;
+    this.backButton = backButton;
+    this.backX      = backX;
+    this.backY      = backY;
+  }
+
+  /**
+   * Start redrawing the image, and draw the background on it.
+   * @return The canvas to draw the rest of the image on, whose origin is
+   * the top left corner of the layer, or <code>null</code> if the layer
+   * covers no part of the surface.
+   */
+  Canvas beginUpdate() {
+    if (area.isEmpty()) {
+      return null;
+    }
+    if (image.bmp == null) {
+      Bitmap.Config config = background.bmp.getConfig();
+      if (config == null) {
+        config = Bitmap.Config.ARGB_8888;
+      }
+      image.bmp = Bitmap.createBitmap(area.width(), area.height(), config);
+      canvas    = new Canvas(image.bmp);
+    }
+    drawBackground(canvas, -area.left, -area.top);
+    numUpdates++;
+    return canvas;
+  }
+
+  private void drawBackground(Canvas c, int dx, int dy) {
+    Sprite.drawImage(background, 0, 0, c,
+                     scale, backgroundX + dx, backgroundY + dy);
+    Sprite.drawImage(backButton, backX, backY, c,
+                     scale, backgroundX + dx, backgroundY + dy);
+  }
+
+  /**
+   * Finish redrawing the image.
+   * @param owner - the game the image was drawn from.
+   * @param gridVersion - the version of the grid sprites.
+   * @param gridOffset - the offset the grid was drawn at.
+   * @param steps - the number of compressor steps.
+   * @param colorMode - the color mode the bubbles were drawn in.
+   */
+  void endUpdate(Object owner, int gridVersion, int gridOffset, int steps,
+                 boolean colorMode) {
+    this.owner       = owner;
+    this.gridVersion = gridVersion;
+    this.gridOffset  = gridOffset;
+    this.steps       = steps;
+    this.colorMode   = colorMode;
+    valid = true;
+  }
+
+  int getLeft() {
+    return area.left;
+  }
+
+  /**
+   * Obtain the number of times the image was redrawn.
+   * @return The number of image updates.
+   */
+  int getNumUpdates() {
+    return numUpdates;
+  }
+
+  int getTop() {
+    return area.top;
+  }
+
+  /**
+   * Check whether the image was drawn from the current game state.
+   * @return <code>true</code> if the image can be drawn as is.
+   */
+  boolean isCurrent(Object owner, int gridVersion, int gridOffset,
+                    int steps, boolean colorMode) {
+    return valid && (this.owner == owner) &&
+           (this.gridVersion == gridVersion) &&
+           (this.gridOffset == gridOffset) && (this.steps == steps) &&
+           (this.colorMode == colorMode);
+  }
+
+  /**
+   * Draw the image on the surface.
+   */
+  void paint(Canvas c) {
+    Sprite.drawImage(image, 0, 0, c, 1d, area.left, area.top);
+  }
+
+  /**
+   * Draw the part of the background the layer covers directly on the
+   * surface, for the frames that are not drawn over the image.
+   */
+  void paintBackground(Canvas c) {
+    c.save(Canvas.CLIP_SAVE_FLAG);
+    c.clipRect(area);
+    drawBackground(c, 0, 0);
+    c.restore();
+  }
+
+  /**
+   * Release the image, which is created again when next needed.
+   */
+  void recycle() {
+    if (image.bmp != null) {
+      image.bmp.recycle();
+      image.bmp = null;
+      canvas    = null;
+    }
+    valid = false;
+  }
+
+  /**
+   * Set the part of the surface the layer covers.  The image is drawn
+   * again, as the scaled bitmaps it is drawn from were replaced.
+   * @param area - the surface area, clipped to the surface.
+   * @param scale - the display scale.
+   * @param backgroundX - the horizontal surface position of the
+   * background.
+   * @param backgroundY - the vertical surface position of the
+   * background.
+   */
+  void setBounds(Rect area, double scale, int backgroundX,
+                 int backgroundY) {
+    if ((area.width() != this.area.width()) ||
+        (area.height() != this.area.height())) {
+      recycle();
+    }
+    this.area.set(area);
+    this.scale       = scale;
+    this.backgroundX = backgroundX;
+    this.backgroundY = backgroundY;
+    valid = false;
+  }
+}
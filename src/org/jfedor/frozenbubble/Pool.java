@@ -0,0 +1,152 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+package org.jfedor.frozenbubble;
+
+/**
+ * A pool of recyclable objects.
+ * <p>Objects which leave play are recycled into the pool, and obtained
+ * again from it instead of being allocated, so that a game runs with a
+ * flat heap.  The pool does not create objects itself: when it is
+ * empty, <code>obtain()</code> returns <code>null</code> and the caller
+ * allocates a new object.  Either way the object is counted as live
+ * until it is recycled.
+ * <p>The pool counts how many objects were obtained from it (hits),
+ * how many had to be allocated (misses), and the peak number of live
+ * objects.
+ * @author Eric Fortin
+ */
+public class Pool<T> {
+  private final Object[] free;
+  private int numFree;
+
+  private int hits;
+  private int live;
+  private int misses;
+  private int peakLive;
+
+  /**
+   * Create an object pool.
+   * @param capacity - the maximum number of objects held by the pool.
+   * Objects recycled into a full pool are dropped.
+   */
+  public Pool(int capacity) {
+    free = new Object[capacity];
+  }
+
+  /**
+   * Drop all the objects held by the pool, and restart the counters.
+   * @param numLive - the number of live objects that were not obtained
+   * from the pool, e.g. the objects restored from a saved game.
+   */
+  public void clear(int numLive) {
+    for (int i = 0; i < numFree; i++) {
+      free[i] = null;
+    }
+    numFree  = 0;
+    hits     = 0;
+    misses   = 0;
+    live     = numLive;
+    peakLive = numLive;
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getLive() {
+    return live;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+
+  public int getPeakLive() {
+    return peakLive;
+  }
+
+  /**
+   * Obtain a recycled object from the pool.  The object still holds
+   * its state from when it was recycled, and must be reinitialized.
+   * @return A recycled object, or <code>null</code> if the pool is
+   * empty, in which case a new object must be allocated.
+   */
+  @SuppressWarnings("unchecked")
+  public T obtain() {
+    live++;
+    if (live > peakLive) {
+      peakLive = live;
+    }
+
+    if (numFree == 0) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    T object = (T) free[--numFree];
+    free[numFree] = null;
+    return object;
+  }
+
+  /**
+   * Recycle an object which has left play.  The caller must not use
+   * the object afterwards.
+   * @param object - the object to recycle.
+   */
+  public void recycle(T object) {
+    live--;
+    if (numFree < free.length) {
+      free[numFree++] = object;
+    }
+  }
+}
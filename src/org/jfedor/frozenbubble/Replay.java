@@ -0,0 +1,365 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Headless replay of a game recorded by <code>ReplayLog</code>.
+ * <p>Usage:
+ * <pre>
+ * java -cp bin/classes org.jfedor.frozenbubble.Replay
+ *      [-check] [-repeat N] [-frame N]... FrozenBubble.replay
+ * </pre>
+ * <p>The game is played again on a game simulation core without any
+ * renderer, as fast as the CPU allows, and the grid hash is checked
+ * against the recording each time a launched bubble comes to rest.
+ * With <code>-check</code>, a <code>GridInvariantChecker</code> also
+ * checks the bubble accounting after every grid mutation, which
+ * locates the first mutation a desynchronization comes from.  With
+ * <code>-repeat</code>, the replay is timed over several runs, to
+ * benchmark the game engine on a recorded game.  Each
+ * <code>-frame</code> prints the game as it was drawn at that frame.
+ * @author Eric Fortin
+ */
+public class Replay {
+  private final ReplayLog log;
+  private final byte[]    data;
+  private final boolean   checkInvariants;
+
+  private ReplayLog  input;
+  private FrozenCore core;
+  private int        frame;
+  private int        shots;
+  private int        numMismatches;
+  private int        firstMismatch;
+
+  /**
+   * Prepare the replay of a recorded game.
+   * @param data - the replay log.
+   * @param checkInvariants - <code>true</code> to check the bubble
+   * accounting after every grid mutation.
+   * @throws IllegalArgumentException if the data is not a replay log.
+   */
+  public Replay(byte[] data, boolean checkInvariants) {
+    this.data            = data;
+    this.log             = new ReplayLog(data);
+    this.checkInvariants = checkInvariants;
+    restart();
+  }
+
+  /**
+   * Start the game over from its first frame.
+   */
+  public void restart() {
+    Bubble.setCollisionThreshold(log.collision);
+    input         = new ReplayLog(data);
+    core          = new FrozenCore(log.level,
+                                   new LevelManager(log.rowSeed,
+                                                    log.levelIndex,
+                                                    log.rowOffset,
+                                                    log.arcade),
+                                   null, log.numColors, log.arcade, false,
+                                   false, log.seed, null);
+    frame         = 0;
+    shots         = 0;
+    numMismatches = 0;
+    firstMismatch = -1;
+    if (checkInvariants) {
+      core.setInvariantChecker(new GridInvariantChecker());
+    }
+  }
+
+  /**
+   * Play the next recorded frame, after checking the grid hashes
+   * recorded since the previous one.
+   * @return <code>false</code> at the end of the recording.
+   */
+  public boolean step() {
+    int entry = input.next();
+    while (entry == ReplayLog.SHOT) {
+      shots++;
+      if ((core.getShotCount() != shots) ||
+          (core.getGridHash() != input.shotHash)) {
+        numMismatches++;
+        if (firstMismatch == -1) {
+          firstMismatch = frame;
+        }
+      }
+      entry = input.next();
+    }
+    if (entry == ReplayLog.END) {
+      return false;
+    }
+    core.setCompressor(input.isSet(ReplayLog.COMPRESSOR));
+    core.setDontRushMe(input.isSet(ReplayLog.DONT_RUSH_ME));
+    core.play(input.isSet(ReplayLog.KEY_LEFT),
+              input.isSet(ReplayLog.KEY_RIGHT),
+              input.isSet(ReplayLog.KEY_FIRE),
+              input.isSet(ReplayLog.KEY_SWAP),
+              input.trackballDx,
+              input.isSet(ReplayLog.TOUCH_FIRE),
+              input.touchX,
+              input.touchY,
+              input.isSet(ReplayLog.ATS_TOUCH_FIRE),
+              input.atsTouchDx,
+              input.isSet(ReplayLog.AIM_THEN_SHOOT));
+    frame++;
+    return true;
+  }
+
+  /**
+   * Play the whole recording from the current frame on.
+   */
+  public void run() {
+    while (step()) {
+    }
+  }
+
+  /**
+   * Play the game up to a frame, starting over if that frame was
+   * already played.
+   * @param target - the number of frames to have played.
+   * @return <code>false</code> if the recording ends before that frame.
+   */
+  public boolean seek(int target) {
+    if (target < frame) {
+      restart();
+    }
+    while (frame < target) {
+      if (!step()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public FrozenCore getCore() {
+    return core;
+  }
+
+  public int getFrame() {
+    return frame;
+  }
+
+  /**
+   * Obtain the first detected divergence from the recording.
+   * @return A description of the first divergence, or
+   * <code>null</code> if none was detected.
+   */
+  public String getFailure() {
+    GridInvariantChecker checker = core.getInvariantChecker();
+    if (checker != null) {
+      String failure = checker.getFailure();
+      if (failure != null) {
+        return failure;
+      }
+    }
+    if (firstMismatch != -1) {
+      return numMismatches + " grid hash mismatches, the first at frame " +
+             firstMismatch;
+    }
+    return null;
+  }
+
+  public int getShots() {
+    return shots;
+  }
+
+  /**
+   * Draw the game state as text: the bubble colors of the arcade
+   * scrolling row and of the grid rows, indented by half a bubble like
+   * on screen, and the bubbles in motion.
+   * @param core - the game simulation core.
+   * @return The text picture.
+   */
+  public static String render(FrozenCore core) {
+    StringBuilder picture = new StringBuilder();
+    picture.append("tick ").append(core.getTick());
+    picture.append("  launcher ");
+    picture.append(String.format("%.2f", core.getPosition()));
+    picture.append("  colors ").append(core.getCurrentColor());
+    picture.append(' ').append(core.getNextColor());
+    picture.append("  compressor ").append(core.steps);
+    picture.append("  shots ").append(core.getShotCount()).append('\n');
+    Bubble[] row = core.getScrolling();
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      if (row[i] != null) {
+        appendRow(picture, row);
+        break;
+      }
+    }
+    row = new Bubble[LevelManager.NUM_COLS];
+    for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        row[i] = core.bubblePlay[i][j];
+      }
+      appendRow(picture, row);
+    }
+    appendBubble(picture, "moving", core.getMovingBubble());
+    for (int i = 0; i < core.falling.size(); i++) {
+      appendBubble(picture, "falling", core.falling.elementAt(i));
+    }
+    for (int i = 0; i < core.jumping.size(); i++) {
+      appendBubble(picture, "jumping", core.jumping.elementAt(i));
+    }
+    for (int i = 0; i < core.goingUp.size(); i++) {
+      appendBubble(picture, "rising", core.goingUp.elementAt(i));
+    }
+    return picture.toString();
+  }
+
+  private static void appendRow(StringBuilder picture, Bubble[] row) {
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      if (row[i] != null) {
+        if (((row[i].getX() - 190) % 32) != 0) {
+          picture.append(' ');
+        }
+        break;
+      }
+    }
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      picture.append(row[i] != null ? (char) ('0' + row[i].getColor()) :
+                                      '.');
+      picture.append(' ');
+    }
+    picture.append('\n');
+  }
+
+  private static void appendBubble(StringBuilder picture, String what,
+                                   Bubble bubble) {
+    if (bubble != null) {
+      picture.append(what).append(' ').append(bubble.getColor());
+      picture.append(" at ").append(bubble.getX());
+      picture.append(',').append(bubble.getY()).append('\n');
+    }
+  }
+
+  private static byte[] readFile(String name) throws IOException {
+    File file = new File(name);
+    byte[] data = new byte[(int) file.length()];
+    FileInputStream fis = new FileInputStream(file);
+    try {
+      int read = 0;
+      while (read < data.length) {
+        int count = fis.read(data, read, data.length - read);
+        if (count < 0) {
+          throw new IOException("Truncated file " + name);
+        }
+        read += count;
+      }
+    } finally {
+      fis.close();
+    }
+    return data;
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean checkInvariants = false;
+    int     numRuns         = 1;
+    int[]   frames          = new int[args.length];
+    int     numFrames       = 0;
+    String  name            = null;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-check")) {
+        checkInvariants = true;
+      }
+      else if (args[i].equals("-repeat")) {
+        numRuns = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-frame")) {
+        frames[numFrames++] = Integer.parseInt(args[++i]);
+      }
+      else {
+        name = args[i];
+      }
+    }
+
+    if (name == null) {
+      System.err.println("usage: Replay [-check] [-repeat N] " +
+                         "[-frame N]... file");
+      System.exit(1);
+    }
+
+    Replay replay = new Replay(readFile(name), checkInvariants);
+    long start = System.nanoTime();
+    for (int run = 0; run < numRuns; run++) {
+      replay.restart();
+      replay.run();
+    }
+    double seconds = (System.nanoTime() - start) / 1000000000.;
+    String failure = replay.getFailure();
+
+    System.out.println(String.format(
+        "%s: %d frames, %d shots, %s",
+        name, replay.getFrame(), replay.getShots(),
+        failure == null ? "in sync" : failure));
+    System.out.println(String.format(
+        "  %d runs in %.3f s, %.0f frames/s",
+        numRuns, seconds,
+        seconds > 0. ? numRuns * replay.getFrame() / seconds : 0.));
+
+    for (int i = 0; i < numFrames; i++) {
+      if (replay.seek(frames[i])) {
+        System.out.println("frame " + frames[i]);
+        System.out.print(render(replay.getCore()));
+      }
+      else {
+        System.out.println("frame " + frames[i] + " is past the end");
+      }
+    }
+  }
+}
@@ -0,0 +1,409 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A recording of the player inputs of a game, from which
+ * <code>Replay</code> plays the game again exactly.
+ * <p>The log starts with everything the game simulation core depends
+ * on besides the inputs: the level, the seeds of the core and of the
+ * arcade rows, the number of colors and the collision threshold.  It
+ * is followed by the inputs passed to <code>FrozenGame.play()</code>
+ * each frame, delta encoded: a run of frames with the same inputs is
+ * written once, as its length, a mask of the inputs that changed since
+ * the previous run and the new values of these inputs.  Each time a
+ * launched bubble comes to rest, the hash of the bubble grid is
+ * written, so that a replay can check that it did not diverge.
+ * <p>Recording a frame does not allocate, as long as the log buffer
+ * does not need to grow.
+ * @author Eric Fortin
+ */
+public class ReplayLog {
+  /*
+   * "FBR1" - identifies a replay log, after the snapshot header.
+   */
+  public static final int MAGIC   = 0x46425231;
+  public static final int VERSION = 1;
+
+  public static final String REPLAY_FILE = "FrozenBubble.replay";
+
+  /*
+   * Entries returned by next().
+   */
+  public static final int END   = 0;
+  public static final int FRAME = 1;
+  public static final int SHOT  = 2;
+
+  /*
+   * Input flags.
+   */
+  static final int KEY_LEFT       = 1;
+  static final int KEY_RIGHT      = 2;
+  static final int KEY_FIRE       = 4;
+  static final int KEY_SWAP       = 8;
+  static final int TOUCH_FIRE     = 16;
+  static final int ATS_TOUCH_FIRE = 32;
+  static final int AIM_THEN_SHOOT = 64;
+  static final int COMPRESSOR     = 128;
+  static final int DONT_RUSH_ME   = 256;
+
+  /*
+   * Mask bits of the inputs that changed since the previous run.
+   */
+  private static final int CHANGED_FLAGS     = 1;
+  private static final int CHANGED_TRACKBALL = 2;
+  private static final int CHANGED_TOUCH_X   = 4;
+  private static final int CHANGED_TOUCH_Y   = 8;
+  private static final int CHANGED_ATS_DX    = 16;
+
+  private static final int MAX_RUN = Short.MAX_VALUE;
+
+  private final GameSnapshot log;
+
+  /*
+   * The recorded game.
+   */
+  boolean  arcade;
+  int      numColors;
+  int      levelIndex;
+  int      collision;
+  int      rowOffset;
+  long     rowSeed;
+  long     seed;
+  byte[][] level;
+
+  /*
+   * The inputs of the current run of frames, and the grid hash of the
+   * last shot read.
+   */
+  int    flags;
+  double trackballDx;
+  double touchX;
+  double touchY;
+  double atsTouchDx;
+  long   shotHash;
+
+  /*
+   * The inputs written by the last run, and the number of frames of
+   * the current run, still to be written when recording, or still to
+   * be played when reading.
+   */
+  private int    lastFlags;
+  private double lastTrackballDx;
+  private double lastTouchX;
+  private double lastTouchY;
+  private double lastAtsTouchDx;
+  private int    runLength;
+
+  /**
+   * Start recording a game.
+   * @param level - the level the game starts with.
+   * @param levelIndex - the level index, or the number of colors of a
+   * random level.
+   * @param rowSeed - the seed of the next random row.
+   * @param rowOffset - the row parity offset of the next random row.
+   * @param numColors - the number of bubble colors.
+   * @param arcade - <code>true</code> for an arcade game.
+   * @param seed - the seed of the game simulation core.
+   */
+  public ReplayLog(byte[][] level, int levelIndex, long rowSeed,
+                   int rowOffset, int numColors, boolean arcade,
+                   long seed) {
+    this.level      = level;
+    this.levelIndex = levelIndex;
+    this.rowSeed    = rowSeed;
+    this.rowOffset  = rowOffset;
+    this.numColors  = numColors;
+    this.arcade     = arcade;
+    this.seed       = seed;
+    this.collision  = Bubble.getCollisionThreshold();
+
+    log = new GameSnapshot();
+    log.putInt(MAGIC);
+    log.putShort(VERSION);
+    log.putBoolean(arcade);
+    log.putByte(numColors);
+    log.putShort(levelIndex);
+    log.putByte(collision);
+    log.putByte(rowOffset);
+    log.putLong(rowSeed);
+    log.putLong(seed);
+    for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        log.putByte((level != null) ? level[i][j] : -1);
+      }
+    }
+  }
+
+  /**
+   * Open a recorded game to replay it.
+   * @param data - the log, as obtained from <code>toByteArray()</code>.
+   * @throws IllegalArgumentException if the data is not a replay log,
+   * or was written by a newer version of the format.
+   */
+  public ReplayLog(byte[] data) {
+    log = new GameSnapshot(data);
+    if (log.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a replay log");
+    }
+    int version = log.getShort();
+    if (version > VERSION) {
+      throw new IllegalArgumentException("Unsupported replay version " +
+                                         version);
+    }
+    arcade     = log.getBoolean();
+    numColors  = log.getByte();
+    levelIndex = log.getShort();
+    collision  = log.getByte();
+    rowOffset  = log.getByte();
+    rowSeed    = log.getLong();
+    seed       = log.getLong();
+    level      = new byte[LevelManager.NUM_COLS][LevelManager.NUM_ROWS - 1];
+    for (int j = 0; j < (LevelManager.NUM_ROWS - 1); j++) {
+      for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+        level[i][j] = (byte) log.getByte();
+      }
+    }
+  }
+
+  /**
+   * Record the inputs of a frame, before it is played.
+   */
+  public void recordFrame(boolean keyLeft, boolean keyRight,
+                          boolean keyFire, boolean keySwap,
+                          double trackballDx, boolean touchFire,
+                          double touchX, double touchY,
+                          boolean atsTouchFire, double atsTouchDx,
+                          boolean aimThenShoot, boolean compressor,
+                          boolean dontRushMe) {
+    int newFlags = 0;
+    if (keyLeft)      newFlags |= KEY_LEFT;
+    if (keyRight)     newFlags |= KEY_RIGHT;
+    if (keyFire)      newFlags |= KEY_FIRE;
+    if (keySwap)      newFlags |= KEY_SWAP;
+    if (touchFire)    newFlags |= TOUCH_FIRE;
+    if (atsTouchFire) newFlags |= ATS_TOUCH_FIRE;
+    if (aimThenShoot) newFlags |= AIM_THEN_SHOOT;
+    if (compressor)   newFlags |= COMPRESSOR;
+    if (dontRushMe)   newFlags |= DONT_RUSH_ME;
+
+    if ((runLength > 0) && (runLength < MAX_RUN) &&
+        (newFlags == flags) && same(trackballDx, this.trackballDx) &&
+        same(touchX, this.touchX) && same(touchY, this.touchY) &&
+        same(atsTouchDx, this.atsTouchDx)) {
+      runLength++;
+      return;
+    }
+
+    flush();
+    this.flags       = newFlags;
+    this.trackballDx = trackballDx;
+    this.touchX      = touchX;
+    this.touchY      = touchY;
+    this.atsTouchDx  = atsTouchDx;
+    runLength        = 1;
+  }
+
+  /**
+   * Record the grid hash after a launched bubble came to rest.
+   * @param gridHash - the grid hash.
+   */
+  public void recordShot(long gridHash) {
+    flush();
+    log.putShort(0);
+    log.putLong(gridHash);
+  }
+
+  /*
+   * Write the current run of frames.
+   */
+  private void flush() {
+    if (runLength == 0) {
+      return;
+    }
+    int mask = 0;
+    if (flags != lastFlags) {
+      mask |= CHANGED_FLAGS;
+    }
+    if (!same(trackballDx, lastTrackballDx)) {
+      mask |= CHANGED_TRACKBALL;
+    }
+    if (!same(touchX, lastTouchX)) {
+      mask |= CHANGED_TOUCH_X;
+    }
+    if (!same(touchY, lastTouchY)) {
+      mask |= CHANGED_TOUCH_Y;
+    }
+    if (!same(atsTouchDx, lastAtsTouchDx)) {
+      mask |= CHANGED_ATS_DX;
+    }
+    log.putShort(runLength);
+    log.putByte(mask);
+    if ((mask & CHANGED_FLAGS) != 0) {
+      log.putShort(flags);
+    }
+    if ((mask & CHANGED_TRACKBALL) != 0) {
+      log.putDouble(trackballDx);
+    }
+    if ((mask & CHANGED_TOUCH_X) != 0) {
+      log.putDouble(touchX);
+    }
+    if ((mask & CHANGED_TOUCH_Y) != 0) {
+      log.putDouble(touchY);
+    }
+    if ((mask & CHANGED_ATS_DX) != 0) {
+      log.putDouble(atsTouchDx);
+    }
+    lastFlags       = flags;
+    lastTrackballDx = trackballDx;
+    lastTouchX      = touchX;
+    lastTouchY      = touchY;
+    lastAtsTouchDx  = atsTouchDx;
+    runLength       = 0;
+  }
+
+  /*
+   * Compare inputs bit for bit, so that a replay gets the exact values.
+   */
+  private static boolean same(double a, double b) {
+    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+  }
+
+  /**
+   * Obtain the log recorded so far.
+   * @return The log bytes.
+   */
+  public byte[] toByteArray() {
+    flush();
+    return log.toByteArray();
+  }
+
+  /**
+   * Read the next entry of a recorded game.
+   * @return <code>FRAME</code> if the inputs of the next frame are
+   * available, <code>SHOT</code> if the grid hash of the last shot is
+   * available, or <code>END</code> at the end of the log.
+   */
+  public int next() {
+    if (runLength > 0) {
+      runLength--;
+      return FRAME;
+    }
+    if (!log.hasRemaining()) {
+      return END;
+    }
+    int length = log.getShort();
+    if (length == 0) {
+      shotHash = log.getLong();
+      return SHOT;
+    }
+    int mask = log.getByte();
+    if ((mask & CHANGED_FLAGS) != 0) {
+      flags = log.getShort();
+    }
+    if ((mask & CHANGED_TRACKBALL) != 0) {
+      trackballDx = log.getDouble();
+    }
+    if ((mask & CHANGED_TOUCH_X) != 0) {
+      touchX = log.getDouble();
+    }
+    if ((mask & CHANGED_TOUCH_Y) != 0) {
+      touchY = log.getDouble();
+    }
+    if ((mask & CHANGED_ATS_DX) != 0) {
+      atsTouchDx = log.getDouble();
+    }
+    runLength = length - 1;
+    return FRAME;
+  }
+
+  /**
+   * Check whether an input flag is set for the current frame.
+   * @param flag - the input flag, e.g. <code>KEY_FIRE</code>.
+   * @return <code>true</code> if the flag is set.
+   */
+  boolean isSet(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  /**
+   * Write a log to a file on a background thread, so that the caller
+   * never waits for the file system.
+   * @param data - the log bytes.
+   * @param file - the file to write to.
+   */
+  public static void save(final byte[] data, final File file) {
+    new Thread("ReplayLog") {
+      @Override
+      public void run() {
+        try {
+          FileOutputStream fos = new FileOutputStream(file);
+          try {
+            fos.write(data);
+          } finally {
+            fos.close();
+          }
+        } catch (IOException ioe) {
+          /*
+           * Error occurred while writing to file.
+           */
+          ioe.printStackTrace();
+        }
+      }
+    }.start();
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+/**
+ * A bounded ring buffer of puzzle bubble grid snapshots, one taken each
+ * time the grid settles after a shot, so that shots can be taken back.
+ * <p>The snapshots are stored in a single preallocated array, so taking
+ * and restoring them never allocates memory.  When the buffer is full,
+ * the oldest snapshot is overwritten.
+ * @author Eric Fortin
+ */
+final class RewindBuffer {
+  /*
+   * The maximum number of snapshots held.
+   */
+  static final int CAPACITY = 500;
+
+  /*
+   * Snapshot record layout: the grid bubble colors, column by column,
+   * followed by the compressor steps, the number of bubbles fixed since
+   * the compressor last moved, and the current and next launch bubble
+   * colors.
+   */
+  private static final int NUM_CELLS   = LevelManager.NUM_COLS *
+                                         LevelManager.NUM_ROWS;
+  private static final int STEPS       = NUM_CELLS;
+  private static final int FIXED       = NUM_CELLS + 1;
+  private static final int CURRENT     = NUM_CELLS + 2;
+  private static final int NEXT        = NUM_CELLS + 3;
+  static final int         RECORD_SIZE = NUM_CELLS + 4;
+
+  private final byte[]   records = new byte[CAPACITY * RECORD_SIZE];
+  private final byte[][] grid    =
+      new byte[LevelManager.NUM_COLS][LevelManager.NUM_ROWS];
+  private int first;
+  private int count;
+
+  /**
+   * Discard all the snapshots.
+   */
+  void clear() {
+    first = 0;
+    count = 0;
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  int size() {
+    return count;
+  }
+
+  /**
+   * Take back the last shot, by dropping the newest snapshot and
+   * restoring the one before it.
+   * <p>The bubble grid is rebuilt with <code>setGrid()</code>, which
+   * also recounts the bubbles of each color.
+   * @param core - the game simulation core to restore.
+   * @return <code>false</code> if there is no shot to take back.
+   */
+  boolean rewind(FrozenCore core) {
+    if (count < 2) {
+      return false;
+    }
+    count--;
+    int offset = ((first + count - 1) % CAPACITY) * RECORD_SIZE;
+    int index  = offset;
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        grid[i][j] = records[index++];
+      }
+    }
+    core.setGrid(grid, records[offset + STEPS]);
+    core.fixedBubbles = records[offset + FIXED];
+    core.setLaunchBubbleColors(records[offset + CURRENT],
+                               records[offset + NEXT],
+                               core.getNewNextColor());
+    core.hurryTime  = 0;
+    core.blinkDelay = 0;
+    return true;
+  }
+
+  /**
+   * Take a snapshot of the settled bubble grid.
+   * @param core - the game simulation core, which must not have a
+   * bubble in motion.
+   */
+  void save(FrozenCore core) {
+    int slot;
+    if (count < CAPACITY) {
+      slot = (first + count) % CAPACITY;
+      count++;
+    }
+    else {
+      slot  = first;
+      first = (first + 1) % CAPACITY;
+    }
+    int offset = slot * RECORD_SIZE;
+    int index  = offset;
+    for (int i = 0; i < LevelManager.NUM_COLS; i++) {
+      for (int j = 0; j < LevelManager.NUM_ROWS; j++) {
+        Bubble bubble = core.bubblePlay[i][j];
+        records[index++] = (byte)((bubble == null) ? -1 : bubble.color);
+      }
+    }
+    records[offset + STEPS]   = (byte)core.getCompressorSteps();
+    records[offset + FIXED]   = (byte)core.fixedBubbles;
+    records[offset + CURRENT] = (byte)core.currentColor;
+    records[offset + NEXT]    = (byte)core.nextColor;
+  }
+}
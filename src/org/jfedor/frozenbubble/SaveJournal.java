@@ -0,0 +1,407 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.jfedor.frozenbubble.GameView.GameThread;
+
+import com.efortin.frozenbubble.VirtualInput;
+
+import android.os.Bundle;
+
+/**
+ * The crash-safe autosave of a game in progress.
+ * <p>The saved game file is a checkpoint of the whole game, saved at
+ * the start of each level and every few shots.  Each shot played
+ * since is appended to a journal file as a compact record of the shot
+ * and of the resulting changes to the bubble grid, so that a crash
+ * loses at most the shot in play.
+ * <p>The files are written by a background thread, so that saving
+ * never blocks the caller.  A checkpoint is written to a temporary
+ * file, synced to storage, and renamed over the previous one, so that
+ * there always is a complete checkpoint.  The journal starts with the
+ * checksum of the checkpoint it follows, and each record with the
+ * length and checksum of its payload.  The records appended during a
+ * batch are synced together, and a journal record torn by a crash is
+ * dropped along with the records following it.
+ * @author Eric Fortin
+ */
+public class SaveJournal implements Runnable {
+  public static final String JOURNAL = "FrozenBubble.journal";
+
+  /*
+   * Key of the journal records to replay in the restored game Bundle.
+   */
+  public static final String RECORDS_KEY = "SaveJournal-records";
+
+  /*
+   * "FBJ1" - identifies a journal.
+   */
+  private static final int JOURNAL_MAGIC = 0x46424a31;
+
+  /*
+   * A record larger than this is taken as a torn record length.
+   */
+  private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+  private static final String CHECKPOINT_TEMP = FrozenBubble.SAVE_GAME +
+                                                ".tmp";
+
+  /*
+   * A pending write.  A checkpoint discards the journal records that
+   * precede it.
+   */
+  private static class Entry {
+    final boolean checkpoint;
+    final byte[]  data;
+
+    Entry(boolean checkpoint, byte[] data) {
+      this.checkpoint = checkpoint;
+      this.data       = data;
+    }
+  }
+
+  private final File   checkpointFile;
+  private final File   checkpointTemp;
+  private final File   journalFile;
+  private final Bundle config;
+  private final Vector<Entry> pending = new Vector<Entry>();
+  private final Vector<Entry> batch   = new Vector<Entry>();
+
+  private boolean          closed;
+  private FileOutputStream journalStream;
+  private DataOutputStream journal;
+
+  /**
+   * Start the background thread that saves a game.
+   * @param dir - the directory of the saved game files.
+   * @param config - the game configuration, saved along with each
+   * checkpoint.
+   */
+  public SaveJournal(File dir, Bundle config) {
+    this.checkpointFile = new File(dir, FrozenBubble.SAVE_GAME);
+    this.checkpointTemp = new File(dir, CHECKPOINT_TEMP);
+    this.journalFile    = new File(dir, JOURNAL);
+    this.config         = config;
+    Thread writer = new Thread(this, "SaveJournal");
+    writer.setPriority(Thread.MIN_PRIORITY);
+    writer.start();
+  }
+
+  /**
+   * Save a checkpoint of the game, which starts a new journal.
+   * @param snapshot - the game snapshot.  It must not be modified
+   * afterwards.
+   */
+  public void checkpoint(byte[] snapshot) {
+    post(new Entry(true, snapshot));
+  }
+
+  /**
+   * Append a record to the journal of the last checkpoint.
+   * @param record - the record.  It must not be modified afterwards.
+   */
+  public void append(byte[] record) {
+    post(new Entry(false, record));
+  }
+
+  /**
+   * Stop the background thread once the pending writes are done.  This
+   * does not wait for them.
+   */
+  public void close() {
+    synchronized(pending) {
+      closed = true;
+      pending.notify();
+    }
+  }
+
+  private void post(Entry entry) {
+    synchronized(pending) {
+      if (!closed) {
+        pending.addElement(entry);
+        pending.notify();
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    boolean done = false;
+    while (!done) {
+      synchronized(pending) {
+        while (pending.isEmpty() && !closed) {
+          try {
+            pending.wait();
+          } catch (InterruptedException e) {}
+        }
+        batch.addAll(pending);
+        pending.clear();
+        done = closed;
+      }
+      writeBatch();
+      batch.clear();
+    }
+    closeJournal();
+  }
+
+  private void writeBatch() {
+    int first = 0;
+    for (int i = batch.size() - 1; i >= 0; i--) {
+      if (batch.elementAt(i).checkpoint) {
+        writeCheckpoint(batch.elementAt(i).data);
+        first = i + 1;
+        break;
+      }
+    }
+    if ((journal == null) || (first == batch.size())) {
+      return;
+    }
+    try {
+      CRC32 crc = new CRC32();
+      for (int i = first; i < batch.size(); i++) {
+        byte[] record = batch.elementAt(i).data;
+        crc.reset();
+        crc.update(record);
+        journal.writeInt(record.length);
+        journal.writeInt((int) crc.getValue());
+        journal.write(record);
+      }
+      journal.flush();
+      journalStream.getFD().sync();
+    } catch (IOException ioe) {
+      /*
+       * Error occurred while writing to file.  Stop journaling until
+       * the next checkpoint.
+       */
+      ioe.printStackTrace();
+      closeJournal();
+    }
+  }
+
+  private void writeCheckpoint(byte[] snapshot) {
+    closeJournal();
+    byte[] file = encode(config, snapshot);
+    try {
+      FileOutputStream fos = new FileOutputStream(checkpointTemp);
+      try {
+        fos.write(file);
+        fos.flush();
+        fos.getFD().sync();
+      } finally {
+        fos.close();
+      }
+      if (!checkpointTemp.renameTo(checkpointFile)) {
+        throw new IOException("Cannot rename " + checkpointTemp);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(file);
+      journalStream = new FileOutputStream(journalFile);
+      journal = new DataOutputStream(journalStream);
+      journal.writeInt(JOURNAL_MAGIC);
+      journal.writeInt((int) crc.getValue());
+      journal.flush();
+      journalStream.getFD().sync();
+    } catch (FileNotFoundException fnfe) {
+      /*
+       * Cannot create file, so the game could not be saved.
+       */
+      fnfe.printStackTrace();
+      closeJournal();
+    } catch (IOException ioe) {
+      /*
+       * Error occurred while writing to file.
+       */
+      ioe.printStackTrace();
+      closeJournal();
+    }
+  }
+
+  private void closeJournal() {
+    if (journalStream != null) {
+      try {
+        journalStream.close();
+      } catch (IOException ioe) {
+        ioe.printStackTrace();
+      }
+    }
+    journalStream = null;
+    journal       = null;
+  }
+
+  /**
+   * Encode the contents of a saved game file.
+   * <p>The file is a <code>GameSnapshot</code> holding the game
+   * configuration, followed by the game snapshot.
+   * @param config - the game configuration.
+   * @param game - the game snapshot, or <code>null</code>.
+   * @return The contents of the file.
+   */
+  public static byte[] encode(Bundle config, byte[] game) {
+    GameSnapshot out = new GameSnapshot();
+    out.putBoolean(config.getBoolean("arcadeGame", false));
+    out.putInt(config.getInt("gameLocale", FrozenBubble.LOCALE_LOCAL));
+    out.putInt(config.getInt("myPlayerId", VirtualInput.PLAYER1));
+    out.putInt(config.getInt("numPlayers", 0));
+    out.putInt(config.getInt("opponentId", FrozenBubble.CPU));
+    out.putBoolean(game != null);
+    if (game != null) {
+      out.putBytes(game);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Read the game configuration and game snapshot of a saved game
+   * file, along with the records of its journal.
+   * @param array - the contents of the saved game file.
+   * @param journalFile - the journal file.
+   * @return The saved game Bundle, or <code>null</code> if the file is
+   * damaged.
+   */
+  public static Bundle restore(byte[] array, File journalFile) {
+    try {
+      GameSnapshot in = new GameSnapshot(array);
+      Bundle inState = new Bundle();
+      inState.putBoolean("arcadeGame", in.getBoolean());
+      inState.putInt    ("gameLocale", in.getInt());
+      inState.putInt    ("myPlayerId", in.getInt());
+      inState.putInt    ("numPlayers", in.getInt());
+      inState.putInt    ("opponentId", in.getInt());
+      if (in.getBoolean()) {
+        inState.putByteArray(GameThread.SNAPSHOT_KEY, in.getBytes());
+        byte[] records = readJournal(array, journalFile);
+        if (records != null) {
+          inState.putByteArray(RECORDS_KEY, records);
+        }
+      }
+      return inState;
+    } catch (IllegalArgumentException iae) {
+      iae.printStackTrace();
+    } catch (BufferUnderflowException bue) {
+      bue.printStackTrace();
+    }
+    return null;
+  }
+
+  /*
+   * Read the intact records of the journal of a checkpoint, as a
+   * GameSnapshot holding their number followed by each record.
+   */
+  private static byte[] readJournal(byte[] checkpoint, File journalFile) {
+    Vector<byte[]> records = new Vector<byte[]>();
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(journalFile)));
+      try {
+        CRC32 crc = new CRC32();
+        crc.update(checkpoint);
+        if ((in.readInt() != JOURNAL_MAGIC) ||
+            (in.readInt() != (int) crc.getValue())) {
+          /*
+           * The journal follows another checkpoint.
+           */
+          return null;
+        }
+        while (true) {
+          int length   = in.readInt();
+          int checksum = in.readInt();
+          if ((length < 0) || (length > MAX_RECORD_SIZE)) {
+            break;
+          }
+          byte[] record = new byte[length];
+          in.readFully(record);
+          crc.reset();
+          crc.update(record);
+          if (checksum != (int) crc.getValue()) {
+            break;
+          }
+          records.addElement(record);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException fnfe) {
+      /*
+       * No shot was played since the checkpoint.
+       */
+    } catch (EOFException eofe) {
+      /*
+       * The end of the journal, or a record torn by a crash.
+       */
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+    }
+    if (records.isEmpty()) {
+      return null;
+    }
+    GameSnapshot out = new GameSnapshot();
+    out.putInt(records.size());
+    for (int i = 0; i < records.size(); i++) {
+      out.putBytes(records.elementAt(i));
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ *                 [[ Frozen-Bubble ]]
+ *
+ * Copyright (c) 2000-2003 Guillaume Cottenceau.
+ * Java sourcecode - Copyright (c) 2003 Glenn Sanson.
+ * Additional source - Copyright (c) 2013 Eric Fortin.
+ *
+ * This code is distributed under the GNU General Public License
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2 or 3, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to:
+ * Free Software Foundation, Inc.
+ * 675 Mass Ave
+ * Cambridge, MA 02139, USA
+ *
+ * Artwork:
+ *    Alexis Younes <73lab at free.fr>
+ *      (everything but the bubbles)
+ *    Amaury Amblard-Ladurantie <amaury at linuxfr.org>
+ *      (the bubbles)
+ *
+ * Soundtrack:
+ *    Matthias Le Bidan <matthias.le_bidan at caramail.com>
+ *      (the three musics and all the sound effects)
+ *
+ * Design & Programming:
+ *    Guillaume Cottenceau <guillaume.cottenceau at free.fr>
+ *      (design and manage the project, whole Perl sourcecode)
+ *
+ * Java version:
+ *    Glenn Sanson <glenn.sanson at free.fr>
+ *      (whole Java sourcecode, including JIGA classes
+ *             http://glenn.sanson.free.fr/jiga/)
+ *
+ * Android port:
+ *    Pawel Aleksander Fedorynski <pfedor@fuw.edu.pl>
+ *    Eric Fortin <videogameboy76 at yahoo.com>
+ *    Copyright (c) Google Inc.
+ *
+ *          [[ http://glenn.sanson.free.fr/fb/ ]]
+ *          [[ http://www.frozen-bubble.org/   ]]
+ */
+
+package org.jfedor.frozenbubble;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+
+import org.jfedor.frozenbubble.FrozenCore.gameEnum;
+
+/**
+ * Batch tool measuring the latency and size of the binary game
+ * snapshots, and checking that a restored game saves the same snapshot.
+ * <p>Usage, on an Android device where the game is installed, as the
+ * game sprites need the Android graphics classes:
+ * <pre>
+ * adb shell 'CLASSPATH=$(pm path org.jfedor.frozenbubble | cut -d: -f2)
+ *            app_process / org.jfedor.frozenbubble.SnapshotBenchmark
+ *            [-states N] [-rounds N] [-warmup N] [-seed N]'
+ * </pre>
+ * <p>Headless puzzle and arcade games are played with random aiming and
+ * launches for a random number of frames, to obtain random mid-game
+ * states.  The games seed their own random number generators, so the
+ * states differ from one run to the next.  Each state is saved with
+ * <code>FrozenGame.saveState()</code> and restored into a new game with
+ * <code>FrozenGame.restoreState()</code>, as the game view does, and the
+ * restored game is saved again.  The report gives the time per save and
+ * per restore, excluding the warm up rounds, and the snapshot sizes.
+ * The process exits with a non-zero status if a restored game does not
+ * save the same snapshot bytes.
+ * @author Eric Fortin
+ */
+public class SnapshotBenchmark {
+
+  /* Default numbers of game states, and of passes over them */
+  public static final int DEFAULT_STATES = 300;
+  public static final int DEFAULT_ROUNDS = 10;
+  public static final int DEFAULT_WARMUP = 100;
+
+  /* Most frames played to reach a game state */
+  private static final int MAX_FRAMES = 2000;
+
+  /* One frame out of FIRE_RATE launches a bubble, if possible */
+  private static final int FIRE_RATE = 40;
+
+  private final boolean         arcade;
+  private final long            seed;
+  private final Random          random;
+  private final FrozenGame[]    games;
+  private final FrozenGame[]    restored;
+  private final Vector<BmpWrap> imageList = new Vector<BmpWrap>();
+  private final GameSnapshot    snapshot  = new GameSnapshot();
+  private final SoundManager    soundManager;
+
+  private final BmpWrap[] bubbles         = new BmpWrap[8];
+  private final BmpWrap[] bubblesBlind    = new BmpWrap[8];
+  private final BmpWrap[] frozenBubbles   = new BmpWrap[8];
+  private final BmpWrap[] targetedBubbles = new BmpWrap[6];
+  private final BmpWrap   bubbleBlink;
+  private final BmpWrap   gameWon;
+  private final BmpWrap   gameLost;
+  private final BmpWrap   gamePaused;
+  private final BmpWrap   hurry;
+  private final BmpWrap   pauseButton;
+  private final BmpWrap   playButton;
+  private final BmpWrap   penguins;
+  private final BmpWrap   compressorHead;
+  private final BmpWrap   compressor;
+
+  private int  rounds;
+  private int  timedRounds;
+  private int  mismatches;
+  private long saveNanos;
+  private long restoreNanos;
+  private long totalBytes;
+  private int  maxBytes;
+
+  /**
+   * SnapshotBenchmark class constructor.  The game mode is read by the
+   * games from <code>FrozenBubble.arcadeGame</code>, which must be set
+   * first.
+   * @param numStates - the number of random game states.
+   * @param seed - the seed of the levels and of the player inputs.
+   */
+  public SnapshotBenchmark(int numStates, long seed) {
+    this.arcade   = FrozenBubble.arcadeGame;
+    this.seed     = seed;
+    this.random   = new Random(seed);
+    this.games    = new FrozenGame[numStates];
+    this.restored = new FrozenGame[numStates];
+
+    /*
+     * The images are never drawn, only their identifiers are saved.
+     */
+    for (int i = 0; i < bubbles.length; i++) {
+      bubbles[i]       = newBmpWrap();
+      bubblesBlind[i]  = newBmpWrap();
+      frozenBubbles[i] = newBmpWrap();
+    }
+    for (int i = 0; i < targetedBubbles.length; i++) {
+      targetedBubbles[i] = newBmpWrap();
+    }
+    bubbleBlink    = newBmpWrap();
+    gameWon        = newBmpWrap();
+    gameLost       = newBmpWrap();
+    gamePaused     = newBmpWrap();
+    hurry          = newBmpWrap();
+    pauseButton    = newBmpWrap();
+    playButton     = newBmpWrap();
+    penguins       = newBmpWrap();
+    compressorHead = newBmpWrap();
+    compressor     = newBmpWrap();
+    /*
+     * A sound manager with no sounds loaded plays nothing.
+     */
+    soundManager   = new SoundManager(null);
+
+    for (int n = 0; n < numStates; n++) {
+      games[n] = newState();
+    }
+  }
+
+  private BmpWrap newBmpWrap() {
+    BmpWrap image = new BmpWrap(imageList.size());
+    imageList.addElement(image);
+    return image;
+  }
+
+  private FrozenGame newGame(long levelSeed) {
+    LevelManager levels = new LevelManager(levelSeed, LevelManager.NORMAL,
+                                           arcade);
+    return new FrozenGame(bubbles, bubblesBlind, frozenBubbles,
+                          targetedBubbles, bubbleBlink, gameWon, gameLost,
+                          gamePaused, hurry, pauseButton, playButton,
+                          penguins, compressorHead, compressor, null, null,
+                          soundManager, levels, null, null, null);
+  }
+
+  /**
+   * Play a new game for a random number of frames, starting over if it
+   * ends before then.
+   * @return The game in play.
+   */
+  private FrozenGame newState() {
+    while (true) {
+      FrozenGame game   = newGame(random.nextLong());
+      int        frames = random.nextInt(MAX_FRAMES);
+      gameEnum   result = gameEnum.PLAYING;
+
+      for (int i = 0; (i < frames) && (result == gameEnum.PLAYING); i++) {
+        int aim = random.nextInt(3);
+
+        result = game.play(aim == 0, aim == 2,
+                           random.nextInt(FIRE_RATE) == 0, false, 0.,
+                           false, 0., 0., false, 0.);
+      }
+      if (result == gameEnum.PLAYING) {
+        return game;
+      }
+    }
+  }
+
+  /**
+   * Save and restore every game state, and check the snapshots of the
+   * restored games.
+   * @param timed - <code>false</code> for a warm up round, which is not
+   * counted in the report.
+   */
+  public void run(boolean timed) {
+    /*
+     * Create the games to restore into first, so that their creation
+     * does not trigger garbage collections while a save is timed.
+     */
+    for (int n = 0; n < games.length; n++) {
+      restored[n] = newGame(0);
+    }
+    System.gc();
+
+    for (int n = 0; n < games.length; n++) {
+      long start = System.nanoTime();
+      snapshot.begin();
+      games[n].saveState(snapshot);
+      byte[] saved = snapshot.toByteArray();
+      long save = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      restored[n].restoreState(new GameSnapshot(saved), imageList);
+      long restore = System.nanoTime() - start;
+
+      snapshot.begin();
+      restored[n].saveState(snapshot);
+      if (!Arrays.equals(saved, snapshot.toByteArray())) {
+        if (mismatches == 0) {
+          System.out.println(String.format(
+              "  first mismatch: round %d, state %d", rounds, n));
+        }
+        mismatches++;
+      }
+
+      if (timed) {
+        saveNanos    += save;
+        restoreNanos += restore;
+        totalBytes   += saved.length;
+        maxBytes      = Math.max(maxBytes, saved.length);
+      }
+    }
+    rounds++;
+    if (timed) {
+      timedRounds++;
+    }
+  }
+
+  /**
+   * Get the number of restored games that saved other snapshot bytes.
+   * @return The number of mismatching snapshots over all the rounds.
+   */
+  public int getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Print the benchmark results.
+   */
+  public void printReport() {
+    double snapshots = (double) timedRounds * games.length;
+
+    System.out.println(String.format("%s games, %d states, seed %d: " +
+                                     "%d mismatches",
+                                     arcade ? "arcade" : "puzzle",
+                                     games.length, seed, mismatches));
+    if (snapshots > 0) {
+      System.out.println(String.format(
+          "  save %8.1f us  restore %8.1f us  size %6.0f bytes, " +
+          "at most %d bytes", saveNanos / snapshots / 1000.,
+          restoreNanos / snapshots / 1000., totalBytes / snapshots,
+          maxBytes));
+    }
+  }
+
+  public static void main(String[] args) {
+    int  numStates = DEFAULT_STATES;
+    int  numRounds = DEFAULT_ROUNDS;
+    int  warmup    = DEFAULT_WARMUP;
+    long seed      = System.currentTimeMillis();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-states")) {
+        numStates = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-rounds")) {
+        numRounds = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-warmup")) {
+        warmup = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-seed")) {
+        seed = Long.parseLong(args[++i]);
+      }
+      else {
+        System.err.println("usage: SnapshotBenchmark [-states N] " +
+                           "[-rounds N] [-warmup N] [-seed N]");
+        System.exit(1);
+      }
+    }
+
+    int mismatches = 0;
+    for (int mode = 0; mode < 2; mode++) {
+      FrozenBubble.arcadeGame = mode == 1;
+      SnapshotBenchmark benchmark = new SnapshotBenchmark(numStates, seed);
+      for (int i = 0; i < warmup + numRounds; i++) {
+        benchmark.run(i >= warmup);
+      }
+      benchmark.printReport();
+      mismatches += benchmark.getMismatches();
+    }
+    if (mismatches != 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -58,33 +58,65 @@ import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.Region;
-import android.os.Bundle;
 
 public abstract class Sprite {
   public static int TYPE_BUBBLE = 1;
   public static int TYPE_IMAGE = 2;
   public static int TYPE_LAUNCH_BUBBLE = 3;
   public static int TYPE_PENGUIN = 4;
+  public static int TYPE_MALUS_BAR = 5;
 
   private Rect spriteArea;
   private int saved_id;
 
+  /*
+   * Number of bitmaps drawn so far, to count the draw calls per frame.
+   */
+  static int numDraws;
+
+  /*
+   * Links of the game screen layer the sprite is displayed in, or -1 if
+   * the sprite is not displayed.
+   */
+  Sprite prev;
+  Sprite next;
+  int    layer = -1;
+
   public Sprite(Rect spriteArea) {
     this.spriteArea = spriteArea;
     saved_id = -1;
   }
 
-  public void saveState(Bundle map, Vector<Sprite> saved_sprites, int id) {
+  /**
+   * Write a reference to the sprite to a snapshot.  The first time the
+   * sprite is saved, its record index is followed by its type and its
+   * record, otherwise the index alone refers to the record written
+   * earlier.
+   * @param out - the snapshot to write to.
+   * @param savedSprites - the sprites saved so far.
+   */
+  public final void saveState(GameSnapshot out, Vector<Sprite> savedSprites) {
     if (saved_id != -1) {
+      out.putShort(saved_id);
       return;
     }
-    saved_id = saved_sprites.size();
-    saved_sprites.addElement(this);
-    map.putInt(String.format("%d-%d-left", id, saved_id), spriteArea.left);
-    map.putInt(String.format("%d-%d-right", id, saved_id), spriteArea.right);
-    map.putInt(String.format("%d-%d-top", id, saved_id), spriteArea.top);
-    map.putInt(String.format("%d-%d-bottom", id, saved_id), spriteArea.bottom);
-    map.putInt(String.format("%d-%d-type", id, saved_id), getTypeId());
+    saved_id = savedSprites.size();
+    savedSprites.addElement(this);
+    out.putShort(saved_id);
+    out.putByte(getTypeId());
+    saveRecord(out);
+  }
+
+  /**
+   * Write the sprite record to a snapshot.  Sprites holding more state
+   * than their area append it to the record.
+   * @param out - the snapshot to write to.
+   */
+  protected void saveRecord(GameSnapshot out) {
+    out.putShort(spriteArea.left);
+    out.putShort(spriteArea.top);
+    out.putShort(spriteArea.right);
+    out.putShort(spriteArea.bottom);
   }
 
   public final int getSavedId() {
@@ -95,6 +127,14 @@ public abstract class Sprite {
     saved_id = -1;
   }
 
+  /**
+   * Obtain the number of bitmaps drawn so far.
+   * @return The number of draw calls, which wraps around.
+   */
+  public static int getNumDraws() {
+    return numDraws;
+  }
+
   public abstract int getTypeId();
 
   public void changeSpriteArea(Rect newArea) {
@@ -102,17 +142,14 @@ public abstract class Sprite {
   }
 
   public final void relativeMove(Point p) {
-    spriteArea = new Rect(spriteArea);
     spriteArea.offset(p.x, p.y);
   }
 
   public final void relativeMove(int x, int y) {
-    spriteArea = new Rect(spriteArea);
     spriteArea.offset(x, y);
   }
 
   public final void absoluteMove(Point p) {
-    spriteArea = new Rect(spriteArea);
     spriteArea.offsetTo(p.x, p.y);
   }
 
@@ -126,12 +163,14 @@ public abstract class Sprite {
 
   public static void drawImage(BmpWrap image, int x, int y,
                                Canvas c, double scale, int dx, int dy) {
+    numDraws++;
     c.drawBitmap(image.bmp, (float)(x * scale + dx), (float)(y * scale + dy),
                  null);
   }
 
   public static void drawImageClipped(BmpWrap image, int x, int y, Rect clipr,
                                       Canvas c, double scale, int dx, int dy) {
+    numDraws++;
     c.save(Canvas.CLIP_SAVE_FLAG);
     c.clipRect((float)(clipr.left * scale + dx),
                (float)(clipr.top * scale + dy),
@@ -144,4 +183,14 @@ public abstract class Sprite {
   }
 
   public abstract void paint(Canvas c, double scale, int dx, int dy);
+
+  /**
+   * Draw the sprite part way through a simulation step.  Sprites that
+   * do not move with the simulation simply draw their current state.
+   * @param alpha - the elapsed fraction of the simulation step, from 0
+   * to 1.
+   */
+  public void paint(Canvas c, double scale, int dx, int dy, float alpha) {
+    paint(c, scale, dx, dy);
+  }
 }